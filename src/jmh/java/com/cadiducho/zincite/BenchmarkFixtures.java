@@ -0,0 +1,141 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.*;
+import com.cadiducho.telegrambotapi.util.MoshiProvider;
+import com.cadiducho.zincite.api.command.BotCommand;
+import com.cadiducho.zincite.api.command.CallbackListener;
+import com.cadiducho.zincite.api.command.CallbackParams;
+import com.cadiducho.zincite.api.command.CommandContext;
+import com.cadiducho.zincite.api.command.CommandInfo;
+import com.cadiducho.zincite.api.command.ListenTo;
+import com.cadiducho.zincite.api.command.args.Argument;
+import com.cadiducho.zincite.dispatch.DispatchMode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Datos comunes de los benchmarks: un bot de Telegram sin red, comandos vacíos y updates ya decodificadas
+ */
+final class BenchmarkFixtures {
+
+    static final String BOT_USERNAME = "ZinciteBot";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Silenciar los logs de cada comando, que si no dominarían la medida
+     */
+    static void quietLogs() {
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+
+    /**
+     * Crear un ZinciteBot que no llama a Telegram ni lee de la consola, con las updates procesadas en el mismo hilo
+     * @return El bot, sin arrancar
+     */
+    static ZinciteBot newZinciteBot() {
+        try {
+            return new ZinciteBot(ZinciteConfig.builder()
+                    .token("0:benchmark")
+                    .logsPath(Files.createTempDirectory("zincite-jmh").toString())
+                    .modulesPath(Files.createTempDirectory("zincite-jmh-modules").toString())
+                    .enableConsoleReader(false)
+                    .dispatchMode(DispatchMode.INLINE)
+                    .floodUserLimit(0)
+                    .telegramBotFactory(StubTelegramBot::new)
+                    .build());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    static Update textUpdate(int updateId, String text) {
+        return update("{\"update_id\":" + updateId + ",\"message\":{\"message_id\":" + updateId + ",\"date\":" + Instant.now().getEpochSecond() + ","
+                + "\"chat\":{\"id\":42,\"type\":\"private\",\"first_name\":\"Bench\"},"
+                + "\"from\":{\"id\":42,\"is_bot\":false,\"first_name\":\"Bench\",\"username\":\"bench\"},"
+                + "\"text\":\"" + text + "\"}}");
+    }
+
+    static Update callbackUpdate(int updateId, String data) {
+        return update("{\"update_id\":" + updateId + ",\"callback_query\":{\"id\":\"" + updateId + "\",\"chat_instance\":\"1\","
+                + "\"from\":{\"id\":42,\"is_bot\":false,\"first_name\":\"Bench\",\"username\":\"bench\"},"
+                + "\"data\":\"" + data + "\"}}");
+    }
+
+    static CallbackQuery callbackQuery(String data) {
+        return callbackUpdate(1, data).getCallbackQuery();
+    }
+
+    private static Update update(String json) {
+        try {
+            return MoshiProvider.getMoshi().adapter(Update.class).fromJson(json);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * TelegramBot que responde sin salir a la red
+     */
+    static final class StubTelegramBot extends TelegramBot {
+        private final User me;
+
+        StubTelegramBot(String token) {
+            super(token);
+            try {
+                me = MoshiProvider.getMoshi().adapter(User.class)
+                        .fromJson("{\"id\":1,\"is_bot\":true,\"first_name\":\"Zincite\",\"username\":\"" + BOT_USERNAME + "\"}");
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public User getMe() {
+            return me;
+        }
+    }
+
+    @CommandInfo(aliases = {"/echo", "/eco"}, arguments = {
+            @Argument(name = "veces", type = Integer.class, description = "Veces a repetir"),
+            @Argument(name = "texto", type = String.class, required = false, description = "Texto a repetir")
+    })
+    public static final class EchoCommand implements BotCommand {
+        volatile Object last;
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
+            last = context.getLastArguments();
+        }
+    }
+
+    @CommandInfo(aliases = "buenos días bot")
+    public static final class PhraseCommand implements BotCommand {
+        volatile Object last;
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
+            last = chat;
+        }
+    }
+
+    public static final class VoteListener implements CallbackListener {
+        volatile Object last;
+
+        @ListenTo("refresh")
+        public void onRefresh(CallbackQuery query) {
+            last = query;
+        }
+
+        @ListenTo("vote:{pollId}:{option}")
+        public void onVote(CallbackQuery query, CallbackParams params) {
+            last = params;
+        }
+    }
+}
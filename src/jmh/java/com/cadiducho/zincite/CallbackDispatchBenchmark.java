@@ -0,0 +1,54 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.CallbackQuery;
+import com.cadiducho.zincite.api.command.CommandManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Despacho de CallbackQuery a los métodos {@link com.cadiducho.zincite.api.command.ListenTo}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CallbackDispatchBenchmark {
+
+    private CommandManager commandManager;
+    private CallbackQuery literal;
+    private CallbackQuery literalWithData;
+    private CallbackQuery templated;
+    private CallbackQuery miss;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.quietLogs();
+        commandManager = new CommandManager(null);
+        commandManager.registerCallbackQueryListener(new BenchmarkFixtures.VoteListener());
+
+        literal = BenchmarkFixtures.callbackQuery("refresh");
+        literalWithData = BenchmarkFixtures.callbackQuery("refresh#12345");
+        templated = BenchmarkFixtures.callbackQuery("vote:8812:si");
+        miss = BenchmarkFixtures.callbackQuery("unknown:1");
+    }
+
+    @Benchmark
+    public void literal() {
+        commandManager.onCallbackQuery(literal);
+    }
+
+    @Benchmark
+    public void literalWithData() {
+        commandManager.onCallbackQuery(literalWithData);
+    }
+
+    @Benchmark
+    public void templated() {
+        commandManager.onCallbackQuery(templated);
+    }
+
+    @Benchmark
+    public void miss() {
+        commandManager.onCallbackQuery(miss);
+    }
+}
@@ -0,0 +1,111 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.zincite.api.command.CommandContext;
+import com.cadiducho.zincite.api.command.args.Argument;
+import com.cadiducho.zincite.api.command.args.ArgumentSchema;
+import com.cadiducho.zincite.api.command.args.CommandParseException;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.annotation.Annotation;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creación de un {@link CommandContext} y obtención de sus argumentos ya transformados
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandContextBenchmark {
+
+    private static final String TEXT = "/cmd 42 true 1/10/2018 hola qué tal";
+    private static final int ARGUMENTS_START = 5;
+
+    private List<Argument> arguments;
+    private ArgumentSchema schema;
+    private String[] split;
+
+    @Setup
+    public void setUp() {
+        arguments = Arrays.asList(
+                new BenchmarkArgument("veces", Integer.class),
+                new BenchmarkArgument("activo", Boolean.class),
+                new BenchmarkArgument("fecha", LocalDate.class),
+                new BenchmarkArgument("texto", String.class));
+        schema = ArgumentSchema.compile(arguments);
+        split = TEXT.substring(ARGUMENTS_START).split(" ");
+    }
+
+    @Benchmark
+    public CommandContext construct() {
+        return new CommandContext(schema, TEXT, ARGUMENTS_START);
+    }
+
+    @Benchmark
+    public CommandContext constructLegacy() {
+        return new CommandContext(arguments, split);
+    }
+
+    @Benchmark
+    public Object typedGet() throws CommandParseException {
+        CommandContext context = new CommandContext(schema, TEXT, ARGUMENTS_START);
+        Integer veces = context.<Integer>get("veces").orElse(0);
+        LocalDate fecha = context.<LocalDate>get("fecha").orElse(null);
+        return veces + fecha.getDayOfMonth();
+    }
+
+    @Benchmark
+    public Object repeatedGet() throws CommandParseException {
+        CommandContext context = new CommandContext(schema, TEXT, ARGUMENTS_START);
+        LocalDate fecha = null;
+        for (int i = 0; i < 4; i++) {
+            fecha = context.<LocalDate>get("fecha").orElse(null);
+        }
+        return fecha;
+    }
+
+    @Benchmark
+    public Object lastArguments() {
+        return new CommandContext(schema, TEXT, ARGUMENTS_START).getLastArguments();
+    }
+
+    /**
+     * Implementación mínima de {@link Argument} para declarar argumentos fuera de una anotación
+     */
+    private static final class BenchmarkArgument implements Argument {
+        private final String name;
+        private final Class<?> type;
+
+        private BenchmarkArgument(String name, Class<?> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public Class<?> type() {
+            return type;
+        }
+
+        @Override
+        public boolean required() {
+            return true;
+        }
+
+        @Override
+        public String description() {
+            return name;
+        }
+
+        @Override
+        public Class<? extends Annotation> annotationType() {
+            return Argument.class;
+        }
+    }
+}
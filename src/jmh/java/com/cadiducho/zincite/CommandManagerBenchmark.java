@@ -0,0 +1,60 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.zincite.api.command.CommandManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enrutado y ejecución de comandos de texto en {@link CommandManager#onCmd(TelegramBot, Update)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandManagerBenchmark {
+
+    private TelegramBot bot;
+    private CommandManager commandManager;
+
+    private Update hit;
+    private Update miss;
+    private Update usernameSuffix;
+    private Update wholePhrase;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.quietLogs();
+        bot = new BenchmarkFixtures.StubTelegramBot("0:benchmark");
+        commandManager = new CommandManager(null);
+        commandManager.register(new BenchmarkFixtures.EchoCommand());
+        commandManager.register(new BenchmarkFixtures.PhraseCommand());
+
+        hit = BenchmarkFixtures.textUpdate(1, "/echo 3 hola mundo");
+        miss = BenchmarkFixtures.textUpdate(2, "esto es un mensaje normal de un grupo cualquiera");
+        usernameSuffix = BenchmarkFixtures.textUpdate(3, "/eco@" + BenchmarkFixtures.BOT_USERNAME + " 3 hola mundo");
+        wholePhrase = BenchmarkFixtures.textUpdate(4, "Buenos días bot");
+    }
+
+    @Benchmark
+    public boolean hit() throws TelegramException {
+        return commandManager.onCmd(bot, hit);
+    }
+
+    @Benchmark
+    public boolean miss() throws TelegramException {
+        return commandManager.onCmd(bot, miss);
+    }
+
+    @Benchmark
+    public boolean usernameSuffix() throws TelegramException {
+        return commandManager.onCmd(bot, usernameSuffix);
+    }
+
+    @Benchmark
+    public boolean wholePhrase() throws TelegramException {
+        return commandManager.onCmd(bot, wholePhrase);
+    }
+}
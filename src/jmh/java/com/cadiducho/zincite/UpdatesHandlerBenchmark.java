@@ -0,0 +1,49 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.Update;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Procesado completo de una update en {@link UpdatesHandler#handleUpdate(Update)}, con el despacho en el mismo hilo
+ * y un TelegramBot sin red
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UpdatesHandlerBenchmark {
+
+    private UpdatesHandler updatesHandler;
+    private Update command;
+    private Update message;
+    private Update callback;
+
+    @Setup
+    public void setUp() {
+        ZinciteBot zincite = BenchmarkFixtures.newZinciteBot();
+        BenchmarkFixtures.quietLogs();
+        zincite.getCommandManager().register(new BenchmarkFixtures.EchoCommand());
+        zincite.getCommandManager().registerCallbackQueryListener(new BenchmarkFixtures.VoteListener());
+        updatesHandler = new UpdatesHandler(zincite.getTelegramBot(), zincite);
+
+        command = BenchmarkFixtures.textUpdate(1, "/echo 3 hola mundo");
+        message = BenchmarkFixtures.textUpdate(2, "esto es un mensaje normal de un grupo cualquiera");
+        callback = BenchmarkFixtures.callbackUpdate(3, "vote:8812:si");
+    }
+
+    @Benchmark
+    public void command() {
+        updatesHandler.handleUpdate(command);
+    }
+
+    @Benchmark
+    public void message() {
+        updatesHandler.handleUpdate(message);
+    }
+
+    @Benchmark
+    public void callback() {
+        updatesHandler.handleUpdate(callback);
+    }
+}
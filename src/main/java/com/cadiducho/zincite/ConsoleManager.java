@@ -2,8 +2,17 @@ package com.cadiducho.zincite;
 
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.*;
 import java.util.logging.Formatter;
 
@@ -59,11 +68,22 @@ public final class ConsoleManager {
     }
 
     public void startFile(String logfile) {
+        startFile(logfile, 8192, 1000, LogOverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Start logging to a file without blocking the threads that log
+     * @param logfile The file, where <code>%D</code> is replaced by the date to rotate it daily
+     * @param capacity Max records waiting to be written
+     * @param flushIntervalMillis Max milliseconds a written record may wait before being flushed to disk
+     * @param overflowPolicy What to do when there are <code>capacity</code> records waiting
+     */
+    public void startFile(String logfile, int capacity, long flushIntervalMillis, LogOverflowPolicy overflowPolicy) {
         File parent = new File(logfile).getParentFile();
         if (!parent.isDirectory() && !parent.mkdirs()) {
             logger.log(Level.WARNING, "Could not create log folder: {0}", parent);
         }
-        Handler fileHandler = new RotatingFileHandler(logfile);
+        Handler fileHandler = new AsyncFileHandler(logfile, capacity, flushIntervalMillis, overflowPolicy);
         fileHandler.setFormatter(new DateOutputFormatter(FILE_DATE));
         logger.addHandler(fileHandler);
     }
@@ -96,58 +116,226 @@ public final class ConsoleManager {
         }
     }
 
-    private static class RotatingFileHandler extends StreamHandler {
-        private final SimpleDateFormat dateFormat;
+    /**
+     * File handler that never writes on the thread that logs.
+     * Records are queued in a bounded ring buffer and a single writer thread formats them and writes them in batches,
+     * flushing to disk every flush interval, on severe records and when closed
+     */
+    private static class AsyncFileHandler extends Handler {
+        /**
+         * Queued by {@link #flush()} to wake the writer thread up
+         */
+        private static final LogRecord FLUSH = new LogRecord(Level.OFF, "flush");
+
         private final String template;
         private final boolean rotate;
+        private final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+        private final ArrayBlockingQueue<LogRecord> queue;
+        private final long flushIntervalMillis;
+        private final LogOverflowPolicy overflowPolicy;
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicBoolean flushRequested = new AtomicBoolean();
+        private final Thread writerThread;
+        private volatile boolean closed = false;
+
+        // solo usados por el hilo escritor
+        private Writer writer;
         private String filename;
+        private long nextRotation;
 
-        public RotatingFileHandler(String template) {
+        AsyncFileHandler(String template, int capacity, long flushIntervalMillis, LogOverflowPolicy overflowPolicy) {
             this.template = template;
-            rotate = template.contains("%D");
-            dateFormat = new SimpleDateFormat("dd-MM-yyyy");
-            filename = calculateFilename();
-            updateOutput();
+            this.rotate = template.contains("%D");
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+            this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+            this.overflowPolicy = overflowPolicy;
+            this.writerThread = new Thread(this::writeLoop, "ZinciteLogWriter");
+            setErrorManager(new StandardErrorManager());
+            openFile(System.currentTimeMillis());
+
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            if (closed || !isLoggable(record)) {
+                return;
+            }
+            // el hilo escritor no puede esperar a que haya hueco en su propia cola
+            if (overflowPolicy == LogOverflowPolicy.DROP || Thread.currentThread() == writerThread) {
+                if (!queue.offer(record)) {
+                    dropped.incrementAndGet();
+                }
+                return;
+            }
+            try {
+                queue.put(record);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Ask the writer thread to flush the records written so far, without waiting for it.
+         * Records are also flushed every flush interval, and the remaining ones on {@link #close()}
+         */
+        @Override
+        public void flush() {
+            if (!closed && flushRequested.compareAndSet(false, true)) {
+                queue.offer(FLUSH);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writerThread.interrupt();
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
         }
 
-        private void updateOutput() {
+        private void writeLoop() {
+            List<LogRecord> batch = new ArrayList<>();
+            long lastFlush = System.currentTimeMillis();
+            boolean dirty = false;
+            while (!closed || !queue.isEmpty()) {
+                LogRecord first = null;
+                try {
+                    if (!closed) {
+                        first = queue.poll(Math.max(1, flushIntervalMillis - (System.currentTimeMillis() - lastFlush)), TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException ignored) {
+                    // close() despierta al hilo para vaciar lo que quede
+                }
+                if (first != null) {
+                    batch.add(first);
+                }
+                queue.drainTo(batch);
+                batch.removeIf(record -> record == FLUSH);
+                boolean requested = flushRequested.getAndSet(false);
+
+                boolean severe = write(batch);
+                dirty |= !batch.isEmpty();
+                batch.clear();
+
+                long now = System.currentTimeMillis();
+                if (dirty && (severe || requested || now - lastFlush >= flushIntervalMillis)) {
+                    flushFile();
+                    dirty = false;
+                    lastFlush = now;
+                }
+            }
+            flushFile();
             try {
-                setOutputStream(new FileOutputStream(filename, true));
+                if (writer != null) {
+                    writer.close();
+                }
             } catch (IOException ex) {
-                logger.log(Level.SEVERE, "Unable to open " + filename + " for writing", ex);
+                reportError("Unable to close " + filename, ex, ErrorManager.CLOSE_FAILURE);
             }
         }
 
-        private void checkRotate() {
-            if (rotate) {
-                String newFilename = calculateFilename();
-                if (!filename.equals(newFilename)) {
-                    filename = newFilename;
-                    // note that the console handler doesn't see this message
-                    super.publish(new LogRecord(Level.INFO, "Log rotating to: " + filename));
-                    updateOutput();
+        /**
+         * Write a batch of records
+         * @return true if any of them is severe
+         */
+        private boolean write(List<LogRecord> batch) {
+            boolean severe = false;
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                batch.add(0, new LogRecord(Level.WARNING, lost + " log records were dropped because the log buffer was full"));
+            }
+            if (batch.isEmpty()) {
+                return false;
+            }
+            checkRotate(System.currentTimeMillis());
+            for (LogRecord record : batch) {
+                String line;
+                try {
+                    line = getFormatter().format(record);
+                } catch (RuntimeException ex) {
+                    reportError(null, ex, ErrorManager.FORMAT_FAILURE);
+                    continue;
+                }
+                try {
+                    if (writer != null) {
+                        writer.write(line);
+                    }
+                } catch (IOException ex) {
+                    reportError(null, ex, ErrorManager.WRITE_FAILURE);
                 }
+                severe |= record.getLevel().intValue() >= Level.SEVERE.intValue();
             }
+            return severe;
         }
 
-        private String calculateFilename() {
-            return template.replace("%D", dateFormat.format(new Date()));
+        private void flushFile() {
+            try {
+                if (writer != null) {
+                    writer.flush();
+                }
+            } catch (IOException ex) {
+                reportError(null, ex, ErrorManager.FLUSH_FAILURE);
+            }
         }
 
-        @Override
-        public synchronized void publish(LogRecord record) {
-            if (!isLoggable(record)) {
-                return;
+        private void checkRotate(long now) {
+            if (rotate && now >= nextRotation) {
+                String oldFilename = filename;
+                flushFile();
+                try {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                } catch (IOException ex) {
+                    reportError(null, ex, ErrorManager.CLOSE_FAILURE);
+                }
+                openFile(now);
+                if (writer != null && !filename.equals(oldFilename)) {
+                    // note that the console handler doesn't see this message
+                    try {
+                        writer.write(getFormatter().format(new LogRecord(Level.INFO, "Log rotating to: " + filename)));
+                    } catch (IOException ex) {
+                        reportError(null, ex, ErrorManager.WRITE_FAILURE);
+                    }
+                }
             }
-            checkRotate();
-            super.publish(record);
-            super.flush();
         }
 
+        private void openFile(long now) {
+            LocalDate today = Instant.ofEpochMilli(now).atZone(ZoneId.systemDefault()).toLocalDate();
+            filename = template.replace("%D", dateFormat.format(today));
+            nextRotation = today.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename, true), Charset.defaultCharset()), 64 * 1024);
+            } catch (IOException ex) {
+                writer = null;
+                // no se puede usar el logger desde el hilo escritor, podría esperar por sí mismo
+                reportError("Unable to open " + filename + " for writing", ex, ErrorManager.OPEN_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * Error manager writing straight to the standard error of the process.
+     * System.err is redirected to the logger, so reporting through it from the writer thread could wait for the writer itself
+     */
+    private static class StandardErrorManager extends ErrorManager {
+        private final PrintStream err = new PrintStream(new FileOutputStream(FileDescriptor.err), true);
+
         @Override
-        public synchronized void flush() {
-            checkRotate();
-            super.flush();
+        public synchronized void error(String msg, Exception ex, int code) {
+            err.println("Log file error " + code + (msg != null ? ": " + msg : ""));
+            if (ex != null) {
+                ex.printStackTrace(err);
+            }
         }
     }
 
@@ -161,13 +349,28 @@ public final class ConsoleManager {
                         continue;
                     }
 
-                    switch (consoleCommand) {
+                    String[] args = consoleCommand.trim().split("\\s+", 2);
+                    switch (args[0]) {
                         case "stop":
                             server.shutdown();
                             break;
                         case "ping":
                             System.out.println("pong");
                             break;
+                        case "stats":
+                            System.out.println(server.getMetrics().summary());
+                            break;
+                        case "modules":
+                            server.getModuleManager().getModules().forEach(module -> System.out.println(module.getName() + ": " + module.getDescription()));
+                            break;
+                        case "reload":
+                        case "unload":
+                            if (args.length < 2) {
+                                System.out.println("Uso: " + args[0] + " <módulo>");
+                                break;
+                            }
+                            changeModule(args[0], args[1]);
+                            break;
                         default:
                             System.out.println("Opción no válida.\n");
                     }
@@ -178,6 +381,18 @@ public final class ConsoleManager {
         }
     }
 
+    private void changeModule(String action, String id) {
+        try {
+            if ("reload".equals(action)) {
+                System.out.println(server.getModuleManager().reload(id) ? "Módulo recargado." : "No hay ningún módulo '" + id + "' cargado desde un jar.");
+            } else {
+                System.out.println(server.getModuleManager().unload(id) ? "Módulo descargado." : "No hay ningún módulo '" + id + "'.");
+            }
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "No se ha podido recargar el módulo " + id, ex);
+        }
+    }
+
     private class FancyConsoleHandler extends ConsoleHandler {
         FancyConsoleHandler() {
             setFormatter(new DateOutputFormatter(CONSOLE_DATE));
@@ -4,7 +4,8 @@ import com.cadiducho.telegrambotapi.TelegramBot;
 import com.cadiducho.telegrambotapi.ParseMode;
 import com.cadiducho.telegrambotapi.exception.TelegramException;
 import com.cadiducho.telegrambotapi.handlers.ExceptionHandler;
-import lombok.RequiredArgsConstructor;
+import com.cadiducho.zincite.outbound.OutboundScheduler;
+import com.cadiducho.zincite.outbound.Priority;
 import lombok.extern.java.Log;
 
 import java.time.Instant;
@@ -15,11 +16,28 @@ import java.time.format.DateTimeFormatter;
  * Clase para gestionar las excepciones de la API al obtener las updates
  */
 @Log
-@RequiredArgsConstructor
 public class DefaultZinciteExceptionHandler implements ExceptionHandler {
 
     private final TelegramBot bot;
     private final Long ownerId;
+    private final OutboundScheduler outbound;
+
+    public DefaultZinciteExceptionHandler(TelegramBot bot, Long ownerId) {
+        this(bot, ownerId, null);
+    }
+
+    /**
+     * Crear el handler enviando los avisos al ownerId a través de un {@link OutboundScheduler},
+     * de forma que una racha de errores no supere los límites de Telegram
+     * @param bot El bot
+     * @param ownerId El ID del owner
+     * @param outbound La cola de salida, o null para enviar los avisos directamente
+     */
+    public DefaultZinciteExceptionHandler(TelegramBot bot, Long ownerId, OutboundScheduler outbound) {
+        this.bot = bot;
+        this.ownerId = ownerId;
+        this.outbound = outbound;
+    }
 
     @Override
     public void handle(TelegramException exception) {
@@ -42,6 +60,10 @@ public class DefaultZinciteExceptionHandler implements ExceptionHandler {
      * @param msg El mensaje a enviar
      */
     private void send(String msg) {
+        if (outbound != null) {
+            outbound.sendMessage(ownerId, msg, ParseMode.HTML, Priority.HIGH);
+            return;
+        }
         try {
             bot.sendMessage(ownerId, msg, ParseMode.HTML, null, null, null, null, null);
         } catch (TelegramException ignored) { }
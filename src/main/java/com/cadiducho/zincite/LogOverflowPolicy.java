@@ -0,0 +1,17 @@
+package com.cadiducho.zincite;
+
+/**
+ * What the file log does when its buffer is full because the disk can't keep up
+ */
+public enum LogOverflowPolicy {
+
+    /**
+     * Wait until there is room in the buffer, so no record is lost
+     */
+    BLOCK,
+
+    /**
+     * Discard the record and keep going, writing how many were lost once there is room again
+     */
+    DROP
+}
@@ -1,50 +1,200 @@
 package com.cadiducho.zincite;
 
+import com.cadiducho.telegrambotapi.ChatMemberUpdated;
 import com.cadiducho.telegrambotapi.Message;
 import com.cadiducho.telegrambotapi.TelegramBot;
 import com.cadiducho.telegrambotapi.Update;
 import com.cadiducho.telegrambotapi.exception.TelegramException;
 import com.cadiducho.telegrambotapi.handlers.LongPollingHandler;
-import lombok.RequiredArgsConstructor;
+import com.cadiducho.zincite.api.event.*;
+import com.cadiducho.zincite.dispatch.BacklogDrain;
+import com.cadiducho.zincite.dispatch.BacklogReport;
+import com.cadiducho.zincite.dispatch.Lane;
+import com.cadiducho.zincite.dispatch.OffsetTracker;
+import com.cadiducho.zincite.dispatch.StalenessPolicy;
+import com.cadiducho.zincite.dispatch.UpdateDispatcher;
+import com.cadiducho.zincite.dispatch.UpdateKind;
+import com.cadiducho.zincite.metrics.Counter;
+import com.cadiducho.zincite.metrics.LatencyHistogram;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import lombok.Getter;
 import lombok.extern.java.Log;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
 
 @Log
-@RequiredArgsConstructor
 public class UpdatesHandler implements LongPollingHandler {
 
     private final TelegramBot bot;
     private final ZinciteBot server;
+    private final EventBus events;
+    @Getter private final UpdateDispatcher dispatcher;
+
+    /**
+     * Updates received and fully processed, to know up to which one Telegram can forget them
+     */
+    @Getter private final OffsetTracker offsets = new OffsetTracker();
+    private final StalenessPolicy stalenessPolicy;
+
+    private final Counter updates;
+    private final Counter failures;
+    private final LatencyHistogram lag;
+    private final LatencyHistogram processing;
+    private final Counter[] stale = new Counter[UpdateKind.values().length];
+    private final Counter[] coalesced = new Counter[UpdateKind.values().length];
+
+    public UpdatesHandler(TelegramBot bot, ZinciteBot server) {
+        this.bot = bot;
+        this.server = server;
+        this.events = server.getEventBus();
+
+        MetricsRegistry metrics = server.getMetrics();
+        this.updates = metrics.counter("zincite_updates_total", "Updates received from Telegram");
+        this.failures = metrics.counter("zincite_update_failures_total", "Updates whose processing failed");
+        this.lag = metrics.histogram("zincite_update_lag_seconds", "Time between a message being sent and its update being received");
+        this.processing = metrics.histogram("zincite_update_duration_seconds", "Time spent processing an update once dispatched");
+        for (UpdateKind kind : UpdateKind.values()) {
+            String type = kind.name().toLowerCase();
+            stale[kind.ordinal()] = metrics.counter("zincite_updates_stale_total", "Updates skipped for being older than the staleness policy allows", "type", type);
+            coalesced[kind.ordinal()] = metrics.counter("zincite_backlog_coalesced_total", "Backlog updates skipped because newer ones of the same chat were kept", "type", type);
+        }
+
+        ZinciteConfig config = server.getConfig();
+        this.stalenessPolicy = config.stalenessPolicy;
+        this.dispatcher = new UpdateDispatcher(config.dispatchMode, config.dispatchThreads, config.dispatchQueueCapacity,
+                update -> Lane.of(update, server.getOwnerId()), config.dispatchLaneWeights, metrics, this::process);
+    }
 
     @Override
     public void handleUpdate(Update update) {
+        updates.increment();
+        Message message = update.getMessage() != null ? update.getMessage() : update.getEditedMessage();
+        if (message != null && message.getDate() != null) {
+            lag.record(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(message.getDate()), TimeUnit.MILLISECONDS);
+        }
+        //Descartar las updates antiguas antes de despacharlas, sin llegar a procesarlas
+        Integer updateId = update.getUpdateId();
+        if (stalenessPolicy.isStale(update, Instant.now())) {
+            stale[UpdateKind.of(update).ordinal()].increment();
+            if (updateId != null) {
+                offsets.skip(updateId);
+            }
+            return;
+        }
+        if (updateId != null) {
+            offsets.begin(updateId);
+        }
+        dispatcher.dispatch(update);
+    }
+
+    /**
+     * Resume from the last update fully processed before the bot was stopped, confirming it and every previous one to Telegram
+     * so they are not received again. Must be called before the backlog is drained and the long polling starts
+     * @param lastUpdateId The last update fully processed
+     * @throws TelegramException If Telegram fails while confirming the updates
+     */
+    public void resume(int lastUpdateId) throws TelegramException {
+        offsets.restore(lastUpdateId);
+        bot.getUpdates(lastUpdateId + 1, 1, 0, null);
+    }
+
+    /**
+     * Drain the updates Telegram kept while the bot was down, following {@link ZinciteConfig#backlogMode}.
+     * Must be called before the long polling starts
+     * @return What happened to the backlog
+     * @throws TelegramException If Telegram fails while fetching the backlog
+     */
+    public BacklogReport drainBacklog() throws TelegramException {
+        ZinciteConfig config = server.getConfig();
+        BacklogReport report = new BacklogDrain(bot, offsets, config.backlogMode, stalenessPolicy, config.backlogKeepPerChat).drain(this::handleUpdate);
+        for (UpdateKind kind : UpdateKind.values()) {
+            stale[kind.ordinal()].add(report.getStale(kind));
+            coalesced[kind.ordinal()].add(report.getCoalesced(kind));
+        }
+        return report;
+    }
+
+    private void process(Update update) {
+        long start = System.nanoTime();
+        try {
+            handle(update);
+        } finally {
+            processing.record(System.nanoTime() - start);
+            if (update.getUpdateId() != null) {
+                offsets.complete(update.getUpdateId());
+            }
+        }
+    }
+
+    private void handle(Update update) {
         if (update.getCallbackQuery() != null) {
             server.getCommandManager().onCallbackQuery(update.getCallbackQuery());
             return; //Si la update es una callback query, no es un mensaje de texto, un comando u otra cosa.
         }
 
         try {
-            if (update.getMessage() != null) {
-                if (update.getMessage().getType().equals(Message.Type.NEW_CHAT_MEMBERS)) {
-                    server.getModuleManager().getModules().forEach(m -> m.onNewChatMembers(update.getMessage().getChat(), update.getMessage().getNewChatMembers()));
+            Message message = update.getMessage();
+            if (message != null) {
+                if (events.hasSubscribers(MessageEvent.class)) {
+                    events.post(new MessageEvent(update, message));
                 }
-                if (update.getMessage().getType().equals(Message.Type.LEFT_CHAT_MEMBER)) {
-                    server.getModuleManager().getModules().forEach(m -> m.onLeftChatMember(update.getMessage().getChat(), update.getMessage().getLeftChatMember()));
+                if (message.getType().equals(Message.Type.NEW_CHAT_MEMBERS)) {
+                    server.getTelegramCache().onMembersChanged(message.getChat().getId(), message.getNewChatMembers());
+                    if (events.hasSubscribers(NewChatMembersEvent.class)) {
+                        events.post(new NewChatMembersEvent(update, message.getChat(), message.getNewChatMembers()));
+                    }
                 }
-                if (update.getMessage().getType().equals(Message.Type.TEXT)) {
-                    //Si la update fue recibida hace más de 10 minutos, ignorarla
-                    if (Instant.ofEpochSecond(update.getMessage().getDate().longValue()).isBefore(Instant.now().minusSeconds(10 * 60)))
-                        return;
-
-                    boolean success = server.getCommandManager().onCmd(bot, update);
-                    server.getModuleManager().getModules().forEach(m -> m.onPostCommand(update, success));
+                if (message.getType().equals(Message.Type.LEFT_CHAT_MEMBER)) {
+                    server.getTelegramCache().onMembersChanged(message.getChat().getId(), Collections.singletonList(message.getLeftChatMember()));
+                    if (events.hasSubscribers(LeftChatMemberEvent.class)) {
+                        events.post(new LeftChatMemberEvent(update, message.getChat(), message.getLeftChatMember()));
+                    }
+                }
+                if (message.getType().equals(Message.Type.TEXT)) {
+                    // los comandos en un compartimento publican el evento al terminar, no al aceptarse
+                    server.getCommandManager().onCmd(bot, update, success -> {
+                        if (events.hasSubscribers(PostCommandEvent.class)) {
+                            events.post(new PostCommandEvent(update, success));
+                        }
+                    });
+                }
+            } else if (update.getEditedMessage() != null) {
+                if (events.hasSubscribers(EditedMessageEvent.class)) {
+                    events.post(new EditedMessageEvent(update, update.getEditedMessage()));
+                }
+            } else if (update.getInlineQuery() != null) {
+                server.getInlineManager().onInlineQuery(update.getInlineQuery());
+                if (events.hasSubscribers(InlineQueryEvent.class)) {
+                    events.post(new InlineQueryEvent(update, update.getInlineQuery()));
+                }
+            } else if (update.getChatMember() != null || update.getMyChatMember() != null) {
+                boolean own = update.getMyChatMember() != null;
+                ChatMemberUpdated changed = own ? update.getMyChatMember() : update.getChatMember();
+                //Promociones, restricciones y expulsiones cambian los administradores y miembros guardados
+                if (own) {
+                    server.getTelegramCache().invalidateChat(changed.getChat().getId());
+                } else if (changed.getNewChatMember() != null && changed.getNewChatMember().getUser() != null) {
+                    server.getTelegramCache().onMembersChanged(changed.getChat().getId(), Collections.singletonList(changed.getNewChatMember().getUser()));
+                }
+                if (events.hasSubscribers(ChatMemberUpdatedEvent.class)) {
+                    events.post(new ChatMemberUpdatedEvent(update, changed, own));
+                }
+            } else if (update.getPoll() != null) {
+                if (events.hasSubscribers(PollEvent.class)) {
+                    events.post(new PollEvent(update, update.getPoll()));
+                }
+            } else if (update.getPollAnswer() != null) {
+                if (events.hasSubscribers(PollAnswerEvent.class)) {
+                    events.post(new PollAnswerEvent(update, update.getPollAnswer()));
                 }
             }
         } catch (TelegramException ex) {
+            failures.increment();
             log.severe("Fallo procesando una Update de la API de Telegram: " + ex.getMessage());
             if (ex.getCause() != null) log.severe("Causa: " + ex.getCause().getMessage());
 
@@ -53,6 +203,7 @@ public class UpdatesHandler implements LongPollingHandler {
             ex.printStackTrace(printWriter);
             log.severe(writer.toString());
         } catch (ConcurrentModificationException ex) {
+            failures.increment();
             log.severe("Fallo de concurrencia procesando una Update de la API de Telegram: " + ex.getMessage());
             if (ex.getCause() != null) log.severe("Causa: " + ex.getCause().getMessage());
 
@@ -61,6 +212,7 @@ public class UpdatesHandler implements LongPollingHandler {
             ex.printStackTrace(printWriter);
             log.severe(writer.toString());
         } catch (Exception ex) {
+            failures.increment();
             log.severe("Fallo no esperado procesando una Update de la API de Telegram: " + ex.getMessage());
             if (ex.getCause() != null) log.severe("Causa: " + ex.getCause().getMessage());
 
@@ -0,0 +1,17 @@
+package com.cadiducho.zincite;
+
+/**
+ * How Zincite receives updates from Telegram
+ */
+public enum UpdatesMode {
+
+    /**
+     * Ask Telegram for new updates with getUpdates long polling
+     */
+    LONG_POLLING,
+
+    /**
+     * Let Telegram push the updates to an embedded HTTP endpoint
+     */
+    WEBHOOK
+}
@@ -1,20 +1,49 @@
 package com.cadiducho.zincite;
 
 import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
 import com.cadiducho.telegrambotapi.handlers.ExceptionHandler;
 import com.cadiducho.zincite.api.command.CommandManager;
+import com.cadiducho.zincite.api.event.EventBus;
+import com.cadiducho.zincite.api.inline.InlineManager;
 import com.cadiducho.zincite.api.module.ModuleManager;
 import com.cadiducho.zincite.api.module.ZinciteModule;
+import com.cadiducho.zincite.api.session.HeapSessionStorage;
+import com.cadiducho.zincite.api.session.MappedSessionStorage;
+import com.cadiducho.zincite.api.session.SessionManager;
+import com.cadiducho.zincite.api.session.SessionStorage;
+import com.cadiducho.zincite.api.storage.StorageManager;
+import com.cadiducho.zincite.cache.TelegramCache;
+import com.cadiducho.zincite.dispatch.BacklogMode;
+import com.cadiducho.zincite.dispatch.LongPoller;
+import com.cadiducho.zincite.dispatch.OffsetCheckpoint;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import com.cadiducho.zincite.metrics.MetricsServer;
+import com.cadiducho.zincite.outbound.OutboundScheduler;
+import com.cadiducho.zincite.webhook.WebhookServer;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.java.Log;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 @Log
 public class ZinciteBot {
 
+    /**
+     * Counters and latency histograms of the bot
+     */
+    @Getter private final MetricsRegistry metrics = new MetricsRegistry();
+
+    /**
+     * The Prometheus endpoint, if enabled
+     */
+    private MetricsServer metricsServer;
+
     /**
      * The Module manager
      */
@@ -24,6 +53,22 @@ public class ZinciteBot {
      * The (Telegram) Command manager
      */
     @Getter private final CommandManager commandManager;
+    @Getter private final InlineManager inlineManager;
+
+    /**
+     * Conversation state of every user in every chat
+     */
+    @Getter private final SessionManager sessions;
+
+    /**
+     * Persistent key-value storage, one store per module
+     */
+    @Getter private final StorageManager storage;
+
+    /**
+     * The event bus, where modules subscribe to the updates they handle
+     */
+    @Getter private final EventBus eventBus;
 
     /**
      * The Console manager
@@ -51,11 +96,38 @@ public class ZinciteBot {
     @Getter private final String version;
 
     /**
-     * Instance to handle exceptions on fetching Telegram API
+     * Instance to handle exceptions on fetching Telegram API.
+     * By default, if the owner is set, a {@link DefaultZinciteExceptionHandler} that warns them through the outbound queue
      */
     @Setter private ExceptionHandler exceptionHandler;
 
+    /**
+     * Handler of the incoming updates
+     */
+    private UpdatesHandler updatesHandler;
+
+    /**
+     * The webhook endpoint, if {@link UpdatesMode#WEBHOOK} is used
+     */
+    private WebhookServer webhookServer;
+
+    /**
+     * The long polling, if {@link UpdatesMode#LONG_POLLING} is used, and where it saves the last update processed
+     */
+    private LongPoller poller;
+    private OffsetCheckpoint checkpoint;
+
     @Getter private TelegramBot telegramBot;
+
+    /**
+     * Cache of the bot identity and chat metadata fetched from Telegram
+     */
+    @Getter private final TelegramCache telegramCache;
+
+    /**
+     * Queue every framework message is sent through, following Telegram rate limits
+     */
+    @Getter private final OutboundScheduler outbound;
     @Getter private static ZinciteBot instance;
 
     /**
@@ -77,17 +149,31 @@ public class ZinciteBot {
         this.version = config.version;
 
         this.consoleManager = new ConsoleManager(instance, config.enableFileLog);
-        this.consoleManager.startFile(config.logsPath + "/log-%D.txt");
+        this.consoleManager.startFile(config.logsPath + "/log-%D.txt", config.logQueueCapacity, config.logFlushInterval, config.logOverflowPolicy);
 
-        this.moduleManager = new ModuleManager(new File(config.modulesPath));
+        this.moduleManager = new ModuleManager(new File(config.modulesPath), config.moduleScanFallback, config.moduleIndex, config.moduleHotReload);
+        this.sessions = new SessionManager(newSessionStorage(config), Duration.ofSeconds(config.sessionTtl));
+        this.storage = new StorageManager(new File(config.storagePath), config.storageSyncInterval, config.storageMaintenanceInterval);
+        this.moduleManager.setStorageManager(storage);
         this.commandManager = new CommandManager(instance);
+        this.eventBus = new EventBus(metrics, config.eventThreads);
+        this.moduleManager.addListener(commandManager);
+        this.moduleManager.addListener(eventBus);
 
-        this.telegramBot = new TelegramBot(token);
+        this.telegramBot = config.telegramBotFactory.apply(token);
+        this.inlineManager = new InlineManager(instance, telegramBot);
+        this.moduleManager.addListener(inlineManager);
+        this.telegramCache = new TelegramCache(telegramBot, config.cacheMaxEntries, config.cacheChatTtl, config.cacheMemberTtl);
+        this.outbound = new OutboundScheduler(telegramBot, config.outboundGlobalRate, config.outboundChatRate, config.outboundGroupRate,
+                config.outboundThreads, config.outboundMaxRetries);
+        if (ownerId != null) {
+            this.exceptionHandler = new DefaultZinciteExceptionHandler(telegramBot, ownerId, outbound);
+        }
     }
 
     /**
      * Startup Zincite server.
-     * This includes load modules and start polling Telegram Bot API
+     * This includes load modules and start receiving updates from Telegram Bot API
      */
     public void startServer() {
         consoleManager.startConsole(config.enableConsoleReader, config.enableFileLog);
@@ -100,11 +186,48 @@ public class ZinciteBot {
             log.warning(ex.getMessage());
         }
 
-        UpdatesHandler events = new UpdatesHandler(telegramBot, instance);
-        telegramBot.getUpdatesPoller().setHandler(events);
-        telegramBot.getUpdatesPoller().setExceptionHandler(exceptionHandler);
+        if (config.metricsEnabled) {
+            try {
+                metricsServer = new MetricsServer(new InetSocketAddress(config.metricsHost, config.metricsPort), metrics);
+            } catch (IOException ex) {
+                throw new ZinciteException("Can't start the metrics server: " + ex.getMessage());
+            }
+            metricsServer.start();
+            log.info("Metrics available on port " + metricsServer.getPort());
+        }
 
-        telegramBot.startUpdatesPoller();
+        updatesHandler = new UpdatesHandler(telegramBot, instance);
+        if (config.updatesMode == UpdatesMode.WEBHOOK) {
+            try {
+                webhookServer = new WebhookServer(new InetSocketAddress(config.webhookHost, config.webhookPort), config.webhookPath,
+                        config.webhookSecretToken, config.webhookMaxConnections, updatesHandler::handleUpdate);
+            } catch (IOException ex) {
+                throw new ZinciteException("Can't start the webhook server: " + ex.getMessage());
+            }
+            webhookServer.start();
+            log.info("Webhook listening on port " + webhookServer.getPort());
+        } else {
+            checkpoint = new OffsetCheckpoint(new File(config.updatesCheckpointPath));
+            Integer lastProcessed = checkpoint.load();
+            if (lastProcessed != null) {
+                try {
+                    updatesHandler.resume(lastProcessed);
+                    log.info("Resuming after update " + lastProcessed);
+                } catch (TelegramException ex) {
+                    log.warning("Can't confirm the updates processed before the last stop: " + ex.getMessage());
+                }
+            }
+            if (config.backlogMode != BacklogMode.PROCESS) {
+                try {
+                    log.info(updatesHandler.drainBacklog().toString());
+                } catch (TelegramException ex) {
+                    log.warning("Can't drain the updates backlog: " + ex.getMessage());
+                }
+            }
+            poller = new LongPoller(telegramBot, updatesHandler::handleUpdate, updatesHandler.getOffsets(), checkpoint,
+                    config.pollingTimeout, exceptionHandler);
+            poller.start();
+        }
         commandManager.registerCommandsToTelegramHelp();
 
         log.info("Zincite bot v" + this.version + " iniciado completamente");
@@ -112,13 +235,82 @@ public class ZinciteBot {
 
     /**
      * Shutdown Zincite server.
-     * All modules will be unloaded and Zincite will stop fetching Telegram Bot API
+     * All modules will be unloaded and Zincite will stop receiving updates from Telegram Bot API
      */
     public void shutdown() {
-        telegramBot.stopUpdatesPoller();
+        stop();
+        System.exit(0);
+    }
+
+    /**
+     * Stop Zincite server without exiting the JVM, as {@link #shutdown()} does.
+     * No more updates are received, and the ones being processed, commands running in bulkheads, async events and outbound messages are given
+     * up to {@link ZinciteConfig#shutdownTimeout} seconds to finish. The last update fully processed is saved,
+     * so the next start resumes right after it
+     */
+    public void stop() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.shutdownTimeout);
+        try {
+            if (webhookServer != null) {
+                webhookServer.stop();
+            } else if (poller != null && !poller.stop(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                log.warning("The long polling was still handing updates when closing");
+            }
+            if (updatesHandler != null && !updatesHandler.getDispatcher().shutdown(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                log.warning("Some updates were still being processed when closing");
+            }
+            if (!commandManager.shutdown(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                log.warning("Some commands were still running in their bulkheads when closing");
+            }
+            if (!inlineManager.shutdown(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                log.warning("Some inline queries were still being answered when closing");
+            }
+            // async listeners may still use their module, its session or its storage
+            if (!eventBus.shutdown(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                log.warning("Some async events were still being delivered when closing");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        moduleManager.stopWatcher();
         moduleManager.getModules().forEach(ZinciteModule::onClose);
+        sessions.close();
+        storage.close();
+        try {
+            if (!outbound.shutdown(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                log.warning("Some outbound messages could not be sent before closing");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (checkpoint != null) {
+            Integer lastProcessed = updatesHandler.getOffsets().getCommitted();
+            if (lastProcessed != null) {
+                checkpoint.save(lastProcessed);
+                log.info("Processed up to update " + lastProcessed + ", " + updatesHandler.getOffsets().getInFlight() + " left for the next start");
+            }
+        }
+
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
 
         log.info("Closing Zincite bot...");
-        System.exit(0);
+        consoleManager.stop();
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    private static SessionStorage newSessionStorage(ZinciteConfig config) {
+        switch (config.sessionBacking) {
+            case OFF_HEAP:
+                return new MappedSessionStorage(config.sessionMaxEntries, config.sessionSlotSize);
+            case MAPPED:
+                return new MappedSessionStorage(new File(config.sessionsPath), config.sessionMaxEntries, config.sessionSlotSize);
+            default:
+                return new HeapSessionStorage(config.sessionMaxEntries);
+        }
     }
 }
@@ -1,7 +1,17 @@
 package com.cadiducho.zincite;
 
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.zincite.api.command.FloodAction;
+import com.cadiducho.zincite.api.session.SessionBacking;
+import com.cadiducho.zincite.dispatch.BacklogMode;
+import com.cadiducho.zincite.dispatch.DispatchMode;
+import com.cadiducho.zincite.dispatch.Lane;
+import com.cadiducho.zincite.dispatch.StalenessPolicy;
 import lombok.Builder;
 
+import java.util.Map;
+import java.util.function.Function;
+
 /**
  * Zincite configuration class
  */
@@ -17,6 +27,11 @@ public class ZinciteConfig {
      */
     public Long ownerId;
 
+    /**
+     * How the {@link TelegramBot} is created from the token. Replace it to use a stubbed or local Bot API
+     */
+    @Builder.Default public Function<String, TelegramBot> telegramBotFactory = TelegramBot::new;
+
     /**
      * The bot version
      */
@@ -32,6 +47,23 @@ public class ZinciteConfig {
      */
     @Builder.Default public String modulesPath = "modules";
 
+    /**
+     * Look inside the classes of module jars that don't declare their modules in the manifest or in META-INF/services.
+     * If disabled, those jars are ignored
+     */
+    @Builder.Default public boolean moduleScanFallback = true;
+
+    /**
+     * Keep an index of the modules found in every jar in the modules folder, so unchanged jars are not opened again on startup
+     */
+    @Builder.Default public boolean moduleIndex = true;
+
+    /**
+     * Watch the modules folder and load, reload or unload module jars as they are added, replaced or deleted, without restarting the bot.
+     * Jars are loaded from a temporary copy so they can be replaced while in use
+     */
+    @Builder.Default public boolean moduleHotReload = false;
+
     /**
      * Enable if you want to use the console reader. Console will capture input from System.in
      */
@@ -41,4 +73,249 @@ public class ZinciteConfig {
      * Enable if you want to log to a file
      */
     @Builder.Default public boolean enableFileLog = false;
+
+    /**
+     * Max log records waiting to be written to the log file
+     */
+    @Builder.Default public int logQueueCapacity = 8192;
+
+    /**
+     * Max milliseconds a log record may wait before being flushed to the log file. Severe records are flushed right away
+     */
+    @Builder.Default public long logFlushInterval = 1000;
+
+    /**
+     * What to do when the log file can't keep up and {@link #logQueueCapacity} records are waiting
+     */
+    @Builder.Default public LogOverflowPolicy logOverflowPolicy = LogOverflowPolicy.BLOCK;
+
+    /**
+     * How incoming updates are spread across threads. Updates from the same chat are always handled in order,
+     * but commands of different chats may run at the same time, so they must be thread safe
+     */
+    @Builder.Default public DispatchMode dispatchMode = DispatchMode.STRIPED;
+
+    /**
+     * Number of worker threads used by {@link DispatchMode#STRIPED}
+     */
+    @Builder.Default public int dispatchThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Max pending updates per worker thread and {@link Lane} before the updates source is slowed down
+     */
+    @Builder.Default public int dispatchQueueCapacity = 1000;
+
+    /**
+     * Share of every {@link Lane} in the {@link DispatchMode#STRIPED} workers when they are saturated. Every chat is served in the lane
+     * of its oldest pending update, and its updates keep their order. By default callback and inline queries get 8 turns,
+     * owner messages 4, other text messages 2 and the rest of updates 1
+     */
+    @Builder.Default public Map<Lane, Integer> dispatchLaneWeights = Lane.defaultWeights();
+
+    /**
+     * How old every kind of update may be before it is skipped without being processed.
+     * By default messages older than 10 minutes are not answered
+     */
+    @Builder.Default public StalenessPolicy stalenessPolicy = StalenessPolicy.defaults();
+
+    /**
+     * What to do on startup with the updates Telegram kept while the bot was down
+     */
+    @Builder.Default public BacklogMode backlogMode = BacklogMode.PROCESS;
+
+    /**
+     * Max messages and callback queries of every chat processed from the backlog with {@link BacklogMode#FILTER},
+     * keeping the most recent ones. 0 processes all of them
+     */
+    @Builder.Default public int backlogKeepPerChat = 0;
+
+    /**
+     * Number of threads delivering the events of listeners subscribed with <code>async = true</code>
+     */
+    @Builder.Default public int eventThreads = 2;
+
+    /**
+     * How updates are received from Telegram
+     */
+    @Builder.Default public UpdatesMode updatesMode = UpdatesMode.LONG_POLLING;
+
+    /**
+     * Seconds every long polling request waits for new updates
+     */
+    @Builder.Default public int pollingTimeout = 20;
+
+    /**
+     * The path to the file where the last update fully processed is saved, so a restart with long polling resumes right after it
+     */
+    @Builder.Default public String updatesCheckpointPath = "updates.offset";
+
+    /**
+     * Max seconds to wait when stopping for the updates being processed, async events and outbound messages to finish
+     */
+    @Builder.Default public long shutdownTimeout = 30;
+
+    /**
+     * Address where the webhook endpoint listens, if {@link UpdatesMode#WEBHOOK} is used
+     */
+    @Builder.Default public String webhookHost = "0.0.0.0";
+
+    /**
+     * Port where the webhook endpoint listens, if {@link UpdatesMode#WEBHOOK} is used
+     */
+    @Builder.Default public int webhookPort = 8443;
+
+    /**
+     * Path of the webhook endpoint
+     */
+    @Builder.Default public String webhookPath = "/";
+
+    /**
+     * Secret token registered with setWebhook. If set, requests without it are rejected
+     */
+    public String webhookSecretToken;
+
+    /**
+     * Max webhook requests handled at the same time
+     */
+    @Builder.Default public int webhookMaxConnections = 40;
+
+    /**
+     * Max entries of every kind of data kept by the {@link com.cadiducho.zincite.cache.TelegramCache}
+     */
+    @Builder.Default public int cacheMaxEntries = 10000;
+
+    /**
+     * Seconds a cached chat or administrator list is considered fresh
+     */
+    @Builder.Default public long cacheChatTtl = 300;
+
+    /**
+     * Seconds a cached chat member is considered fresh
+     */
+    @Builder.Default public long cacheMemberTtl = 60;
+
+    /**
+     * Where the conversation sessions of the users are kept
+     */
+    @Builder.Default public SessionBacking sessionBacking = SessionBacking.HEAP;
+
+    /**
+     * Max sessions kept. When reached, the least recently used one is dropped
+     */
+    @Builder.Default public int sessionMaxEntries = 100000;
+
+    /**
+     * Seconds a session is kept since it was last changed
+     */
+    @Builder.Default public long sessionTtl = 3600;
+
+    /**
+     * Bytes reserved for every session with {@link SessionBacking#OFF_HEAP} and {@link SessionBacking#MAPPED}, which is also the max size of a session
+     */
+    @Builder.Default public int sessionSlotSize = 512;
+
+    /**
+     * The path to the sessions file used by {@link SessionBacking#MAPPED}
+     */
+    @Builder.Default public String sessionsPath = "sessions.dat";
+
+    /**
+     * The folder where the persistent storage of every module is kept
+     */
+    @Builder.Default public String storagePath = "storage";
+
+    /**
+     * Milliseconds between syncs of the module storage to disk. Writes are in the page cache before, so they survive a crash of the bot but not of the machine
+     */
+    @Builder.Default public long storageSyncInterval = 1000;
+
+    /**
+     * Seconds between snapshots and compactions of the module storage
+     */
+    @Builder.Default public long storageMaintenanceInterval = 300;
+
+    /**
+     * Max commands and callback queries handled per user in {@link #floodUserPeriod}, on top of the {@link com.cadiducho.zincite.api.command.RateLimit} of every command. 0, the default, disables it
+     */
+    @Builder.Default public int floodUserLimit = 0;
+
+    /**
+     * Seconds of the {@link #floodUserLimit} period
+     */
+    @Builder.Default public long floodUserPeriod = 10;
+
+    /**
+     * What to do with the commands over a limit: drop them, or warn once with the time left
+     */
+    @Builder.Default public FloodAction floodAction = FloodAction.WARN;
+
+    /**
+     * Threads of every {@link com.cadiducho.zincite.api.command.Bulkhead} not registered by a module
+     */
+    @Builder.Default public int bulkheadConcurrency = 4;
+
+    /**
+     * Commands waiting in every bulkhead not registered by a module. When full, new ones are rejected
+     */
+    @Builder.Default public int bulkheadQueueSize = 16;
+
+    /**
+     * Max command invocations whose replies are kept for the commands with {@link com.cadiducho.zincite.api.command.CommandInfo#cacheSeconds()}
+     */
+    @Builder.Default public int replyCacheSize = 1000;
+
+    /**
+     * Max inline queries whose results are kept in the {@link com.cadiducho.zincite.api.inline.InlineManager} cache
+     */
+    @Builder.Default public int inlineCacheSize = 1000;
+
+    /**
+     * Max results kept and paginated for every inline query. Longer lists are cut, and not reused for longer queries
+     */
+    @Builder.Default public int inlineMaxResults = 200;
+
+    /**
+     * Milliseconds an inline query not in cache waits before being searched, so the ones left behind while typing are skipped. 0 disables it
+     */
+    @Builder.Default public long inlineDebounce = 300;
+
+    /**
+     * Max calls per second sent to Telegram through the {@link com.cadiducho.zincite.outbound.OutboundScheduler}
+     */
+    @Builder.Default public double outboundGlobalRate = 30;
+
+    /**
+     * Max calls per second sent to the same private chat
+     */
+    @Builder.Default public double outboundChatRate = 1;
+
+    /**
+     * Max calls per minute sent to the same group or channel
+     */
+    @Builder.Default public double outboundGroupRate = 20;
+
+    /**
+     * Number of threads making the outbound calls
+     */
+    @Builder.Default public int outboundThreads = 4;
+
+    /**
+     * Times an outbound call is retried when Telegram answers with a retry_after
+     */
+    @Builder.Default public int outboundMaxRetries = 3;
+
+    /**
+     * Enable to serve the metrics in the Prometheus text format at <code>/metrics</code>
+     */
+    @Builder.Default public boolean metricsEnabled = false;
+
+    /**
+     * Address where the metrics endpoint listens. By default it is only reachable from the same machine
+     */
+    @Builder.Default public String metricsHost = "127.0.0.1";
+
+    /**
+     * Port where the metrics endpoint listens
+     */
+    @Builder.Default public int metricsPort = 9400;
 }
@@ -3,12 +3,15 @@ package com.cadiducho.zincite.api.command;
 import com.cadiducho.zincite.ZinciteBot;
 import com.cadiducho.zincite.api.command.args.Argument;
 import com.cadiducho.zincite.api.module.ZinciteModule;
+import com.cadiducho.zincite.cache.TelegramCache;
+import com.cadiducho.zincite.outbound.OutboundScheduler;
 import com.cadiducho.telegrambotapi.Chat;
 import com.cadiducho.telegrambotapi.Message;
 import com.cadiducho.telegrambotapi.TelegramBot;
 import com.cadiducho.telegrambotapi.User;
 import com.cadiducho.telegrambotapi.exception.TelegramException;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 
@@ -32,20 +35,23 @@ public interface BotCommand {
     void execute(final Chat chat, final User from, final CommandContext context, final Integer messageId, final Message replyingTo, Instant instant) throws TelegramException;
     
     default ZinciteModule getModule() {
-        if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
-            return null;
+        CommandDescriptor descriptor = registeredDescriptor();
+        if (descriptor != null) {
+            return descriptor.getModule();
         }
-        Class<? extends ZinciteModule> mclass = this.getClass().getAnnotation(CommandInfo.class).module();
-        for (ZinciteModule module : FRAMEWORK_BOT.getModuleManager().getModules()) {
-            if (module.getClass().equals(mclass)) {
-                return module;
-            }
+        ZinciteBot bot = ZinciteBot.getInstance();
+        if (bot == null || !this.getClass().isAnnotationPresent(CommandInfo.class)) {
+            return null;
         }
-        return null;
+        return bot.getModuleManager().getModule(this.getClass().getAnnotation(CommandInfo.class).module()).orElse(null);
     }
     
     //la primera aliase de la anotación
     default String getName() {
+        CommandDescriptor descriptor = registeredDescriptor();
+        if (descriptor != null) {
+            return descriptor.getName();
+        }
         if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
             return "";
         }
@@ -53,6 +59,10 @@ public interface BotCommand {
     }
 
     default List<String> getAliases() {
+        CommandDescriptor descriptor = registeredDescriptor();
+        if (descriptor != null) {
+            return descriptor.getAliases();
+        }
         if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
             return new ArrayList<>();
         }
@@ -60,6 +70,10 @@ public interface BotCommand {
     }
 
     default List<Argument> getArguments() {
+        CommandDescriptor descriptor = registeredDescriptor();
+        if (descriptor != null) {
+            return descriptor.getArguments();
+        }
         if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
             return new ArrayList<>();
         }
@@ -68,6 +82,10 @@ public interface BotCommand {
     }
 
     default String getDescription() {
+        CommandDescriptor descriptor = registeredDescriptor();
+        if (descriptor != null) {
+            return descriptor.getDescription();
+        }
         if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
             return "";
         }
@@ -75,13 +93,56 @@ public interface BotCommand {
     }
 
     default boolean isHidden() {
+        CommandDescriptor descriptor = registeredDescriptor();
+        if (descriptor != null) {
+            return descriptor.isHidden();
+        }
         if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
             return false;
         }
         return this.getClass().getAnnotation(CommandInfo.class).hidden();
     }
 
+    default List<RateLimit> getRateLimits() {
+        if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
+            return new ArrayList<>();
+        }
+        return Arrays.asList(this.getClass().getAnnotation(CommandInfo.class).limits());
+    }
+
+    default String getBulkhead() {
+        if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
+            return "";
+        }
+        return this.getClass().getAnnotation(CommandInfo.class).bulkhead();
+    }
+
+    default Duration getTimeout() {
+        if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
+            return Duration.ZERO;
+        }
+        return Duration.ofSeconds(this.getClass().getAnnotation(CommandInfo.class).timeout());
+    }
+
+    default Duration getCacheTtl() {
+        if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
+            return Duration.ZERO;
+        }
+        return Duration.ofSeconds(this.getClass().getAnnotation(CommandInfo.class).cacheSeconds());
+    }
+
+    default CacheScope getCacheScope() {
+        if (!this.getClass().isAnnotationPresent(CommandInfo.class)) {
+            return CacheScope.GLOBAL;
+        }
+        return this.getClass().getAnnotation(CommandInfo.class).cacheScope();
+    }
+
     default String getUsage() {
+        CommandDescriptor descriptor = registeredDescriptor();
+        if (descriptor != null) {
+            return descriptor.getUsage();
+        }
         StringBuilder stringBuilder = new StringBuilder();
 
         stringBuilder.append("<code>")
@@ -126,6 +187,32 @@ public interface BotCommand {
     }
     
     default TelegramBot getBot() {
-        return FRAMEWORK_BOT.getTelegramBot();
+        return ZinciteBot.getInstance().getTelegramBot();
+    }
+
+    /**
+     * Obtener la caché de Zincite para consultar datos del bot y de los chats sin llamar siempre a la API de Telegram
+     * @return la caché
+     */
+    default TelegramCache getCache() {
+        return ZinciteBot.getInstance().getTelegramCache();
+    }
+
+    /**
+     * Obtener la cola de salida de Zincite, para enviar mensajes respetando los límites de Telegram
+     * @return la cola de salida
+     */
+    default OutboundScheduler getOutbound() {
+        return ZinciteBot.getInstance().getOutbound();
+    }
+
+    /**
+     * Obten la descripción con la que se registró el comando, para no leer su anotación en cada llamada
+     * @return La descripción, o null si el comando no está registrado
+     */
+    private CommandDescriptor registeredDescriptor() {
+        ZinciteBot bot = ZinciteBot.getInstance();
+        CommandManager manager = bot != null ? bot.getCommandManager() : null;
+        return manager != null ? manager.getDescriptor(this).orElse(null) : null;
     }
 }
@@ -0,0 +1,95 @@
+package com.cadiducho.zincite.api.command;
+
+import lombok.Getter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compartimento de ejecución de comandos, con sus propios hilos y su propia cola. Los comandos asignados a un compartimento
+ * con {@link CommandInfo#bulkhead()} solo compiten entre ellos: si un servicio externo se vuelve lento, se llena su compartimento
+ * y el resto de comandos y updates siguen atendiéndose
+ */
+public final class Bulkhead {
+
+    /**
+     * Nombre del compartimento
+     */
+    @Getter private final String name;
+
+    /**
+     * Comandos ejecutándose a la vez como máximo
+     */
+    @Getter private final int maxConcurrency;
+
+    /**
+     * Comandos esperando como máximo. Si está lleno, los siguientes se rechazan
+     */
+    @Getter private final int queueSize;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Crear un compartimento
+     * @param name Nombre del compartimento
+     * @param maxConcurrency Comandos ejecutándose a la vez como máximo
+     * @param queueSize Comandos esperando como máximo, o 0 para rechazarlos si no hay un hilo libre
+     */
+    public Bulkhead(String name, int maxConcurrency, int queueSize) {
+        if (maxConcurrency <= 0 || queueSize < 0) {
+            throw new IllegalArgumentException("Compartimento " + name + " no válido: " + maxConcurrency + " hilos y cola de " + queueSize);
+        }
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.queueSize = queueSize;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "ZinciteBulkhead-" + name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Ejecutar una tarea en el compartimento
+     * @param task La tarea
+     * @throws RejectedExecutionException Si el compartimento está lleno o cerrado
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Obten el número de comandos ejecutándose
+     * @return Los comandos en ejecución
+     */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Obten el número de comandos esperando
+     * @return Los comandos en cola
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Dejar de aceptar comandos y esperar a que terminen los pendientes
+     * @param timeout Tiempo máximo de espera
+     * @param unit Unidad del tiempo de espera
+     * @return true si han terminado todos los comandos
+     * @throws InterruptedException Si se interrumpe la espera
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+}
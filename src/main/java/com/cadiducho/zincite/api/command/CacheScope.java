@@ -0,0 +1,19 @@
+package com.cadiducho.zincite.api.command;
+
+/**
+ * Con quién se comparten las respuestas guardadas de un comando con {@link CommandInfo#cacheSeconds()}
+ */
+public enum CacheScope {
+    /**
+     * Todos los usuarios y chats reciben la misma respuesta
+     */
+    GLOBAL,
+    /**
+     * Cada chat tiene su propia respuesta, compartida por todos sus usuarios
+     */
+    CHAT,
+    /**
+     * Cada usuario tiene su propia respuesta, en todos los chats
+     */
+    USER
+}
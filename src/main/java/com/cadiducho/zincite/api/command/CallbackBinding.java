@@ -0,0 +1,93 @@
+package com.cadiducho.zincite.api.command;
+
+import com.cadiducho.telegrambotapi.CallbackQuery;
+import com.cadiducho.zincite.ZinciteException;
+import com.cadiducho.zincite.api.session.Session;
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Método {@link ListenTo} de un {@link CallbackListener} enlazado a su instancia una única vez al registrarlo,
+ * de forma que cada CallbackQuery se despacha con un {@link MethodHandle} en vez de mediante reflection
+ */
+final class CallbackBinding {
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, CallbackQuery.class, CallbackParams.class, Session.class);
+
+    @Getter private final CallbackListener listener;
+    @Getter private final CallbackRoute route;
+
+    /**
+     * Si el método recibe la {@link Session} del usuario, que solo se carga en ese caso
+     */
+    @Getter private final boolean usingSession;
+
+    /**
+     * Invocador del método con el tipo exacto {@link #INVOKER_TYPE}
+     */
+    private final MethodHandle invoker;
+
+    private CallbackBinding(CallbackListener listener, CallbackRoute route, boolean usingSession, MethodHandle invoker) {
+        this.listener = listener;
+        this.route = route;
+        this.usingSession = usingSession;
+        this.invoker = invoker;
+    }
+
+    /**
+     * Enlazar un método de un listener.
+     * El método puede recibir, en cualquier orden, la {@link CallbackQuery}, los {@link CallbackParams} de su ruta
+     * y la {@link Session} del usuario en el chat del mensaje
+     * @param listener El listener
+     * @param method El método anotado con {@link ListenTo}
+     * @param route La ruta compilada del método
+     * @return El método enlazado
+     * @throws ZinciteException Si el método tiene parámetros no soportados o no es accesible
+     */
+    static CallbackBinding bind(CallbackListener listener, Method method, CallbackRoute route) {
+        Class<?>[] parameters = method.getParameterTypes();
+        int[] reorder = new int[parameters.length];
+        boolean usingSession = false;
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] == CallbackQuery.class) {
+                reorder[i] = 0;
+            } else if (parameters[i] == CallbackParams.class) {
+                reorder[i] = 1;
+            } else if (parameters[i] == Session.class) {
+                reorder[i] = 2;
+                usingSession = true;
+            } else {
+                throw new ZinciteException("El parámetro " + parameters[i].getSimpleName() + " de " + method + " no está soportado en un callback listener");
+            }
+        }
+
+        MethodHandle handle;
+        try {
+            method.trySetAccessible();
+            handle = MethodHandles.lookup().unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                handle = handle.bindTo(listener);
+            }
+        } catch (IllegalAccessException ex) {
+            throw new ZinciteException("No se puede acceder al callback listener " + method + ": " + ex.getMessage());
+        }
+        handle = handle.asType(handle.type().changeReturnType(void.class));
+        return new CallbackBinding(listener, route, usingSession, MethodHandles.permuteArguments(handle, INVOKER_TYPE, reorder));
+    }
+
+    /**
+     * Ejecutar el método enlazado
+     * @param query La CallbackQuery recibida
+     * @param params Los valores de las variables de la ruta
+     * @param session La sesión del usuario, o null si el método no la recibe
+     * @throws Throwable Cualquier excepción lanzada por el método
+     */
+    void invoke(CallbackQuery query, CallbackParams params, Session session) throws Throwable {
+        invoker.invokeExact(query, params, session);
+    }
+}
@@ -0,0 +1,42 @@
+package com.cadiducho.zincite.api.command;
+
+import java.util.Optional;
+
+/**
+ * Valores de las variables extraídas de los datos de una CallbackQuery según la ruta de su {@link ListenTo}.
+ * Los métodos de un {@link CallbackListener} pueden recibirlos declarando un parámetro de este tipo
+ */
+public final class CallbackParams {
+
+    static final CallbackParams EMPTY = new CallbackParams(new String[0], new String[0]);
+
+    private final String[] names;
+    private final String[] values;
+
+    CallbackParams(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Obten el valor de una variable de la ruta
+     * @param name Nombre de la variable
+     * @return Su valor, o Optional.empty() si la ruta no tiene esa variable
+     */
+    public Optional<String> get(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return Optional.of(values[i]);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Obten el número de variables de la ruta
+     * @return el número de variables
+     */
+    public int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,112 @@
+package com.cadiducho.zincite.api.command;
+
+import com.cadiducho.zincite.ZinciteException;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ruta de un {@link ListenTo}, compilada al registrar el listener.
+ * Las rutas pueden contener variables entre llaves, como <code>vote:{pollId}:{option}</code>,
+ * cuyo valor se extrae de los datos de la CallbackQuery comparando únicamente los trozos literales de la plantilla
+ */
+final class CallbackRoute {
+
+    /**
+     * La plantilla original
+     */
+    @Getter private final String template;
+
+    /**
+     * Trozos literales de la plantilla. Siempre hay uno más que variables, aunque puedan estar vacíos
+     */
+    private final String[] literals;
+
+    /**
+     * Nombres de las variables de la plantilla
+     */
+    @Getter private final String[] variables;
+
+    private CallbackRoute(String template, String[] literals, String[] variables) {
+        this.template = template;
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    /**
+     * Compilar una plantilla
+     * @param template La plantilla
+     * @return La ruta compilada
+     * @throws ZinciteException Si la plantilla no es válida
+     */
+    static CallbackRoute compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int open = template.indexOf('{', start);
+            if (open < 0) {
+                literals.add(template.substring(start));
+                break;
+            }
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new ZinciteException("La ruta '" + template + "' tiene una llave sin cerrar");
+            }
+            String literal = template.substring(start, open);
+            if (literal.isEmpty() && !variables.isEmpty()) {
+                throw new ZinciteException("La ruta '" + template + "' tiene dos variables seguidas");
+            }
+            String variable = template.substring(open + 1, close);
+            if (variable.isEmpty()) {
+                throw new ZinciteException("La ruta '" + template + "' tiene una variable sin nombre");
+            }
+            literals.add(literal);
+            variables.add(variable);
+            start = close + 1;
+        }
+        return new CallbackRoute(template, literals.toArray(new String[0]), variables.toArray(new String[0]));
+    }
+
+    /**
+     * Si la ruta no tiene variables y por tanto se puede buscar directamente por su valor
+     * @return true si no tiene variables
+     */
+    boolean isLiteral() {
+        return variables.length == 0;
+    }
+
+    /**
+     * Comprobar si los datos de una CallbackQuery encajan con la ruta, extrayendo el valor de sus variables
+     * @param data Los datos de la CallbackQuery
+     * @return Los valores de las variables en orden, o null si no encajan
+     */
+    String[] match(String data) {
+        String prefix = literals[0];
+        if (!data.startsWith(prefix)) {
+            return null;
+        }
+        String[] values = new String[variables.length];
+        int position = prefix.length();
+        for (int i = 0; i < variables.length; i++) {
+            String next = literals[i + 1];
+            int end;
+            if (i == variables.length - 1) {
+                // la última variable llega hasta el sufijo literal final, si lo hay
+                end = data.length() - next.length();
+                if (end <= position || !data.startsWith(next, end)) {
+                    return null;
+                }
+            } else {
+                end = data.indexOf(next, position + 1);
+                if (end < 0) {
+                    return null;
+                }
+            }
+            values[i] = data.substring(position, end);
+            position = end + next.length();
+        }
+        return values;
+    }
+}
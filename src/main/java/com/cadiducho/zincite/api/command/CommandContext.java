@@ -1,59 +1,100 @@
 package com.cadiducho.zincite.api.command;
 
+import com.cadiducho.telegrambotapi.ParseMode;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
 import com.cadiducho.zincite.api.command.args.*;
+import com.cadiducho.zincite.api.session.Session;
+import com.cadiducho.zincite.api.session.SessionManager;
 
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 /**
- * Clase para manejar el contexto en el que el comando es enviado
+ * Clase para manejar el contexto en el que el comando es enviado.
+ * Los argumentos no se separan ni se transforman hasta que se piden, y cada uno se transforma una única vez
  */
 public class CommandContext {
 
-    private final Map<String, String> rawArguments;
-    private final Map<String, Class<?>> rawTypes;
-    private String lastArgument;
+    private static final Object UNPARSED = new Object();
 
-    private static final Map<Class<?>, ArgumentType> parsers = new HashMap<>();
-    static {
-        //primitives
-        parsers.put(String.class, new StringArgumentType());
-        parsers.put(Integer.class, new IntegerArgumentType());
-        parsers.put(Double.class, new DoubleArgumentType());
-        parsers.put(Long.class, new LongArgumentType());
-        parsers.put(Boolean.class, new BoolArgumentType());
+    private final ArgumentSchema schema;
+    private final String text;
 
-        //dates
-        parsers.put(LocalDate.class, new LocalDateArgumentType());
-        parsers.put(LocalDateTime.class, new LocalDateTimeArgumentType());
-    }
+    /**
+     * Inicio y fin en el texto de cada argumento enviado, según su posición en el esquema
+     */
+    private final int[] starts;
+    private final int[] ends;
+
+    /**
+     * Número de argumentos del esquema que han sido enviados
+     */
+    private final int sent;
+
+    /**
+     * Fin del texto útil, sin los espacios finales
+     */
+    private final int textEnd;
+
+    /**
+     * Argumentos ya transformados con su {@link ArgumentType} por defecto
+     */
+    private Object[] values;
+
+    /**
+     * Gestor del que se carga la sesión del usuario la primera vez que se pide
+     */
+    private SessionManager sessions;
+    private Long chatId;
+    private Long userId;
+    private Session session;
+
+    /**
+     * Envía las respuestas al chat del comando
+     */
+    private Replier replier;
+
+    /**
+     * Respuestas enviadas, si el comando las guarda en caché
+     */
+    private List<ReplyCache.Reply> replies;
 
     public CommandContext(List<Argument> desiredArguments, String[] sentArguments) {
-        this.rawArguments = new HashMap<>();
-        this.rawTypes = new HashMap<>();
-        int i = 0;
-        for (Argument argument : desiredArguments) {
-            if (sentArguments.length > i) {
-                rawArguments.put(argument.name(), sentArguments[i]);
-                rawTypes.put(argument.name(), argument.type());
-
-                if (desiredArguments.size() == (i + 1)) { //si es el ultimo argumento esperado
-                    StringBuilder stringBuilder = new StringBuilder();
-                    for (int k = i; k < sentArguments.length; ++k) {
-                        if (k > i) {
-                            stringBuilder.append(" ");
-                        }
-                        stringBuilder.append(sentArguments[k]);
-                    }
-                    this.lastArgument = stringBuilder.toString();
-                }
-            }
-            ++i;
+        this(ArgumentSchema.compile(desiredArguments), String.join(" ", sentArguments), 0);
+    }
+
+    /**
+     * Crear el contexto de un comando sobre el texto original del mensaje
+     * @param schema El esquema de argumentos del comando
+     * @param text El texto del mensaje
+     * @param argumentsStart Posición del texto en la que empiezan los argumentos
+     */
+    public CommandContext(ArgumentSchema schema, String text, int argumentsStart) {
+        this.schema = schema;
+        this.text = text;
+        this.starts = new int[schema.size()];
+        this.ends = new int[schema.size()];
+
+        // mismas reglas que String#split(" "): se conservan los argumentos vacíos salvo los del final
+        int end = text.length();
+        while (end > argumentsStart && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        this.textEnd = end;
+
+        int count = 0;
+        int position = argumentsStart;
+        while (position < end && count < starts.length) {
+            int space = text.indexOf(' ', position);
+            int tokenEnd = (space < 0 || space > end) ? end : space;
+            starts[count] = position;
+            ends[count] = tokenEnd;
+            count++;
+            position = tokenEnd + 1;
         }
+        this.sent = count;
     }
 
     /**
@@ -66,20 +107,18 @@ public class CommandContext {
      */
     @SuppressWarnings("unchecked")
     public <T> Optional<T> get(String argName, ArgumentType<T> type) throws CommandParseException {
-        if (!rawArguments.containsKey(argName)) {
+        int index = schema.indexOf(argName);
+        if (index < 0 || index >= sent) {
             return Optional.empty();
         }
 
-        if (!parsers.containsKey(rawTypes.get(argName))) {
-            throw new CommandParseException("There is no serializer defined to the type '" + rawTypes.get(argName) + "'");
+        if (schema.getParser(index) == null) {
+            throw new CommandParseException("There is no serializer defined to the type '" + schema.get(index).type() + "'");
         }
-        ArgumentType<T> parser;
         if (type != null) {
-            parser = type;
-        } else {
-            parser = (ArgumentType<T>) parsers.get(rawTypes.get(argName));
+            return Optional.of(type.parse(raw(index)));
         }
-        return Optional.of(parser.parse(rawArguments.get(argName)));
+        return Optional.of((T) parse(index));
     }
 
     /**
@@ -93,10 +132,142 @@ public class CommandContext {
         return get(argName, null);
     }
 
+    /**
+     * Obten el último argumento esperado junto a todo el texto que le sigue
+     * @return El texto, o Optional.empty() si no se ha enviado el último argumento
+     */
     public Optional<String> getLastArguments() {
-        if (rawArguments.size() == 0) {
+        if (sent == 0 || sent < schema.size()) {
             return Optional.empty();
         }
-        return Optional.of(lastArgument);
+        return Optional.of(text.substring(starts[sent - 1], textEnd));
+    }
+
+    /**
+     * Obten la sesión de la conversación del usuario en este chat, para guardar el estado entre los pasos de un comando.
+     * Se carga la primera vez que se pide, y sus cambios se guardan cuando el comando termina sin errores
+     * @return La sesión
+     * @throws IllegalStateException Si el contexto no se ha creado al recibir un comando
+     */
+    public Session getSession() {
+        if (session == null) {
+            if (sessions == null || chatId == null || userId == null) {
+                throw new IllegalStateException("Este contexto no tiene sesión");
+            }
+            session = sessions.get(chatId, userId);
+        }
+        return session;
+    }
+
+    /**
+     * Responder en el chat del comando, en HTML. Si el comando tiene {@link CommandInfo#cacheSeconds()},
+     * la respuesta se guarda y se envía de nuevo cuando se repita el comando, sin ejecutarlo
+     * @param text El texto de la respuesta
+     * @throws TelegramException Si no se puede enviar la respuesta
+     * @throws IllegalStateException Si el contexto no se ha creado al recibir un comando
+     */
+    public void reply(String text) throws TelegramException {
+        reply(text, ParseMode.HTML);
+    }
+
+    /**
+     * Responder en el chat del comando. Ver {@link #reply(String)}
+     * @param text El texto de la respuesta
+     * @param parseMode El formato del texto, o null para texto plano
+     * @throws TelegramException Si no se puede enviar la respuesta
+     * @throws IllegalStateException Si el contexto no se ha creado al recibir un comando
+     */
+    public void reply(String text, ParseMode parseMode) throws TelegramException {
+        if (replier == null) {
+            throw new IllegalStateException("Este contexto no tiene chat en el que responder");
+        }
+        replier.send(text, parseMode);
+        if (replies != null) {
+            replies.add(new ReplyCache.Reply(text, parseMode));
+        }
+    }
+
+    /**
+     * Asociar el contexto al chat en el que se responde
+     * @param replier Envía las respuestas al chat
+     * @param record Si se deben guardar las respuestas enviadas
+     */
+    void attachReplier(Replier replier, boolean record) {
+        this.replier = replier;
+        this.replies = record ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Obten las respuestas enviadas con {@link #reply(String, ParseMode)}
+     * @return Las respuestas, vacío si no se guardan
+     */
+    List<ReplyCache.Reply> getReplies() {
+        return replies != null ? replies : List.of();
+    }
+
+    /**
+     * Asociar el contexto a la sesión de un usuario en un chat
+     */
+    void attachSession(SessionManager sessions, Long chatId, Long userId) {
+        this.sessions = sessions;
+        this.chatId = chatId;
+        this.userId = userId;
+    }
+
+    /**
+     * Guardar la sesión, si se ha usado
+     */
+    void saveSession() {
+        if (session != null) {
+            sessions.save(session);
+        }
+    }
+
+    /**
+     * Comprobar que se han enviado todos los argumentos requeridos y que se pueden transformar a su tipo
+     * @throws CommandParseException Si falta un argumento requerido o no se puede transformar
+     */
+    public void validate() throws CommandParseException {
+        for (int i = 0; i < schema.size(); i++) {
+            Argument argument = schema.get(i);
+            if (!argument.required()) {
+                continue;
+            }
+            if (i >= sent) {
+                throw new CommandParseException("Falta el argumento '" + argument.name() + "'");
+            }
+            if (schema.getParser(i) != null) {
+                try {
+                    parse(i);
+                } catch (CommandParseException ex) {
+                    throw new CommandParseException("El argumento '" + argument.name() + "' no es válido: " + ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+
+    private String raw(int index) {
+        return text.substring(starts[index], ends[index]);
+    }
+
+    private Object parse(int index) throws CommandParseException {
+        if (values == null) {
+            values = new Object[schema.size()];
+            Arrays.fill(values, UNPARSED);
+        }
+        Object value = values[index];
+        if (value == UNPARSED) {
+            value = schema.getParser(index).parse(raw(index));
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Envío de las respuestas de un comando
+     */
+    @FunctionalInterface
+    interface Replier {
+        void send(String text, ParseMode parseMode) throws TelegramException;
     }
 }
@@ -0,0 +1,136 @@
+package com.cadiducho.zincite.api.command;
+
+import com.cadiducho.zincite.api.command.args.Argument;
+import com.cadiducho.zincite.api.command.args.ArgumentSchema;
+import com.cadiducho.zincite.api.module.ZinciteModule;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Descripción inmutable de un {@link BotCommand}, calculada una única vez al registrarlo en el {@link CommandManager}
+ * para no volver a leer su {@link CommandInfo} mediante reflection en cada ejecución
+ */
+@Getter
+public final class CommandDescriptor {
+
+    /**
+     * El comando descrito
+     */
+    private final BotCommand command;
+
+    /**
+     * Nombre del comando, su primera alias
+     */
+    private final String name;
+
+    /**
+     * Alias por las que se puede ejecutar el comando
+     */
+    private final List<String> aliases;
+
+    /**
+     * Argumentos del comando
+     */
+    private final List<Argument> arguments;
+
+    /**
+     * Esquema compilado de los argumentos del comando
+     */
+    private final ArgumentSchema schema;
+
+    /**
+     * Descripción breve del comando
+     */
+    private final String description;
+
+    /**
+     * Si el comando está oculto de las listas de ayuda
+     */
+    private final boolean hidden;
+
+    /**
+     * Módulo al que pertenece el comando, una vez encontrado entre los cargados
+     */
+    @Getter(AccessLevel.NONE) private volatile ZinciteModule module;
+
+    /**
+     * Busca el módulo del comando, que puede cargarse después de registrar el comando
+     */
+    @Getter(AccessLevel.NONE) private final Supplier<ZinciteModule> moduleResolver;
+
+    /**
+     * Uso del comando ya formateado en HTML
+     */
+    private final String usage;
+
+    /**
+     * Límites de ejecuciones del comando
+     */
+    private final List<RateLimit> rateLimits;
+
+    /**
+     * Estado de cada límite de {@link #rateLimits}, en el mismo orden
+     */
+    @Getter(AccessLevel.NONE) final RateLimiter[] limiters;
+
+    /**
+     * Nombre del {@link Bulkhead} en el que se ejecuta el comando, o null si se ejecuta en el hilo de la update
+     */
+    private final String bulkhead;
+
+    /**
+     * Tiempo máximo de ejecución del comando, o null si no tiene
+     */
+    private final Duration timeout;
+
+    /**
+     * Tiempo que se guardan las respuestas del comando, o null si no se guardan
+     */
+    private final Duration cacheTtl;
+
+    /**
+     * Con quién se comparten las respuestas guardadas
+     */
+    private final CacheScope cacheScope;
+
+    CommandDescriptor(BotCommand command, Supplier<ZinciteModule> moduleResolver) {
+        this.command = command;
+        this.name = command.getName();
+        this.aliases = List.copyOf(command.getAliases());
+        this.arguments = List.copyOf(command.getArguments());
+        this.schema = ArgumentSchema.compile(arguments);
+        this.description = command.getDescription();
+        this.hidden = command.isHidden();
+        this.moduleResolver = moduleResolver;
+        this.usage = command.getUsage();
+        this.rateLimits = List.copyOf(command.getRateLimits());
+        this.limiters = rateLimits.stream()
+                .map(limit -> new RateLimiter(limit.count(), Duration.ofSeconds(limit.seconds())))
+                .toArray(RateLimiter[]::new);
+        Duration commandTimeout = command.getTimeout();
+        this.timeout = commandTimeout == null || commandTimeout.isZero() || commandTimeout.isNegative() ? null : commandTimeout;
+        String commandBulkhead = command.getBulkhead();
+        this.bulkhead = commandBulkhead != null && !commandBulkhead.isEmpty() ? commandBulkhead
+                : timeout != null ? CommandManager.DEFAULT_BULKHEAD : null;
+        Duration commandCacheTtl = command.getCacheTtl();
+        this.cacheTtl = commandCacheTtl == null || commandCacheTtl.isZero() || commandCacheTtl.isNegative() ? null : commandCacheTtl;
+        this.cacheScope = command.getCacheScope() != null ? command.getCacheScope() : CacheScope.GLOBAL;
+    }
+
+    /**
+     * Obten el módulo al que pertenece el comando. Se busca hasta que se encuentra cargado, y desde entonces se recuerda
+     * @return El módulo, o null si no pertenece a ninguno cargado
+     */
+    public ZinciteModule getModule() {
+        ZinciteModule resolved = module;
+        if (resolved == null) {
+            resolved = moduleResolver.get();
+            module = resolved;
+        }
+        return resolved;
+    }
+}
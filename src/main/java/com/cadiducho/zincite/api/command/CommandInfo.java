@@ -41,4 +41,41 @@ public @interface CommandInfo {
      * @return true si es hidden
      */
     boolean hidden() default false;
+
+    /**
+     * Límites de ejecuciones del comando por usuario, por chat o globales. Ver {@link RateLimit}
+     * @return lista de límites
+     */
+    RateLimit[] limits() default {};
+
+    /**
+     * Nombre del {@link Bulkhead} en el que se ejecuta el comando, fuera del hilo que atiende las updates.
+     * Los compartimentos se crean con {@link CommandManager#registerBulkhead(String, int, int)}, o con el tamaño por defecto al usarlos.
+     * Vacío para ejecutarlo directamente, o en el compartimento por defecto si tiene {@link #timeout()}.
+     * En un compartimento, el comando se ejecuta a la vez que las siguientes updates del mismo usuario,
+     * así que si lee y modifica la sesión del usuario puede perder los cambios de otra ejecución
+     * @return nombre del compartimento
+     */
+    String bulkhead() default "";
+
+    /**
+     * Segundos que puede tardar el comando antes de cancelarlo y avisar al usuario. 0 para no limitarlo
+     * @return segundos de ejecución máximos
+     */
+    int timeout() default 0;
+
+    /**
+     * Segundos que se guardan las respuestas del comando, para enviarlas de nuevo sin ejecutarlo cuando se repite con los mismos argumentos.
+     * Solo se guardan y se repiten los textos enviados con {@link CommandContext#reply(String)}: lo que el comando envíe directamente
+     * con el {@link com.cadiducho.telegrambotapi.TelegramBot}, como fotos, teclados o ediciones, no se envía al responder desde la caché,
+     * así que solo debe usarse en comandos que respondan únicamente con <code>reply</code>. 0 para ejecutarlo siempre
+     * @return segundos en caché
+     */
+    int cacheSeconds() default 0;
+
+    /**
+     * Con quién se comparten las respuestas guardadas. Ver {@link CacheScope}
+     * @return ámbito de la caché
+     */
+    CacheScope cacheScope() default CacheScope.GLOBAL;
 }
\ No newline at end of file
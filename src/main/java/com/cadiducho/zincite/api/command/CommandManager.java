@@ -3,33 +3,117 @@ package com.cadiducho.zincite.api.command;
 import com.cadiducho.telegrambotapi.*;
 import com.cadiducho.telegrambotapi.exception.TelegramException;
 import com.cadiducho.zincite.ZinciteBot;
+import com.cadiducho.zincite.api.command.args.CommandParseException;
+import com.cadiducho.zincite.api.module.ModuleListener;
+import com.cadiducho.zincite.api.module.ZinciteModule;
+import com.cadiducho.zincite.api.session.HeapSessionStorage;
+import com.cadiducho.zincite.api.session.Session;
+import com.cadiducho.zincite.api.session.SessionManager;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import com.cadiducho.zincite.outbound.OutboundScheduler;
+import com.cadiducho.zincite.outbound.Priority;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.java.Log;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
 /**
- * Class to handle and add all his commands
+ * Class to handle and add all his commands.
+ * Commands and listeners can be registered and unregistered while updates are being handled, as modules are reloaded
  *
  * @author Cadiducho
  */
 @Log
-@RequiredArgsConstructor
-public class CommandManager {
+public class CommandManager implements ModuleListener {
+
+    /**
+     * {@link Bulkhead} de los comandos con tiempo máximo de ejecución que no indican uno
+     */
+    public static final String DEFAULT_BULKHEAD = "default";
 
     private final ZinciteBot zincite;
-    private final Map<String, BotCommand> commandMap = new HashMap<>();
-    private final Map<String, CallbackListenerMethodInstance> callbackListenersMap = new HashMap<>();
+    private final MetricsRegistry metrics;
+    private final SessionManager sessions;
+    private final FloodGuard floodGuard;
+    private final ReplyCache replyCache;
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final int bulkheadConcurrency;
+    private final int bulkheadQueueSize;
+    private ScheduledExecutorService timeouts; // guarded by this, creado con el primer comando con tiempo máximo
+    private final Map<String, CommandDescriptor> commandMap = new ConcurrentHashMap<>();
+    // copiado en cada cambio bajo this, para que los comandos lean su descripción sin bloquear
+    private volatile Map<BotCommand, CommandDescriptor> descriptors = new IdentityHashMap<>();
+
+    /**
+     * Callback listeners sin variables en su ruta, buscados directamente por su valor
+     */
+    private final Map<String, CallbackBinding> callbackListenersMap = new ConcurrentHashMap<>();
+
+    /**
+     * Callback listeners con variables en su ruta, comprobados en orden de registro
+     */
+    private final List<CallbackBinding> templatedCallbackListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Interceptores registrados, en el orden en el que se ejecutan
+     */
+    private final List<RegisteredInterceptor> interceptors = new ArrayList<>(); // guarded by this
+
+    /**
+     * Cadenas de interceptores ya enlazadas hasta la ejecución de los comandos y de los callback listeners, reconstruidas en cada registro
+     */
+    private volatile Interceptor.Chain commandChain = this::executeCommand;
+    private volatile Interceptor.Chain callbackChain = this::executeCallback;
+
+    /**
+     * Router con todas las alias, reconstruido en cada registro
+     */
+    private volatile CommandRouter router = CommandRouter.EMPTY;
+
+    /**
+     * Username del bot en minúsculas, obtenido una única vez de Telegram
+     */
+    private volatile String botUsername;
+
+    public CommandManager(ZinciteBot zincite) {
+        this.zincite = zincite;
+        this.metrics = zincite != null ? zincite.getMetrics() : new MetricsRegistry();
+        this.sessions = zincite != null ? zincite.getSessions() : new SessionManager(new HeapSessionStorage(1000), Duration.ofHours(1));
+        this.floodGuard = zincite != null
+                ? new FloodGuard(zincite.getConfig().floodUserLimit, Duration.ofSeconds(zincite.getConfig().floodUserPeriod), zincite.getConfig().floodAction)
+                : new FloodGuard(0, Duration.ZERO, FloodAction.WARN);
+        this.replyCache = new ReplyCache(zincite != null ? zincite.getConfig().replyCacheSize : 1000);
+        this.bulkheadConcurrency = zincite != null ? zincite.getConfig().bulkheadConcurrency : 4;
+        this.bulkheadQueueSize = zincite != null ? zincite.getConfig().bulkheadQueueSize : 16;
+    }
 
     /**
      * Registrar un comando y, si contiene, sus listener de CallbackQuery
      * @param cmd El comando a registrar
      */
-    public void register(BotCommand cmd) {
-        cmd.getAliases().forEach(alias -> commandMap.put(alias.toLowerCase(), cmd));
+    public synchronized void register(BotCommand cmd) {
+        CommandDescriptor descriptor = new CommandDescriptor(cmd, () -> resolveModule(cmd));
+        Map<BotCommand, CommandDescriptor> updated = new IdentityHashMap<>(descriptors);
+        updated.put(cmd, descriptor);
+        descriptors = updated;
+        descriptor.getAliases().forEach(alias -> commandMap.put(alias.toLowerCase(), descriptor));
+        router = CommandRouter.build(commandMap);
 
         //Comprobar si tiene Listeners en su interior, y registrarlos
         if (cmd instanceof CallbackListener) {
@@ -38,99 +122,625 @@ public class CommandManager {
     }
 
     /**
-     * Registrar un nuevo listener de CallbackQuery
+     * Registrar un nuevo listener de CallbackQuery.
+     * Cada método anotado con {@link ListenTo} se enlaza en este momento, y su ruta puede contener variables como <code>vote:{pollId}:{option}</code>
      * @param listener El listener a registrar
      */
-    public void registerCallbackQueryListener(CallbackListener listener) {
+    public synchronized void registerCallbackQueryListener(CallbackListener listener) {
         for (Method method : listener.getClass().getMethods()) {
             if (method.isAnnotationPresent(ListenTo.class)) {
-                ListenTo listenTo = method.getAnnotation(ListenTo.class);
-                CallbackListenerMethodInstance instance = new CallbackListenerMethodInstance(listener, method); //necesitamos guardar el método y su instancia de clase para ejecutarla mediante reflection
-                callbackListenersMap.put(listenTo.value(), instance);
+                CallbackRoute route = CallbackRoute.compile(method.getAnnotation(ListenTo.class).value());
+                CallbackBinding binding = CallbackBinding.bind(listener, method, route);
+                if (route.isLiteral()) {
+                    callbackListenersMap.put(route.getTemplate(), binding);
+                } else {
+                    templatedCallbackListeners.add(binding);
+                }
             }
         }
     }
 
+    /**
+     * Eliminar un comando y, si contiene, sus listener de CallbackQuery
+     * @param cmd El comando a eliminar
+     * @return true si estaba registrado
+     */
+    public synchronized boolean unregister(BotCommand cmd) {
+        Map<BotCommand, CommandDescriptor> updated = new IdentityHashMap<>(descriptors);
+        CommandDescriptor descriptor = updated.remove(cmd);
+        if (descriptor == null) {
+            return false;
+        }
+        descriptors = updated;
+        // una alias puede haber sido reemplazada por otro comando registrado después
+        descriptor.getAliases().forEach(alias -> commandMap.remove(alias.toLowerCase(), descriptor));
+        router = CommandRouter.build(commandMap);
+        replyCache.invalidate(descriptor.getName());
+
+        if (cmd instanceof CallbackListener) {
+            unregisterCallbackQueryListener((CallbackListener) cmd);
+        }
+        return true;
+    }
+
+    /**
+     * Eliminar las respuestas guardadas de un comando con {@link CommandInfo#cacheSeconds()}, para que se vuelva a ejecutar
+     * cuando cambien los datos con los que responde
+     * @param cmd El comando
+     */
+    public void invalidateReplies(BotCommand cmd) {
+        replyCache.invalidate(cmd.getName());
+    }
+
+    /**
+     * Eliminar todos los métodos de un listener de CallbackQuery
+     * @param listener El listener a eliminar
+     */
+    public synchronized void unregisterCallbackQueryListener(CallbackListener listener) {
+        callbackListenersMap.values().removeIf(binding -> binding.getListener() == listener);
+        templatedCallbackListeners.removeIf(binding -> binding.getListener() == listener);
+    }
+
+    /**
+     * Registrar un interceptor de los comandos y callback listeners, en orden 0
+     * @param interceptor El interceptor
+     */
+    public void registerInterceptor(Interceptor interceptor) {
+        registerInterceptor(interceptor, 0);
+    }
+
+    /**
+     * Registrar un interceptor de los comandos y callback listeners.
+     * Los interceptores de menor orden se ejecutan antes, y los de igual orden según se registraron
+     * @param interceptor El interceptor
+     * @param order Orden del interceptor en la cadena
+     */
+    public synchronized void registerInterceptor(Interceptor interceptor, int order) {
+        interceptors.add(new RegisteredInterceptor(interceptor, order));
+        interceptors.sort(Comparator.comparingInt(registered -> registered.order));
+        linkInterceptors();
+    }
+
+    /**
+     * Eliminar un interceptor
+     * @param interceptor El interceptor
+     * @return true si estaba registrado
+     */
+    public synchronized boolean unregisterInterceptor(Interceptor interceptor) {
+        if (interceptors.removeIf(registered -> registered.interceptor == interceptor)) {
+            linkInterceptors();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Enlazar cada interceptor con el siguiente una única vez, para que cada invocación solo recorra la cadena
+     */
+    private void linkInterceptors() {
+        Interceptor.Chain commands = this::executeCommand;
+        Interceptor.Chain callbacks = this::executeCallback;
+        for (int i = interceptors.size() - 1; i >= 0; i--) {
+            Interceptor interceptor = interceptors.get(i).interceptor;
+            commands = link(interceptor, commands);
+            callbacks = link(interceptor, callbacks);
+        }
+        commandChain = commands;
+        callbackChain = callbacks;
+    }
+
+    private static Interceptor.Chain link(Interceptor interceptor, Interceptor.Chain next) {
+        return invocation -> interceptor.intercept(invocation, next);
+    }
+
+    /**
+     * Crear un {@link Bulkhead}, reemplazando al anterior con el mismo nombre. Los comandos que ya estaban en el anterior terminan en él
+     * @param name Nombre del compartimento, como se indica en {@link CommandInfo#bulkhead()}
+     * @param maxConcurrency Comandos ejecutándose a la vez como máximo
+     * @param queueSize Comandos esperando como máximo
+     * @return El compartimento
+     */
+    public Bulkhead registerBulkhead(String name, int maxConcurrency, int queueSize) {
+        Bulkhead bulkhead = new Bulkhead(name, maxConcurrency, queueSize);
+        Bulkhead previous = bulkheads.put(name, bulkhead);
+        if (previous != null) {
+            try {
+                previous.shutdown(0, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return bulkhead;
+    }
+
+    /**
+     * Obtener un {@link Bulkhead}
+     * @param name Nombre del compartimento
+     * @return El compartimento, o Optional.empty() si aún no se ha creado
+     */
+    public Optional<Bulkhead> getBulkhead(String name) {
+        return Optional.ofNullable(bulkheads.get(name));
+    }
+
+    /**
+     * Dejar de aceptar comandos en los {@link Bulkhead} y esperar a que terminen los que se están ejecutando
+     * @param timeout Tiempo máximo de espera
+     * @param unit Unidad del tiempo de espera
+     * @return true si han terminado todos los comandos
+     * @throws InterruptedException Si se interrumpe la espera
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean finished = true;
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            finished &= bulkhead.shutdown(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        synchronized (this) {
+            if (timeouts != null) {
+                timeouts.shutdownNow();
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Eliminar los comandos, listeners e interceptores de un módulo: los que indican el módulo en su {@link CommandInfo},
+     * y los cargados desde el mismo jar que el módulo
+     * @param module El módulo
+     */
+    public synchronized void unregisterModule(ZinciteModule module) {
+        ClassLoader loader = module.getClass().getClassLoader();
+        boolean isolated = loader != CommandManager.class.getClassLoader();
+
+        List<BotCommand> owned = new ArrayList<>();
+        descriptors.forEach((cmd, descriptor) -> {
+            if (descriptor.getModule() == module || declaredModule(cmd) == module.getClass()
+                    || (isolated && cmd.getClass().getClassLoader() == loader)) {
+                owned.add(cmd);
+            }
+        });
+        owned.forEach(this::unregister);
+        if (isolated) {
+            callbackListenersMap.values().removeIf(binding -> binding.getListener().getClass().getClassLoader() == loader);
+            templatedCallbackListeners.removeIf(binding -> binding.getListener().getClass().getClassLoader() == loader);
+            if (interceptors.removeIf(registered -> registered.interceptor.getClass().getClassLoader() == loader)) {
+                linkInterceptors();
+            }
+        }
+        if (!owned.isEmpty()) {
+            log.info("Eliminados " + owned.size() + " comandos del módulo " + module.getName());
+        }
+    }
+
+    @Override
+    public void onModuleUnloaded(ZinciteModule module) {
+        unregisterModule(module);
+    }
+
+    @Override
+    public void onModulesChanged() {
+        if (zincite != null) {
+            registerCommandsToTelegramHelp();
+        }
+    }
+
+    /**
+     * Obtener el módulo cargado al que pertenece un comando según su {@link CommandInfo}
+     * @param cmd El comando
+     * @return El módulo, o null si no pertenece a ninguno
+     */
+    private ZinciteModule resolveModule(BotCommand cmd) {
+        Class<? extends ZinciteModule> moduleClass = declaredModule(cmd);
+        if (zincite == null || moduleClass == null) {
+            return null;
+        }
+        return zincite.getModuleManager().getModule(moduleClass).orElse(null);
+    }
+
+    /**
+     * Obtener la clase del módulo que indica el {@link CommandInfo} de un comando
+     * @param cmd El comando
+     * @return La clase, o null si el comando no tiene {@link CommandInfo}
+     */
+    private static Class<? extends ZinciteModule> declaredModule(BotCommand cmd) {
+        CommandInfo info = cmd.getClass().getAnnotation(CommandInfo.class);
+        return info == null ? null : info.module();
+    }
+
     public Optional<BotCommand> getCommand(String alias) {
+        return getDescriptor(alias).map(CommandDescriptor::getCommand);
+    }
+
+    /**
+     * Obtener la descripción de un comando registrado según una de sus alias
+     * @param alias La alias, en minúsculas
+     * @return La descripción del comando
+     */
+    public Optional<CommandDescriptor> getDescriptor(String alias) {
         return Optional.ofNullable(commandMap.get(alias));
     }
 
-    public Optional<CallbackListenerMethodInstance> getCallbackListener(String query) {
-        return Optional.ofNullable(callbackListenersMap.get(query));
+    /**
+     * Obtener la descripción de un comando registrado
+     * @param cmd El comando
+     * @return La descripción del comando, o Optional.empty() si no está registrado
+     */
+    public Optional<CommandDescriptor> getDescriptor(BotCommand cmd) {
+        return Optional.ofNullable(descriptors.get(cmd));
+    }
+
+    /**
+     * Obtener la descripción de todos los comandos registrados
+     * @return Las descripciones
+     */
+    public Collection<CommandDescriptor> getDescriptors() {
+        return List.copyOf(descriptors.values());
+    }
+
+    /**
+     * Obtener el callback listener al que van dirigidos unos datos de CallbackQuery
+     * @param data Los datos de la CallbackQuery
+     * @return El listener y los valores de las variables de su ruta
+     */
+    Optional<CallbackMatch> getCallbackListener(String data) {
+        // sin variables, la ruta es lo que hay antes del primer '#'
+        int separator = data.indexOf('#');
+        CallbackBinding binding = callbackListenersMap.get(separator < 0 ? data : data.substring(0, separator));
+        if (binding != null) {
+            return Optional.of(new CallbackMatch(binding, CallbackParams.EMPTY));
+        }
+        for (CallbackBinding templated : templatedCallbackListeners) {
+            String[] values = templated.getRoute().match(data);
+            if (values != null) {
+                return Optional.of(new CallbackMatch(templated, new CallbackParams(templated.getRoute().getVariables(), values)));
+            }
+        }
+        return Optional.empty();
     }
 
     /**
-     * Ejecutar un comando
+     * Ejecutar un comando, si no supera sus {@link RateLimit} ni el límite de comandos por usuario, pasando antes por los {@link Interceptor} registrados
      *
      * @param bot Bot que recibe la update
      * @param update Update del comando
-     * @return Verdadero si se ha ejecutado, falso si no
+     * @return Verdadero si se ha ejecutado, falso si no, si supera un límite o si lo ha rechazado un interceptor. Si faltan argumentos requeridos se responde con el uso del comando sin ejecutarlo.
+     * Si el comando se ejecuta en un {@link Bulkhead}, verdadero si el compartimento lo ha aceptado
      * @throws com.cadiducho.telegrambotapi.exception.TelegramException Excepcion
      */
     public boolean onCmd(TelegramBot bot, Update update) throws TelegramException {
+        return onCmd(bot, update, null);
+    }
+
+    /**
+     * Ejecutar un comando como {@link #onCmd(TelegramBot, Update)}, avisando cuando termine.
+     * Un comando con {@link CommandInfo#bulkhead()} termina en su compartimento, después de que este método haya devuelto
+     *
+     * @param bot Bot que recibe la update
+     * @param update Update del comando
+     * @param finished Recibe una única vez si se ha ejecutado el comando y ha terminado sin errores, o null
+     * @return Verdadero si se ha ejecutado o, en un compartimento, si se ha aceptado
+     * @throws com.cadiducho.telegrambotapi.exception.TelegramException Excepcion
+     */
+    public boolean onCmd(TelegramBot bot, Update update, Consumer<Boolean> finished) throws TelegramException {
         Instant now = Instant.now();
         Message message = update.getMessage();
         User from = update.getMessage().getFrom();
+        String text = message.getText();
 
-        log.info((from.getUsername() == null ? from.getFirstName() : ("@" + from.getUsername())) +
-                        "#" + message.getChat().getId() +
-                        ": " + message.getText());
+        CommandRouter.Route route = router.route(text, getBotUsername(bot));
+        if (route == null) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(formatSender(from) + "#" + message.getChat().getId() + ": " + text);
+            }
+            notifyFinished(finished, false);
+            return false; // ni alias ni frase entera
+        }
+        log.info(formatSender(from) + "#" + message.getChat().getId() + ": " + text);
 
-        String[] rawcmd = message.getText().split(" ");
-        if (rawcmd.length == 0) {
+        Invocation invocation = Invocation.command(bot, message, route, now);
+        invocation.finished = finished;
+        FloodGuard.Rejection rejection = floodGuard.check(invocation, System.nanoTime());
+        if (rejection != null) {
+            metrics.counter("zincite_command_flooded_total", "Commands dropped for exceeding a rate limit", "command", invocation.getName()).increment();
+            log.info(" # '" + invocation.getName() + "' supera su límite de ejecuciones");
+            if (rejection.isWarn()) {
+                long seconds = Math.max(1, (rejection.getWait().toMillis() + 999) / 1000);
+                reply(bot, message.getChat().getId(), "Espera " + seconds + " segundos antes de volver a usar " + invocation.getName());
+            }
+            notifyFinished(finished, false);
             return false;
         }
+        boolean executed = commandChain.proceed(invocation);
+        if (!invocation.reached) {
+            metrics.counter("zincite_command_intercepted_total", "Commands rejected by an interceptor", "command", invocation.getName()).increment();
+            log.info(" # '" + invocation.getName() + "' rechazado por un interceptor");
+        }
+        if (!invocation.deferred) {
+            notifyFinished(finished, executed);
+        }
+        return executed;
+    }
 
-        String sentLabel = rawcmd[0].toLowerCase().replace("@" + bot.getMe().getUsername().toLowerCase(), "");
-        Optional<BotCommand> target = getCommand(sentLabel);
-        if (!target.isPresent()) {
-            // no encontrado por primer alias, buscar frase entera
-            target = getCommand(message.getText().toLowerCase());
-            if (!target.isPresent()) {
-                return false; // ni alias ni frase entera
+    private static void notifyFinished(Consumer<Boolean> finished, boolean success) {
+        if (finished != null) {
+            finished.accept(success);
+        }
+    }
+
+    /**
+     * Final de la cadena de interceptores de los comandos: interpretar los argumentos y ejecutar el comando
+     */
+    private boolean executeCommand(Invocation invocation) throws TelegramException {
+        invocation.reached = true;
+        TelegramBot bot = invocation.bot;
+        Message message = invocation.getMessage();
+        User from = invocation.getUser();
+        CommandDescriptor target = invocation.getDescriptor();
+        CommandContext context = new CommandContext(target.getSchema(), invocation.getText(), invocation.argumentsStart);
+        Long chatId = message.getChat().getId();
+        context.attachSession(sessions, chatId, from.getId());
+        context.attachReplier((text, parseMode) -> reply(bot, chatId, text, parseMode), target.getCacheTtl() != null);
+        try {
+            context.validate();
+        } catch (CommandParseException ex) {
+            metrics.counter("zincite_command_rejections_total", "Commands not executed because of invalid arguments", "command", target.getName()).increment();
+            log.info(" # Argumentos no válidos para '" + target.getName() + "': " + ex.getMessage());
+            reply(bot, chatId, "<b>" + ex.getMessage() + "</b>\n" + target.getUsage());
+            return false;
+        }
+
+        if (target.getCacheTtl() != null) {
+            List<ReplyCache.Reply> cached = replyCache.get(invocation);
+            if (cached != null) {
+                metrics.counter("zincite_reply_cache_hits_total", "Commands answered with their cached replies", "command", target.getName()).increment();
+                log.info(" # Respondiendo '" + target.getName() + "' desde la caché");
+                for (ReplyCache.Reply cachedReply : cached) {
+                    reply(bot, chatId, cachedReply.getText(), cachedReply.getParseMode());
+                }
+                return true;
             }
+            metrics.counter("zincite_reply_cache_misses_total", "Cacheable commands executed because their replies were not cached", "command", target.getName()).increment();
+        }
+
+        if (target.getBulkhead() != null) {
+            return executeInBulkhead(invocation, context);
+        }
+        runCommand(invocation, context);
+        cacheReplies(invocation, context);
+        return true;
+    }
+
+    private void runCommand(Invocation invocation, CommandContext context) throws TelegramException {
+        Message message = invocation.getMessage();
+        CommandDescriptor target = invocation.getDescriptor();
+        log.info(" # Ejecutando '" + target.getName() + "'");
+        long start = System.nanoTime();
+        try {
+            target.getCommand().execute(message.getChat(), invocation.getUser(), context, message.getMessageId(), message.getReplyToMessage(), invocation.getReceivedAt());
+            context.saveSession();
+        } finally {
+            metrics.histogram("zincite_command_duration_seconds", "Time spent executing each command", "command", target.getName())
+                    .record(System.nanoTime() - start);
         }
+    }
 
-        CommandContext context = new CommandContext(target.get().getArguments(), Arrays.copyOfRange(rawcmd, 1, rawcmd.length));
+    /**
+     * Guardar las respuestas de un comando que ha terminado correctamente, si su comando las guarda en caché
+     */
+    private void cacheReplies(Invocation invocation, CommandContext context) {
+        if (invocation.getDescriptor().getCacheTtl() != null) {
+            replyCache.put(invocation, context.getReplies());
+        }
+    }
 
-        log.info(" # Ejecutando '" + target.get().getName() + "'");
-        target.get().execute(message.getChat(), from, context, message.getMessageId(), message.getReplyToMessage(), now);
+    /**
+     * Ejecutar un comando en su {@link Bulkhead}, sin esperar a que termine, y cancelarlo si supera su tiempo máximo.
+     * El tiempo máximo cuenta desde que entra en el compartimento, incluida la espera en su cola.
+     * Al terminar, o al cancelarse, avisa con el resultado real a quien espera la invocación
+     * @return false si el compartimento está lleno
+     */
+    private boolean executeInBulkhead(Invocation invocation, CommandContext context) throws TelegramException {
+        CommandDescriptor target = invocation.getDescriptor();
+        Long chatId = invocation.getChatId();
+        Bulkhead bulkhead = bulkheads.computeIfAbsent(target.getBulkhead(), name -> new Bulkhead(name, bulkheadConcurrency, bulkheadQueueSize));
+        IsolatedCommand task = new IsolatedCommand(() -> {
+            try {
+                runCommand(invocation, context);
+                return true;
+            } catch (TelegramException ex) {
+                log.severe("Error ejecutando '" + target.getName() + "' en la API de Telegram: " + ex.getMessage());
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Error no esperado ejecutando '" + target.getName() + "'", ex);
+            }
+            return false;
+        }, success -> {
+            if (success) {
+                cacheReplies(invocation, context);
+            }
+            notifyFinished(invocation.finished, success);
+        });
+        invocation.deferred = true;
+        try {
+            bulkhead.execute(task);
+        } catch (RejectedExecutionException ex) {
+            invocation.deferred = false;
+            metrics.counter("zincite_bulkhead_rejections_total", "Commands rejected because their bulkhead was full", "bulkhead", bulkhead.getName()).increment();
+            log.info(" # '" + target.getName() + "' rechazado, el compartimento " + bulkhead.getName() + " está lleno");
+            reply(invocation.bot, chatId, "<b>" + target.getName() + "</b> está ocupado, inténtalo de nuevo más tarde");
+            return false;
+        }
 
+        if (target.getTimeout() != null) {
+            task.watch(timeouts().schedule(() -> {
+                if (task.cancel(true)) {
+                    metrics.counter("zincite_command_timeouts_total", "Commands cancelled for exceeding their timeout", "command", target.getName()).increment();
+                    log.warning(" # '" + target.getName() + "' cancelado tras " + target.getTimeout().toMillis() + " ms");
+                    try {
+                        reply(invocation.bot, chatId, "<b>" + target.getName() + "</b> ha tardado demasiado y se ha cancelado");
+                    } catch (TelegramException ex) {
+                        log.warning("No se ha podido avisar en el chat " + chatId + ": " + ex.getMessage());
+                    }
+                }
+            }, target.getTimeout().toNanos(), TimeUnit.NANOSECONDS));
+        }
         return true;
     }
 
+    private synchronized ScheduledExecutorService timeouts() {
+        if (timeouts == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "ZinciteCommandTimeouts");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // los comandos que terminan a tiempo quitan su aviso de la cola en lugar de dejarlo hasta que se cumpla
+            executor.setRemoveOnCancelPolicy(true);
+            timeouts = executor;
+        }
+        return timeouts;
+    }
+
+    /**
+     * Comando ejecutándose en un {@link Bulkhead}, que cancela el aviso de su tiempo máximo al terminar
+     */
+    private static final class IsolatedCommand extends FutureTask<Boolean> {
+        private final Consumer<Boolean> finished;
+        private volatile ScheduledFuture<?> watchdog;
+
+        /**
+         * @param command El comando, que devuelve si ha terminado correctamente
+         * @param finished Recibe si el comando ha terminado correctamente sin haber sido cancelado
+         */
+        IsolatedCommand(Callable<Boolean> command, Consumer<Boolean> finished) {
+            super(command);
+            this.finished = finished;
+        }
+
+        void watch(ScheduledFuture<?> watchdog) {
+            this.watchdog = watchdog;
+            if (isDone()) {
+                watchdog.cancel(false);
+            }
+        }
+
+        @Override
+        protected void done() {
+            ScheduledFuture<?> current = watchdog;
+            if (current != null) {
+                current.cancel(false);
+            }
+            // un comando cancelado por su tiempo máximo puede haber respondido solo en parte
+            boolean success = false;
+            if (!isCancelled()) {
+                try {
+                    success = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    // el comando ha fallado, no hay respuestas que guardar
+                }
+            }
+            finished.accept(success);
+        }
+    }
+
+    /**
+     * Responder en un chat, a través del {@link OutboundScheduler} si el framework está en marcha
+     */
+    private void reply(TelegramBot bot, Long chatId, String text) throws TelegramException {
+        reply(bot, chatId, text, ParseMode.HTML);
+    }
+
+    private void reply(TelegramBot bot, Long chatId, String text, ParseMode parseMode) throws TelegramException {
+        if (zincite == null) {
+            bot.sendMessage(chatId, text, parseMode, null, null, null, null, null);
+            return;
+        }
+        zincite.getOutbound().sendMessage(chatId, text, parseMode, Priority.HIGH).whenComplete((sent, ex) -> {
+            if (ex != null) {
+                log.warning("No se ha podido responder en el chat " + chatId + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    private String getBotUsername(TelegramBot bot) throws TelegramException {
+        String username = botUsername;
+        if (username == null) {
+            User me = zincite != null ? zincite.getTelegramCache().getMe() : bot.getMe();
+            username = me.getUsername().toLowerCase();
+            botUsername = username;
+        }
+        return username;
+    }
+
+    private static String formatSender(User from) {
+        return from.getUsername() == null ? from.getFirstName() : ("@" + from.getUsername());
+    }
+
     public void onCallbackQuery(CallbackQuery callbackQuery) {
         User from = callbackQuery.getFrom();
 
-        log.info("InlineCallbackQuery: " +
-                (from.getUsername() == null ? from.getFirstName() : ("@" + from.getUsername())) +
+        log.info("InlineCallbackQuery: " + formatSender(from) +
                 "#" + (callbackQuery.getMessage() != null ? callbackQuery.getMessage().getChat().getId() : "") +
                 ": " + callbackQuery.getData());
 
-        String callbackQueryDataName = callbackQuery.getData().split("#")[0];
-        Optional<CallbackListenerMethodInstance> target = getCallbackListener(callbackQueryDataName);
+        if (callbackQuery.getData() == null) {
+            return;
+        }
+        Optional<CallbackMatch> target = getCallbackListener(callbackQuery.getData());
         if (target.isPresent()) {
-            CallbackListenerMethodInstance cblMethod = target.get();
+            Invocation invocation = Invocation.callback(callbackQuery, target.get(), Instant.now());
+            if (floodGuard.check(invocation, System.nanoTime()) != null) {
+                metrics.counter("zincite_callback_flooded_total", "Callback queries dropped for exceeding the per user limit", "route", invocation.getName()).increment();
+                log.info(" # '" + callbackQuery.getData() + "' supera el límite de invocaciones del usuario");
+                return;
+            }
             try {
-                log.info(" # Ejecutando callback listener para '" + callbackQuery.getData() + "'");
-                cblMethod.method.invoke(cblMethod.listenerInstance, callbackQuery);
-            } catch (InvocationTargetException invocationException) {
-                if (invocationException.getCause() instanceof TelegramException) { // los métodos de listener pueden lanzar TelegramException
-                    log.severe("Error respondiendo a un CallbackQuery en la API de Telegram: ");
-                    log.severe(invocationException.getCause().getMessage());
+                callbackChain.proceed(invocation);
+                if (!invocation.reached) {
+                    metrics.counter("zincite_callback_intercepted_total", "Callback queries rejected by an interceptor", "route", invocation.getName()).increment();
+                    log.info(" # '" + callbackQuery.getData() + "' rechazado por un interceptor");
                 }
-            } catch (IllegalAccessException e) {
-                log.severe("Error accediendo a un CallbackListener: ");
-                log.severe(e.getMessage());
+            } catch (TelegramException ex) { // los métodos de listener pueden lanzar TelegramException
+                log.severe("Error respondiendo a un CallbackQuery en la API de Telegram: ");
+                log.severe(ex.getMessage());
+            } catch (UndeclaredThrowableException ex) {
+                log.log(Level.SEVERE, "Error no esperado ejecutando el callback listener de '" + callbackQuery.getData() + "'", ex.getCause());
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Error no esperado ejecutando el callback listener de '" + callbackQuery.getData() + "'", ex);
+            }
+        }
+    }
+
+    /**
+     * Final de la cadena de interceptores de los callback listeners: cargar la sesión si la usa y ejecutar el listener
+     */
+    private boolean executeCallback(Invocation invocation) throws TelegramException {
+        invocation.reached = true;
+        CallbackQuery callbackQuery = invocation.getCallbackQuery();
+        CallbackMatch match = invocation.match;
+        long start = System.nanoTime();
+        try {
+            log.info(" # Ejecutando callback listener para '" + callbackQuery.getData() + "'");
+            Session session = match.binding.isUsingSession() ? sessions.get(sessionChat(callbackQuery), callbackQuery.getFrom().getId()) : null;
+            match.binding.invoke(callbackQuery, match.params, session);
+            if (session != null) {
+                sessions.save(session);
             }
+            return true;
+        } catch (TelegramException | RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new UndeclaredThrowableException(ex);
+        } finally {
+            metrics.histogram("zincite_callback_duration_seconds", "Time spent executing each callback listener", "route", match.binding.getRoute().getTemplate())
+                    .record(System.nanoTime() - start);
         }
     }
 
     public void registerCommandsToTelegramHelp() {
         List<com.cadiducho.telegrambotapi.BotCommand> telegramCommandList = new ArrayList<>();
-        for (Map.Entry<String, BotCommand> entry : commandMap.entrySet()) {
+        for (Map.Entry<String, CommandDescriptor> entry : commandMap.entrySet()) {
             String label = entry.getKey();
-            BotCommand cmd = entry.getValue();
+            CommandDescriptor cmd = entry.getValue();
             if (cmd.isHidden()) continue; // Si el comando es oculto, no publicarlo en la lista
             if (!label.startsWith("/") || !cmd.getName().startsWith("/")) continue; // Si no comienza por / no va a ser reconocido por los clientes de telegram como un comando
             if (label.contains(" ")) continue;
@@ -153,9 +763,23 @@ public class CommandManager {
         }
     }
 
+    /**
+     * Chat de la sesión de una CallbackQuery: el del mensaje, o el privado del usuario si el mensaje es inline
+     */
+    private static long sessionChat(CallbackQuery callbackQuery) {
+        Message message = callbackQuery.getMessage();
+        return message != null && message.getChat() != null ? message.getChat().getId() : callbackQuery.getFrom().getId();
+    }
+
+    @RequiredArgsConstructor
+    static final class CallbackMatch {
+        final CallbackBinding binding;
+        final CallbackParams params;
+    }
+
     @RequiredArgsConstructor
-    private class CallbackListenerMethodInstance {
-        private final CallbackListener listenerInstance;
-        private final Method method;
+    private static final class RegisteredInterceptor {
+        private final Interceptor interceptor;
+        private final int order;
     }
 }
@@ -0,0 +1,123 @@
+package com.cadiducho.zincite.api.command;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Árbol de prefijos inmutable con todas las alias registradas, construido al registrar los comandos.
+ * Recorre el texto de un mensaje carácter a carácter y lo descarta en cuanto deja de coincidir con alguna alias,
+ * por lo que los mensajes que no son comandos se rechazan tras mirar muy pocos caracteres
+ */
+final class CommandRouter {
+
+    static final CommandRouter EMPTY = new CommandRouter(new Node());
+
+    private final Node root;
+
+    private CommandRouter(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Construir un router a partir de las alias registradas
+     * @param commands Mapa de alias (en minúsculas) a su comando
+     * @return El router
+     */
+    static CommandRouter build(Map<String, CommandDescriptor> commands) {
+        Node root = new Node();
+        for (Map.Entry<String, CommandDescriptor> entry : commands.entrySet()) {
+            Node node = root;
+            String alias = entry.getKey();
+            for (int i = 0; i < alias.length(); i++) {
+                node = node.getOrAddChild(alias.charAt(i));
+            }
+            node.descriptor = entry.getValue();
+        }
+        return new CommandRouter(root);
+    }
+
+    /**
+     * Buscar el comando al que va dirigido un texto.
+     * Primero se busca por la primera palabra, admitiendo el sufijo <code>@username</code> del bot, y después por la frase entera
+     * @param text Texto del mensaje
+     * @param botUsername Username del bot en minúsculas, o null si no se conoce
+     * @return La ruta encontrada, o null si el texto no es un comando
+     */
+    Route route(String text, String botUsername) {
+        Node node = root;
+        int firstSpace = -1;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (firstSpace < 0) {
+                if (c == ' ') {
+                    firstSpace = i;
+                    if (node.descriptor != null) {
+                        return new Route(node.descriptor, i + 1);
+                    }
+                } else if (c == '@' && node.descriptor != null && botUsername != null) {
+                    int end = i + 1 + botUsername.length();
+                    if (end <= length && text.regionMatches(true, i + 1, botUsername, 0, botUsername.length())) {
+                        if (end == length) {
+                            return new Route(node.descriptor, length);
+                        }
+                        if (text.charAt(end) == ' ') {
+                            return new Route(node.descriptor, end + 1);
+                        }
+                    }
+                }
+            }
+            node = node.getChild(Character.toLowerCase(c));
+            if (node == null) {
+                return null;
+            }
+        }
+        if (node.descriptor == null) {
+            return null;
+        }
+        return new Route(node.descriptor, firstSpace < 0 ? length : firstSpace + 1);
+    }
+
+    /**
+     * Resultado de un enrutado: la descripción del comando encontrado y dónde empiezan sus argumentos en el texto
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static final class Route {
+        private final CommandDescriptor descriptor;
+        private final int argumentsStart;
+    }
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private CommandDescriptor descriptor;
+
+        Node getChild(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index < 0 ? null : children[index];
+        }
+
+        Node getOrAddChild(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertion = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            newKeys[insertion] = key;
+            newChildren[insertion] = new Node();
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[insertion];
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.cadiducho.zincite.api.command;
+
+/**
+ * Qué hacer con un comando que supera uno de sus {@link RateLimit} o el límite de comandos por usuario
+ */
+public enum FloodAction {
+    /**
+     * Descartarlo sin responder
+     */
+    DROP,
+    /**
+     * Responder una única vez con el tiempo de espera, y descartar sin responder hasta que se vuelva a permitir.
+     * Las CallbackQuery siempre se descartan sin responder
+     */
+    WARN
+}
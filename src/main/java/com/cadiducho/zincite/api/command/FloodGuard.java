@@ -0,0 +1,113 @@
+package com.cadiducho.zincite.api.command;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * Protección contra inundaciones de comandos: aplica el límite de invocaciones de cada usuario, común a todos los comandos
+ * y callback listeners, y los {@link RateLimit} de cada comando. Se comprueba antes que los interceptores,
+ * con la invocación recién enrutada
+ */
+final class FloodGuard {
+
+    private static final long GLOBAL_KEY = 0;
+
+    /**
+     * Límite de invocaciones de cada usuario, o null si no hay límite
+     */
+    private final RateLimiter userLimiter;
+    private final FloodAction action;
+
+    /**
+     * Crear la protección
+     * @param userLimit Invocaciones permitidas a cada usuario en el periodo, o 0 para no limitarlas
+     * @param userPeriod El periodo
+     * @param action Qué hacer con las invocaciones que superan un límite
+     */
+    FloodGuard(int userLimit, Duration userPeriod, FloodAction action) {
+        this.userLimiter = userLimit > 0 ? new RateLimiter(userLimit, userPeriod) : null;
+        this.action = action;
+    }
+
+    /**
+     * Consumir una ejecución de cada límite que se aplica a una invocación.
+     * Primero se comprueban todos, de modo que una invocación rechazada por un límite no gasta las ejecuciones de los demás
+     * @param invocation La invocación
+     * @param now El instante actual en nanosegundos de {@link System#nanoTime()}
+     * @return null si se permite, o por qué se rechaza
+     */
+    Rejection check(Invocation invocation, long now) {
+        long user = userKey(invocation);
+        CommandDescriptor descriptor = invocation.getDescriptor();
+        int limits = descriptor != null ? descriptor.limiters.length : 0;
+        for (int i = 0; i < limits; i++) {
+            long key = key(descriptor.getRateLimits().get(i), invocation, user);
+            long wait = descriptor.limiters[i].delay(key, now);
+            if (wait > 0) {
+                return reject(invocation, descriptor.limiters[i], key, wait);
+            }
+        }
+        if (userLimiter != null) {
+            long wait = userLimiter.delay(user, now);
+            if (wait > 0) {
+                return reject(invocation, userLimiter, user, wait);
+            }
+        }
+
+        // otro hilo puede haber gastado la última ejecución desde la comprobación
+        for (int i = 0; i < limits; i++) {
+            long key = key(descriptor.getRateLimits().get(i), invocation, user);
+            long wait = descriptor.limiters[i].tryAcquire(key, now);
+            if (wait > 0) {
+                return reject(invocation, descriptor.limiters[i], key, wait);
+            }
+        }
+        if (userLimiter != null) {
+            long wait = userLimiter.tryAcquire(user, now);
+            if (wait > 0) {
+                return reject(invocation, userLimiter, user, wait);
+            }
+        }
+        return null;
+    }
+
+    private static long key(RateLimit limit, Invocation invocation, long user) {
+        return limit.scope() == RateLimit.Scope.USER ? user
+                : limit.scope() == RateLimit.Scope.CHAT ? chatKey(invocation)
+                : GLOBAL_KEY;
+    }
+
+    private Rejection reject(Invocation invocation, RateLimiter limiter, long key, long wait) {
+        // en los botones no hay dónde responder sin molestar al resto del chat
+        boolean warn = action == FloodAction.WARN && invocation.isCommand() && limiter.warn(key);
+        return new Rejection(Duration.ofNanos(wait), warn);
+    }
+
+    private static long userKey(Invocation invocation) {
+        return invocation.getUser() != null && invocation.getUser().getId() != null ? invocation.getUser().getId() : chatKey(invocation);
+    }
+
+    private static long chatKey(Invocation invocation) {
+        return invocation.getChatId() != null ? invocation.getChatId() : GLOBAL_KEY;
+    }
+
+    /**
+     * Invocación rechazada por superar un límite
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static final class Rejection {
+
+        /**
+         * Tiempo hasta que el límite vuelva a permitir la invocación
+         */
+        private final Duration wait;
+
+        /**
+         * Si hay que avisar al usuario, por ser el primer rechazo
+         */
+        private final boolean warn;
+    }
+}
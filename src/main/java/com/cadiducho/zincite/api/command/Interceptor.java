@@ -0,0 +1,67 @@
+package com.cadiducho.zincite.api.command;
+
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Interceptor de la ejecución de comandos y callback listeners, registrado en {@link CommandManager#registerInterceptor(Interceptor, int)}.
+ * Se ejecuta con el resultado del enrutado, antes de crear el {@link CommandContext} o cargar la sesión,
+ * por lo que rechazar una invocación apenas cuesta nada.
+ * <p>
+ * Un interceptor rodea al resto de la cadena: puede hacer algo antes, decidir no continuar, o hacer algo después de {@link Chain#proceed(Invocation)}
+ */
+@FunctionalInterface
+public interface Interceptor {
+
+    /**
+     * Interceptar una invocación
+     * @param invocation La invocación
+     * @param chain El resto de la cadena, hasta el comando o listener. No llamarlo rechaza la invocación
+     * @return El resultado de la cadena, o false si se ha rechazado
+     * @throws TelegramException Si falla una llamada a Telegram del interceptor o del comando
+     */
+    boolean intercept(Invocation invocation, Chain chain) throws TelegramException;
+
+    /**
+     * Resto de la cadena de interceptores tras uno de ellos
+     */
+    @FunctionalInterface
+    interface Chain {
+
+        /**
+         * Continuar con el siguiente interceptor, o con el comando o listener si era el último
+         * @param invocation La invocación
+         * @return true si el comando o listener se ha ejecutado
+         * @throws TelegramException Si falla una llamada a Telegram
+         */
+        boolean proceed(Invocation invocation) throws TelegramException;
+    }
+
+    /**
+     * Interceptor que solo decide si continuar, como una lista de baneos o una comprobación de permisos
+     * @param filter Condición para continuar
+     * @return El interceptor
+     */
+    static Interceptor before(Predicate<Invocation> filter) {
+        return (invocation, chain) -> filter.test(invocation) && chain.proceed(invocation);
+    }
+
+    /**
+     * Interceptor que se ejecuta tras la invocación, incluso si el comando ha lanzado una excepción
+     * @param listener Función que recibe la invocación y si se ha ejecutado con éxito
+     * @return El interceptor
+     */
+    static Interceptor after(BiConsumer<Invocation, Boolean> listener) {
+        return (invocation, chain) -> {
+            boolean success = false;
+            try {
+                success = chain.proceed(invocation);
+                return success;
+            } finally {
+                listener.accept(invocation, success);
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+package com.cadiducho.zincite.api.command;
+
+import com.cadiducho.telegrambotapi.CallbackQuery;
+import com.cadiducho.telegrambotapi.Message;
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.User;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Invocación de un comando o callback listener ya enrutada, que recorre la cadena de {@link Interceptor}.
+ * Solo contiene lo que se conoce tras enrutar, sin argumentos interpretados ni sesión
+ */
+public final class Invocation {
+
+    public enum Type {
+        COMMAND, CALLBACK
+    }
+
+    /**
+     * Si se invoca un comando o un callback listener
+     */
+    @Getter private final Type type;
+
+    /**
+     * Nombre del comando, o ruta del callback listener tal como se declaró en {@link ListenTo}
+     */
+    @Getter private final String name;
+
+    /**
+     * Chat desde el que se invoca, o null si es una CallbackQuery de un mensaje inline
+     */
+    @Getter private final Long chatId;
+
+    /**
+     * Usuario que invoca
+     */
+    @Getter private final User user;
+
+    /**
+     * Texto del mensaje o datos de la CallbackQuery
+     */
+    @Getter private final String text;
+
+    /**
+     * Comando invocado, o null si es un callback listener
+     */
+    @Getter private final CommandDescriptor descriptor;
+
+    /**
+     * Mensaje del comando, o mensaje del botón de la CallbackQuery
+     */
+    @Getter private final Message message;
+
+    /**
+     * CallbackQuery invocada, o null si es un comando
+     */
+    @Getter private final CallbackQuery callbackQuery;
+
+    /**
+     * Momento en el que se recibió la invocación
+     */
+    @Getter private final Instant receivedAt;
+
+    final TelegramBot bot;
+    final int argumentsStart;
+    final CommandManager.CallbackMatch match;
+
+    /**
+     * Si la cadena ha llegado hasta el comando o listener
+     */
+    boolean reached;
+
+    /**
+     * Recibe si el comando ha terminado correctamente, o null si nadie lo espera
+     */
+    Consumer<Boolean> finished;
+
+    /**
+     * Si el comando se ha aceptado en un {@link Bulkhead} y avisará a {@link #finished} al terminar en él
+     */
+    boolean deferred;
+
+    private Invocation(Type type, String name, Long chatId, User user, String text, CommandDescriptor descriptor, Message message,
+                       CallbackQuery callbackQuery, Instant receivedAt, TelegramBot bot, int argumentsStart, CommandManager.CallbackMatch match) {
+        this.type = type;
+        this.name = name;
+        this.chatId = chatId;
+        this.user = user;
+        this.text = text;
+        this.descriptor = descriptor;
+        this.message = message;
+        this.callbackQuery = callbackQuery;
+        this.receivedAt = receivedAt;
+        this.bot = bot;
+        this.argumentsStart = argumentsStart;
+        this.match = match;
+    }
+
+    static Invocation command(TelegramBot bot, Message message, CommandRouter.Route route, Instant receivedAt) {
+        CommandDescriptor descriptor = route.getDescriptor();
+        return new Invocation(Type.COMMAND, descriptor.getName(), message.getChat().getId(), message.getFrom(), message.getText(),
+                descriptor, message, null, receivedAt, bot, route.getArgumentsStart(), null);
+    }
+
+    static Invocation callback(CallbackQuery query, CommandManager.CallbackMatch match, Instant receivedAt) {
+        Message message = query.getMessage();
+        Long chatId = message != null && message.getChat() != null ? message.getChat().getId() : null;
+        return new Invocation(Type.CALLBACK, match.binding.getRoute().getTemplate(), chatId, query.getFrom(), query.getData(),
+                null, message, query, receivedAt, null, 0, match);
+    }
+
+    /**
+     * Comprobar si es la invocación de un comando
+     * @return true si es un comando, false si es un callback listener
+     */
+    public boolean isCommand() {
+        return type == Type.COMMAND;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + name + " de " + (user != null ? user.getId() : null) + "#" + chatId;
+    }
+}
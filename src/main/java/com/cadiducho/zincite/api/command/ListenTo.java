@@ -6,7 +6,9 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Marcar un método como código que se ejecutará cuando se reciba una CallbackQuery nombrada por su valor
+ * Marcar un método como código que se ejecutará cuando se reciba una CallbackQuery nombrada por su valor.
+ * El método puede recibir la {@link com.cadiducho.telegrambotapi.CallbackQuery}, sus {@link CallbackParams}
+ * y la {@link com.cadiducho.zincite.api.session.Session} del usuario
  */
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
@@ -0,0 +1,46 @@
+package com.cadiducho.zincite.api.command;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Límite de ejecuciones de un comando, declarado en {@link CommandInfo#limits()}.
+ * Un límite de una ejecución es un tiempo de espera: <code>@RateLimit(seconds = 30)</code> permite usar el comando una vez cada 30 segundos.
+ * Con más ejecuciones se permiten ráfagas de hasta <code>count</code> ejecuciones, y después una cada <code>seconds / count</code> segundos
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+
+    enum Scope {
+        /**
+         * Cada usuario tiene su propio límite, en todos los chats
+         */
+        USER,
+        /**
+         * Cada chat tiene su propio límite, compartido por todos sus usuarios
+         */
+        CHAT,
+        /**
+         * Un único límite para todos los usuarios y chats
+         */
+        GLOBAL
+    }
+
+    /**
+     * A quién se aplica el límite
+     * @return El ámbito del límite
+     */
+    Scope scope() default Scope.USER;
+
+    /**
+     * Número de ejecuciones permitidas en el periodo
+     * @return Las ejecuciones
+     */
+    int count() default 1;
+
+    /**
+     * Duración del periodo en segundos
+     * @return Los segundos
+     */
+    int seconds();
+}
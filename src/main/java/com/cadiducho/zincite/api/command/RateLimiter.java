@@ -0,0 +1,174 @@
+package com.cadiducho.zincite.api.command;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Límite de ejecuciones por clave, como el id de un usuario o de un chat. Permite ráfagas de hasta <code>count</code>
+ * ejecuciones y después una cada <code>period / count</code>, de forma que en ningún periodo se superan las <code>count</code> ejecuciones.
+ * <p>
+ * Cada clave solo guarda el instante a partir del cual vuelve a tener todas sus ejecuciones disponibles, en una tabla de longs
+ * sin objetos por clave. Las claves que ya han llegado a ese instante no ocupan nada: se descartan al crecer la tabla
+ */
+public final class RateLimiter {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Tiempo que recupera una ejecución
+     */
+    private final long interval;
+
+    /**
+     * Adelanto máximo sobre el instante actual, que permite las ráfagas
+     */
+    private final long tolerance;
+
+    private long[] keys;
+
+    /**
+     * Instante, en nanosegundos de {@link System#nanoTime()}, en el que cada clave recupera todas sus ejecuciones
+     */
+    private long[] refills;
+    private boolean[] warned;
+    private int size;
+
+    /**
+     * Crear un límite
+     * @param count Ejecuciones permitidas en el periodo
+     * @param period El periodo
+     */
+    public RateLimiter(int count, Duration period) {
+        if (count <= 0 || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Límite no válido: " + count + " cada " + period);
+        }
+        this.interval = period.toNanos() / count;
+        this.tolerance = period.toNanos() - interval;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Consumir una ejecución de una clave
+     * @param key La clave
+     * @param now El instante actual en nanosegundos de {@link System#nanoTime()}
+     * @return 0 si se permite, o los nanosegundos que quedan hasta que se permita
+     */
+    public synchronized long tryAcquire(long key, long now) {
+        int slot = find(key);
+        long refill = slot >= 0 && refills[slot] - now > 0 ? refills[slot] : now;
+        long wait = refill - now - tolerance;
+        if (wait > 0) {
+            return wait;
+        }
+        if (slot < 0) {
+            slot = insert(key, now);
+        }
+        refills[slot] = refill + interval;
+        warned[slot] = false;
+        return 0;
+    }
+
+    /**
+     * Comprobar si una clave puede ejecutarse, sin consumir ninguna ejecución
+     * @param key La clave
+     * @param now El instante actual en nanosegundos de {@link System#nanoTime()}
+     * @return 0 si se permitiría, o los nanosegundos que quedan hasta que se permita
+     */
+    public synchronized long delay(long key, long now) {
+        int slot = find(key);
+        long refill = slot >= 0 && refills[slot] - now > 0 ? refills[slot] : now;
+        return Math.max(0, refill - now - tolerance);
+    }
+
+    /**
+     * Marcar que ya se ha avisado a una clave de que ha superado el límite
+     * @param key La clave
+     * @return true si es el primer aviso desde la última ejecución permitida
+     */
+    public synchronized boolean warn(long key) {
+        int slot = find(key);
+        if (slot < 0 || warned[slot]) {
+            return false;
+        }
+        warned[slot] = true;
+        return true;
+    }
+
+    /**
+     * Obten el número de claves en la tabla, incluidas las que ya han recuperado sus ejecuciones y aún no se han descartado
+     * @return El número de claves
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int insert(long key, long now) {
+        if ((size + 1) * 4 > keys.length * 3) {
+            rehash(now);
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        size++;
+        return slot;
+    }
+
+    /**
+     * Reconstruir la tabla sin las claves que ya han recuperado todas sus ejecuciones, al doble de tamaño si sigue llena
+     */
+    private void rehash(long now) {
+        long[] oldKeys = keys;
+        long[] oldRefills = refills;
+        boolean[] oldWarned = warned;
+        int live = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && oldRefills[i] - now > 0) {
+                live++;
+            }
+        }
+        int capacity = MIN_CAPACITY;
+        while ((live + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && oldRefills[i] - now > 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                refills[slot] = oldRefills[i];
+                warned[slot] = oldWarned[i];
+            }
+        }
+        size = live;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        refills = new long[capacity];
+        warned = new boolean[capacity];
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
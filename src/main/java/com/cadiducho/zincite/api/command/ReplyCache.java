@@ -0,0 +1,81 @@
+package com.cadiducho.zincite.api.command;
+
+import com.cadiducho.telegrambotapi.ParseMode;
+import com.cadiducho.zincite.cache.LruCache;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Respuestas guardadas de los comandos con {@link CommandInfo#cacheSeconds()}, por comando, ámbito y argumentos.
+ * El número de entradas está limitado, y no se guardan las ejecuciones con más de {@value #MAX_REPLIES} respuestas
+ */
+final class ReplyCache {
+
+    static final int MAX_REPLIES = 5;
+
+    private final LruCache<String, List<Reply>> replies;
+
+    ReplyCache(int maxEntries) {
+        this.replies = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * Obten las respuestas guardadas de una invocación
+     * @param invocation La invocación del comando
+     * @return Las respuestas, o null si no están guardadas
+     */
+    List<Reply> get(Invocation invocation) {
+        return replies.get(key(invocation));
+    }
+
+    /**
+     * Guardar las respuestas de una invocación durante el tiempo indicado en su comando
+     * @param invocation La invocación del comando
+     * @param sent Las respuestas enviadas
+     */
+    void put(Invocation invocation, List<Reply> sent) {
+        if (sent.isEmpty() || sent.size() > MAX_REPLIES) {
+            return;
+        }
+        replies.put(key(invocation), List.copyOf(sent), invocation.getDescriptor().getCacheTtl().toMillis());
+    }
+
+    /**
+     * Eliminar las respuestas guardadas de un comando
+     * @param name Nombre del comando
+     */
+    void invalidate(String name) {
+        replies.invalidateIf(key -> key.startsWith(name + '\u0000'));
+    }
+
+    private static String key(Invocation invocation) {
+        CommandDescriptor descriptor = invocation.getDescriptor();
+        String scope;
+        switch (descriptor.getCacheScope()) {
+            case CHAT:
+                scope = String.valueOf(invocation.getChatId());
+                break;
+            case USER:
+                scope = invocation.getUser() != null && invocation.getUser().getId() != null
+                        ? String.valueOf(invocation.getUser().getId()) : String.valueOf(invocation.getChatId());
+                break;
+            default:
+                scope = "";
+        }
+        String text = invocation.getText();
+        String arguments = text.substring(Math.min(invocation.argumentsStart, text.length())).trim().replaceAll("\\s+", " ");
+        return descriptor.getName() + '\u0000' + scope + '\u0000' + arguments;
+    }
+
+    /**
+     * Respuesta enviada por un comando
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static final class Reply {
+        private final String text;
+        private final ParseMode parseMode;
+    }
+}
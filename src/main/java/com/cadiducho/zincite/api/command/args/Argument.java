@@ -21,7 +21,8 @@ public @interface Argument {
 
     /**
      * Si el argumento es requerido o no
-     * Eso sólo afectará a la hora de calcular el uso/descripción del comando, mostrándolo como obligatorio o no
+     * Se mostrará como obligatorio en el uso/descripción del comando, y si no se envía o no se puede transformar a su tipo,
+     * el comando no se ejecutará y se responderá con su uso
      * @return si el argumento es requerido o no
      */
     boolean required() default true;
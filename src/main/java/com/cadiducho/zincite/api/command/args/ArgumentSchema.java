@@ -0,0 +1,91 @@
+package com.cadiducho.zincite.api.command.args;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Esquema posicional de los {@link Argument} de un comando, compilado una única vez al registrarlo.
+ * Resuelve de antemano la posición de cada argumento y el {@link ArgumentType} con el que se transforma
+ */
+public final class ArgumentSchema {
+
+    private static final Map<Class<?>, ArgumentType<?>> parsers = new HashMap<>();
+    static {
+        //primitives
+        parsers.put(String.class, new StringArgumentType());
+        parsers.put(Integer.class, new IntegerArgumentType());
+        parsers.put(Double.class, new DoubleArgumentType());
+        parsers.put(Long.class, new LongArgumentType());
+        parsers.put(Boolean.class, new BoolArgumentType());
+
+        //dates
+        parsers.put(LocalDate.class, new LocalDateArgumentType());
+        parsers.put(LocalDateTime.class, new LocalDateTimeArgumentType());
+    }
+
+    private final Argument[] arguments;
+    private final String[] names;
+    private final ArgumentType<?>[] argumentParsers;
+
+    private ArgumentSchema(Argument[] arguments) {
+        this.arguments = arguments;
+        this.names = new String[arguments.length];
+        this.argumentParsers = new ArgumentType<?>[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            names[i] = arguments[i].name();
+            argumentParsers[i] = parsers.get(arguments[i].type());
+        }
+    }
+
+    /**
+     * Compilar el esquema de una lista de argumentos
+     * @param arguments Los argumentos, en el orden en el que se reciben
+     * @return El esquema
+     */
+    public static ArgumentSchema compile(List<Argument> arguments) {
+        return new ArgumentSchema(arguments.toArray(new Argument[0]));
+    }
+
+    /**
+     * Obten el número de argumentos del esquema
+     * @return el número de argumentos
+     */
+    public int size() {
+        return arguments.length;
+    }
+
+    /**
+     * Obten la posición de un argumento según su nombre
+     * @param name Nombre del argumento
+     * @return Su posición, o -1 si no existe
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obten un argumento según su posición
+     * @param index La posición
+     * @return El argumento
+     */
+    public Argument get(int index) {
+        return arguments[index];
+    }
+
+    /**
+     * Obten el {@link ArgumentType} con el que se transforma un argumento según su tipo
+     * @param index La posición del argumento
+     * @return El transformador, o null si no hay ninguno definido para su tipo
+     */
+    public ArgumentType<?> getParser(int index) {
+        return argumentParsers[index];
+    }
+}
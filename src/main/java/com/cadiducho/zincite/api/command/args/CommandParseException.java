@@ -9,4 +9,8 @@ public class CommandParseException extends Exception {
     public CommandParseException(String str) {
         super(str);
     }
+
+    public CommandParseException(String str, Throwable throwable) {
+        super(str, throwable);
+    }
 }
@@ -0,0 +1,25 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.ChatMemberUpdated;
+import com.cadiducho.telegrambotapi.Update;
+import lombok.Getter;
+
+/**
+ * Ha cambiado el estado de un miembro de un chat, o el del propio bot
+ */
+@Getter
+public class ChatMemberUpdatedEvent extends UpdateEvent {
+
+    private final ChatMemberUpdated chatMemberUpdated;
+
+    /**
+     * Si el miembro que ha cambiado es el propio bot
+     */
+    private final boolean bot;
+
+    public ChatMemberUpdatedEvent(Update update, ChatMemberUpdated chatMemberUpdated, boolean bot) {
+        super(update);
+        this.chatMemberUpdated = chatMemberUpdated;
+        this.bot = bot;
+    }
+}
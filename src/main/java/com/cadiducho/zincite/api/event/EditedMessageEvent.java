@@ -0,0 +1,22 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Message;
+import com.cadiducho.telegrambotapi.Update;
+import lombok.Getter;
+
+/**
+ * Se ha editado un mensaje
+ */
+@Getter
+public class EditedMessageEvent extends UpdateEvent {
+
+    /**
+     * El mensaje ya editado
+     */
+    private final Message message;
+
+    public EditedMessageEvent(Update update, Message message) {
+        super(update);
+        this.message = message;
+    }
+}
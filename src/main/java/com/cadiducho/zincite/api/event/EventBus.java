@@ -0,0 +1,221 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Chat;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.User;
+import com.cadiducho.zincite.api.module.ModuleListener;
+import com.cadiducho.zincite.api.module.ZinciteModule;
+import com.cadiducho.zincite.metrics.LatencyHistogram;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import lombok.extern.java.Log;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Bus de eventos de Zincite. Los listeners se suscriben a los tipos de evento que les interesan,
+ * y cada evento se entrega solo a sus receptores, calculados una única vez por tipo de evento.
+ * Publicar un evento sin receptores no cuesta más que una búsqueda en un mapa, por muchos módulos que haya cargados
+ */
+@Log
+public class EventBus implements ModuleListener {
+
+    private static final EventSubscriber[] NONE = new EventSubscriber[0];
+
+    private final MetricsRegistry metrics;
+    private final ExecutorService asyncExecutor;
+
+    /**
+     * Todos los receptores, en orden de registro. Guarded by this
+     */
+    private final List<EventSubscriber> subscribers = new ArrayList<>();
+
+    /**
+     * Receptores de cada tipo de evento publicado, incluidos los suscritos a sus supertipos.
+     * Se vacía en cada registro y se rellena según se publican los eventos
+     */
+    private final Map<Class<?>, EventSubscriber[]> dispatchTable = new ConcurrentHashMap<>();
+
+    /**
+     * Crear el bus de eventos
+     * @param metrics Registro donde medir cuánto tarda cada listener
+     * @param asyncThreads Número de hilos que entregan los eventos asíncronos
+     */
+    public EventBus(MetricsRegistry metrics, int asyncThreads) {
+        this.metrics = metrics;
+        AtomicInteger counter = new AtomicInteger();
+        this.asyncExecutor = Executors.newFixedThreadPool(Math.max(1, asyncThreads), runnable -> {
+            Thread thread = new Thread(runnable, "ZinciteEvents-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registrar todos los métodos {@link Subscribe} de un listener
+     * @param listener El listener
+     */
+    public synchronized void register(EventListener listener) {
+        String name = nameOf(listener);
+        for (Method method : listener.getClass().getMethods()) {
+            if (method.isAnnotationPresent(Subscribe.class)) {
+                subscribers.add(EventSubscriber.bind(listener, method, name, histogram(name)));
+            }
+        }
+        dispatchTable.clear();
+    }
+
+    /**
+     * Suscribir una función a un tipo de evento
+     * @param owner Objeto al que pertenece la suscripción, para poder eliminarla con {@link #unregister(Object)}
+     * @param type Tipo del evento, también recibirá sus subtipos
+     * @param handler La función
+     * @param <E> Tipo del evento
+     */
+    public <E extends ZinciteEvent> void subscribe(Object owner, Class<E> type, Consumer<? super E> handler) {
+        subscribe(owner, type, false, handler);
+    }
+
+    /**
+     * Suscribir una función a un tipo de evento
+     * @param owner Objeto al que pertenece la suscripción, para poder eliminarla con {@link #unregister(Object)}
+     * @param type Tipo del evento, también recibirá sus subtipos
+     * @param async Si el evento se entrega en otro hilo
+     * @param handler La función
+     * @param <E> Tipo del evento
+     */
+    public synchronized <E extends ZinciteEvent> void subscribe(Object owner, Class<E> type, boolean async, Consumer<? super E> handler) {
+        String name = nameOf(owner);
+        subscribers.add(EventSubscriber.of(owner, type, async, handler, name, histogram(name)));
+        dispatchTable.clear();
+    }
+
+    /**
+     * Eliminar todas las suscripciones de un listener
+     * @param owner El listener, o el objeto indicado al suscribir funciones
+     */
+    public synchronized void unregister(Object owner) {
+        if (subscribers.removeIf(subscriber -> subscriber.getOwner() == owner)) {
+            dispatchTable.clear();
+        }
+    }
+
+    /**
+     * Comprobar si un tipo de evento tiene receptores, para no crear eventos que nadie va a recibir
+     * @param type El tipo del evento
+     * @return true si algún receptor recibiría un evento de ese tipo
+     */
+    public boolean hasSubscribers(Class<? extends ZinciteEvent> type) {
+        return subscribersOf(type).length > 0;
+    }
+
+    /**
+     * Publicar un evento. Los receptores síncronos lo reciben en este hilo, en orden de registro
+     * @param event El evento
+     */
+    public void post(ZinciteEvent event) {
+        for (EventSubscriber subscriber : subscribersOf(event.getClass())) {
+            if (subscriber.isAsync()) {
+                try {
+                    asyncExecutor.execute(() -> subscriber.deliver(event));
+                } catch (RejectedExecutionException ex) {
+                    log.warning("El bus de eventos está cerrado, descartando un " + event.getClass().getSimpleName());
+                }
+            } else {
+                subscriber.deliver(event);
+            }
+        }
+    }
+
+    /**
+     * Dejar de entregar eventos asíncronos, esperando a que terminen los pendientes
+     * @param timeout Tiempo máximo de espera
+     * @param unit Unidad del tiempo de espera
+     * @return true si se han entregado todos los eventos pendientes
+     * @throws InterruptedException Si se interrumpe la espera
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        asyncExecutor.shutdown();
+        return asyncExecutor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Registrar un módulo recién cargado: sus métodos {@link Subscribe} si es un {@link EventListener},
+     * y los métodos de {@link ZinciteModule} que sobrescribe, como {@link ZinciteModule#onPostCommand(Update, boolean)}
+     * @param module El módulo
+     */
+    @Override
+    public void onModuleLoaded(ZinciteModule module) {
+        if (module instanceof EventListener) {
+            register((EventListener) module);
+        }
+        if (overrides(module, "onNewChatMembers", Chat.class, List.class)) {
+            subscribe(module, NewChatMembersEvent.class, event -> module.onNewChatMembers(event.getChat(), event.getNewChatMembers()));
+        }
+        if (overrides(module, "onLeftChatMember", Chat.class, User.class)) {
+            subscribe(module, LeftChatMemberEvent.class, event -> module.onLeftChatMember(event.getChat(), event.getLeftChatMember()));
+        }
+        if (overrides(module, "onPostCommand", Update.class, boolean.class)) {
+            subscribe(module, PostCommandEvent.class, event -> module.onPostCommand(event.getUpdate(), event.isSuccess()));
+        }
+    }
+
+    /**
+     * Eliminar las suscripciones de un módulo descargado, y las de los listeners cargados desde su jar
+     * @param module El módulo
+     */
+    @Override
+    public synchronized void onModuleUnloaded(ZinciteModule module) {
+        ClassLoader loader = module.getClass().getClassLoader();
+        boolean isolated = loader != EventBus.class.getClassLoader();
+        if (subscribers.removeIf(subscriber -> subscriber.getOwner() == module
+                || (isolated && subscriber.getOwner().getClass().getClassLoader() == loader))) {
+            dispatchTable.clear();
+        }
+    }
+
+    private EventSubscriber[] subscribersOf(Class<?> type) {
+        EventSubscriber[] targets = dispatchTable.get(type);
+        return targets != null ? targets : computeSubscribers(type);
+    }
+
+    private synchronized EventSubscriber[] computeSubscribers(Class<?> type) {
+        List<EventSubscriber> targets = new ArrayList<>();
+        for (EventSubscriber subscriber : subscribers) {
+            if (subscriber.getType().isAssignableFrom(type)) {
+                targets.add(subscriber);
+            }
+        }
+        EventSubscriber[] array = targets.isEmpty() ? NONE : targets.toArray(NONE);
+        dispatchTable.put(type, array);
+        return array;
+    }
+
+    private LatencyHistogram histogram(String name) {
+        return metrics.histogram("zincite_event_listener_duration_seconds", "Time spent by each listener handling its events", "listener", name);
+    }
+
+    private static String nameOf(Object owner) {
+        if (owner instanceof ZinciteModule && ((ZinciteModule) owner).getName() != null) {
+            return ((ZinciteModule) owner).getName();
+        }
+        return owner.getClass().getName();
+    }
+
+    private static boolean overrides(ZinciteModule module, String method, Class<?>... parameters) {
+        try {
+            return module.getClass().getMethod(method, parameters).getDeclaringClass() != ZinciteModule.class;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.cadiducho.zincite.api.event;
+
+/**
+ * Interfaz para determinar que esta clase contiene métodos {@link Subscribe} que recibirán eventos del {@link EventBus}.
+ * Los módulos que la implementan se registran automáticamente al cargarse
+ */
+public interface EventListener {
+}
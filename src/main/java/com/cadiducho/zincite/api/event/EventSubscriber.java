@@ -0,0 +1,127 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.zincite.ZinciteException;
+import com.cadiducho.zincite.metrics.LatencyHistogram;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Receptor de un tipo de evento enlazado una única vez al registrarlo, de forma que cada evento se entrega
+ * con un {@link MethodHandle} en vez de mediante reflection
+ */
+@Log
+final class EventSubscriber {
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, ZinciteEvent.class);
+    private static final MethodHandle CONSUMER_ACCEPT;
+
+    static {
+        try {
+            CONSUMER_ACCEPT = MethodHandles.publicLookup().findVirtual(Consumer.class, "accept", MethodType.methodType(void.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    /**
+     * Objeto que registró el receptor, usado para eliminarlo
+     */
+    @Getter private final Object owner;
+
+    /**
+     * Tipo de evento que recibe, incluidos sus subtipos
+     */
+    @Getter private final Class<? extends ZinciteEvent> type;
+
+    @Getter private final boolean async;
+
+    /**
+     * Nombre del receptor en los logs y las métricas
+     */
+    private final String name;
+    private final LatencyHistogram duration;
+
+    /**
+     * Invocador con el tipo exacto {@link #INVOKER_TYPE}
+     */
+    private final MethodHandle invoker;
+
+    private EventSubscriber(Object owner, Class<? extends ZinciteEvent> type, boolean async, String name, LatencyHistogram duration, MethodHandle invoker) {
+        this.owner = owner;
+        this.type = type;
+        this.async = async;
+        this.name = name;
+        this.duration = duration;
+        this.invoker = invoker;
+    }
+
+    /**
+     * Enlazar un método {@link Subscribe} de un listener
+     * @param listener El listener
+     * @param method El método, con un único parámetro del tipo del evento
+     * @param name Nombre del listener
+     * @param duration Histograma donde medir cuánto tarda
+     * @return El receptor
+     * @throws ZinciteException Si el método no recibe un único evento o no es accesible
+     */
+    static EventSubscriber bind(EventListener listener, Method method, String name, LatencyHistogram duration) {
+        Class<?>[] parameters = method.getParameterTypes();
+        if (parameters.length != 1 || !ZinciteEvent.class.isAssignableFrom(parameters[0])) {
+            throw new ZinciteException("El método " + method + " debe recibir un único parámetro, el ZinciteEvent al que se suscribe");
+        }
+
+        MethodHandle handle;
+        try {
+            method.trySetAccessible();
+            handle = MethodHandles.lookup().unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                handle = handle.bindTo(listener);
+            }
+        } catch (IllegalAccessException ex) {
+            throw new ZinciteException("No se puede acceder al listener " + method + ": " + ex.getMessage());
+        }
+        @SuppressWarnings("unchecked")
+        Class<? extends ZinciteEvent> type = (Class<? extends ZinciteEvent>) parameters[0];
+        return new EventSubscriber(listener, type, method.getAnnotation(Subscribe.class).async(), name, duration,
+                handle.asType(INVOKER_TYPE));
+    }
+
+    /**
+     * Crear un receptor a partir de una función
+     * @param owner Objeto que lo registra
+     * @param type Tipo de evento que recibe
+     * @param async Si la entrega es asíncrona
+     * @param handler La función
+     * @param name Nombre del receptor
+     * @param duration Histograma donde medir cuánto tarda
+     * @return El receptor
+     */
+    static EventSubscriber of(Object owner, Class<? extends ZinciteEvent> type, boolean async, Consumer<?> handler, String name, LatencyHistogram duration) {
+        return new EventSubscriber(owner, type, async, name, duration, CONSUMER_ACCEPT.bindTo(handler).asType(INVOKER_TYPE));
+    }
+
+    /**
+     * Entregar un evento. Los errores del receptor se registran sin afectar al resto de receptores
+     * @param event El evento
+     */
+    void deliver(ZinciteEvent event) {
+        long start = System.nanoTime();
+        try {
+            invoker.invokeExact(event);
+        } catch (Error error) {
+            throw error;
+        } catch (Throwable ex) {
+            log.log(Level.SEVERE, "Error no esperado en el listener " + name + " del evento " + event.getClass().getSimpleName(), ex);
+        } finally {
+            duration.record(System.nanoTime() - start);
+        }
+    }
+}
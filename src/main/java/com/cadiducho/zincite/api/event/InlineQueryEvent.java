@@ -0,0 +1,19 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.inline.InlineQuery;
+import lombok.Getter;
+
+/**
+ * Se ha recibido una consulta inline
+ */
+@Getter
+public class InlineQueryEvent extends UpdateEvent {
+
+    private final InlineQuery inlineQuery;
+
+    public InlineQueryEvent(Update update, InlineQuery inlineQuery) {
+        super(update);
+        this.inlineQuery = inlineQuery;
+    }
+}
@@ -0,0 +1,22 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Chat;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.User;
+import lombok.Getter;
+
+/**
+ * Un miembro ha salido de un chat
+ */
+@Getter
+public class LeftChatMemberEvent extends UpdateEvent {
+
+    private final Chat chat;
+    private final User leftChatMember;
+
+    public LeftChatMemberEvent(Update update, Chat chat, User leftChatMember) {
+        super(update);
+        this.chat = chat;
+        this.leftChatMember = leftChatMember;
+    }
+}
@@ -0,0 +1,19 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Message;
+import com.cadiducho.telegrambotapi.Update;
+import lombok.Getter;
+
+/**
+ * Se ha recibido un mensaje nuevo, de cualquier tipo, antes de comprobar si es un comando
+ */
+@Getter
+public class MessageEvent extends UpdateEvent {
+
+    private final Message message;
+
+    public MessageEvent(Update update, Message message) {
+        super(update);
+        this.message = message;
+    }
+}
@@ -0,0 +1,24 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Chat;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.User;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Han entrado nuevos miembros en un chat
+ */
+@Getter
+public class NewChatMembersEvent extends UpdateEvent {
+
+    private final Chat chat;
+    private final List<User> newChatMembers;
+
+    public NewChatMembersEvent(Update update, Chat chat, List<User> newChatMembers) {
+        super(update);
+        this.chat = chat;
+        this.newChatMembers = newChatMembers;
+    }
+}
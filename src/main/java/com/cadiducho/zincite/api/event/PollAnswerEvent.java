@@ -0,0 +1,19 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.PollAnswer;
+import com.cadiducho.telegrambotapi.Update;
+import lombok.Getter;
+
+/**
+ * Un usuario ha cambiado su respuesta en una encuesta no anónima
+ */
+@Getter
+public class PollAnswerEvent extends UpdateEvent {
+
+    private final PollAnswer pollAnswer;
+
+    public PollAnswerEvent(Update update, PollAnswer pollAnswer) {
+        super(update);
+        this.pollAnswer = pollAnswer;
+    }
+}
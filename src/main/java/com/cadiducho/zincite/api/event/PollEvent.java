@@ -0,0 +1,19 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Poll;
+import com.cadiducho.telegrambotapi.Update;
+import lombok.Getter;
+
+/**
+ * Ha cambiado el estado de una encuesta
+ */
+@Getter
+public class PollEvent extends UpdateEvent {
+
+    private final Poll poll;
+
+    public PollEvent(Update update, Poll poll) {
+        super(update);
+        this.poll = poll;
+    }
+}
@@ -0,0 +1,22 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Update;
+import lombok.Getter;
+
+/**
+ * Se ha procesado un mensaje de texto, fuese o no un comando.
+ * Si el comando se ejecuta en un {@link com.cadiducho.zincite.api.command.Bulkhead}, se publica cuando termina en él
+ */
+@Getter
+public class PostCommandEvent extends UpdateEvent {
+
+    /**
+     * Si se ha ejecutado un comando y ha terminado sin errores ni ser cancelado
+     */
+    private final boolean success;
+
+    public PostCommandEvent(Update update, boolean success) {
+        super(update);
+        this.success = success;
+    }
+}
@@ -0,0 +1,22 @@
+package com.cadiducho.zincite.api.event;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marcar un método de un {@link EventListener} como receptor de un tipo de evento.
+ * El método recibe un único parámetro, el evento, y también recibe los subtipos de ese evento
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Subscribe {
+
+    /**
+     * Si el evento se entrega en otro hilo, sin esperar a que termine para seguir procesando la update.
+     * Los eventos asíncronos no mantienen el orden de las updates de un mismo chat
+     * @return si la entrega es asíncrona
+     */
+    boolean async() default false;
+}
@@ -0,0 +1,20 @@
+package com.cadiducho.zincite.api.event;
+
+import com.cadiducho.telegrambotapi.Update;
+import lombok.Getter;
+
+/**
+ * Evento causado por una {@link Update} recibida de Telegram
+ */
+@Getter
+public abstract class UpdateEvent implements ZinciteEvent {
+
+    /**
+     * La update que ha causado el evento
+     */
+    private final Update update;
+
+    protected UpdateEvent(Update update) {
+        this.update = update;
+    }
+}
@@ -0,0 +1,8 @@
+package com.cadiducho.zincite.api.event;
+
+/**
+ * Evento publicado en el {@link EventBus}.
+ * Los módulos pueden publicar sus propios eventos implementando esta interfaz
+ */
+public interface ZinciteEvent {
+}
@@ -0,0 +1,56 @@
+package com.cadiducho.zincite.api.inline;
+
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.telegrambotapi.inline.InlineQuery;
+import com.cadiducho.telegrambotapi.inline.InlineQueryResult;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Handler de las consultas inline, registrado en el {@link InlineManager}.
+ * El framework guarda sus resultados en caché, los reutiliza mientras el usuario sigue escribiendo y los pagina
+ */
+public interface InlineHandler {
+
+    /**
+     * Obtener todos los resultados de una consulta. El framework envía a Telegram solo la página pedida
+     * @param query La consulta recibida
+     * @param text Texto de la consulta sin el prefijo, en minúsculas y con los espacios normalizados.
+     *             Los resultados solo deben depender de él, y del usuario si el handler es {@link InlineInfo#personal()}
+     * @return Los resultados, en orden
+     * @throws TelegramException Excepción ocurrida
+     */
+    List<InlineQueryResult> answer(InlineQuery query, String text) throws TelegramException;
+
+    /**
+     * Filtro para obtener los resultados de una consulta a partir de los de otra que empieza igual, sin llamar a {@link #answer(InlineQuery, String)}.
+     * Así, mientras se escribe "gato", los resultados de "g", "ga" y "gat" se van filtrando en lugar de volver a buscarse
+     * @param text Texto normalizado de la consulta
+     * @return Filtro de los resultados, o null si cada consulta se debe buscar desde cero
+     */
+    default Predicate<InlineQueryResult> refine(String text) {
+        return null;
+    }
+
+    default String getPrefix() {
+        if (!this.getClass().isAnnotationPresent(InlineInfo.class)) {
+            return "";
+        }
+        return this.getClass().getAnnotation(InlineInfo.class).prefix();
+    }
+
+    default int getCacheTime() {
+        if (!this.getClass().isAnnotationPresent(InlineInfo.class)) {
+            return 300;
+        }
+        return this.getClass().getAnnotation(InlineInfo.class).cacheTime();
+    }
+
+    default boolean isPersonal() {
+        if (!this.getClass().isAnnotationPresent(InlineInfo.class)) {
+            return false;
+        }
+        return this.getClass().getAnnotation(InlineInfo.class).personal();
+    }
+}
@@ -0,0 +1,30 @@
+package com.cadiducho.zincite.api.inline;
+
+import java.lang.annotation.*;
+
+/**
+ * Anotación para construir los parámetros de un {@link InlineHandler}
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface InlineInfo {
+
+    /**
+     * Primera palabra de las consultas que atiende el handler, como <code>gif</code> en <code>@bot gif gatos</code>.
+     * Vacío para atender las consultas que no empiezan por el prefijo de otro handler
+     * @return prefijo de las consultas
+     */
+    String prefix() default "";
+
+    /**
+     * Segundos que Telegram y el framework guardan los resultados de una consulta
+     * @return segundos en caché
+     */
+    int cacheTime() default 300;
+
+    /**
+     * Si los resultados dependen del usuario que consulta, y por tanto se guardan en caché por separado para cada uno
+     * @return si los resultados son personales
+     */
+    boolean personal() default false;
+}
@@ -0,0 +1,324 @@
+package com.cadiducho.zincite.api.inline;
+
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.telegrambotapi.inline.InlineQuery;
+import com.cadiducho.telegrambotapi.inline.InlineQueryResult;
+import com.cadiducho.zincite.ZinciteBot;
+import com.cadiducho.zincite.api.module.ModuleListener;
+import com.cadiducho.zincite.api.module.ZinciteModule;
+import com.cadiducho.zincite.cache.LruCache;
+import com.cadiducho.zincite.metrics.Counter;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import lombok.extern.java.Log;
+
+import java.text.Normalizer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Clase para manejar las consultas inline y sus {@link InlineHandler}.
+ * <p>
+ * Telegram envía una consulta por cada tecla pulsada, así que los resultados se guardan en caché por texto normalizado
+ * (y por usuario en los handlers personales), y las consultas que no están en caché esperan un momento antes de buscarse:
+ * si mientras tanto llega otra del mismo usuario, la anterior se descarta sin responder. Los resultados se envían en páginas
+ * de {@value #PAGE_SIZE}, y Telegram pide las siguientes con el <code>next_offset</code> de la anterior
+ */
+@Log
+public class InlineManager implements ModuleListener {
+
+    /**
+     * Máximo de resultados que Telegram acepta en cada respuesta
+     */
+    static final int PAGE_SIZE = 50;
+
+    private final TelegramBot bot;
+    private final LruCache<String, Results> cache;
+    private final int maxResults;
+    private final long debounce;
+    private final Map<String, InlineHandler> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * Última consulta recibida de cada usuario, para descartar las que ha dejado atrás escribiendo
+     */
+    private final Map<Long, String> latest = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Counter hits;
+    private final Counter refined;
+    private final Counter misses;
+    private final Counter superseded;
+
+    /**
+     * Crear el manager de consultas inline
+     * @param zincite El bot, del que se toma la configuración y las métricas
+     * @param bot El bot con el que se responden las consultas
+     */
+    public InlineManager(ZinciteBot zincite, TelegramBot bot) {
+        this(bot, zincite != null ? zincite.getMetrics() : new MetricsRegistry(),
+                zincite != null ? zincite.getConfig().inlineCacheSize : 1000,
+                zincite != null ? zincite.getConfig().inlineMaxResults : 200,
+                zincite != null ? zincite.getConfig().inlineDebounce : 300);
+    }
+
+    /**
+     * Crear el manager de consultas inline
+     * @param bot El bot con el que se responden las consultas
+     * @param metrics Registro donde se cuentan las consultas
+     * @param cacheSize Máximo de consultas en caché
+     * @param maxResults Máximo de resultados de cada consulta que se guardan y paginan
+     * @param debounce Milisegundos que espera una consulta que no está en caché, o 0 para buscarla en cuanto llega
+     */
+    public InlineManager(TelegramBot bot, MetricsRegistry metrics, int cacheSize, int maxResults, long debounce) {
+        this.bot = bot;
+        this.cache = new LruCache<>(cacheSize);
+        this.maxResults = maxResults;
+        this.debounce = debounce;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(2, runnable -> {
+            Thread thread = new Thread(runnable, "ZinciteInline-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        String help = "Inline queries received, by how they were answered";
+        this.hits = metrics.counter("zincite_inline_queries_total", help, "cache", "hit");
+        this.refined = metrics.counter("zincite_inline_queries_total", help, "cache", "prefix");
+        this.misses = metrics.counter("zincite_inline_queries_total", help, "cache", "miss");
+        this.superseded = metrics.counter("zincite_inline_queries_total", help, "cache", "superseded");
+    }
+
+    /**
+     * Registrar un handler de consultas inline, reemplazando al que tuviese el mismo prefijo
+     * @param handler El handler a registrar
+     */
+    public void register(InlineHandler handler) {
+        String prefix = normalize(handler.getPrefix());
+        InlineHandler previous = handlers.put(prefix, handler);
+        if (previous != null && previous != handler) {
+            invalidate(prefix);
+        }
+    }
+
+    /**
+     * Eliminar un handler de consultas inline
+     * @param handler El handler a eliminar
+     * @return true si estaba registrado
+     */
+    public boolean unregister(InlineHandler handler) {
+        String prefix = normalize(handler.getPrefix());
+        if (handlers.remove(prefix, handler)) {
+            invalidate(prefix);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Eliminar los handlers cargados desde el mismo jar que un módulo
+     * @param module El módulo
+     */
+    public void unregisterModule(ZinciteModule module) {
+        ClassLoader loader = module.getClass().getClassLoader();
+        if (loader == InlineManager.class.getClassLoader()) {
+            return;
+        }
+        handlers.values().stream()
+                .filter(handler -> handler.getClass().getClassLoader() == loader)
+                .collect(Collectors.toList())
+                .forEach(this::unregister);
+    }
+
+    @Override
+    public void onModuleUnloaded(ZinciteModule module) {
+        unregisterModule(module);
+    }
+
+    /**
+     * Responder una consulta inline. Las que están en caché se responden en el momento, y el resto en otro hilo
+     * @param query La consulta
+     */
+    public void onInlineQuery(InlineQuery query) {
+        String text = normalize(query.getQuery());
+        String prefix = text.indexOf(' ') > 0 ? text.substring(0, text.indexOf(' ')) : text;
+        InlineHandler handler = handlers.get(prefix);
+        if (handler != null && !prefix.isEmpty()) {
+            text = text.substring(prefix.length()).trim();
+        } else {
+            prefix = "";
+            handler = handlers.get(prefix);
+        }
+        if (handler == null) {
+            return;
+        }
+
+        long user = userOf(query);
+        latest.put(user, query.getId());
+        int offset = parseOffset(query.getOffset());
+        String scope = prefix + '\u0000' + (handler.isPersonal() ? user : "") + '\u0000';
+
+        Results results = cache.get(scope + text);
+        if (results != null) {
+            hits.increment();
+            reply(query, handler, results, offset);
+            return;
+        }
+        if (offset == 0) {
+            results = refine(handler, scope, text);
+            if (results != null) {
+                refined.increment();
+                cache.put(scope + text, results, TimeUnit.SECONDS.toMillis(handler.getCacheTime()));
+                reply(query, handler, results, offset);
+                return;
+            }
+        }
+
+        // las páginas siguientes se piden al desplazarse por los resultados, no al escribir
+        InlineHandler target = handler;
+        String key = scope + text;
+        String normalized = text;
+        Runnable search = () -> {
+            if (offset == 0 && !query.getId().equals(latest.get(user))) {
+                superseded.increment();
+                return;
+            }
+            misses.increment();
+            try {
+                Results found = search(query, target, normalized);
+                cache.put(key, found, TimeUnit.SECONDS.toMillis(target.getCacheTime()));
+                reply(query, target, found, offset);
+            } catch (TelegramException ex) {
+                log.warning("No se han podido obtener los resultados de la consulta inline '" + query.getQuery() + "': " + ex.getMessage());
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Error no esperado en la consulta inline '" + query.getQuery() + "'", ex);
+            }
+        };
+        if (offset == 0 && debounce > 0) {
+            executor.schedule(search, debounce, TimeUnit.MILLISECONDS);
+        } else {
+            executor.execute(search);
+        }
+    }
+
+    /**
+     * Dejar de responder consultas y esperar a que terminen las que se están buscando
+     * @param timeout Tiempo máximo de espera
+     * @param unit Unidad del tiempo de espera
+     * @return true si han terminado todas
+     * @throws InterruptedException Si se interrumpe la espera
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Obtener los resultados de una consulta filtrando los de la consulta más larga en caché que empiece igual
+     * @return Los resultados, o null si no hay ninguna consulta anterior completa en caché
+     */
+    private Results refine(InlineHandler handler, String scope, String text) {
+        Predicate<InlineQueryResult> filter = null;
+        for (int length = text.length() - 1; length >= 0; length--) {
+            Results previous = cache.get(scope + text.substring(0, length));
+            if (previous == null) {
+                continue;
+            }
+            // si se recortaron los resultados, los que faltan podrían encajar con la nueva consulta
+            if (!previous.complete) {
+                return null;
+            }
+            if (filter == null) {
+                filter = handler.refine(text);
+                if (filter == null) {
+                    return null;
+                }
+            }
+            return new Results(previous.results.stream().filter(filter).collect(Collectors.toList()), true);
+        }
+        return null;
+    }
+
+    private Results search(InlineQuery query, InlineHandler handler, String text) throws TelegramException {
+        List<InlineQueryResult> found = handler.answer(query, text);
+        if (found == null) {
+            return new Results(Collections.emptyList(), true);
+        }
+        if (found.size() > maxResults) {
+            return new Results(List.copyOf(found.subList(0, maxResults)), false);
+        }
+        return new Results(List.copyOf(found), true);
+    }
+
+    private void reply(InlineQuery query, InlineHandler handler, Results results, int offset) {
+        long user = userOf(query);
+        latest.remove(user, query.getId());
+
+        int from = Math.min(offset, results.results.size());
+        int to = Math.min(from + PAGE_SIZE, results.results.size());
+        String nextOffset = to < results.results.size() ? String.valueOf(to) : "";
+        try {
+            bot.answerInlineQuery(query.getId(), results.results.subList(from, to), handler.getCacheTime(), handler.isPersonal(), nextOffset, null, null);
+        } catch (TelegramException ex) {
+            log.warning("No se ha podido responder la consulta inline '" + query.getQuery() + "': " + ex.getMessage());
+        }
+    }
+
+    private static long userOf(InlineQuery query) {
+        return query.getFrom() != null && query.getFrom().getId() != null ? query.getFrom().getId() : 0;
+    }
+
+    private void invalidate(String prefix) {
+        cache.invalidateIf(key -> key.startsWith(prefix + '\u0000'));
+    }
+
+    private static int parseOffset(String offset) {
+        if (offset == null || offset.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(offset));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Normalizar el texto de una consulta, para que las que solo se diferencian en mayúsculas o espacios compartan caché
+     * @param text El texto
+     * @return El texto normalizado
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Resultados de una consulta
+     */
+    private static final class Results {
+        private final List<InlineQueryResult> results;
+
+        /**
+         * Si están todos los resultados, o se han recortado al máximo configurado
+         */
+        private final boolean complete;
+
+        private Results(List<InlineQueryResult> results, boolean complete) {
+            this.results = results;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.cadiducho.zincite.api.module;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Cabecera de un fichero <code>.class</code>: su nombre, su superclase y sus interfaces.
+ * Se lee directamente del bytecode, sin cargar ni inicializar la clase
+ */
+final class ClassHeader {
+
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    final String name;
+    final String superName;
+    final String[] interfaces;
+    final int access;
+
+    private ClassHeader(String name, String superName, String[] interfaces, int access) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.access = access;
+    }
+
+    /**
+     * Comprobar si la clase puede ser instanciada
+     * @return false si es una interfaz o una clase abstracta
+     */
+    boolean isConcrete() {
+        return (access & (ACC_INTERFACE | ACC_ABSTRACT)) == 0;
+    }
+
+    /**
+     * Leer la cabecera de una clase. Los nombres se devuelven en su forma interna, separados por '/'
+     * @param input El contenido del fichero <code>.class</code>
+     * @return La cabecera
+     * @throws IOException Si el fichero no es una clase válida
+     */
+    static ClassHeader read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor_version
+        in.readUnsignedShort(); // major_version
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classes = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classes[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++; // ocupan dos entradas
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        int access = in.readUnsignedShort();
+        String name = className(utf8, classes, in.readUnsignedShort());
+        String superName = className(utf8, classes, in.readUnsignedShort());
+        String[] interfaces = new String[in.readUnsignedShort()];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = className(utf8, classes, in.readUnsignedShort());
+        }
+        return new ClassHeader(name, superName, interfaces, access);
+    }
+
+    private static String className(String[] utf8, int[] classes, int index) throws IOException {
+        if (index == 0) {
+            return null; // java/lang/Object no tiene superclase
+        }
+        if (index >= classes.length || classes[index] == 0) {
+            throw new IOException("Invalid class reference " + index);
+        }
+        return utf8[classes[index]];
+    }
+}
@@ -0,0 +1,74 @@
+package com.cadiducho.zincite.api.module;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Cargador de clases de un único jar de módulos, de modo que cada jar puede descargarse y recargarse por separado.
+ * Las clases que no están en el propio jar ni en el framework se buscan en los jars del resto de módulos,
+ * así un módulo puede seguir usando las clases de otro como cuando todos compartían el mismo cargador
+ */
+final class ModuleClassLoader extends URLClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final String jarName;
+    private final Supplier<Collection<ModuleClassLoader>> siblings;
+
+    /**
+     * Crear el cargador de un jar
+     * @param jarName Nombre del jar en la carpeta de módulos
+     * @param urls Ubicación del jar
+     * @param parent Cargador del framework
+     * @param siblings Los cargadores de todos los jars cargados
+     */
+    ModuleClassLoader(String jarName, URL[] urls, ClassLoader parent, Supplier<Collection<ModuleClassLoader>> siblings) {
+        super(urls, parent);
+        this.jarName = jarName;
+        this.siblings = siblings;
+    }
+
+    String getJarName() {
+        return jarName;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        try {
+            return super.findClass(name);
+        } catch (ClassNotFoundException ex) {
+            for (ModuleClassLoader sibling : siblings.get()) {
+                if (sibling != this) {
+                    Class<?> found = sibling.findOwnClass(name);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Buscar una clase solo en este jar, sin recurrir a los demás para no recorrerlos en bucle
+     * @param name Nombre de la clase
+     * @return La clase, o null si no está en este jar
+     */
+    private Class<?> findOwnClass(String name) {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded != null) {
+                return loaded;
+            }
+            try {
+                return super.findClass(name);
+            } catch (ClassNotFoundException ex) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.cadiducho.zincite.api.module;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+/**
+ * Búsqueda de las clases de {@link ZinciteModule} que contiene cada jar de la carpeta de módulos.
+ * Un jar puede declarar sus módulos de dos formas, sin que haga falta abrir ninguna otra clase:
+ * <ul>
+ *     <li>El atributo <code>Zincite-Module</code> de su manifiesto, con los nombres de las clases separados por comas o espacios</li>
+ *     <li>El fichero <code>META-INF/services/com.cadiducho.zincite.api.module.ZinciteModule</code>, como en {@link java.util.ServiceLoader}</li>
+ * </ul>
+ * Si no declara ninguno, se analiza la cabecera de cada una de sus clases, sin cargarlas ni inicializarlas.
+ * Los jars se procesan en paralelo y el resultado se guarda en un índice, por lo que un jar solo se analiza una vez
+ */
+@Log
+public class ModuleDiscovery {
+
+    /**
+     * Atributo del manifiesto con las clases de los módulos del jar
+     */
+    public static final String MANIFEST_ATTRIBUTE = "Zincite-Module";
+
+    /**
+     * Fichero con las clases de los módulos del jar, en el formato de {@link java.util.ServiceLoader}
+     */
+    public static final String SERVICES_ENTRY = "META-INF/services/" + ZinciteModule.class.getName();
+
+    private static final String MODULE_TYPE = ZinciteModule.class.getName().replace('.', '/');
+
+    /**
+     * Cómo se encontraron los módulos de un jar
+     */
+    public enum Source {
+        MANIFEST, SERVICES, SCAN, NONE
+    }
+
+    /**
+     * Módulos encontrados en un jar
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static final class Result {
+        private final File file;
+        private final Source source;
+        private final List<String> classNames;
+        /**
+         * Si el resultado se ha obtenido del índice, sin abrir el jar
+         */
+        private final boolean cached;
+    }
+
+    private final ModuleIndex index;
+    private final boolean scanFallback;
+
+    /**
+     * Crear la búsqueda de módulos
+     * @param indexFile Fichero donde guardar el índice de los jars ya analizados, o null para no usar índice
+     * @param scanFallback Si se analizan las clases de los jars que no declaran sus módulos. Si es false, esos jars se ignoran
+     */
+    public ModuleDiscovery(File indexFile, boolean scanFallback) {
+        this.index = indexFile != null ? new ModuleIndex(indexFile) : null;
+        this.scanFallback = scanFallback;
+    }
+
+    /**
+     * Buscar los módulos de varios jars
+     * @param jars Los jars
+     * @param classLoaders Cargador de cada jar, usado solo cuando una clase hereda de otra que no está en su jar
+     * @return Los módulos de cada jar, en el mismo orden
+     * @throws IOException Si no se puede leer algún jar
+     */
+    public synchronized List<Result> discover(List<File> jars, Function<File, ClassLoader> classLoaders) throws IOException {
+        if (index != null) {
+            index.load();
+        }
+        List<Result> results;
+        try {
+            results = jars.parallelStream().map(jar -> {
+                try {
+                    return discover(jar, classLoaders.apply(jar));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(jar.getName() + ": " + ex.getMessage(), ex);
+                }
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException ex) {
+            throw new IOException(ex.getMessage(), ex.getCause());
+        }
+        if (index != null) {
+            index.save();
+        }
+        return results;
+    }
+
+    /**
+     * Olvidar un jar descargado o eliminado, para que el índice deje de guardarlo
+     * @param jar El jar
+     */
+    public synchronized void forget(File jar) {
+        if (index != null && index.forget(jar)) {
+            index.save();
+        }
+    }
+
+    private Result discover(File jar, ClassLoader classLoader) throws IOException {
+        String hash = null;
+        if (index != null) {
+            hash = index.hash(jar);
+            Source source = index.getSource(hash);
+            if (source != null && !(source == Source.NONE && scanFallback)) {
+                return new Result(jar, source, index.getClasses(hash), true);
+            }
+        }
+
+        Result result;
+        try (JarFile jarFile = new JarFile(jar)) {
+            Result declared = declared(jar, jarFile);
+            if (declared != null) {
+                result = declared;
+            } else if (scanFallback) {
+                result = scan(jar, jarFile, classLoader);
+            } else {
+                result = new Result(jar, Source.NONE, Collections.emptyList(), false);
+            }
+        }
+        Result found = result;
+        log.fine(() -> "Módulos de " + jar.getName() + " (" + found.getSource() + "): " + found.getClassNames());
+        if (index != null) {
+            index.put(hash, result.getSource(), result.getClassNames());
+        }
+        return result;
+    }
+
+    /**
+     * Leer los módulos declarados por el jar
+     * @return Los módulos, o null si el jar no declara ninguno
+     */
+    private static Result declared(File jar, JarFile jarFile) throws IOException {
+        Manifest manifest = jarFile.getManifest();
+        if (manifest != null) {
+            String value = manifest.getMainAttributes().getValue(new Attributes.Name(MANIFEST_ATTRIBUTE));
+            if (value != null && !value.isBlank()) {
+                return new Result(jar, Source.MANIFEST, Arrays.asList(value.trim().split("[\\s,]+")), false);
+            }
+        }
+
+        JarEntry services = jarFile.getJarEntry(SERVICES_ENTRY);
+        if (services != null) {
+            List<String> classNames = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(jarFile.getInputStream(services), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comment = line.indexOf('#');
+                    String className = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                    if (!className.isEmpty() && !classNames.contains(className)) {
+                        classNames.add(className);
+                    }
+                }
+            }
+            return new Result(jar, Source.SERVICES, classNames, false);
+        }
+        return null;
+    }
+
+    /**
+     * Buscar los módulos leyendo la cabecera de cada clase del jar
+     */
+    private static Result scan(File jar, JarFile jarFile, ClassLoader classLoader) throws IOException {
+        Map<String, ClassHeader> headers = new HashMap<>();
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class")) {
+                continue;
+            }
+            try (InputStream in = jarFile.getInputStream(entry)) {
+                ClassHeader header = ClassHeader.read(in);
+                headers.put(header.name, header);
+            } catch (IOException ex) {
+                log.warning("No se puede leer la clase " + name + " de " + jar.getName() + ": " + ex.getMessage());
+            }
+        }
+
+        Map<String, Boolean> resolved = new HashMap<>();
+        List<String> classNames = new ArrayList<>();
+        for (ClassHeader header : headers.values()) {
+            if (header.isConcrete() && isModule(header.name, headers, resolved, classLoader)) {
+                classNames.add(header.name.replace('/', '.'));
+            }
+        }
+        Collections.sort(classNames);
+        return new Result(jar, Source.SCAN, classNames, false);
+    }
+
+    /**
+     * Comprobar si una clase implementa {@link ZinciteModule}, recorriendo sus superclases e interfaces dentro del jar.
+     * Solo se recurre al cargador, sin inicializar la clase, cuando un supertipo está fuera del jar
+     */
+    private static boolean isModule(String name, Map<String, ClassHeader> headers, Map<String, Boolean> resolved, ClassLoader classLoader) {
+        if (name == null) {
+            return false;
+        }
+        if (MODULE_TYPE.equals(name)) {
+            return true;
+        }
+        Boolean known = resolved.get(name);
+        if (known != null) {
+            return known;
+        }
+        resolved.put(name, false);
+
+        boolean module;
+        ClassHeader header = headers.get(name);
+        if (header != null) {
+            module = isModule(header.superName, headers, resolved, classLoader);
+            for (int i = 0; !module && i < header.interfaces.length; i++) {
+                module = isModule(header.interfaces[i], headers, resolved, classLoader);
+            }
+        } else if (name.startsWith("java/") || name.startsWith("javax/")) {
+            module = false; // las clases de la JDK nunca son módulos
+        } else {
+            try {
+                module = ZinciteModule.class.isAssignableFrom(Class.forName(name.replace('/', '.'), false, classLoader));
+            } catch (ClassNotFoundException | LinkageError ex) {
+                module = false;
+            }
+        }
+        resolved.put(name, module);
+        return module;
+    }
+}
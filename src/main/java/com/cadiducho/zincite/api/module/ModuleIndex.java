@@ -0,0 +1,193 @@
+package com.cadiducho.zincite.api.module;
+
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice de los módulos encontrados en cada jar, guardado en la carpeta de módulos para no volver a analizarlos en cada arranque.
+ * Las entradas se identifican por el SHA-256 del jar. Mientras el tamaño y la fecha de modificación de un jar no cambien,
+ * se reutiliza el hash calculado la última vez, de modo que un arranque sin cambios no necesita leer ningún jar
+ */
+@Log
+final class ModuleIndex {
+
+    private static final String HEADER = "# Zincite module index v1";
+
+    private final File file;
+    private final Map<String, ModuleDiscovery.Source> sources = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> classes = new ConcurrentHashMap<>();
+    private final Map<String, Stat> stats = new ConcurrentHashMap<>();
+    private final Map<String, Stat> seen = new ConcurrentHashMap<>();
+    private volatile boolean changed;
+    private boolean loaded;
+
+    ModuleIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Leer el índice del disco, solo la primera vez. Si no existe o está dañado, se empieza con uno vacío
+     */
+    void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                changed = true;
+                return;
+            }
+            while ((line = reader.readLine()) != null) {
+                // hash, tamaño, fecha de modificación, nombre del jar, origen, clases
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 6) {
+                    continue;
+                }
+                String hash = parts[0];
+                stats.put(parts[3], new Stat(Long.parseLong(parts[1]), Long.parseLong(parts[2]), hash));
+                sources.put(hash, ModuleDiscovery.Source.valueOf(parts[4]));
+                classes.put(hash, parts[5].isEmpty() ? Collections.emptyList() : Arrays.asList(parts[5].split(",")));
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            log.warning("No se puede leer el índice de módulos " + file + ", se volverán a buscar: " + ex.getMessage());
+            sources.clear();
+            classes.clear();
+            stats.clear();
+            changed = true;
+        }
+    }
+
+    /**
+     * Obtener el hash de un jar, reutilizando el del índice si el jar no ha cambiado de tamaño ni de fecha
+     * @param jar El jar
+     * @return Su hash SHA-256 en hexadecimal
+     * @throws IOException Si no se puede leer el jar
+     */
+    String hash(File jar) throws IOException {
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        Stat stat = stats.get(jar.getName());
+        String hash = stat != null && stat.size == size && stat.lastModified == lastModified ? stat.hash : sha256(jar);
+        seen.put(jar.getName(), new Stat(size, lastModified, hash));
+        return hash;
+    }
+
+    /**
+     * Dejar de guardar un jar en el índice
+     * @param jar El jar
+     * @return true si estaba en el índice
+     */
+    boolean forget(File jar) {
+        boolean saved = stats.containsKey(jar.getName());
+        return seen.remove(jar.getName()) != null || saved;
+    }
+
+    /**
+     * Obtener los módulos de un jar ya analizado
+     * @param hash El hash del jar
+     * @return El origen de sus módulos, o null si no está en el índice
+     */
+    ModuleDiscovery.Source getSource(String hash) {
+        return sources.get(hash);
+    }
+
+    List<String> getClasses(String hash) {
+        return classes.get(hash);
+    }
+
+    /**
+     * Añadir los módulos de un jar al índice
+     * @param hash El hash del jar
+     * @param source Cómo se encontraron sus módulos
+     * @param classNames Las clases de sus módulos
+     */
+    void put(String hash, ModuleDiscovery.Source source, List<String> classNames) {
+        sources.put(hash, source);
+        classes.put(hash, classNames);
+        changed = true;
+    }
+
+    /**
+     * Guardar el índice si ha cambiado. Solo se conservan los jars vistos desde el arranque
+     */
+    void save() {
+        if (!changed && seen.equals(stats)) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Map.Entry<String, Stat> entry : new TreeMap<>(seen).entrySet()) {
+                    Stat stat = entry.getValue();
+                    ModuleDiscovery.Source source = sources.get(stat.hash);
+                    if (source == null) {
+                        continue;
+                    }
+                    writer.write(stat.hash + "\t" + stat.size + "\t" + stat.lastModified + "\t" + entry.getKey() + "\t"
+                            + source.name() + "\t" + String.join(",", classes.get(stat.hash)));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            stats.clear();
+            stats.putAll(seen);
+            changed = false;
+        } catch (IOException ex) {
+            log.warning("No se puede guardar el índice de módulos " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private static String sha256(File jar) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // todas las JVM deben soportar SHA-256
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(jar.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Stat {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+    }
+}
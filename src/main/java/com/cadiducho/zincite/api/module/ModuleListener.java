@@ -0,0 +1,28 @@
+package com.cadiducho.zincite.api.module;
+
+/**
+ * Listener de la carga y descarga de los módulos del {@link ModuleManager}
+ */
+public interface ModuleListener {
+
+    /**
+     * Un módulo ha sido cargado, después de llamar a su {@link ZinciteModule#onLoad()}
+     * @param module El módulo cargado
+     */
+    default void onModuleLoaded(ZinciteModule module) {
+    }
+
+    /**
+     * Un módulo ha sido descargado, después de llamar a su {@link ZinciteModule#onClose()}.
+     * Se deben liberar aquí todas las referencias a sus clases, como sus comandos, para que su cargador pueda ser descartado
+     * @param module El módulo descargado
+     */
+    default void onModuleUnloaded(ZinciteModule module) {
+    }
+
+    /**
+     * Se han cargado, recargado o descargado módulos mientras el bot estaba en marcha
+     */
+    default void onModulesChanged() {
+    }
+}
@@ -1,33 +1,109 @@
 package com.cadiducho.zincite.api.module;
 
+import com.cadiducho.zincite.api.storage.StorageManager;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.java.Log;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 /**
- * Clase para gestionar los módulos de Zincite
+ * Clase para gestionar los módulos de Zincite.
+ * Cada jar se carga con su propio cargador de clases, por lo que sus módulos pueden descargarse o recargarse
+ * con {@link #unload(String)} y {@link #reload(String)} sin reiniciar el bot
  */
 @Log
-@RequiredArgsConstructor
 public class ModuleManager {
-    
-    @Getter private final List<ZinciteModule> modules = new ArrayList<>();
+
+    /**
+     * Nombre del índice de módulos dentro de la carpeta de módulos
+     */
+    public static final String INDEX_FILE = ".zincite-index";
+
+    /**
+     * Tiempo sin cambios en un jar antes de que el vigilante de la carpeta lo cargue, para no leerlo a medio copiar
+     */
+    private static final long WATCH_QUIET_MILLIS = 500;
+
+    @Getter private final List<ZinciteModule> modules = new CopyOnWriteArrayList<>();
 
     @Getter private final File modulesFolder;
 
+    private final ModuleDiscovery discovery;
+    private final boolean hotReload;
+    private final List<ModuleListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Jars cargados, por su nombre
+     */
+    private final Map<String, LoadedJar> jars = new ConcurrentHashMap<>();
+
+    /**
+     * Almacenamiento del que cada módulo recibe su almacén al cargarse
+     */
+    @Setter private StorageManager storageManager;
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * Crear el gestor de módulos, con índice y analizando los jars que no declaran sus módulos
+     * @param modulesFolder La carpeta de módulos
+     */
+    public ModuleManager(File modulesFolder) {
+        this(modulesFolder, true, true, false);
+    }
+
+    /**
+     * Crear el gestor de módulos
+     * @param modulesFolder La carpeta de módulos
+     * @param scanFallback Si se analizan las clases de los jars que no declaran sus módulos
+     * @param useIndex Si se guarda en la carpeta de módulos un índice de los jars ya analizados
+     */
+    public ModuleManager(File modulesFolder, boolean scanFallback, boolean useIndex) {
+        this(modulesFolder, scanFallback, useIndex, false);
+    }
+
+    /**
+     * Crear el gestor de módulos
+     * @param modulesFolder La carpeta de módulos
+     * @param scanFallback Si se analizan las clases de los jars que no declaran sus módulos
+     * @param useIndex Si se guarda en la carpeta de módulos un índice de los jars ya analizados
+     * @param hotReload Si se vigila la carpeta de módulos para cargar, recargar y descargar los jars según cambian.
+     *                  Los jars se cargan desde una copia temporal, para que puedan ser reemplazados mientras están en uso
+     */
+    public ModuleManager(File modulesFolder, boolean scanFallback, boolean useIndex, boolean hotReload) {
+        this.modulesFolder = modulesFolder;
+        this.discovery = new ModuleDiscovery(useIndex ? new File(modulesFolder, INDEX_FILE) : null, scanFallback);
+        this.hotReload = hotReload;
+    }
+
     /**
      * Registrar un módulo para su posterior inicialización
      * @param module El módulo a registrar
@@ -37,7 +113,16 @@ public class ModuleManager {
     }
 
     /**
-     * Cargar los módulos desde la carpeta de módulos
+     * Registrar un listener de la carga y descarga de los módulos
+     * @param listener El listener
+     */
+    public void addListener(ModuleListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Cargar los módulos desde la carpeta de módulos.
+     * Cada jar puede declarar sus módulos en su manifiesto o en <code>META-INF/services</code>, ver {@link ModuleDiscovery}
      * @throws IOException Si ocurre un error al cargar los módulos
      * @throws ClassNotFoundException Si no se encuentra la clase del módulo
      * @throws IllegalAccessException Si no se puede acceder a la clase del módulo
@@ -45,8 +130,9 @@ public class ModuleManager {
      * @throws NoSuchMethodException Si no se encuentra el constructor de la clase del módulo
      * @throws InvocationTargetException Si ocurre un error al invocar el constructor de la clase del módulo
      */
-    public void loadModules() throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
+    public synchronized void loadModules() throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
         log.info("Cargando módulos...");
+        long start = System.nanoTime();
         if (Files.notExists(modulesFolder.toPath())) {
             Files.createDirectories(modulesFolder.toPath());
         }
@@ -55,36 +141,137 @@ public class ModuleManager {
         if (files == null) {
             return;
         }
+        Arrays.sort(files);
 
-        final URL[] urls = new URL[files.length];
-
+        // todos los cargadores deben existir antes de buscar los módulos, una clase puede heredar de otra de otro jar
+        List<LoadedJar> loaded = new ArrayList<>();
+        for (File file : files) {
+            loaded.add(open(file));
+        }
+        List<ModuleDiscovery.Result> results = discovery.discover(Arrays.asList(files), this::loaderOf);
         for (int i = 0; i < files.length; i++) {
-            urls[i] = files[i].toURI().toURL();
-        }
-
-        try (URLClassLoader classLoader = new URLClassLoader(urls)) {
-            for (File file : files) {
-                try (JarFile jarFile = new JarFile(file)) {
-                    Enumeration<JarEntry> entries = jarFile.entries();
-                    while (entries.hasMoreElements()) {
-                        JarEntry jarEntry = entries.nextElement();
-                        if (jarEntry.getName().endsWith(".class")) {
-                            String className = jarEntry.getName().replace("/", ".").replace(".class", "");
-                            Class<?> targetClass = classLoader.loadClass(className);
-                            if (ZinciteModule.class.isAssignableFrom(targetClass)) {
-                                ZinciteModule module = (ZinciteModule) targetClass.getDeclaredConstructor().newInstance();
-                                modules.add(module);
-                            }
-                        }
-                    }
-                }
-            }
+            instantiate(loaded.get(i), results.get(i));
         }
 
-        modules.forEach(ZinciteModule::onLoad);
-        log.info("Módulos cargados.");
+        modules.forEach(this::callOnLoad);
+        modules.forEach(this::fireModuleLoaded);
+        log.info("Módulos cargados en " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+
+        if (hotReload) {
+            startWatcher();
+        }
     }
-    
+
+    /**
+     * Cargar un jar mientras el bot está en marcha. Si ya estaba cargado, se recarga
+     * @param file El jar
+     * @return Los módulos cargados
+     * @throws IOException Si ocurre un error al leer el jar
+     * @throws ClassNotFoundException Si no se encuentra la clase del módulo
+     * @throws IllegalAccessException Si no se puede acceder a la clase del módulo
+     * @throws InstantiationException Si no se puede instanciar la clase del módulo
+     * @throws NoSuchMethodException Si no se encuentra el constructor de la clase del módulo
+     * @throws InvocationTargetException Si ocurre un error al invocar el constructor de la clase del módulo
+     */
+    public synchronized List<ZinciteModule> load(File file) throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
+        LoadedJar previous = jars.get(file.getName());
+        if (previous != null) {
+            close(previous);
+        }
+        List<ZinciteModule> loaded = loadJar(file);
+        fireModulesChanged();
+        return loaded;
+    }
+
+    /**
+     * Recargar el jar de un módulo, junto al resto de módulos del mismo jar.
+     * Se llama a su {@link ZinciteModule#onClose()}, se eliminan sus comandos y listeners, y se carga de nuevo el jar de la carpeta de módulos
+     * @param id El nombre del módulo
+     * @return true si se ha recargado, false si no existe o no se ha cargado desde un jar
+     * @throws IOException Si ocurre un error al leer el jar
+     * @throws ClassNotFoundException Si no se encuentra la clase del módulo
+     * @throws IllegalAccessException Si no se puede acceder a la clase del módulo
+     * @throws InstantiationException Si no se puede instanciar la clase del módulo
+     * @throws NoSuchMethodException Si no se encuentra el constructor de la clase del módulo
+     * @throws InvocationTargetException Si ocurre un error al invocar el constructor de la clase del módulo
+     */
+    public synchronized boolean reload(String id) throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
+        LoadedJar jar = getModule(id).map(this::jarOf).orElse(null);
+        if (jar == null) {
+            return false;
+        }
+        close(jar);
+        if (jar.file.isFile()) {
+            loadJar(jar.file);
+        } else {
+            log.warning("El jar " + jar.file.getName() + " ya no existe, el módulo " + id + " queda descargado");
+            discovery.forget(jar.file);
+        }
+        fireModulesChanged();
+        return true;
+    }
+
+    /**
+     * Descargar un módulo. Si se cargó desde un jar, se descargan también el resto de módulos del mismo jar
+     * @param id El nombre del módulo
+     * @return true si se ha descargado, false si no existe
+     */
+    public synchronized boolean unload(String id) {
+        Optional<ZinciteModule> module = getModule(id);
+        if (module.isEmpty()) {
+            return false;
+        }
+        LoadedJar jar = jarOf(module.get());
+        if (jar != null) {
+            close(jar);
+            discovery.forget(jar.file);
+        } else {
+            unloadModule(module.get());
+        }
+        fireModulesChanged();
+        return true;
+    }
+
+    /**
+     * Empezar a vigilar la carpeta de módulos, cargando los jars nuevos, recargando los modificados y descargando los eliminados
+     * @throws IOException Si no se puede vigilar la carpeta
+     */
+    public synchronized void startWatcher() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        modulesFolder.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watcher = new Thread(this::watch, "ZinciteModuleWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        log.info("Vigilando la carpeta de módulos " + modulesFolder);
+    }
+
+    /**
+     * Dejar de vigilar la carpeta de módulos
+     */
+    public void stopWatcher() {
+        Thread thread;
+        synchronized (this) {
+            thread = watcher;
+            watcher = null;
+            if (thread == null) {
+                return;
+            }
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                log.warning("No se ha podido cerrar el vigilante de módulos: " + ex.getMessage());
+            }
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Obten un modulo por su id
      *
@@ -93,10 +280,255 @@ public class ModuleManager {
      */
     public Optional<ZinciteModule> getModule(String id) {
         for (ZinciteModule mod : modules) {
-            if (mod.getName().equalsIgnoreCase(id)) {
+            if (id.equalsIgnoreCase(mod.getName())) {
                 return Optional.of(mod);
             }
         }
         return Optional.empty();
     }
+
+    /**
+     * Obten un modulo por su clase
+     *
+     * @param moduleClass la clase del módulo
+     * @return el modulo, o Optional.empty() si no ha sido encontrado
+     */
+    public Optional<ZinciteModule> getModule(Class<? extends ZinciteModule> moduleClass) {
+        for (ZinciteModule mod : modules) {
+            if (mod.getClass().equals(moduleClass)) {
+                return Optional.of(mod);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private List<ZinciteModule> loadJar(File file) throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
+        LoadedJar jar = open(file);
+        try {
+            instantiate(jar, discovery.discover(Collections.singletonList(file), this::loaderOf).get(0));
+        } catch (IOException | ReflectiveOperationException | RuntimeException ex) {
+            close(jar);
+            throw ex;
+        }
+        for (ZinciteModule module : jar.modules) {
+            callOnLoad(module);
+            fireModuleLoaded(module);
+        }
+        log.info("Cargado " + file.getName() + ": " + jar.modules.stream().map(ZinciteModule::getName).collect(Collectors.toList()));
+        return Collections.unmodifiableList(jar.modules);
+    }
+
+    /**
+     * Crear el cargador de un jar y añadirlo a los jars cargados, todavía sin módulos
+     */
+    private LoadedJar open(File file) throws IOException {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Path source = file.toPath();
+        Path copy = null;
+        if (hotReload) {
+            String name = file.getName();
+            copy = Files.createTempFile("zincite-" + name.substring(0, name.length() - ".jar".length()) + "-", ".jar");
+            copy.toFile().deleteOnExit();
+            Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+            source = copy;
+        }
+        ModuleClassLoader loader = new ModuleClassLoader(file.getName(), new URL[]{source.toUri().toURL()}, ModuleManager.class.getClassLoader(), this::getClassLoaders);
+        LoadedJar jar = new LoadedJar(file, copy, size, lastModified, loader);
+        jars.put(file.getName(), jar);
+        return jar;
+    }
+
+    private void instantiate(LoadedJar jar, ModuleDiscovery.Result result) throws ClassNotFoundException, IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
+        for (String className : result.getClassNames()) {
+            Class<?> targetClass = jar.loader.loadClass(className);
+            if (!ZinciteModule.class.isAssignableFrom(targetClass)) {
+                log.warning(className + " de " + jar.file.getName() + " no es un ZinciteModule");
+                continue;
+            }
+            ZinciteModule module = (ZinciteModule) targetClass.getDeclaredConstructor().newInstance();
+            jar.modules.add(module);
+            modules.add(module);
+        }
+    }
+
+    /**
+     * Descargar todos los módulos de un jar y cerrar su cargador
+     */
+    private void close(LoadedJar jar) {
+        jars.remove(jar.file.getName(), jar);
+        for (ZinciteModule module : jar.modules) {
+            unloadModule(module);
+        }
+        try {
+            jar.loader.close();
+        } catch (IOException ex) {
+            log.warning("No se ha podido cerrar el cargador de " + jar.file.getName() + ": " + ex.getMessage());
+        }
+        if (jar.copy != null) {
+            try {
+                Files.deleteIfExists(jar.copy);
+            } catch (IOException ex) {
+                log.warning("No se ha podido borrar la copia de " + jar.file.getName() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private void unloadModule(ZinciteModule module) {
+        modules.remove(module);
+        try {
+            module.onClose();
+        } catch (RuntimeException ex) {
+            log.log(Level.SEVERE, "Error cerrando el módulo " + module.getName(), ex);
+        }
+        if (storageManager != null) {
+            storageManager.close(storageNamespace(module));
+        }
+        for (ModuleListener listener : listeners) {
+            try {
+                listener.onModuleUnloaded(module);
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Error notificando la descarga del módulo " + module.getName(), ex);
+            }
+        }
+        log.info("Descargado el módulo " + module.getName());
+    }
+
+    private void callOnLoad(ZinciteModule module) {
+        module.onLoad(storageManager != null ? storageManager.open(storageNamespace(module)) : null);
+    }
+
+    /**
+     * Espacio de nombres del almacén de un módulo: su nombre, o el de su clase si no tiene {@link ModuleInfo}
+     */
+    private static String storageNamespace(ZinciteModule module) {
+        return module.getName() != null ? module.getName() : module.getClass().getName();
+    }
+
+    private void fireModuleLoaded(ZinciteModule module) {
+        for (ModuleListener listener : listeners) {
+            try {
+                listener.onModuleLoaded(module);
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Error notificando la carga del módulo " + module.getName(), ex);
+            }
+        }
+    }
+
+    private void fireModulesChanged() {
+        for (ModuleListener listener : listeners) {
+            try {
+                listener.onModulesChanged();
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Error notificando el cambio de módulos", ex);
+            }
+        }
+    }
+
+    private LoadedJar jarOf(ZinciteModule module) {
+        ClassLoader loader = module.getClass().getClassLoader();
+        if (loader instanceof ModuleClassLoader) {
+            return jars.get(((ModuleClassLoader) loader).getJarName());
+        }
+        return null;
+    }
+
+    /**
+     * Cargador de un jar abierto, con el que se resuelven sus clases al buscar sus módulos
+     */
+    private ClassLoader loaderOf(File file) {
+        LoadedJar jar = jars.get(file.getName());
+        return jar != null ? jar.loader : ModuleManager.class.getClassLoader();
+    }
+
+    private Collection<ModuleClassLoader> getClassLoaders() {
+        return jars.values().stream().map(jar -> jar.loader).collect(Collectors.toList());
+    }
+
+    private void watch() {
+        Path folder = modulesFolder.toPath();
+        Map<Path, Long> pending = new HashMap<>(); // jar y momento de su último cambio
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(WATCH_QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // se han perdido eventos, revisar todos los jars
+                            File[] files = modulesFolder.listFiles(pathname -> pathname.getName().endsWith(".jar"));
+                            for (File file : files != null ? files : new File[0]) {
+                                pending.put(file.toPath(), now);
+                            }
+                            jars.keySet().forEach(name -> pending.put(folder.resolve(name), now));
+                        } else if (event.context().toString().endsWith(".jar")) {
+                            pending.put(folder.resolve((Path) event.context()), now);
+                        }
+                    }
+                    key.reset();
+                }
+
+                Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Path, Long> entry = it.next();
+                    if (now - entry.getValue() >= WATCH_QUIET_MILLIS) {
+                        it.remove();
+                        apply(entry.getKey().toFile());
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            // stopWatcher()
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Aplicar el cambio de un jar de la carpeta de módulos
+     */
+    private synchronized void apply(File file) {
+        if (watcher == null) {
+            return;
+        }
+        LoadedJar jar = jars.get(file.getName());
+        try {
+            if (!file.isFile()) {
+                if (jar != null) {
+                    log.info("Se ha eliminado " + file.getName() + ", descargando sus módulos");
+                    close(jar);
+                    discovery.forget(jar.file);
+                    fireModulesChanged();
+                }
+            } else if (jar == null) {
+                log.info("Nuevo jar de módulos " + file.getName());
+                load(file);
+            } else if (jar.size != file.length() || jar.lastModified != file.lastModified()) {
+                log.info("Se ha modificado " + file.getName() + ", recargando sus módulos");
+                load(file);
+            }
+        } catch (Exception ex) {
+            log.log(Level.SEVERE, "No se ha podido cargar " + file.getName(), ex);
+        }
+    }
+
+    /**
+     * Un jar cargado y los módulos que contiene
+     */
+    private static final class LoadedJar {
+        private final File file;
+        private final Path copy;
+        private final long size;
+        private final long lastModified;
+        private final ModuleClassLoader loader;
+        private final List<ZinciteModule> modules = new ArrayList<>();
+
+        private LoadedJar(File file, Path copy, long size, long lastModified, ModuleClassLoader loader) {
+            this.file = file;
+            this.copy = copy;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.loader = loader;
+        }
+    }
 }
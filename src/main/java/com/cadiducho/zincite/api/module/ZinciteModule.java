@@ -1,6 +1,7 @@
 package com.cadiducho.zincite.api.module;
 
 import com.cadiducho.zincite.ZinciteBot;
+import com.cadiducho.zincite.api.storage.KeyValueStore;
 import com.cadiducho.telegrambotapi.Chat;
 import com.cadiducho.telegrambotapi.Update;
 import com.cadiducho.telegrambotapi.User;
@@ -53,6 +54,14 @@ public interface ZinciteModule {
     default void onLoad() {
     }
 
+    /**
+     * Llamado al cargar el módulo con su almacén persistente, que solo él usa. Por defecto llama a {@link #onLoad()}
+     * @param storage El almacén del módulo, o null si el módulo no se carga desde un ZinciteBot
+     */
+    default void onLoad(KeyValueStore storage) {
+        onLoad();
+    }
+
     default void onClose() {
     }
 
@@ -0,0 +1,60 @@
+package com.cadiducho.zincite.api.session;
+
+import com.cadiducho.zincite.cache.LruCache;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Almacenamiento de sesiones en el heap. Cada sesión se guarda serializada, por lo que solo ocupa un array de bytes,
+ * y al alcanzar el máximo se elimina la usada hace más tiempo
+ */
+public class HeapSessionStorage implements SessionStorage {
+
+    private final LruCache<SessionKey, byte[]> sessions;
+
+    /**
+     * Crear el almacenamiento
+     * @param maxSessions Número máximo de sesiones
+     */
+    public HeapSessionStorage(int maxSessions) {
+        this(maxSessions, System::currentTimeMillis);
+    }
+
+    /**
+     * Crear el almacenamiento con otro reloj
+     * @param maxSessions Número máximo de sesiones
+     * @param clock Fuente de la hora actual, en milisegundos
+     */
+    public HeapSessionStorage(int maxSessions, LongSupplier clock) {
+        this.sessions = new LruCache<>(maxSessions, clock);
+    }
+
+    @Override
+    public byte[] get(long chatId, long userId) {
+        return sessions.get(new SessionKey(chatId, userId));
+    }
+
+    @Override
+    public void put(long chatId, long userId, byte[] data, long ttlMillis) {
+        sessions.put(new SessionKey(chatId, userId), data, ttlMillis);
+    }
+
+    @Override
+    public void remove(long chatId, long userId) {
+        sessions.invalidate(new SessionKey(chatId, userId));
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class SessionKey {
+        private final long chatId;
+        private final long userId;
+    }
+}
@@ -0,0 +1,319 @@
+package com.cadiducho.zincite.api.session;
+
+import com.cadiducho.zincite.ZinciteException;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongSupplier;
+
+/**
+ * Almacenamiento de sesiones fuera del heap, en una tabla hash de huecos de tamaño fijo guardada en memoria directa
+ * o en un fichero mapeado en memoria. El recolector de basura no tiene que recorrer las sesiones, por muchas que haya,
+ * y con un fichero se conservan al reiniciar el bot.
+ * Al alcanzar el máximo se elimina una sesión caducada o, si no hay ninguna, la usada hace más tiempo de una muestra
+ */
+@Log
+public class MappedSessionStorage implements SessionStorage {
+
+    private static final int MAGIC = 0x5A534553;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    // Formato de cada hueco
+    private static final int USED = 0;
+    private static final int CHAT = 1;
+    private static final int USER = 9;
+    private static final int EXPIRES = 17;
+    private static final int ACCESS = 25;
+    private static final int LENGTH = 33;
+    private static final int DATA = 37;
+
+    /**
+     * Sesiones comparadas para elegir cuál eliminar al alcanzar el máximo
+     */
+    private static final int EVICTION_SAMPLE = 16;
+
+    private final int maxSessions;
+    private final int slotSize;
+    private final int capacity;
+    private final int mask;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final ByteBuffer[] segments;
+    private final FileChannel channel;
+    private final LongSupplier clock;
+
+    private int size;
+    private long tick;
+    private int evictionCursor;
+    @Getter private long evictions;
+
+    /**
+     * Crear un almacenamiento en memoria directa
+     * @param maxSessions Número máximo de sesiones
+     * @param slotSize Bytes de cada hueco. Cada sesión puede ocupar hasta 37 bytes menos
+     */
+    public MappedSessionStorage(int maxSessions, int slotSize) {
+        this(null, maxSessions, slotSize, System::currentTimeMillis);
+    }
+
+    /**
+     * Crear un almacenamiento en un fichero mapeado en memoria.
+     * Si el fichero ya existe con el mismo tamaño de hueco y máximo de sesiones, se conservan sus sesiones
+     * @param file El fichero
+     * @param maxSessions Número máximo de sesiones
+     * @param slotSize Bytes de cada hueco. Cada sesión puede ocupar hasta 37 bytes menos
+     * @throws ZinciteException Si no se puede abrir el fichero
+     */
+    public MappedSessionStorage(File file, int maxSessions, int slotSize) {
+        this(file, maxSessions, slotSize, System::currentTimeMillis);
+    }
+
+    /**
+     * Crear un almacenamiento con otro reloj
+     * @param file El fichero, o null para usar memoria directa
+     * @param maxSessions Número máximo de sesiones
+     * @param slotSize Bytes de cada hueco. Cada sesión puede ocupar hasta 37 bytes menos
+     * @param clock Fuente de la hora actual, en milisegundos
+     * @throws ZinciteException Si no se puede abrir el fichero
+     */
+    public MappedSessionStorage(File file, int maxSessions, int slotSize, LongSupplier clock) {
+        if (maxSessions < 1 || maxSessions > (1 << 29)) {
+            throw new IllegalArgumentException("Número máximo de sesiones no válido: " + maxSessions);
+        }
+        if (slotSize <= DATA) {
+            throw new IllegalArgumentException("Los huecos deben ocupar más de " + DATA + " bytes");
+        }
+        this.maxSessions = maxSessions;
+        this.slotSize = slotSize;
+        this.clock = clock;
+
+        // factor de carga máximo de 0.75, para que las búsquedas recorran pocos huecos
+        int slots = Integer.highestOneBit(maxSessions + maxSessions / 3 + 1) << 1;
+        this.capacity = slots;
+        this.mask = slots - 1;
+        int slotsPerSegment = Math.min(slots, Integer.highestOneBit(Integer.MAX_VALUE / slotSize));
+        this.segmentShift = Integer.numberOfTrailingZeros(slotsPerSegment);
+        this.segmentMask = slotsPerSegment - 1;
+        this.segments = new ByteBuffer[slots / slotsPerSegment];
+        long segmentBytes = (long) slotsPerSegment * slotSize;
+
+        if (file == null) {
+            this.channel = null;
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = ByteBuffer.allocateDirect((int) segmentBytes);
+            }
+            return;
+        }
+        try {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            boolean reuse = header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                    && header.getInt(8) == slotSize && header.getInt(12) == capacity;
+            if (!reuse) {
+                channel.truncate(HEADER_SIZE);
+                header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, slotSize).putInt(12, capacity);
+            }
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * segmentBytes, segmentBytes);
+            }
+            if (reuse) {
+                for (int slot = 0; slot < capacity; slot++) {
+                    if (isUsed(slot)) {
+                        size++;
+                        tick = Math.max(tick, segment(slot).getLong(offset(slot) + ACCESS));
+                    }
+                }
+                log.info("Recuperadas " + size + " sesiones de " + file.getName());
+            }
+        } catch (IOException ex) {
+            throw new ZinciteException("No se puede abrir el fichero de sesiones " + file + ": " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized byte[] get(long chatId, long userId) {
+        int slot = find(chatId, userId);
+        if (slot < 0) {
+            return null;
+        }
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        if (segment.getLong(offset + EXPIRES) <= clock.getAsLong()) {
+            delete(slot);
+            return null;
+        }
+        segment.putLong(offset + ACCESS, ++tick);
+        byte[] data = new byte[segment.getInt(offset + LENGTH)];
+        ByteBuffer view = segment.duplicate();
+        view.position(offset + DATA);
+        view.get(data);
+        return data;
+    }
+
+    @Override
+    public synchronized void put(long chatId, long userId, byte[] data, long ttlMillis) {
+        if (data.length > slotSize - DATA) {
+            throw new IllegalArgumentException("La sesión ocupa " + data.length + " bytes, y en cada hueco caben " + (slotSize - DATA));
+        }
+        int slot = find(chatId, userId);
+        if (slot < 0) {
+            if (size >= maxSessions) {
+                evict();
+                slot = find(chatId, userId);
+            }
+            slot = -1 - slot;
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            segment.put(offset + USED, (byte) 1);
+            segment.putLong(offset + CHAT, chatId);
+            segment.putLong(offset + USER, userId);
+            size++;
+        }
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        segment.putLong(offset + EXPIRES, clock.getAsLong() + ttlMillis);
+        segment.putLong(offset + ACCESS, ++tick);
+        segment.putInt(offset + LENGTH, data.length);
+        ByteBuffer view = segment.duplicate();
+        view.position(offset + DATA);
+        view.put(data);
+    }
+
+    @Override
+    public synchronized void remove(long chatId, long userId) {
+        int slot = find(chatId, userId);
+        if (slot >= 0) {
+            delete(slot);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Escribir las sesiones al fichero y cerrarlo. La memoria mapeada se libera cuando el recolector de basura lo decide
+     */
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        for (ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            log.warning("No se ha podido cerrar el fichero de sesiones: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Buscar el hueco de una sesión
+     * @return El hueco, o si no existe -1 menos el hueco libre donde se insertaría
+     */
+    private int find(long chatId, long userId) {
+        int slot = home(chatId, userId);
+        while (isUsed(slot)) {
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            if (segment.getLong(offset + CHAT) == chatId && segment.getLong(offset + USER) == userId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1 - slot;
+    }
+
+    /**
+     * Eliminar una sesión caducada, o la usada hace más tiempo de una muestra de sesiones
+     */
+    private void evict() {
+        long now = clock.getAsLong();
+        int victim = -1;
+        long oldest = Long.MAX_VALUE;
+        int sampled = 0;
+        for (int i = 0; i < capacity && sampled < EVICTION_SAMPLE; i++) {
+            int slot = evictionCursor;
+            evictionCursor = (evictionCursor + 1) & mask;
+            if (!isUsed(slot)) {
+                continue;
+            }
+            sampled++;
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            if (segment.getLong(offset + EXPIRES) <= now) {
+                victim = slot;
+                break;
+            }
+            long access = segment.getLong(offset + ACCESS);
+            if (access < oldest) {
+                oldest = access;
+                victim = slot;
+            }
+        }
+        delete(victim);
+        evictions++;
+    }
+
+    /**
+     * Vaciar un hueco y mover hacia atrás las sesiones siguientes que lo necesiten,
+     * de forma que las búsquedas nunca se detengan antes de llegar a ellas
+     */
+    private void delete(int slot) {
+        int hole = slot;
+        segment(hole).put(offset(hole) + USED, (byte) 0);
+        size--;
+        int next = (hole + 1) & mask;
+        while (isUsed(next)) {
+            ByteBuffer segment = segment(next);
+            int offset = offset(next);
+            int home = home(segment.getLong(offset + CHAT), segment.getLong(offset + USER));
+            // se puede mover si el hueco está entre su posición ideal y la actual
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                copy(next, hole);
+                segment.put(offset + USED, (byte) 0);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void copy(int from, int to) {
+        ByteBuffer source = segment(from).duplicate();
+        int offset = offset(from);
+        source.position(offset).limit(offset + DATA + source.getInt(offset + LENGTH));
+        ByteBuffer target = segment(to).duplicate();
+        target.position(offset(to));
+        target.put(source);
+    }
+
+    private boolean isUsed(int slot) {
+        return segment(slot).get(offset(slot) + USED) != 0;
+    }
+
+    private ByteBuffer segment(int slot) {
+        return segments[slot >>> segmentShift];
+    }
+
+    private int offset(int slot) {
+        return (slot & segmentMask) * slotSize;
+    }
+
+    private int home(long chatId, long userId) {
+        long hash = chatId * 0x9E3779B97F4A7C15L + userId;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash & mask;
+    }
+}
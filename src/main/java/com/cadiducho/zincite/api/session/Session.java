@@ -0,0 +1,268 @@
+package com.cadiducho.zincite.api.session;
+
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Estado de la conversación de un usuario en un chat, compartido entre los pasos de un comando de varios mensajes
+ * y sus callback listeners. Guarda el paso actual de la conversación y valores simples: String, Integer, Long, Boolean y Double.
+ * Los cambios se guardan en el {@link SessionManager} al terminar el comando o el listener que la usa
+ */
+public final class Session {
+
+    private static final byte VERSION = 1;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte DOUBLE = 5;
+
+    @Getter private final long chatId;
+    @Getter private final long userId;
+
+    private String state;
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    /**
+     * Si ha cambiado desde que se cargó
+     */
+    private boolean dirty;
+
+    Session(long chatId, long userId) {
+        this.chatId = chatId;
+        this.userId = userId;
+    }
+
+    /**
+     * Obten el paso actual de la conversación
+     * @return El paso, o Optional.empty() si no hay ninguna conversación en curso
+     */
+    public Optional<String> getState() {
+        return Optional.ofNullable(state);
+    }
+
+    /**
+     * Cambiar el paso actual de la conversación
+     * @param state El nuevo paso, o null para terminarla
+     */
+    public void setState(String state) {
+        this.state = state;
+        dirty = true;
+    }
+
+    /**
+     * Obten un valor de la sesión
+     * @param key Nombre del valor
+     * @param type Clase del valor
+     * @param <T> Tipo del valor
+     * @return El valor, o Optional.empty() si no existe o es de otro tipo
+     */
+    public <T> Optional<T> get(String key, Class<T> type) {
+        Object value = values.get(key);
+        return type.isInstance(value) ? Optional.of(type.cast(value)) : Optional.empty();
+    }
+
+    /**
+     * Guardar un valor en la sesión
+     * @param key Nombre del valor
+     * @param value El valor, de tipo String, Integer, Long, Boolean o Double. Si es null se elimina
+     * @throws IllegalArgumentException Si el valor es de otro tipo
+     */
+    public void set(String key, Object value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        if (tagOf(value) == 0) {
+            throw new IllegalArgumentException("No se puede guardar un " + value.getClass().getSimpleName() + " en una sesión");
+        }
+        values.put(key, value);
+        dirty = true;
+    }
+
+    /**
+     * Eliminar un valor de la sesión
+     * @param key Nombre del valor
+     */
+    public void remove(String key) {
+        if (values.remove(key) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Terminar la conversación, eliminando el paso actual y todos los valores
+     */
+    public void clear() {
+        if (state != null || !values.isEmpty()) {
+            state = null;
+            values.clear();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Comprobar si la sesión está vacía, en cuyo caso no ocupa espacio en el almacenamiento
+     * @return true si no hay paso ni valores
+     */
+    public boolean isEmpty() {
+        return state == null && values.isEmpty();
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void markClean() {
+        dirty = false;
+    }
+
+    /**
+     * Serializar la sesión. Los enteros se codifican como varint, de forma que una sesión típica ocupa unas pocas decenas de bytes
+     * @return Los bytes de la sesión
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        if (state == null) {
+            writeVarLong(out, 0);
+        } else {
+            byte[] bytes = state.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, bytes.length + 1L);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarLong(out, values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            byte tag = tagOf(value);
+            out.write(tag);
+            switch (tag) {
+                case STRING:
+                    writeString(out, (String) value);
+                    break;
+                case INTEGER:
+                    writeVarLong(out, zigZag((Integer) value));
+                    break;
+                case LONG:
+                    writeVarLong(out, zigZag((Long) value));
+                    break;
+                case BOOLEAN:
+                    out.write((Boolean) value ? 1 : 0);
+                    break;
+                default:
+                    // invertidos, los bytes a cero de la mantisa de números como 0.5 o 20.0 quedan al final y el varint es corto
+                    writeVarLong(out, Long.reverseBytes(Double.doubleToRawLongBits((Double) value)));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Leer una sesión serializada con {@link #toBytes()}
+     * @param chatId El chat de la sesión
+     * @param userId El usuario de la sesión
+     * @param bytes Los bytes
+     * @return La sesión
+     * @throws IllegalArgumentException Si los bytes no son una sesión válida
+     */
+    static Session fromBytes(long chatId, long userId, byte[] bytes) {
+        Session session = new Session(chatId, userId);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            if (in.get() != VERSION) {
+                throw new IllegalArgumentException("Versión de sesión desconocida");
+            }
+            int stateLength = (int) readVarLong(in);
+            if (stateLength > 0) {
+                session.state = readString(in, stateLength - 1);
+            }
+            int count = (int) readVarLong(in);
+            for (int i = 0; i < count; i++) {
+                String key = readString(in, (int) readVarLong(in));
+                byte tag = in.get();
+                switch (tag) {
+                    case STRING:
+                        session.values.put(key, readString(in, (int) readVarLong(in)));
+                        break;
+                    case INTEGER:
+                        session.values.put(key, (int) unZigZag(readVarLong(in)));
+                        break;
+                    case LONG:
+                        session.values.put(key, unZigZag(readVarLong(in)));
+                        break;
+                    case BOOLEAN:
+                        session.values.put(key, in.get() != 0);
+                        break;
+                    case DOUBLE:
+                        session.values.put(key, Double.longBitsToDouble(Long.reverseBytes(readVarLong(in))));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Tipo de valor desconocido: " + tag);
+                }
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Sesión incompleta", ex);
+        }
+        return session;
+    }
+
+    private static byte tagOf(Object value) {
+        if (value instanceof String) return STRING;
+        if (value instanceof Integer) return INTEGER;
+        if (value instanceof Long) return LONG;
+        if (value instanceof Boolean) return BOOLEAN;
+        if (value instanceof Double) return DOUBLE;
+        return 0;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint demasiado largo");
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Sesión incompleta");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,22 @@
+package com.cadiducho.zincite.api.session;
+
+/**
+ * Dónde se guardan las sesiones de las conversaciones
+ */
+public enum SessionBacking {
+
+    /**
+     * En el heap, serializadas, con un {@link HeapSessionStorage}
+     */
+    HEAP,
+
+    /**
+     * Fuera del heap, en memoria directa, con un {@link MappedSessionStorage}. Se pierden al reiniciar
+     */
+    OFF_HEAP,
+
+    /**
+     * En un fichero mapeado en memoria con un {@link MappedSessionStorage}, de forma que se conservan al reiniciar
+     */
+    MAPPED
+}
@@ -0,0 +1,86 @@
+package com.cadiducho.zincite.api.session;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.time.Duration;
+
+/**
+ * Gestor de las sesiones de las conversaciones, una por cada usuario en cada chat.
+ * Las sesiones se guardan serializadas en un {@link SessionStorage}, y caducan pasado un tiempo desde su último cambio
+ */
+@Log
+public class SessionManager {
+
+    @Getter private final SessionStorage storage;
+    private final long ttlMillis;
+
+    /**
+     * Crear el gestor de sesiones
+     * @param storage Dónde se guardan las sesiones
+     * @param ttl Tiempo que dura una sesión desde su último cambio
+     */
+    public SessionManager(SessionStorage storage, Duration ttl) {
+        this.storage = storage;
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    /**
+     * Obten la sesión de un usuario en un chat
+     * @param chatId El chat
+     * @param userId El usuario
+     * @return La sesión guardada, o una vacía si no hay ninguna
+     */
+    public Session get(long chatId, long userId) {
+        byte[] data = storage.get(chatId, userId);
+        if (data != null) {
+            try {
+                return Session.fromBytes(chatId, userId, data);
+            } catch (IllegalArgumentException ex) {
+                log.warning("Descartando la sesión dañada de " + userId + " en " + chatId + ": " + ex.getMessage());
+                storage.remove(chatId, userId);
+            }
+        }
+        return new Session(chatId, userId);
+    }
+
+    /**
+     * Guardar una sesión si ha cambiado. Las sesiones vacías se eliminan
+     * @param session La sesión
+     */
+    public void save(Session session) {
+        if (!session.isDirty()) {
+            return;
+        }
+        if (session.isEmpty()) {
+            storage.remove(session.getChatId(), session.getUserId());
+        } else {
+            storage.put(session.getChatId(), session.getUserId(), session.toBytes(), ttlMillis);
+        }
+        session.markClean();
+    }
+
+    /**
+     * Eliminar la sesión de un usuario en un chat
+     * @param chatId El chat
+     * @param userId El usuario
+     */
+    public void invalidate(long chatId, long userId) {
+        storage.remove(chatId, userId);
+    }
+
+    /**
+     * Obten el número de sesiones guardadas
+     * @return El número de sesiones
+     */
+    public int size() {
+        return storage.size();
+    }
+
+    /**
+     * Cerrar el almacenamiento de las sesiones
+     */
+    public void close() {
+        storage.close();
+    }
+}
@@ -0,0 +1,44 @@
+package com.cadiducho.zincite.api.session;
+
+/**
+ * Almacenamiento de las sesiones serializadas, con un número máximo de sesiones y caducidad.
+ * Las implementaciones deben ser seguras entre hilos
+ */
+public interface SessionStorage {
+
+    /**
+     * Obten una sesión
+     * @param chatId El chat
+     * @param userId El usuario
+     * @return Los bytes de la sesión, o null si no existe o ha caducado
+     */
+    byte[] get(long chatId, long userId);
+
+    /**
+     * Guardar una sesión, eliminando otra si ya se ha alcanzado el máximo
+     * @param chatId El chat
+     * @param userId El usuario
+     * @param data Los bytes de la sesión
+     * @param ttlMillis Milisegundos hasta que caduca
+     */
+    void put(long chatId, long userId, byte[] data, long ttlMillis);
+
+    /**
+     * Eliminar una sesión
+     * @param chatId El chat
+     * @param userId El usuario
+     */
+    void remove(long chatId, long userId);
+
+    /**
+     * Obten el número de sesiones guardadas, incluidas las caducadas que aún no se han eliminado
+     * @return El número de sesiones
+     */
+    int size();
+
+    /**
+     * Liberar los recursos del almacenamiento
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,76 @@
+package com.cadiducho.zincite.api.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Almacén clave-valor persistente. Cada módulo recibe el suyo en {@link com.cadiducho.zincite.api.module.ZinciteModule#onLoad(KeyValueStore)},
+ * separado del resto de módulos. Las implementaciones son seguras entre hilos
+ */
+public interface KeyValueStore {
+
+    /**
+     * Obten un valor
+     * @param key La clave
+     * @return El valor, o Optional.empty() si no existe
+     */
+    Optional<byte[]> get(String key);
+
+    /**
+     * Obten un valor guardado como texto
+     * @param key La clave
+     * @return El texto, o Optional.empty() si no existe
+     */
+    default Optional<String> getString(String key) {
+        return get(key).map(value -> new String(value, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Guardar un valor, reemplazando el anterior
+     * @param key La clave, no vacía
+     * @param value El valor
+     */
+    void put(String key, byte[] value);
+
+    /**
+     * Guardar un texto, reemplazando el valor anterior
+     * @param key La clave, no vacía
+     * @param value El texto
+     */
+    default void putString(String key, String value) {
+        put(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Eliminar un valor
+     * @param key La clave
+     * @return true si existía
+     */
+    boolean delete(String key);
+
+    /**
+     * Comprobar si existe un valor
+     * @param key La clave
+     * @return true si existe
+     */
+    boolean contains(String key);
+
+    /**
+     * Obten todas las claves
+     * @return Una copia de las claves
+     */
+    Set<String> keys();
+
+    /**
+     * Obten el número de valores guardados
+     * @return El número de valores
+     */
+    int size();
+
+    /**
+     * Escribir en disco los cambios pendientes. Los cambios sobreviven a que el proceso termine de forma inesperada
+     * en cuanto se guardan, pero solo sobreviven a un corte de luz tras escribirlos en disco
+     */
+    void sync();
+}
@@ -0,0 +1,497 @@
+package com.cadiducho.zincite.api.storage;
+
+import com.cadiducho.zincite.ZinciteException;
+import lombok.extern.java.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Almacén clave-valor sobre un log en el que solo se añade, mapeado en memoria, con un índice en memoria de la posición
+ * de cada clave. Cada escritura es una copia en la memoria mapeada, y el sistema operativo la escribe en disco aunque el
+ * proceso termine. Los valores reemplazados o eliminados se descartan al compactar el log, y el índice se guarda
+ * en una instantánea para no tener que leer el log entero al abrirlo.
+ * <p>
+ * Cada registro ocupa 12 bytes de cabecera: CRC32 del resto del registro, longitud de la clave y longitud del valor, -1 si es un borrado.
+ * Los ficheros se abren la primera vez que se usa el almacén
+ */
+@Log
+public class LogStore implements KeyValueStore {
+
+    static final String SNAPSHOT_FILE = "index.snapshot";
+    private static final Pattern LOG_FILE = Pattern.compile("data-(\\d+)\\.log");
+
+    private static final int HEADER = 12;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final int MAX_SIZE = 1 << 30;
+    private static final int SNAPSHOT_MAGIC = 0x5A4B5653;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * Tamaño mínimo del log para compactarlo automáticamente, ver {@link #maintain()}
+     */
+    private static final int COMPACTION_MIN_SIZE = 1 << 20;
+
+    private final File folder;
+
+    /**
+     * Posición en el log del registro vigente de cada clave
+     */
+    private final Map<String, Integer> index = new HashMap<>();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long generation;
+
+    /**
+     * Fin del log, donde se escribe el siguiente registro
+     */
+    private int end;
+
+    /**
+     * Bytes de los registros vigentes. El resto del log se descarta al compactar
+     */
+    private int liveBytes;
+
+    /**
+     * Fin del log cuando se guardó la última instantánea del índice
+     */
+    private int snapshotEnd = -1;
+
+    private boolean dirty;
+    private boolean open;
+    private boolean closed;
+
+    /**
+     * Crear un almacén
+     * @param folder Carpeta de sus ficheros, que se crea al usarlo por primera vez
+     */
+    public LogStore(File folder) {
+        this.folder = folder;
+    }
+
+    @Override
+    public synchronized Optional<byte[]> get(String key) {
+        ensureOpen();
+        Integer position = index.get(key);
+        if (position == null) {
+            return Optional.empty();
+        }
+        byte[] value = new byte[buffer.getInt(position + 8)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + HEADER + buffer.getInt(position + 4));
+        view.get(value);
+        return Optional.of(value);
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("El valor de " + key + " no puede ser null");
+        }
+        ensureOpen();
+        append(key, value);
+    }
+
+    @Override
+    public synchronized boolean delete(String key) {
+        ensureOpen();
+        if (!index.containsKey(key)) {
+            return false;
+        }
+        append(key, null);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        ensureOpen();
+        return index.containsKey(key);
+    }
+
+    @Override
+    public synchronized Set<String> keys() {
+        ensureOpen();
+        return Set.copyOf(index.keySet());
+    }
+
+    @Override
+    public synchronized int size() {
+        ensureOpen();
+        return index.size();
+    }
+
+    @Override
+    public synchronized void sync() {
+        if (open && dirty) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Obten el tamaño del log, incluidos los registros ya reemplazados
+     * @return Bytes del log
+     */
+    public synchronized int getLogSize() {
+        return end;
+    }
+
+    /**
+     * Obten el tamaño de los registros vigentes, que será el tamaño del log tras compactarlo
+     * @return Bytes de los registros vigentes
+     */
+    public synchronized int getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Compactar el log si al menos la mitad son registros reemplazados, o si no guardar la instantánea del índice si ha cambiado
+     */
+    public synchronized void maintain() {
+        if (!open) {
+            return;
+        }
+        if (end >= COMPACTION_MIN_SIZE && liveBytes <= end / 2) {
+            compact();
+        } else {
+            snapshot();
+        }
+    }
+
+    /**
+     * Reescribir el log con solo los registros vigentes, en un fichero nuevo que reemplaza al anterior cuando está completo en disco.
+     * Las escrituras esperan mientras tanto
+     */
+    public synchronized void compact() {
+        ensureOpen();
+        long nextGeneration = generation + 1;
+        Path target = logFile(nextGeneration);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        int size = capacityFor(liveBytes);
+        Map<String, Integer> compactedIndex = new HashMap<>();
+        int position = 0;
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer compacted = out.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                    int from = entry.getValue();
+                    int length = lengthAt(from);
+                    ByteBuffer source = buffer.duplicate();
+                    source.position(from).limit(from + length);
+                    ByteBuffer destination = compacted.duplicate();
+                    destination.position(position);
+                    destination.put(source);
+                    compactedIndex.put(entry.getKey(), position);
+                    position += length;
+                }
+                compacted.force();
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+            FileChannel previous = channel;
+            Path previousFile = logFile(generation);
+            channel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            previous.close();
+            try {
+                Files.deleteIfExists(previousFile);
+            } catch (IOException ex) {
+                log.fine("No se ha podido borrar " + previousFile + ", se borrará al abrir el almacén: " + ex.getMessage());
+            }
+        } catch (IOException ex) {
+            throw new ZinciteException("No se ha podido compactar el almacén " + folder + ": " + ex.getMessage());
+        }
+        log.fine("Compactado " + folder + " de " + end + " a " + position + " bytes");
+        index.clear();
+        index.putAll(compactedIndex);
+        generation = nextGeneration;
+        end = position;
+        liveBytes = position;
+        dirty = false;
+        snapshotEnd = -1;
+        snapshot();
+    }
+
+    /**
+     * Guardar una instantánea del índice, si el log ha cambiado desde la anterior.
+     * El log se escribe antes en disco, para que la instantánea nunca apunte a registros que no estén en él
+     */
+    public synchronized void snapshot() {
+        if (!open || end == snapshotEnd) {
+            return;
+        }
+        sync();
+        Path file = new File(folder, SNAPSHOT_FILE).toPath();
+        Path temp = file.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile())) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(stream), crc));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(generation);
+            out.writeInt(end);
+            out.writeInt(liveBytes);
+            out.writeInt(index.size());
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(entry.getValue());
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException ex) {
+            log.warning("No se ha podido guardar la instantánea de " + folder + ": " + ex.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            snapshotEnd = end;
+        } catch (IOException ex) {
+            log.warning("No se ha podido guardar la instantánea de " + folder + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Guardar la instantánea del índice, escribir el log en disco y cerrarlo. El almacén no se puede usar después
+     */
+    public synchronized void close() {
+        if (open) {
+            snapshot();
+            sync();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                log.warning("No se ha podido cerrar el almacén " + folder + ": " + ex.getMessage());
+            }
+            open = false;
+        }
+        closed = true;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("El almacén " + folder + " está cerrado");
+        }
+        if (!open) {
+            try {
+                load();
+            } catch (IOException ex) {
+                throw new ZinciteException("No se ha podido abrir el almacén " + folder + ": " + ex.getMessage());
+            }
+            open = true;
+        }
+    }
+
+    /**
+     * Abrir el log más reciente y reconstruir el índice desde la instantánea y los registros posteriores a ella
+     */
+    private void load() throws IOException {
+        Files.createDirectories(folder.toPath());
+        generation = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = LOG_FILE.matcher(file.getName());
+                if (matcher.matches()) {
+                    generation = Math.max(generation, Long.parseLong(matcher.group(1)));
+                }
+            }
+            // logs anteriores a una compactación que no se pudieron borrar, y compactaciones interrumpidas
+            for (File file : files) {
+                Matcher matcher = LOG_FILE.matcher(file.getName());
+                if ((matcher.matches() && Long.parseLong(matcher.group(1)) != generation) || file.getName().endsWith(".tmp")) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+
+        channel = FileChannel.open(logFile(generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > MAX_SIZE) {
+            throw new IOException("el log ocupa más de " + MAX_SIZE + " bytes");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityFor((int) channel.size()));
+
+        index.clear();
+        liveBytes = 0;
+        replay(loadSnapshot() ? end : 0);
+    }
+
+    private boolean loadSnapshot() {
+        Path file = new File(folder, SNAPSHOT_FILE).toPath();
+        if (Files.notExists(file)) {
+            return false;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, Math.max(0, bytes.length - 8));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (bytes.length < 36 || ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()
+                    || in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                log.warning("La instantánea de " + folder + " está dañada, se leerá el log entero");
+                return false;
+            }
+            if (in.readLong() != generation) {
+                return false; // de un log anterior a la última compactación
+            }
+            int snapshotLogEnd = in.readInt();
+            int snapshotLiveBytes = in.readInt();
+            if (snapshotLogEnd > buffer.capacity()) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                index.put(new String(key, StandardCharsets.UTF_8), in.readInt());
+            }
+            end = snapshotLogEnd;
+            snapshotEnd = snapshotLogEnd;
+            liveBytes = snapshotLiveBytes;
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            log.warning("No se ha podido leer la instantánea de " + folder + ", se leerá el log entero: " + ex.getMessage());
+            index.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Aplicar al índice los registros desde una posición, hasta el fin del log o el primer registro dañado,
+     * que será el último que se estaba escribiendo si el proceso terminó de forma inesperada
+     */
+    private void replay(int position) {
+        while (position + HEADER <= buffer.capacity()) {
+            int crc = buffer.getInt(position);
+            int keyLength = buffer.getInt(position + 4);
+            int valueLength = buffer.getInt(position + 8);
+            if (crc == 0 && keyLength == 0 && valueLength == 0) {
+                break;
+            }
+            long length = (long) HEADER + keyLength + Math.max(0, valueLength);
+            if (keyLength <= 0 || valueLength < -1 || position + length > buffer.capacity() || crc != crcOf(position, (int) length)) {
+                log.warning("Registro dañado en la posición " + position + " de " + logFile(generation) + ", descartando el resto del log");
+                for (int i = position; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER);
+            view.get(key);
+            apply(new String(key, StandardCharsets.UTF_8), position, (int) length, valueLength < 0);
+            position += (int) length;
+        }
+        end = position;
+    }
+
+    /**
+     * Añadir un registro al final del log. La cabecera con el CRC se escribe la última,
+     * de forma que un registro a medio escribir nunca se considera válido
+     */
+    private void append(String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length == 0) {
+            throw new IllegalArgumentException("La clave no puede estar vacía");
+        }
+        int length = HEADER + keyBytes.length + (value == null ? 0 : value.length);
+        ensureCapacity(length);
+
+        int position = end;
+        buffer.putInt(position + 4, keyBytes.length);
+        buffer.putInt(position + 8, value == null ? -1 : value.length);
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + HEADER);
+        view.put(keyBytes);
+        if (value != null) {
+            view.put(value);
+        }
+        buffer.putInt(position, crcOf(position, length));
+
+        apply(key, position, length, value == null);
+        end = position + length;
+        dirty = true;
+    }
+
+    private void apply(String key, int position, int length, boolean deleted) {
+        Integer previous = deleted ? index.remove(key) : index.put(key, position);
+        if (previous != null) {
+            liveBytes -= lengthAt(previous);
+        }
+        if (!deleted) {
+            liveBytes += length;
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if ((long) end + length <= buffer.capacity()) {
+            return;
+        }
+        if ((long) end + length > MAX_SIZE && (long) liveBytes + length <= MAX_SIZE / 2) {
+            compact();
+            if ((long) end + length <= buffer.capacity()) {
+                return;
+            }
+        }
+        if ((long) end + length > MAX_SIZE) {
+            throw new ZinciteException("El almacén " + folder + " ha alcanzado el tamaño máximo de " + MAX_SIZE + " bytes");
+        }
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityFor(end + length));
+        } catch (IOException ex) {
+            throw new ZinciteException("No se ha podido ampliar el almacén " + folder + ": " + ex.getMessage());
+        }
+    }
+
+    private int lengthAt(int position) {
+        return HEADER + buffer.getInt(position + 4) + Math.max(0, buffer.getInt(position + 8));
+    }
+
+    private int crcOf(int position, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 4).limit(position + length);
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    private Path logFile(long generation) {
+        return new File(folder, "data-" + generation + ".log").toPath();
+    }
+
+    /**
+     * Tamaño del mapeo para un log, la siguiente potencia de dos para que el fichero crezca pocas veces
+     */
+    private static int capacityFor(int size) {
+        if (size <= INITIAL_SIZE) {
+            return INITIAL_SIZE;
+        }
+        return (int) Math.min(MAX_SIZE, Long.highestOneBit(size - 1L) << 1);
+    }
+}
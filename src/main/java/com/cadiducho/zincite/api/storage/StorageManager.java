@@ -0,0 +1,96 @@
+package com.cadiducho.zincite.api.storage;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Gestor de los almacenes clave-valor de los módulos, cada uno en su propia carpeta dentro de la carpeta de almacenamiento.
+ * Un hilo en segundo plano escribe periódicamente los cambios en disco, compacta los logs y guarda las instantáneas de sus índices
+ */
+@Log
+public class StorageManager {
+
+    @Getter private final File folder;
+    private final Map<String, LogStore> stores = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * Crear el gestor de almacenes
+     * @param folder Carpeta de almacenamiento
+     * @param syncInterval Milisegundos entre cada escritura en disco de los cambios, o 0 para dejarlo en manos del sistema operativo
+     * @param maintenanceInterval Segundos entre cada compactación de los logs y guardado de las instantáneas
+     */
+    public StorageManager(File folder, long syncInterval, long maintenanceInterval) {
+        this.folder = folder;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ZinciteStorage");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (syncInterval > 0) {
+            maintenance.scheduleWithFixedDelay(() -> forEachStore(LogStore::sync), syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+        if (maintenanceInterval > 0) {
+            maintenance.scheduleWithFixedDelay(() -> forEachStore(LogStore::maintain), maintenanceInterval, maintenanceInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Obten el almacén de un espacio de nombres, como el de un módulo
+     * @param namespace El espacio de nombres
+     * @return El almacén, que se abre al usarlo por primera vez
+     */
+    public KeyValueStore open(String namespace) {
+        return stores.computeIfAbsent(folderName(namespace), name -> new LogStore(new File(folder, name)));
+    }
+
+    /**
+     * Cerrar el almacén de un espacio de nombres. Al volver a abrirlo se crea otro con los mismos datos
+     * @param namespace El espacio de nombres
+     */
+    public void close(String namespace) {
+        LogStore store = stores.remove(folderName(namespace));
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * Cerrar todos los almacenes y detener el hilo de mantenimiento
+     */
+    public void close() {
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        stores.keySet().forEach(this::close);
+    }
+
+    private void forEachStore(Consumer<LogStore> task) {
+        for (LogStore store : stores.values()) {
+            try {
+                task.accept(store);
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "Error en el mantenimiento de un almacén", ex);
+            }
+        }
+    }
+
+    /**
+     * Nombre de carpeta válido en cualquier sistema para un espacio de nombres
+     */
+    static String folderName(String namespace) {
+        return namespace.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+}
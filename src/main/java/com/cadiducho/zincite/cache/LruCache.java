@@ -0,0 +1,169 @@
+package com.cadiducho.zincite.cache;
+
+import lombok.RequiredArgsConstructor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Size bounded cache evicting the least recently used entries, where every entry expires after its own time to live
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ */
+public class LruCache<K, V> {
+
+    /**
+     * Loader of a value missing in the cache
+     * @param <V> Type of the value
+     * @param <E> Exception the loader may throw
+     */
+    @FunctionalInterface
+    public interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+
+    private final int maxSize;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache
+     * @param maxSize Max entries kept
+     */
+    public LruCache(int maxSize) {
+        this(maxSize, System::currentTimeMillis);
+    }
+
+    /**
+     * Create a cache with a custom clock
+     * @param maxSize Max entries kept
+     * @param clock Source of the current time, in milliseconds
+     */
+    public LruCache(int maxSize, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a value if it is cached and not expired
+     * @param key The key
+     * @return The value, or null if missing
+     */
+    public V get(K key) {
+        long now = clock.getAsLong();
+        synchronized (this) {
+            CacheEntry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Get a value, loading and caching it if missing.
+     * The loader runs outside the cache lock, so concurrent misses of the same key may load it more than once
+     * @param key The key
+     * @param ttlMillis Time to live of the loaded value, in milliseconds
+     * @param loader Loader of the value
+     * @param <E> Exception the loader may throw
+     * @return The value
+     * @throws E If the loader fails
+     */
+    public <E extends Exception> V get(K key, long ttlMillis, Loader<V, E> loader) throws E {
+        V value = get(key);
+        if (value == null) {
+            value = loader.load();
+            if (value != null) {
+                put(key, value, ttlMillis);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Cache a value
+     * @param key The key
+     * @param value The value
+     * @param ttlMillis Time to live of the value, in milliseconds
+     */
+    public void put(K key, V value, long ttlMillis) {
+        CacheEntry<V> entry = new CacheEntry<>(value, clock.getAsLong() + ttlMillis);
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Remove a value
+     * @param key The key
+     */
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Remove every value whose key matches a condition
+     * @param condition The condition
+     */
+    public synchronized void invalidateIf(Predicate<K> condition) {
+        Iterator<K> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (condition.test(keys.next())) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove every value
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @RequiredArgsConstructor
+    private static final class CacheEntry<V> {
+        private final V value;
+        private final long expiresAt;
+    }
+}
@@ -0,0 +1,144 @@
+package com.cadiducho.zincite.cache;
+
+import com.cadiducho.telegrambotapi.Chat;
+import com.cadiducho.telegrambotapi.ChatMember;
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.User;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache in front of the {@link TelegramBot} methods that fetch the bot identity and chat metadata.
+ * Entries expire after their time to live and are invalidated when Zincite sees updates that change them
+ */
+public class TelegramCache {
+
+    private static final long ME_TTL = TimeUnit.HOURS.toMillis(1);
+
+    private final TelegramBot bot;
+    private final long chatTtl;
+    private final long memberTtl;
+
+    private final LruCache<Boolean, User> me = new LruCache<>(1);
+
+    /**
+     * Last bot user fetched, to recognise it in the member updates without going through the cache
+     */
+    private volatile User self;
+    @Getter private final LruCache<Long, Chat> chats;
+    @Getter private final LruCache<Long, List<ChatMember>> administrators;
+    @Getter private final LruCache<MemberKey, ChatMember> members;
+
+    /**
+     * Create a cache
+     * @param bot The bot used on cache misses
+     * @param maxEntries Max entries kept for every kind of data
+     * @param chatTtlSeconds Time to live of chats and administrator lists, in seconds
+     * @param memberTtlSeconds Time to live of chat members, in seconds
+     */
+    public TelegramCache(TelegramBot bot, int maxEntries, long chatTtlSeconds, long memberTtlSeconds) {
+        this.bot = bot;
+        this.chatTtl = TimeUnit.SECONDS.toMillis(chatTtlSeconds);
+        this.memberTtl = TimeUnit.SECONDS.toMillis(memberTtlSeconds);
+        this.chats = new LruCache<>(maxEntries);
+        this.administrators = new LruCache<>(maxEntries);
+        this.members = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * Get the bot user
+     * @return The bot user
+     * @throws TelegramException If it is not cached and Telegram fails
+     */
+    public User getMe() throws TelegramException {
+        User user = me.get(Boolean.TRUE, ME_TTL, bot::getMe);
+        self = user;
+        return user;
+    }
+
+    /**
+     * Get a chat
+     * @param chatId The chat id
+     * @return The chat
+     * @throws TelegramException If it is not cached and Telegram fails
+     */
+    public Chat getChat(long chatId) throws TelegramException {
+        return chats.get(chatId, chatTtl, () -> bot.getChat(chatId));
+    }
+
+    /**
+     * Get a chat member
+     * @param chatId The chat id
+     * @param userId The user id
+     * @return The chat member
+     * @throws TelegramException If it is not cached and Telegram fails
+     */
+    public ChatMember getChatMember(long chatId, long userId) throws TelegramException {
+        return members.get(new MemberKey(chatId, userId), memberTtl, () -> bot.getChatMember(chatId, userId));
+    }
+
+    /**
+     * Get the administrators of a chat
+     * @param chatId The chat id
+     * @return The administrators
+     * @throws TelegramException If it is not cached and Telegram fails
+     */
+    public List<ChatMember> getChatAdministrators(long chatId) throws TelegramException {
+        return administrators.get(chatId, chatTtl, () -> bot.getChatAdministrators(chatId));
+    }
+
+    /**
+     * Forget the membership of some users in a chat, because they joined, left, or their status or permissions changed
+     * @param chatId The chat id
+     * @param users The users
+     */
+    public void onMembersChanged(long chatId, List<User> users) {
+        administrators.invalidate(chatId);
+        for (User user : users) {
+            if (isMe(user)) {
+                invalidateChat(chatId);
+                return;
+            }
+            members.invalidate(new MemberKey(chatId, user.getId()));
+        }
+    }
+
+    /**
+     * Forget everything known about a chat
+     * @param chatId The chat id
+     */
+    public void invalidateChat(long chatId) {
+        chats.invalidate(chatId);
+        administrators.invalidate(chatId);
+        members.invalidateIf(key -> key.chatId == chatId);
+    }
+
+    /**
+     * Get the hits and misses of every cache, for log purposes
+     * @return Human readable stats
+     */
+    public String getStats() {
+        return "me " + format(me) + ", chats " + format(chats) + ", administrators " + format(administrators) + ", members " + format(members);
+    }
+
+    private boolean isMe(User user) {
+        User cached = self;
+        return cached != null && cached.getId().equals(user.getId());
+    }
+
+    private static String format(LruCache<?, ?> cache) {
+        return cache.getHits() + "/" + (cache.getHits() + cache.getMisses()) + " hits (" + cache.size() + " entries)";
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    public static final class MemberKey {
+        private final long chatId;
+        private final long userId;
+    }
+}
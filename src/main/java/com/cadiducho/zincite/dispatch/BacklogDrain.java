@@ -0,0 +1,134 @@
+package com.cadiducho.zincite.dispatch;
+
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Drains the updates Telegram kept while the bot was down, before the long polling starts, following a {@link BacklogMode}.
+ * Updates are fetched in pages without waiting. Skipped updates are recorded in the {@link OffsetTracker} at once,
+ * while the ones handed to the handler are confirmed to Telegram by the poller once they are processed.
+ * Asking for a page moves the offset past the previous ones, so only the last page waits for the handler
+ */
+public class BacklogDrain {
+
+    /**
+     * Max updates per getUpdates call allowed by Telegram
+     */
+    static final int PAGE_SIZE = 100;
+
+    /**
+     * Kinds of update coalesced per chat, those about messages users are waiting an answer for
+     */
+    private static final Set<UpdateKind> COALESCED = EnumSet.of(UpdateKind.MESSAGE, UpdateKind.EDITED_MESSAGE, UpdateKind.CALLBACK_QUERY);
+
+    private final TelegramBot bot;
+    private final OffsetTracker offsets;
+    private final BacklogMode mode;
+    private final StalenessPolicy policy;
+    private final int keepPerChat;
+
+    /**
+     * Create a backlog drain
+     * @param bot The bot whose updates are drained
+     * @param offsets Tracks the updates processed, shared with the poller
+     * @param mode What to do with the backlog
+     * @param policy Updates skipped for being stale
+     * @param keepPerChat Max updates of every chat processed with {@link BacklogMode#FILTER}, or 0 to process all of them
+     */
+    public BacklogDrain(TelegramBot bot, OffsetTracker offsets, BacklogMode mode, StalenessPolicy policy, int keepPerChat) {
+        this.bot = bot;
+        this.offsets = offsets;
+        this.mode = mode;
+        this.policy = policy;
+        this.keepPerChat = keepPerChat;
+    }
+
+    /**
+     * Drain the backlog
+     * @param handler Receives the updates that are processed, in order. It must record them in the {@link OffsetTracker}
+     * @return What happened to the backlog
+     * @throws TelegramException If Telegram fails. The pages fetched until then are received again by the poller
+     */
+    public BacklogReport drain(Consumer<Update> handler) throws TelegramException {
+        BacklogReport report = new BacklogReport(mode);
+        long start = System.currentTimeMillis();
+        Integer lastUpdateId = null;
+        if (mode == BacklogMode.SKIP) {
+            // a negative offset returns only the last update and makes Telegram forget every previous one
+            List<Update> last = bot.getUpdates(-1, 1, 0, null);
+            if (last != null && !last.isEmpty()) {
+                lastUpdateId = last.get(0).getUpdateId();
+                confirm(lastUpdateId);
+                offsets.skip(lastUpdateId);
+            }
+        } else if (mode == BacklogMode.FILTER) {
+            List<Update> backlog = fetch();
+            if (!backlog.isEmpty()) {
+                lastUpdateId = backlog.get(backlog.size() - 1).getUpdateId();
+                filter(backlog, Instant.now(), report, handler);
+            }
+        }
+        report.finish(lastUpdateId, System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private List<Update> fetch() throws TelegramException {
+        List<Update> backlog = new ArrayList<>();
+        Integer offset = null;
+        List<Update> page;
+        do {
+            page = bot.getUpdates(offset, PAGE_SIZE, 0, null);
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+            backlog.addAll(page);
+            offset = page.get(page.size() - 1).getUpdateId() + 1;
+        } while (page.size() == PAGE_SIZE);
+        return backlog;
+    }
+
+    /**
+     * Move the offset past an update, so Telegram forgets it and every previous one.
+     * Newer updates returned by the call are not confirmed, and the poller will receive them
+     */
+    private void confirm(int lastUpdateId) throws TelegramException {
+        bot.getUpdates(lastUpdateId + 1, 1, 0, null);
+    }
+
+    void filter(List<Update> backlog, Instant now, BacklogReport report, Consumer<Update> handler) {
+        UpdateKind[] kinds = new UpdateKind[backlog.size()];
+        boolean[] skipped = new boolean[backlog.size()];
+        Map<Long, Integer> kept = new HashMap<>();
+        // from the newest to the oldest, to keep the last ones of every chat
+        for (int i = backlog.size() - 1; i >= 0; i--) {
+            Update update = backlog.get(i);
+            kinds[i] = UpdateKind.of(update);
+            if (policy.isStale(update, kinds[i], now, true)) {
+                skipped[i] = true;
+                report.stale(kinds[i]);
+            } else if (keepPerChat > 0 && COALESCED.contains(kinds[i])
+                    && kept.merge(UpdateDispatcher.chatKey(update), 1, Integer::sum) > keepPerChat) {
+                skipped[i] = true;
+                report.coalesced(kinds[i]);
+            }
+        }
+        for (int i = 0; i < backlog.size(); i++) {
+            if (skipped[i]) {
+                offsets.skip(backlog.get(i).getUpdateId());
+            } else {
+                report.processed(kinds[i]);
+                handler.accept(backlog.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.cadiducho.zincite.dispatch;
+
+/**
+ * What to do on startup with the updates Telegram kept while the bot was down.
+ * Only {@link com.cadiducho.zincite.UpdatesMode#LONG_POLLING} can drain the backlog before receiving new updates,
+ * with webhooks Telegram pushes it and only the {@link StalenessPolicy} applies
+ */
+public enum BacklogMode {
+
+    /**
+     * Process the backlog as any other update, skipping only the stale ones as they arrive
+     */
+    PROCESS,
+
+    /**
+     * Fetch the whole backlog first, skip the stale updates and the older ones of every chat past the configured limit,
+     * and process the rest in order before receiving new updates
+     */
+    FILTER,
+
+    /**
+     * Skip the whole backlog by advancing the offset past its last update, without downloading it
+     */
+    SKIP
+}
@@ -0,0 +1,112 @@
+package com.cadiducho.zincite.dispatch;
+
+import lombok.Getter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * What happened to the updates Telegram kept while the bot was down
+ */
+public class BacklogReport {
+
+    /**
+     * The mode used to drain the backlog
+     */
+    @Getter private final BacklogMode mode;
+
+    /**
+     * Id of the last update of the backlog, or null if it was empty
+     */
+    @Getter private Integer lastUpdateId;
+
+    /**
+     * Milliseconds spent draining the backlog, without processing it
+     */
+    @Getter private long duration;
+
+    private final Map<UpdateKind, Integer> processed = new EnumMap<>(UpdateKind.class);
+    private final Map<UpdateKind, Integer> stale = new EnumMap<>(UpdateKind.class);
+    private final Map<UpdateKind, Integer> coalesced = new EnumMap<>(UpdateKind.class);
+
+    BacklogReport(BacklogMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Get how many updates of a kind were processed
+     * @param kind The kind of update
+     * @return The number of updates
+     */
+    public int getProcessed(UpdateKind kind) {
+        return processed.getOrDefault(kind, 0);
+    }
+
+    /**
+     * Get how many updates of a kind were skipped for being older than the {@link StalenessPolicy} allows
+     * @param kind The kind of update
+     * @return The number of updates
+     */
+    public int getStale(UpdateKind kind) {
+        return stale.getOrDefault(kind, 0);
+    }
+
+    /**
+     * Get how many updates of a kind were skipped because newer ones of the same chat were kept instead
+     * @param kind The kind of update
+     * @return The number of updates
+     */
+    public int getCoalesced(UpdateKind kind) {
+        return coalesced.getOrDefault(kind, 0);
+    }
+
+    /**
+     * Get how many updates were skipped. With {@link BacklogMode#SKIP} the backlog is not downloaded, so its updates are not counted
+     * @return The number of updates
+     */
+    public int getSkipped() {
+        return sum(stale) + sum(coalesced);
+    }
+
+    void processed(UpdateKind kind) {
+        processed.merge(kind, 1, Integer::sum);
+    }
+
+    void stale(UpdateKind kind) {
+        stale.merge(kind, 1, Integer::sum);
+    }
+
+    void coalesced(UpdateKind kind) {
+        coalesced.merge(kind, 1, Integer::sum);
+    }
+
+    void finish(Integer lastUpdateId, long duration) {
+        this.lastUpdateId = lastUpdateId;
+        this.duration = duration;
+    }
+
+    @Override
+    public String toString() {
+        if (lastUpdateId == null) {
+            return "Backlog empty";
+        }
+        if (mode == BacklogMode.SKIP) {
+            return "Backlog skipped up to update " + lastUpdateId + " in " + duration + " ms";
+        }
+        return "Backlog up to update " + lastUpdateId + " drained in " + duration + " ms: "
+                + sum(processed) + " processed " + format(processed) + ", "
+                + sum(stale) + " stale " + format(stale) + ", "
+                + sum(coalesced) + " coalesced " + format(coalesced);
+    }
+
+    private static int sum(Map<UpdateKind, Integer> counts) {
+        return counts.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private static String format(Map<UpdateKind, Integer> counts) {
+        return counts.entrySet().stream()
+                .map(entry -> entry.getKey().name().toLowerCase() + "=" + entry.getValue())
+                .collect(Collectors.joining(", ", "(", ")"));
+    }
+}
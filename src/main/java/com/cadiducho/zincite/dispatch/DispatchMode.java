@@ -0,0 +1,26 @@
+package com.cadiducho.zincite.dispatch;
+
+/**
+ * Strategies to spread incoming updates across threads.
+ * Whatever the mode, updates from the same chat are always handled in arrival order.
+ * {@link Lane Priority lanes} only decide which chat is served next
+ */
+public enum DispatchMode {
+
+    /**
+     * Handle every update in the thread that received it, one at a time
+     */
+    INLINE,
+
+    /**
+     * Spread updates across a fixed number of worker threads, pinning each chat to the same worker.
+     * When a worker is saturated, it serves first the chats whose oldest pending update is in a heavier {@link Lane}
+     */
+    STRIPED,
+
+    /**
+     * Run every update in its own virtual thread, chaining the updates of the same chat.
+     * Requires Java 21 or newer, otherwise {@link #STRIPED} is used
+     */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,74 @@
+package com.cadiducho.zincite.dispatch;
+
+import com.cadiducho.telegrambotapi.Message;
+import com.cadiducho.telegrambotapi.Update;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Priority lanes of the {@link DispatchMode#STRIPED} workers. Every chat with pending updates waits in the lane of its oldest one,
+ * and the workers take from the lanes by weighted round robin, so a lane with weight 8 gets up to 8 updates handled for every one
+ * of a lane with weight 1, and no lane with pending updates is ever starved.
+ * Lanes only choose between chats: the updates of the same chat are still handled in arrival order, whatever their lane
+ */
+public enum Lane {
+
+    /**
+     * Callback queries and inline queries, whose user is waiting with a loading spinner
+     */
+    INTERACTIVE(8),
+
+    /**
+     * Text messages sent by the {@link com.cadiducho.zincite.ZinciteConfig#ownerId owner}
+     */
+    OWNER(4),
+
+    /**
+     * Text messages of everyone else, which include the commands
+     */
+    COMMAND(2),
+
+    /**
+     * Everything else: member changes, edited messages, polls and any update only delivered to module events
+     */
+    BACKGROUND(1);
+
+    private final int defaultWeight;
+
+    Lane(int defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+
+    /**
+     * Get the lane of an update
+     * @param update The update
+     * @param ownerId The owner Telegram ID, or null if there is no owner
+     * @return Its lane
+     */
+    public static Lane of(Update update, Long ownerId) {
+        if (update.getCallbackQuery() != null || update.getInlineQuery() != null) {
+            return INTERACTIVE;
+        }
+        Message message = update.getMessage();
+        if (message == null || message.getText() == null) {
+            return BACKGROUND;
+        }
+        if (ownerId != null && message.getFrom() != null && ownerId.equals(message.getFrom().getId())) {
+            return OWNER;
+        }
+        return COMMAND;
+    }
+
+    /**
+     * Get the default weight of every lane
+     * @return A new map with the weights, which can be modified
+     */
+    public static Map<Lane, Integer> defaultWeights() {
+        Map<Lane, Integer> weights = new EnumMap<>(Lane.class);
+        for (Lane lane : values()) {
+            weights.put(lane, lane.defaultWeight);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,381 @@
+package com.cadiducho.zincite.dispatch;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue of a {@link DispatchMode#STRIPED} worker, keeping a single FIFO per chat.
+ * Chats with pending tasks wait in the {@link Lane} of their oldest task, and they are served by smooth weighted round robin:
+ * on every take each non empty lane earns its weight, the richest one is served and pays the weight of all of them.
+ * The served chat hands over its oldest task and, if it has more, waits again in the lane of the next one, behind the other chats.
+ * So lanes only decide which chat goes next, and the tasks of a chat always run in arrival order.
+ * Tasks not wrapped in a {@link Task} go to {@link Lane#COMMAND}, each one on its own
+ */
+final class LaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition[] notFull = new Condition[LANES.length];
+
+    /**
+     * Pending tasks of every chat, in arrival order
+     */
+    private final Map<Object, ChatTasks> chats = new HashMap<>();
+
+    /**
+     * Chats waiting to be served, in the lane of their oldest task
+     */
+    private final ArrayDeque<ChatTasks>[] lanes;
+
+    /**
+     * Pending tasks of every lane, counted by the lane of each task
+     */
+    private final int[] pending = new int[LANES.length];
+    private final int[] weights = new int[LANES.length];
+    private final int[] credits = new int[LANES.length];
+    private final int capacity;
+    private int count;
+
+    /**
+     * Create a queue
+     * @param capacity Max pending tasks of every lane
+     * @param weights Weight of every lane. Lanes missing or with a weight lower than 1 get weight 1
+     */
+    @SuppressWarnings("unchecked")
+    LaneQueue(int capacity, Map<Lane, Integer> weights) {
+        this.capacity = capacity;
+        this.lanes = new ArrayDeque[LANES.length];
+        for (Lane lane : LANES) {
+            int i = lane.ordinal();
+            lanes[i] = new ArrayDeque<>();
+            notFull[i] = lock.newCondition();
+            Integer weight = weights.get(lane);
+            this.weights[i] = weight == null ? 1 : Math.max(1, weight);
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        int lane = laneOf(task);
+        lock.lock();
+        try {
+            if (pending[lane] >= capacity) {
+                return false;
+            }
+            enqueue(lane, task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        int lane = laneOf(task);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (pending[lane] >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull[lane].awaitNanos(nanos);
+            }
+            enqueue(lane, task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        int lane = laneOf(task);
+        lock.lockInterruptibly();
+        try {
+            while (pending[lane] >= capacity) {
+                notFull[lane].await();
+            }
+            enqueue(lane, task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for (ArrayDeque<ChatTasks> lane : lanes) {
+                if (!lane.isEmpty()) {
+                    return lane.peek().tasks.peek();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        if (!(task instanceof Runnable)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            ChatTasks chat = chats.get(keyOf((Runnable) task));
+            if (chat == null) {
+                return false;
+            }
+            Runnable head = chat.tasks.peek();
+            if (!chat.tasks.remove(task)) {
+                return false;
+            }
+            if (head == task) {
+                // the chat waits in the lane of its oldest task, which has just changed
+                lanes[laneOf(head)].remove(chat);
+                if (lanes[laneOf(head)].isEmpty()) {
+                    credits[laneOf(head)] = 0;
+                }
+                requeue(chat);
+            }
+            removed(laneOf((Runnable) task));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of pending tasks of a lane
+     * @param lane The lane
+     * @return The pending tasks
+     */
+    int size(Lane lane) {
+        lock.lock();
+        try {
+            return pending[lane.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity * lanes.length - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (count > 0 && drained < maxElements) {
+                target.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterate over a snapshot of the pending tasks, chat by chat
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ChatTasks chat : chats.values()) {
+                snapshot.addAll(chat.tasks);
+            }
+        } finally {
+            lock.unlock();
+        }
+        Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                LaneQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private void enqueue(int lane, Runnable task) {
+        ChatTasks chat = chats.computeIfAbsent(keyOf(task), ChatTasks::new);
+        chat.tasks.add(task);
+        if (chat.tasks.size() == 1) {
+            lanes[lane].add(chat);
+        }
+        pending[lane]++;
+        count++;
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        int total = 0;
+        int best = -1;
+        for (int i = 0; i < lanes.length; i++) {
+            if (!lanes[i].isEmpty()) {
+                credits[i] += weights[i];
+                total += weights[i];
+                if (best < 0 || credits[i] > credits[best]) {
+                    best = i;
+                }
+            }
+        }
+        credits[best] -= total;
+        ChatTasks chat = lanes[best].poll();
+        Runnable task = chat.tasks.poll();
+        requeue(chat);
+        if (lanes[best].isEmpty()) {
+            // an idle lane does not keep the credit or debt of its last burst
+            credits[best] = 0;
+        }
+        removed(laneOf(task));
+        return task;
+    }
+
+    /**
+     * Put a chat that is not waiting in any lane back in the lane of its oldest task, or forget it if it has none
+     */
+    private void requeue(ChatTasks chat) {
+        Runnable next = chat.tasks.peek();
+        if (next != null) {
+            lanes[laneOf(next)].add(chat);
+        } else {
+            chats.remove(chat.key);
+        }
+    }
+
+    private void removed(int lane) {
+        pending[lane]--;
+        count--;
+        notFull[lane].signal();
+    }
+
+    private static int laneOf(Runnable task) {
+        return task instanceof Task ? ((Task) task).lane.ordinal() : Lane.COMMAND.ordinal();
+    }
+
+    private static Object keyOf(Runnable task) {
+        return task instanceof Task ? ((Task) task).chat : task;
+    }
+
+    /**
+     * Pending tasks of a chat
+     */
+    private static final class ChatTasks {
+        private final Object key;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        private ChatTasks(Object key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Task of a chat, queued in a lane
+     */
+    static final class Task implements Runnable {
+        private final Lane lane;
+        private final Long chat;
+        private final Runnable body;
+
+        Task(Lane lane, long chat, Runnable body) {
+            this.lane = lane;
+            this.chat = chat;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            body.run();
+        }
+    }
+}
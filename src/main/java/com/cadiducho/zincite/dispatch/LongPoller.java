@@ -0,0 +1,189 @@
+package com.cadiducho.zincite.dispatch;
+
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.telegrambotapi.handlers.ExceptionHandler;
+import lombok.extern.java.Log;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Long polling that only confirms to Telegram the updates already processed. Every getUpdates call moves the offset
+ * just past the {@link OffsetTracker#getCommitted() committed} update, so the updates in flight when the bot crashes
+ * are received again on the next start. Those received again while still in flight are skipped.
+ * <p>
+ * An update that takes long would hold back the offset, and Telegram would keep sending the same updates instead of new ones.
+ * When there are too many updates in flight, or a call brings no new update, the offset is moved past all of them:
+ * those are still waited for when stopping, but lost if the bot crashes
+ */
+@Log
+public class LongPoller {
+
+    private static final int LIMIT = 100;
+    private static final long RETRY_DELAY = 1000;
+    private static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Max updates in flight that Telegram is asked to send again
+     */
+    private static final int REDELIVERY_WINDOW = LIMIT / 2;
+
+    private final TelegramBot bot;
+    private final Consumer<Update> handler;
+    private final OffsetTracker offsets;
+    private final OffsetCheckpoint checkpoint;
+    private final int timeout;
+    private final ExceptionHandler exceptionHandler;
+
+    /**
+     * Held while handing a batch of updates to the handler, so stopping waits for the batch and not for the next getUpdates
+     */
+    private final ReentrantLock handling = new ReentrantLock();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Create a poller
+     * @param bot The bot whose updates are received
+     * @param handler Receives every update once. It must record them in the tracker
+     * @param offsets Tracker of the updates processed
+     * @param checkpoint Where the committed update is saved, or null to not save it
+     * @param timeout Seconds every getUpdates call waits for new updates
+     * @param exceptionHandler Receives the failures of getUpdates, or null to only log them
+     */
+    public LongPoller(TelegramBot bot, Consumer<Update> handler, OffsetTracker offsets, OffsetCheckpoint checkpoint, int timeout,
+                      ExceptionHandler exceptionHandler) {
+        this.bot = bot;
+        this.handler = handler;
+        this.offsets = offsets;
+        this.checkpoint = checkpoint;
+        this.timeout = timeout;
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    /**
+     * Start receiving updates in a new thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "ZinciteLongPoller");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop receiving updates. The batch being handed to the handler is finished, and the updates received after are left
+     * for Telegram to send again
+     * @param timeout Max time to wait for the current batch
+     * @param unit Unit of the timeout
+     * @return true if the poller stopped before the timeout
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread polling;
+        synchronized (this) {
+            running = false;
+            polling = thread;
+        }
+        if (polling == null) {
+            return true;
+        }
+        if (!handling.tryLock(timeout, unit)) {
+            return false;
+        }
+        try {
+            // with no batch in progress it can only be waiting for Telegram, whose answer is discarded
+            polling.interrupt();
+        } finally {
+            handling.unlock();
+        }
+        return true;
+    }
+
+    private void run() {
+        long lastCheckpoint = System.nanoTime();
+        boolean onlyDuplicates = false;
+        while (running) {
+            List<Update> updates;
+            try {
+                updates = bot.getUpdates(nextOffset(onlyDuplicates), LIMIT, timeout, null);
+            } catch (TelegramException ex) {
+                if (!running) {
+                    break;
+                }
+                if (exceptionHandler != null) {
+                    exceptionHandler.handle(ex);
+                } else {
+                    log.log(Level.WARNING, "Can't get the updates from Telegram", ex);
+                }
+                pause(RETRY_DELAY);
+                continue;
+            }
+            onlyDuplicates = updates != null && !updates.isEmpty() && !handle(updates);
+            if (checkpoint != null && System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                Integer processed = offsets.getCommitted();
+                if (processed != null) {
+                    checkpoint.save(processed);
+                }
+                lastCheckpoint = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Offset of the next getUpdates call: past the committed update, or past every update received if the ones in flight
+     * must not be sent again
+     */
+    private Integer nextOffset(boolean skipInFlight) {
+        Integer committed = offsets.getCommitted();
+        if (committed == null) {
+            return null;
+        }
+        int highest = offsets.getHighest();
+        return skipInFlight || highest - committed > REDELIVERY_WINDOW ? highest + 1 : committed + 1;
+    }
+
+    /**
+     * Hand a batch to the handler
+     * @return true if some update was new
+     */
+    private boolean handle(List<Update> updates) {
+        boolean handled = false;
+        handling.lock();
+        try {
+            for (Update update : updates) {
+                if (!running) {
+                    break;
+                }
+                if (offsets.isDuplicate(update.getUpdateId())) {
+                    continue;
+                }
+                handler.accept(update);
+                handled = true;
+            }
+        } catch (RejectedExecutionException ex) {
+            log.fine("Dispatcher closed, leaving the rest of the updates for the next start");
+        } finally {
+            handling.unlock();
+        }
+        return handled;
+    }
+
+    private void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.cadiducho.zincite.dispatch;
+
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * File keeping the last update fully processed, so a restart resumes right after it
+ */
+@Log
+public class OffsetCheckpoint {
+
+    /**
+     * Telegram picks the ids of new updates at random after a week without updates, so older checkpoints are ignored
+     */
+    static final Duration MAX_AGE = Duration.ofDays(6);
+
+    private final Path file;
+    private Integer saved;
+
+    /**
+     * Create a checkpoint
+     * @param file The file where the update id is kept as text
+     */
+    public OffsetCheckpoint(File file) {
+        this.file = file.toPath();
+    }
+
+    /**
+     * Read the checkpoint
+     * @return The last update fully processed, or null if there is no valid checkpoint
+     */
+    public synchronized Integer load() {
+        if (Files.notExists(file)) {
+            return null;
+        }
+        try {
+            if (Files.getLastModifiedTime(file).toInstant().isBefore(Instant.now().minus(MAX_AGE))) {
+                log.info("Ignoring the updates checkpoint " + file + ", it is too old");
+                return null;
+            }
+            saved = Integer.parseInt(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+            return saved;
+        } catch (IOException | NumberFormatException ex) {
+            log.warning("Can't read the updates checkpoint " + file + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the checkpoint, replacing the previous one at once so a crash never leaves it half written
+     * @param lastUpdateId The last update fully processed
+     */
+    public synchronized void save(int lastUpdateId) {
+        if (saved != null && saved == lastUpdateId) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, Integer.toString(lastUpdateId).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            saved = lastUpdateId;
+        } catch (IOException ex) {
+            log.warning("Can't write the updates checkpoint " + file + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.cadiducho.zincite.dispatch;
+
+import java.util.TreeSet;
+
+/**
+ * Tracks which updates are fully processed, to know up to which update it is safe to confirm to Telegram.
+ * Updates of different chats finish out of order, so the committed offset is the last update before the oldest one still in flight.
+ * Updates must be begun in the order they are received, as the long polling does
+ */
+public class OffsetTracker {
+
+    /**
+     * Updates handed to the dispatcher and not processed yet. Guarded by this
+     */
+    private final TreeSet<Integer> inFlight = new TreeSet<>();
+
+    /**
+     * Last update received. Guarded by this
+     */
+    private Integer highest;
+
+    /**
+     * Resume from an update processed before a restart
+     * @param lastUpdateId The last update fully processed
+     */
+    public synchronized void restore(int lastUpdateId) {
+        if (highest == null || lastUpdateId > highest) {
+            highest = lastUpdateId;
+        }
+    }
+
+    /**
+     * Record that an update is being processed
+     * @param updateId The update
+     */
+    public synchronized void begin(int updateId) {
+        inFlight.add(updateId);
+        advance(updateId);
+    }
+
+    /**
+     * Record that an update was received and will not be processed, as a stale one
+     * @param updateId The update
+     */
+    public synchronized void skip(int updateId) {
+        advance(updateId);
+    }
+
+    /**
+     * Record that an update is processed
+     * @param updateId The update
+     */
+    public synchronized void complete(int updateId) {
+        inFlight.remove(updateId);
+    }
+
+    /**
+     * Get the last update that is processed along with every previous one
+     * @return The update id, or null if no update was received
+     */
+    public synchronized Integer getCommitted() {
+        if (highest == null || inFlight.isEmpty()) {
+            return highest;
+        }
+        return Math.min(highest, inFlight.first() - 1);
+    }
+
+    /**
+     * Get the last update received
+     * @return The update id, or null if no update was received
+     */
+    public synchronized Integer getHighest() {
+        return highest;
+    }
+
+    /**
+     * Check if an update was already received and is still in flight, which Telegram sends again
+     * until the offset is moved past it
+     * @param updateId The update
+     * @return true if it must not be processed again
+     */
+    public synchronized boolean isDuplicate(int updateId) {
+        Integer committed = getCommitted();
+        return committed != null && updateId > committed && updateId <= highest;
+    }
+
+    /**
+     * Get the number of updates being processed
+     * @return The updates in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    private void advance(int updateId) {
+        if (highest == null || updateId > highest) {
+            highest = updateId;
+        }
+    }
+}
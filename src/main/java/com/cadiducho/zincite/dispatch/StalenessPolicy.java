@@ -0,0 +1,96 @@
+package com.cadiducho.zincite.dispatch;
+
+import com.cadiducho.telegrambotapi.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * How old every {@link UpdateKind} may be before it is skipped without being processed.
+ * Dated updates are checked against their date as soon as they are received.
+ * Undated ones, such as callback queries, can only be told stale while draining the startup backlog,
+ * where any undated kind with a max age is skipped
+ */
+public final class StalenessPolicy {
+
+    private final Map<UpdateKind, Duration> maxAges;
+
+    private StalenessPolicy(Map<UpdateKind, Duration> maxAges) {
+        this.maxAges = maxAges;
+    }
+
+    /**
+     * A policy where no update is ever stale
+     * @return The policy
+     */
+    public static StalenessPolicy none() {
+        return new StalenessPolicy(new EnumMap<>(UpdateKind.class));
+    }
+
+    /**
+     * The default policy: messages older than 10 minutes are not answered,
+     * and callback and inline queries left in the backlog are skipped, as their buttons and results are long gone for the user
+     * @return The policy
+     */
+    public static StalenessPolicy defaults() {
+        return none()
+                .with(UpdateKind.MESSAGE, Duration.ofMinutes(10))
+                .with(UpdateKind.CALLBACK_QUERY, Duration.ofMinutes(1))
+                .with(UpdateKind.INLINE_QUERY, Duration.ofSeconds(30));
+    }
+
+    /**
+     * Get a copy of this policy with another max age for a kind of update
+     * @param kind The kind of update
+     * @param maxAge Its max age, or null if that kind is never stale
+     * @return The new policy
+     */
+    public StalenessPolicy with(UpdateKind kind, Duration maxAge) {
+        Map<UpdateKind, Duration> copy = new EnumMap<>(UpdateKind.class);
+        copy.putAll(maxAges);
+        if (maxAge == null) {
+            copy.remove(kind);
+        } else {
+            copy.put(kind, maxAge);
+        }
+        return new StalenessPolicy(copy);
+    }
+
+    /**
+     * Get the max age of a kind of update
+     * @param kind The kind of update
+     * @return Its max age, or null if it is never stale
+     */
+    public Duration getMaxAge(UpdateKind kind) {
+        return maxAges.get(kind);
+    }
+
+    /**
+     * Check if an update just received is stale
+     * @param update The update
+     * @param now The current time
+     * @return true if the update is dated and older than the max age of its kind
+     */
+    public boolean isStale(Update update, Instant now) {
+        return isStale(update, UpdateKind.of(update), now, false);
+    }
+
+    boolean isStale(Update update, UpdateKind kind, Instant now, boolean backlog) {
+        Duration maxAge = maxAges.get(kind);
+        if (maxAge == null) {
+            return false;
+        }
+        Integer date = UpdateKind.dateOf(update);
+        if (date == null) {
+            return backlog;
+        }
+        return Instant.ofEpochSecond(date).isBefore(now.minus(maxAge));
+    }
+
+    @Override
+    public String toString() {
+        return "StalenessPolicy" + maxAges;
+    }
+}
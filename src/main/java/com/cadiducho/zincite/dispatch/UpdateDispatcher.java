@@ -0,0 +1,233 @@
+package com.cadiducho.zincite.dispatch;
+
+import com.cadiducho.telegrambotapi.CallbackQuery;
+import com.cadiducho.telegrambotapi.Message;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.zincite.metrics.LatencyHistogram;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Dispatch stage between the updates source and the update processing.
+ * Updates are fanned out across threads while keeping the updates of the same chat strictly in order.
+ * In {@link DispatchMode#STRIPED} every worker prioritizes between its chats by the {@link Lane} of their oldest pending update,
+ * so a chat waiting to handle a callback query goes before one waiting to handle a poll, but never reorders the updates of a chat
+ */
+@Log
+public class UpdateDispatcher {
+
+    /**
+     * The mode effectively used, which may differ from the requested one if it is not supported by the running JVM
+     */
+    @Getter private final DispatchMode mode;
+
+    private final Consumer<Update> processor;
+    private final Function<Update, Lane> lanes;
+
+    /**
+     * Time every update waits in its stripe, by lane, or null if not measured
+     */
+    private final LatencyHistogram[] laneWait;
+
+    /**
+     * Single thread workers used by {@link DispatchMode#STRIPED}. Every chat is always handled by the same worker
+     */
+    private ThreadPoolExecutor[] stripes;
+
+    /**
+     * Executor and last pending task of every chat, used by {@link DispatchMode#VIRTUAL_THREADS}
+     */
+    private ExecutorService virtualExecutor;
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> chatTails = new ConcurrentHashMap<>();
+
+    /**
+     * Create a dispatcher
+     * @param mode The requested {@link DispatchMode}
+     * @param threads Number of workers used by {@link DispatchMode#STRIPED}
+     * @param queueCapacity Max pending updates per worker before blocking the updates source
+     * @param processor The code that handles every update
+     */
+    public UpdateDispatcher(DispatchMode mode, int threads, int queueCapacity, Consumer<Update> processor) {
+        this(mode, threads, queueCapacity, update -> Lane.COMMAND, Lane.defaultWeights(), null, processor);
+    }
+
+    /**
+     * Create a dispatcher with priority lanes
+     * @param mode The requested {@link DispatchMode}
+     * @param threads Number of workers used by {@link DispatchMode#STRIPED}
+     * @param queueCapacity Max pending updates per worker and lane before blocking the updates source
+     * @param lanes Gets the {@link Lane} of every update
+     * @param weights Weight of every lane when the workers are saturated
+     * @param metrics Registry where the time waited in every lane is recorded, or null to not record it
+     * @param processor The code that handles every update
+     */
+    public UpdateDispatcher(DispatchMode mode, int threads, int queueCapacity, Function<Update, Lane> lanes, Map<Lane, Integer> weights,
+                            MetricsRegistry metrics, Consumer<Update> processor) {
+        this.processor = processor;
+        this.lanes = lanes;
+
+        if (mode == DispatchMode.VIRTUAL_THREADS) {
+            virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor == null) {
+                log.warning("Virtual threads are not available in this JVM, using striped dispatch instead");
+                mode = DispatchMode.STRIPED;
+            }
+        }
+        if (mode == DispatchMode.STRIPED) {
+            stripes = new ThreadPoolExecutor[Math.max(1, threads)];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = newStripe(i, new LaneQueue(Math.max(1, queueCapacity), weights));
+            }
+        }
+        this.mode = mode;
+
+        if (mode == DispatchMode.STRIPED && metrics != null) {
+            laneWait = new LatencyHistogram[Lane.values().length];
+            for (Lane lane : Lane.values()) {
+                laneWait[lane.ordinal()] = metrics.histogram("zincite_dispatch_wait_seconds", "Time updates wait for their dispatcher worker",
+                        "lane", lane.name().toLowerCase());
+            }
+        } else {
+            laneWait = null;
+        }
+    }
+
+    /**
+     * Hand an update to be processed
+     * @param update The update
+     */
+    public void dispatch(Update update) {
+        switch (mode) {
+            case STRIPED:
+                long chat = chatKey(update);
+                stripes[stripeFor(chat, stripes.length)].execute(laneTask(update, chat));
+                break;
+            case VIRTUAL_THREADS:
+                long key = chatKey(update);
+                // a link that failed must not drop the updates chained behind it
+                CompletableFuture<Void> task = chatTails.compute(key, (k, tail) -> tail == null
+                        ? CompletableFuture.runAsync(() -> process(update), virtualExecutor)
+                        : tail.handle((result, ex) -> null).thenRunAsync(() -> process(update), virtualExecutor));
+                task.whenComplete((result, ex) -> chatTails.remove(key, task));
+                break;
+            default:
+                process(update);
+        }
+    }
+
+    /**
+     * Stop accepting updates and wait for the pending ones to be processed
+     * @param timeout Max time to wait
+     * @param unit Unit of the timeout
+     * @return true if every pending update was processed before the timeout
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained = true;
+        if (stripes != null) {
+            for (ThreadPoolExecutor stripe : stripes) {
+                stripe.shutdown();
+            }
+            for (ThreadPoolExecutor stripe : stripes) {
+                drained &= stripe.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (virtualExecutor != null) {
+            try {
+                CompletableFuture.allOf(chatTails.values().toArray(new CompletableFuture[0]))
+                        .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException | TimeoutException ex) {
+                drained = false;
+            }
+            virtualExecutor.shutdown();
+        }
+        return drained;
+    }
+
+    private Runnable laneTask(Update update, long chat) {
+        Lane lane = lanes.apply(update);
+        if (laneWait == null) {
+            return new LaneQueue.Task(lane, chat, () -> process(update));
+        }
+        long queued = System.nanoTime();
+        return new LaneQueue.Task(lane, chat, () -> {
+            laneWait[lane.ordinal()].record(System.nanoTime() - queued);
+            process(update);
+        });
+    }
+
+    private void process(Update update) {
+        try {
+            processor.accept(update);
+        } catch (VirtualMachineError ex) {
+            log.log(Level.SEVERE, "Fatal error dispatching an update", ex);
+            throw ex;
+        } catch (Throwable ex) {
+            // such as a NoClassDefFoundError from a module unloaded while handling the update
+            log.log(Level.SEVERE, "Unexpected failure dispatching an update", ex);
+        }
+    }
+
+    /**
+     * Get the key that identifies the ordering domain of an update, which is its chat when it has one
+     * @param update The update
+     * @return The chat id, or the user id or the update id if there is no chat involved
+     */
+    static long chatKey(Update update) {
+        Message message = update.getMessage() != null ? update.getMessage() : update.getEditedMessage();
+        if (message != null && message.getChat() != null) {
+            return message.getChat().getId();
+        }
+        CallbackQuery callbackQuery = update.getCallbackQuery();
+        if (callbackQuery != null) {
+            if (callbackQuery.getMessage() != null && callbackQuery.getMessage().getChat() != null) {
+                return callbackQuery.getMessage().getChat().getId();
+            }
+            if (callbackQuery.getFrom() != null) {
+                return callbackQuery.getFrom().getId();
+            }
+        }
+        return update.getUpdateId() == null ? 0 : update.getUpdateId();
+    }
+
+    static int stripeFor(long key, int stripes) {
+        int hash = Long.hashCode(key);
+        return Math.floorMod(hash ^ (hash >>> 16), stripes);
+    }
+
+    private static ThreadPoolExecutor newStripe(int index, LaneQueue queue) {
+        // When the lane is full, block the updates source instead of running the update elsewhere and break the chat order
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "ZinciteDispatcher-" + index);
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Dispatcher is shut down");
+            }
+            try {
+                executor.getQueue().put(runnable);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for a dispatcher slot", ex);
+            }
+        });
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.cadiducho.zincite.dispatch;
+
+import com.cadiducho.telegrambotapi.Update;
+
+/**
+ * The kinds of update Zincite tells apart, to apply a different {@link StalenessPolicy} to each of them
+ */
+public enum UpdateKind {
+
+    /**
+     * A new message, including service messages such as new or left chat members
+     */
+    MESSAGE,
+
+    /**
+     * A new version of an existing message
+     */
+    EDITED_MESSAGE,
+
+    /**
+     * A button of an inline keyboard was pressed
+     */
+    CALLBACK_QUERY,
+
+    /**
+     * An inline query typed by a user
+     */
+    INLINE_QUERY,
+
+    /**
+     * A change in the status of a chat member, or of the bot itself
+     */
+    CHAT_MEMBER,
+
+    /**
+     * A new state of a poll
+     */
+    POLL,
+
+    /**
+     * A user changed their answer in a non anonymous poll
+     */
+    POLL_ANSWER,
+
+    /**
+     * Any other update, such as channel posts
+     */
+    OTHER;
+
+    /**
+     * Get the kind of an update
+     * @param update The update
+     * @return Its kind
+     */
+    public static UpdateKind of(Update update) {
+        if (update.getMessage() != null) return MESSAGE;
+        if (update.getEditedMessage() != null) return EDITED_MESSAGE;
+        if (update.getCallbackQuery() != null) return CALLBACK_QUERY;
+        if (update.getInlineQuery() != null) return INLINE_QUERY;
+        if (update.getChatMember() != null || update.getMyChatMember() != null) return CHAT_MEMBER;
+        if (update.getPoll() != null) return POLL;
+        if (update.getPollAnswer() != null) return POLL_ANSWER;
+        return OTHER;
+    }
+
+    /**
+     * Get when the event of an update happened, if Telegram tells it.
+     * Edited messages only carry the date of the original message, so they are considered undated
+     * @param update The update
+     * @return Unix time in seconds, or null if the update has no date
+     */
+    static Integer dateOf(Update update) {
+        if (update.getMessage() != null) {
+            return update.getMessage().getDate();
+        }
+        if (update.getChatMember() != null || update.getMyChatMember() != null) {
+            return (update.getChatMember() != null ? update.getChatMember() : update.getMyChatMember()).getDate();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,169 @@
+package com.cadiducho.zincite.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the counters and latency histograms of a Zincite bot.
+ * Every metric has a name and, optionally, one label such as the command or the module it belongs to
+ */
+public class MetricsRegistry {
+
+    private final Map<String, Family<Counter>> counters = new ConcurrentHashMap<>();
+    private final Map<String, Family<LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+    private final long startedAt = System.nanoTime();
+
+    /**
+     * Get or create a counter
+     * @param name Name of the counter
+     * @param help Description of the counter
+     * @return The counter
+     */
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, "");
+    }
+
+    /**
+     * Get or create a labeled counter
+     * @param name Name of the counter
+     * @param help Description of the counter
+     * @param label Name of the label
+     * @param value Value of the label
+     * @return The counter
+     */
+    public Counter counter(String name, String help, String label, String value) {
+        return counters.computeIfAbsent(name, n -> new Family<>(n, help, label, Counter::new)).get(value);
+    }
+
+    /**
+     * Get or create a histogram
+     * @param name Name of the histogram
+     * @param help Description of the histogram
+     * @return The histogram
+     */
+    public LatencyHistogram histogram(String name, String help) {
+        return histogram(name, help, null, "");
+    }
+
+    /**
+     * Get or create a labeled histogram
+     * @param name Name of the histogram
+     * @param help Description of the histogram
+     * @param label Name of the label
+     * @param value Value of the label
+     * @return The histogram
+     */
+    public LatencyHistogram histogram(String name, String help, String label, String value) {
+        return histograms.computeIfAbsent(name, n -> new Family<>(n, help, label, LatencyHistogram::new)).get(value);
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format
+     * @return The metrics
+     */
+    public String toPrometheus() {
+        StringBuilder builder = new StringBuilder();
+        for (Family<Counter> family : new TreeMap<>(counters).values()) {
+            family.header(builder, "counter");
+            family.children.forEach((value, counter) -> builder.append(family.name).append(family.labels(value, null))
+                    .append(' ').append(counter.get()).append('\n'));
+        }
+        for (Family<LatencyHistogram> family : new TreeMap<>(histograms).values()) {
+            family.header(builder, "histogram");
+            family.children.forEach((value, histogram) -> {
+                long[] counts = histogram.getBucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    String le = i == counts.length - 1 ? "+Inf" : seconds(LatencyHistogram.upperBoundNanos(i));
+                    builder.append(family.name).append("_bucket").append(family.labels(value, le)).append(' ').append(cumulative).append('\n');
+                }
+                builder.append(family.name).append("_sum").append(family.labels(value, null)).append(' ').append(seconds(histogram.getSumNanos())).append('\n');
+                builder.append(family.name).append("_count").append(family.labels(value, null)).append(' ').append(histogram.getCount()).append('\n');
+            });
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Render a human readable summary of every metric, as shown by the <code>stats</code> console command
+     * @return The summary
+     */
+    public String summary() {
+        long uptimeSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt));
+        StringBuilder builder = new StringBuilder("Uptime: ").append(uptimeSeconds).append("s\n");
+        for (Family<Counter> family : new TreeMap<>(counters).values()) {
+            new TreeMap<>(family.children).forEach((value, counter) -> builder.append(String.format(Locale.ROOT, "%s%s: %d (%.2f/s)%n",
+                    family.name, value.isEmpty() ? "" : " " + value, counter.get(), counter.get() / (double) uptimeSeconds)));
+        }
+        for (Family<LatencyHistogram> family : new TreeMap<>(histograms).values()) {
+            new TreeMap<>(family.children).forEach((value, histogram) -> {
+                long count = histogram.getCount();
+                builder.append(String.format(Locale.ROOT, "%s%s: n=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms%n",
+                        family.name, value.isEmpty() ? "" : " " + value, count,
+                        count == 0 ? 0 : millis(histogram.getSumNanos() / count),
+                        millis(histogram.percentileNanos(0.5)), millis(histogram.percentileNanos(0.99)), millis(histogram.getMaxNanos())));
+            });
+        }
+        return builder.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000D;
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1_000_000_000D);
+    }
+
+    /**
+     * All the metrics sharing a name, one per label value
+     */
+    private static final class Family<T> {
+        private final String name;
+        private final String help;
+        private final String label;
+        private final Supplier<T> factory;
+        private final ConcurrentHashMap<String, T> children = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String label, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+            this.factory = factory;
+        }
+
+        private T get(String value) {
+            T child = children.get(value);
+            return child != null ? child : children.computeIfAbsent(value, v -> factory.get());
+        }
+
+        private void header(StringBuilder builder, String type) {
+            builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        private String labels(String value, String le) {
+            boolean hasLabel = label != null;
+            if (!hasLabel && le == null) {
+                return "";
+            }
+            StringBuilder builder = new StringBuilder("{");
+            if (hasLabel) {
+                builder.append(label).append("=\"").append(escape(value)).append('"');
+            }
+            if (le != null) {
+                builder.append(hasLabel ? "," : "").append("le=\"").append(le).append('"');
+            }
+            return builder.append('}').toString();
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+}
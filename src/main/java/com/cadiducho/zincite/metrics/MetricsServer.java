@@ -0,0 +1,65 @@
+package com.cadiducho.zincite.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Embedded HTTP endpoint serving a {@link MetricsRegistry} in the Prometheus text format
+ */
+@Log
+public class MetricsServer {
+
+    private final HttpServer server;
+    private final MetricsRegistry registry;
+
+    /**
+     * Create the endpoint. It does not accept requests until {@link #start()} is called
+     * @param address Address and port to listen on
+     * @param registry The metrics to serve
+     * @throws IOException If the address can't be bound
+     */
+    public MetricsServer(InetSocketAddress address, MetricsRegistry registry) throws IOException {
+        this.registry = registry;
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext("/metrics", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Get the port the endpoint is listening on, useful when it was created with port 0
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = registry.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
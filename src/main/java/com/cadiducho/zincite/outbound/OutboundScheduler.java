@@ -0,0 +1,452 @@
+package com.cadiducho.zincite.outbound;
+
+import com.cadiducho.telegrambotapi.Message;
+import com.cadiducho.telegrambotapi.ParseMode;
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import lombok.extern.java.Log;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue for every call sent to the Telegram Bot API on behalf of a chat.
+ * Calls are released following a global token bucket plus one bucket per chat, slower for groups and channels,
+ * so bursts are smoothed to the max throughput Telegram allows instead of being answered with 429 errors.
+ * When Telegram still answers with a <code>retry_after</code>, the chat is paused for that time and the call is retried.
+ * Only a <code>retry_after</code> given to a call not tied to a chat pauses every chat.
+ * Calls of the same chat are sent one at a time, and the pending ones are sorted by {@link Priority}
+ */
+@Log
+public class OutboundScheduler {
+
+    /**
+     * A call to the Telegram Bot API
+     * @param <T> The result of the call
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T call(TelegramBot bot) throws TelegramException;
+    }
+
+    /**
+     * Key of the calls not tied to a chat
+     */
+    private static final Object NO_CHAT = new Object();
+
+    private final TelegramBot bot;
+    private final TokenBucket global;
+    private final double globalPerSecond;
+    private final double chatPerSecond;
+    private final double groupPerSecond;
+    private final int maxRetries;
+
+    private final ExecutorService workers;
+    private final Thread scheduler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * Chats with pending calls, or whose bucket is not full yet. Guarded by the lock
+     */
+    private final Map<Object, ChatQueue> chats = new HashMap<>();
+
+    /**
+     * Chats that can send right now, sorted by their most urgent call. Guarded by the lock
+     */
+    private final TreeSet<ChatQueue> ready = new TreeSet<>(Comparator.comparing((ChatQueue chat) -> chat.head));
+
+    /**
+     * Chats waiting for their bucket or a <code>retry_after</code>, sorted by when they can send again.
+     * Idle chats also wait here until their bucket is full and they can be forgotten. Guarded by the lock
+     */
+    private final TreeSet<ChatQueue> delayed = new TreeSet<>(Comparator.comparingLong((ChatQueue chat) -> chat.readyAt).thenComparingLong(chat -> chat.id));
+
+    private long sequence;
+    private long chatIds;
+    private int pending;
+    private boolean running = true;
+
+    /**
+     * Until when every chat is paused after Telegram answered a call not tied to a chat with a <code>retry_after</code>. Guarded by the lock
+     */
+    private long globalBlockedUntil = System.nanoTime();
+
+    /**
+     * Create and start a scheduler
+     * @param bot The bot used to make the calls
+     * @param globalPerSecond Max calls per second across all chats
+     * @param chatPerSecond Max calls per second to the same private chat
+     * @param groupPerMinute Max calls per minute to the same group or channel
+     * @param workers Number of threads making the calls
+     * @param maxRetries Times a call is retried after Telegram answers with a <code>retry_after</code>
+     */
+    public OutboundScheduler(TelegramBot bot, double globalPerSecond, double chatPerSecond, double groupPerMinute, int workers, int maxRetries) {
+        this.bot = bot;
+        this.global = new TokenBucket(Math.max(1, globalPerSecond), globalPerSecond, System.nanoTime());
+        this.globalPerSecond = globalPerSecond;
+        this.chatPerSecond = chatPerSecond;
+        this.groupPerSecond = groupPerMinute / 60D;
+        this.maxRetries = maxRetries;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workers), runnable -> {
+            Thread thread = new Thread(runnable, "ZinciteOutbound-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = new Thread(this::schedule, "ZinciteOutbound");
+        this.scheduler.setDaemon(true);
+        this.scheduler.start();
+    }
+
+    /**
+     * Queue a call to the Telegram Bot API
+     * @param chatId The chat the call is sent to, used to apply its limits, or null if the call is not tied to a chat
+     * @param priority The {@link Priority} of the call
+     * @param call The call
+     * @param <T> The result of the call
+     * @return The result, completed once the call has been made
+     */
+    public <T> CompletableFuture<T> submit(Object chatId, Priority priority, Call<T> call) {
+        Object key = chatKey(chatId);
+        lock.lock();
+        try {
+            Task<T> task = new Task<>(priority, sequence++, call);
+            if (!running) {
+                task.future.completeExceptionally(new RejectedExecutionException("Outbound scheduler is shut down"));
+                return task.future;
+            }
+            ChatQueue chat = chats.computeIfAbsent(key, k -> new ChatQueue(chatIds++, k, newChatBucket(k)));
+            if (chat.head != null && task.compareTo(chat.head) < 0) {
+                // sigue en la cola de listos, pero ordenado por la nueva llamada
+                ready.remove(chat);
+                chat.tasks.add(task);
+                chat.head = task;
+                ready.add(chat);
+            } else {
+                boolean idle = chat.tasks.isEmpty();
+                chat.tasks.add(task);
+                if (idle && !chat.inFlight) {
+                    delayed.remove(chat);
+                    place(chat, System.nanoTime());
+                }
+            }
+            pending++;
+            changed.signal();
+            return task.future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue a text message
+     * @param chatId The chat
+     * @param text The text
+     * @param parseMode How the text is formatted, or null
+     * @param priority The {@link Priority} of the message
+     * @return The sent message
+     */
+    public CompletableFuture<Message> sendMessage(Object chatId, String text, ParseMode parseMode, Priority priority) {
+        return submit(chatId, priority, telegramBot -> telegramBot.sendMessage(chatId, text, parseMode, null, null, null, null, null));
+    }
+
+    /**
+     * Get the number of calls not finished yet
+     * @return the number of calls
+     */
+    public int getPending() {
+        lock.lock();
+        try {
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting calls and wait for the pending ones to be sent
+     * @param timeout Max time to wait
+     * @param unit Unit of the timeout
+     * @return true if every pending call was sent, false if some were discarded
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            running = false;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        scheduler.join(Math.max(1, unit.toMillis(timeout)));
+
+        boolean drained = !scheduler.isAlive();
+        if (!drained) {
+            scheduler.interrupt();
+            scheduler.join();
+            lock.lock();
+            try {
+                for (ChatQueue chat : chats.values()) {
+                    Task<?> task;
+                    while ((task = chat.tasks.poll()) != null) {
+                        task.future.completeExceptionally(new RejectedExecutionException("Outbound scheduler is shut down"));
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        workers.shutdown();
+        return drained;
+    }
+
+    private void schedule() {
+        lock.lock();
+        try {
+            while (running || pending > 0) {
+                long now = System.nanoTime();
+                while (!delayed.isEmpty() && delayed.first().readyAt <= now) {
+                    place(delayed.pollFirst(), now);
+                }
+
+                long wait = delayed.isEmpty() ? Long.MAX_VALUE : delayed.first().readyAt - now;
+                if (!ready.isEmpty()) {
+                    long delay = Math.max(globalBlockedUntil - now, global.delay(now));
+                    if (delay <= 0) {
+                        ChatQueue chat = ready.pollFirst();
+                        chat.head = null;
+                        global.take(now);
+                        chat.bucket.take(now);
+                        chat.inFlight = true;
+                        execute(chat, chat.tasks.poll());
+                        continue;
+                    }
+                    wait = Math.min(wait, delay);
+                }
+                if (wait == Long.MAX_VALUE) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(wait);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Put a chat that is neither queued nor in flight in the queue it belongs to, or forget it if it is idle and its bucket is full.
+     * The caller must hold the lock
+     * @param chat The chat
+     * @param now Current time in nanoseconds
+     */
+    private void place(ChatQueue chat, long now) {
+        Task<?> head = chat.tasks.peek();
+        if (head == null) {
+            long full = chat.bucket.fullIn(now);
+            if (full <= 0) {
+                chats.remove(chat.key);
+            } else {
+                chat.readyAt = now + full;
+                delayed.add(chat);
+            }
+            return;
+        }
+        long delay = Math.max(chat.blockedUntil - now, chat.bucket.delay(now));
+        if (delay > 0) {
+            chat.readyAt = now + delay;
+            delayed.add(chat);
+        } else {
+            chat.head = head;
+            ready.add(chat);
+            changed.signal();
+        }
+    }
+
+    private void execute(ChatQueue chat, Task<?> task) {
+        try {
+            workers.execute(() -> {
+                long retryAfter = -1;
+                try {
+                    retryAfter = task.run(bot, maxRetries);
+                } catch (Error ex) {
+                    task.error = ex;
+                    throw ex;
+                } finally {
+                    finish(chat, task, retryAfter);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            task.error = ex;
+            finish(chat, task, -1);
+        }
+    }
+
+    /**
+     * Release a chat once its call has been made, queueing the call again if Telegram asked to retry it later
+     * @param chat The chat
+     * @param task The call
+     * @param retryAfter The seconds to wait before retrying, or -1 if the call is finished
+     */
+    private void finish(ChatQueue chat, Task<?> task, long retryAfter) {
+        lock.lock();
+        try {
+            chat.inFlight = false;
+            long now = System.nanoTime();
+            if (retryAfter >= 0) {
+                chat.blockedUntil = now + TimeUnit.SECONDS.toNanos(retryAfter);
+                if (chat.key == NO_CHAT) {
+                    // sin chat, el límite solo puede ser del bot entero, así que el resto de chats también espera
+                    log.warning("Telegram asked to retry after " + retryAfter + "s, pausing every chat");
+                    globalBlockedUntil = Math.max(globalBlockedUntil, chat.blockedUntil);
+                } else {
+                    log.warning("Telegram asked to retry after " + retryAfter + "s, pausing the chat " + chat.key);
+                }
+                chat.tasks.add(task); // conserva su posición en la cola
+            } else {
+                pending--;
+            }
+            place(chat, now);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (retryAfter < 0) {
+            task.complete();
+        }
+    }
+
+    private TokenBucket newChatBucket(Object key) {
+        if (key == NO_CHAT) {
+            return new TokenBucket(Math.max(1, globalPerSecond), globalPerSecond, System.nanoTime());
+        }
+        boolean group = !(key instanceof Long) || (Long) key < 0;
+        return new TokenBucket(1, group ? groupPerSecond : chatPerSecond, System.nanoTime());
+    }
+
+    /**
+     * Key of a chat, so the same chat is found whether its id was given as an Integer or a Long
+     * @param chatId The chat id or channel username, or null
+     * @return The key
+     */
+    private static Object chatKey(Object chatId) {
+        if (chatId == null) {
+            return NO_CHAT;
+        }
+        return chatId instanceof Number ? (Object) ((Number) chatId).longValue() : chatId;
+    }
+
+    /**
+     * Read the <code>retry_after</code> seconds of a "Too Many Requests" error
+     * @param ex The error
+     * @return The seconds, or -1 if the error is not a "Too Many Requests" one
+     */
+    static long retryAfter(TelegramException ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message == null) {
+                continue;
+            }
+            int index = message.toLowerCase().indexOf("retry after ");
+            if (index < 0) {
+                continue;
+            }
+            int start = index + "retry after ".length();
+            int end = start;
+            while (end < message.length() && Character.isDigit(message.charAt(end))) {
+                end++;
+            }
+            if (end > start) {
+                return Long.parseLong(message.substring(start, end));
+            }
+        }
+        return -1;
+    }
+
+    private static final class ChatQueue {
+        private final long id;
+        private final Object key;
+        private final PriorityQueue<Task<?>> tasks = new PriorityQueue<>();
+        private final TokenBucket bucket;
+        private long blockedUntil;
+        private boolean inFlight;
+
+        /**
+         * The call the chat is sorted by while it is in the ready queue, or null if it is not there
+         */
+        private Task<?> head;
+
+        /**
+         * When the chat can send again, while it is in the delayed queue
+         */
+        private long readyAt;
+
+        private ChatQueue(long id, Object key, TokenBucket bucket) {
+            this.id = id;
+            this.key = key;
+            this.bucket = bucket;
+            this.blockedUntil = System.nanoTime();
+        }
+    }
+
+    private static final class Task<T> implements Comparable<Task<?>> {
+        private final Priority priority;
+        private final long sequence;
+        private final Call<T> call;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private int retries;
+        private T result;
+        private Throwable error;
+
+        private Task(Priority priority, long sequence, Call<T> call) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.call = call;
+        }
+
+        /**
+         * Make the call, keeping its outcome until {@link #complete()}
+         * @return The seconds to wait before retrying, or -1 if the call is finished
+         */
+        private long run(TelegramBot bot, int maxRetries) {
+            try {
+                result = call.call(bot);
+            } catch (TelegramException ex) {
+                long retryAfter = retryAfter(ex);
+                if (retryAfter >= 0 && retries++ < maxRetries) {
+                    return retryAfter;
+                }
+                error = ex;
+            } catch (RuntimeException ex) {
+                error = ex;
+            }
+            return -1;
+        }
+
+        private void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.cadiducho.zincite.outbound;
+
+/**
+ * Order in which queued outbound calls are sent when the rate limits do not allow sending all of them at once
+ */
+public enum Priority {
+    /**
+     * Direct replies to users and owner notifications
+     */
+    HIGH,
+
+    /**
+     * Regular messages
+     */
+    NORMAL,
+
+    /**
+     * Broadcasts and any other bulk traffic, sent only when nothing else is waiting
+     */
+    LOW
+}
@@ -0,0 +1,61 @@
+package com.cadiducho.zincite.outbound;
+
+/**
+ * Token bucket measured in nanoseconds. It is not thread safe, the {@link OutboundScheduler} guards it with its lock
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long updatedAt;
+
+    /**
+     * Create a full bucket
+     * @param capacity Max tokens, which is the max burst allowed
+     * @param perSecond Tokens refilled every second
+     * @param now Current time in nanoseconds
+     */
+    TokenBucket(double capacity, double perSecond, long now) {
+        this.capacity = capacity;
+        this.tokensPerNano = perSecond / 1_000_000_000D;
+        this.tokens = capacity;
+        this.updatedAt = now;
+    }
+
+    /**
+     * Nanoseconds until a token is available
+     * @param now Current time in nanoseconds
+     * @return 0 if a token can be taken right now
+     */
+    long delay(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Take a token. The caller must check {@link #delay(long)} first
+     * @param now Current time in nanoseconds
+     */
+    void take(long now) {
+        refill(now);
+        tokens -= 1;
+    }
+
+    /**
+     * Nanoseconds until the bucket is full again, so forgetting it does not allow any extra burst
+     * @param now Current time in nanoseconds
+     * @return 0 if it is full right now
+     */
+    long fullIn(long now) {
+        refill(now);
+        return tokens >= capacity ? 0 : (long) Math.ceil((capacity - tokens) / tokensPerNano);
+    }
+
+    private void refill(long now) {
+        if (now > updatedAt) {
+            tokens = Math.min(capacity, tokens + (now - updatedAt) * tokensPerNano);
+            updatedAt = now;
+        }
+    }
+}
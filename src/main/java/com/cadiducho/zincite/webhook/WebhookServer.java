@@ -0,0 +1,127 @@
+package com.cadiducho.zincite.webhook;
+
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.util.MoshiProvider;
+import com.squareup.moshi.JsonAdapter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Embedded HTTP endpoint receiving the updates pushed by Telegram.
+ * It serves plain HTTP, so it is meant to run behind a reverse proxy terminating TLS,
+ * whose public URL must be registered in Telegram with setWebhook
+ */
+@Log
+public class WebhookServer {
+
+    /**
+     * Header where Telegram sends the secret token given to setWebhook
+     */
+    public static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private static final JsonAdapter<Update> UPDATE_ADAPTER = MoshiProvider.getMoshi().adapter(Update.class);
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final String secretToken;
+    private final Consumer<Update> handler;
+
+    /**
+     * Create a webhook server. It won't accept requests until {@link #start()} is called
+     * @param address Address and port to listen on. Port 0 picks a free port
+     * @param path Path of the endpoint
+     * @param secretToken Secret token given to setWebhook, or null to accept any request
+     * @param maxConcurrency Max requests handled at the same time. Further requests wait to be accepted
+     * @param handler Receiver of the decoded updates. It should return quickly, since Telegram waits for it
+     * @throws IOException If the address cannot be bound
+     */
+    public WebhookServer(InetSocketAddress address, String path, String secretToken, int maxConcurrency, Consumer<Update> handler) throws IOException {
+        this.secretToken = secretToken;
+        this.handler = handler;
+
+        int threads = Math.max(1, maxConcurrency);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads), runnable -> {
+            Thread thread = new Thread(runnable, "ZinciteWebhook-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy()); // when saturated, the accepting thread handles the request and stops accepting new ones
+
+        this.server = HttpServer.create(address, threads * 2);
+        this.server.createContext(path, this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * Start accepting updates
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting updates, waiting up to a second for the requests being handled
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Get the port the server is listening on
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (secretToken != null && !secretToken.equals(exchange.getRequestHeaders().getFirst(SECRET_TOKEN_HEADER))) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+
+            Update update;
+            try (InputStream body = exchange.getRequestBody()) {
+                update = UPDATE_ADAPTER.fromJson(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException | RuntimeException ex) {
+                log.warning("Invalid update received by the webhook: " + ex.getMessage());
+                update = null;
+            }
+            if (update == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            try {
+                handler.accept(update);
+            } catch (RejectedExecutionException ex) {
+                exchange.sendResponseHeaders(503, -1); // shutting down, Telegram will deliver it again later
+                return;
+            } catch (RuntimeException ex) {
+                log.log(Level.SEVERE, "Unexpected failure handling a webhook update", ex);
+            }
+            exchange.sendResponseHeaders(200, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+}
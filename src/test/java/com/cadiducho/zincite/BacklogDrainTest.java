@@ -0,0 +1,154 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.util.MoshiProvider;
+import com.cadiducho.zincite.dispatch.BacklogDrain;
+import com.cadiducho.zincite.dispatch.BacklogMode;
+import com.cadiducho.zincite.dispatch.BacklogReport;
+import com.cadiducho.zincite.dispatch.OffsetTracker;
+import com.cadiducho.zincite.dispatch.StalenessPolicy;
+import com.cadiducho.zincite.dispatch.UpdateKind;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BacklogDrainTest {
+
+    @Test
+    public void testFilterBacklog() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        BacklogBot bot = new BacklogBot();
+        int id = 1;
+        // 150 mensajes antiguos de un chat, más que una página de getUpdates
+        for (int i = 0; i < 150; i++) {
+            bot.pending.add(message(id++, 1, now - 3600));
+        }
+        bot.pending.add(callback(id++, 1));
+        for (int i = 0; i < 5; i++) {
+            bot.pending.add(message(id++, 2, now - 60));
+        }
+        bot.pending.add(message(id++, 3, now - 30));
+
+        OffsetTracker offsets = new OffsetTracker();
+        List<Integer> processed = new ArrayList<>();
+        BacklogReport report = new BacklogDrain(bot, offsets, BacklogMode.FILTER, StalenessPolicy.defaults(), 2)
+                .drain(update -> {
+                    offsets.begin(update.getUpdateId());
+                    processed.add(update.getUpdateId());
+                });
+
+        assertEquals(List.of(155, 156, 157), processed, "Only the last 2 fresh messages of every chat are processed, in order");
+        assertEquals(150, report.getStale(UpdateKind.MESSAGE));
+        assertEquals(1, report.getStale(UpdateKind.CALLBACK_QUERY), "Undated updates with a max age are stale in the backlog");
+        assertEquals(3, report.getCoalesced(UpdateKind.MESSAGE));
+        assertEquals(3, report.getProcessed(UpdateKind.MESSAGE));
+        assertEquals(154, report.getSkipped());
+        assertEquals(157, report.getLastUpdateId());
+        assertEquals(101, bot.offsets.get(bot.offsets.size() - 1), "The last page is not confirmed before it is processed");
+        assertEquals(154, offsets.getCommitted(), "Skipped updates are committed at once");
+
+        processed.forEach(offsets::complete);
+        assertEquals(157, offsets.getCommitted(), "The poller confirms the backlog once it is processed");
+    }
+
+    @Test
+    public void testSkipBacklog() throws Exception {
+        long now = Instant.now().getEpochSecond();
+        BacklogBot bot = new BacklogBot();
+        for (int i = 1; i <= 500; i++) {
+            bot.pending.add(message(i, i % 7, now));
+        }
+
+        OffsetTracker offsets = new OffsetTracker();
+        List<Update> processed = new ArrayList<>();
+        BacklogReport report = new BacklogDrain(bot, offsets, BacklogMode.SKIP, StalenessPolicy.defaults(), 0).drain(processed::add);
+
+        assertTrue(processed.isEmpty());
+        assertEquals(500, report.getLastUpdateId());
+        assertEquals(List.of(-1, 501), bot.offsets, "Skipping must not download the backlog");
+        assertEquals(500, offsets.getCommitted());
+        assertTrue(bot.pending.isEmpty());
+    }
+
+    @Test
+    public void testEmptyBacklog() throws Exception {
+        BacklogBot bot = new BacklogBot();
+        BacklogReport report = new BacklogDrain(bot, new OffsetTracker(), BacklogMode.FILTER, StalenessPolicy.defaults(), 1).drain(update -> fail("Nothing to process"));
+
+        assertNull(report.getLastUpdateId());
+        assertEquals(0, report.getSkipped());
+        assertEquals(1, bot.offsets.size());
+    }
+
+    @Test
+    public void testStalenessPolicy() {
+        Instant now = Instant.now();
+        Update old = message(1, 1, now.getEpochSecond() - 11 * 60);
+        Update recent = message(2, 1, now.getEpochSecond() - 60);
+
+        StalenessPolicy policy = StalenessPolicy.defaults();
+        assertTrue(policy.isStale(old, now));
+        assertFalse(policy.isStale(recent, now));
+        assertFalse(policy.isStale(callback(3, 1), now), "Undated updates received live are never stale");
+
+        StalenessPolicy strict = policy.with(UpdateKind.MESSAGE, Duration.ofSeconds(30));
+        assertTrue(strict.isStale(recent, now));
+        assertEquals(Duration.ofMinutes(10), policy.getMaxAge(UpdateKind.MESSAGE), "Policies are immutable");
+        assertFalse(policy.with(UpdateKind.MESSAGE, null).isStale(old, now));
+        assertFalse(StalenessPolicy.none().isStale(old, now));
+    }
+
+    private static Update message(int updateId, long chatId, long date) {
+        return update("{\"update_id\":" + updateId + ",\"message\":{\"message_id\":" + updateId + ",\"date\":" + date + ","
+                + "\"chat\":{\"id\":" + chatId + ",\"type\":\"group\",\"title\":\"Test\"},"
+                + "\"from\":{\"id\":42,\"is_bot\":false,\"first_name\":\"Test\"},\"text\":\"hola\"}}");
+    }
+
+    private static Update callback(int updateId, long chatId) {
+        return update("{\"update_id\":" + updateId + ",\"callback_query\":{\"id\":\"" + updateId + "\",\"chat_instance\":\"1\","
+                + "\"from\":{\"id\":42,\"is_bot\":false,\"first_name\":\"Test\"},"
+                + "\"message\":{\"message_id\":1,\"date\":0,\"chat\":{\"id\":" + chatId + ",\"type\":\"group\",\"title\":\"Test\"}},"
+                + "\"data\":\"vote\"}}");
+    }
+
+    private static Update update(String json) {
+        try {
+            return MoshiProvider.getMoshi().adapter(Update.class).fromJson(json);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * TelegramBot que sirve getUpdates desde una lista, confirmando las updates anteriores al offset como hace Telegram
+     */
+    private static class BacklogBot extends TelegramBot {
+        private final List<Update> pending = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+
+        BacklogBot() {
+            super("test");
+        }
+
+        @Override
+        public List<Update> getUpdates(Integer offset, Integer limit, Integer timeout, List<String> allowedUpdates) {
+            offsets.add(offset);
+            if (offset != null && offset < 0) {
+                pending.subList(0, Math.max(0, pending.size() + offset)).clear();
+                return new ArrayList<>(pending);
+            }
+            if (offset != null) {
+                pending.removeIf(update -> update.getUpdateId() < offset);
+            }
+            return pending.stream().limit(limit == null ? 100 : limit).collect(Collectors.toList());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.cadiducho.zincite;
 
 import com.cadiducho.zincite.api.command.*;
+import com.cadiducho.zincite.api.session.Session;
 import com.cadiducho.telegrambotapi.CallbackQuery;
 import com.cadiducho.telegrambotapi.Chat;
 import com.cadiducho.telegrambotapi.Message;
@@ -10,6 +11,7 @@ import org.junit.jupiter.api.Test;
 
 import java.time.Instant;
 
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -28,6 +30,7 @@ public class CallbackQueryTest {
         User user = mock(User.class);
         when(user.getUsername()).thenReturn("TestUser");
         when(user.getFirstName()).thenReturn("Test user");
+        when(user.getId()).thenReturn(7L);
         query.setFrom(user);
 
         commandManager = new CommandManager(null);
@@ -47,6 +50,47 @@ public class CallbackQueryTest {
         assertEquals("myOtherData", listener.data2);
     }
 
+    @Test
+    void testTemplatedCallbackQueryListener() {
+        VoteListener listener = new VoteListener();
+        commandManager.registerCallbackQueryListener(listener);
+
+        commandManager.onCallbackQuery(newQuery("vote:42:yes"));
+        assertEquals("42", listener.pollId);
+        assertEquals("yes", listener.option);
+
+        commandManager.onCallbackQuery(newQuery("vote:42"));
+        commandManager.onCallbackQuery(newQuery("voted:1:no"));
+        assertEquals(1, listener.votes);
+    }
+
+    @Test
+    void testFailingCallbackQueryListener() {
+        FailingListener listener = new FailingListener();
+        commandManager.registerCallbackQueryListener(listener);
+
+        assertDoesNotThrow(() -> commandManager.onCallbackQuery(newQuery("fail:now")));
+        assertEquals(1, listener.calls);
+    }
+
+    @Test
+    void testCallbackQueryListenerSession() {
+        WizardListener listener = new WizardListener();
+        commandManager.registerCallbackQueryListener(listener);
+
+        commandManager.onCallbackQuery(newQuery("wizard:next"));
+        commandManager.onCallbackQuery(newQuery("wizard:next"));
+        assertEquals(2, listener.step, "The session must be saved after every callback");
+    }
+
+    private static CallbackQuery newQuery(String data) {
+        CallbackQuery callbackQuery = new CallbackQuery();
+        callbackQuery.setId("2");
+        callbackQuery.setData(data);
+        callbackQuery.setFrom(query.getFrom());
+        return callbackQuery;
+    }
+
     public class TestListener implements BotCommand, CallbackListener {
 
         public String data1 = "";
@@ -63,4 +107,40 @@ public class CallbackQueryTest {
         public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
         }
     }
+
+    public static class VoteListener implements CallbackListener {
+
+        public String pollId;
+        public String option;
+        public int votes;
+
+        @ListenTo("vote:{pollId}:{option}")
+        public void vote(CallbackParams params, CallbackQuery query) {
+            pollId = params.get("pollId").orElse(null);
+            option = params.get("option").orElse(null);
+            votes++;
+        }
+    }
+
+    public static class FailingListener implements CallbackListener {
+
+        public int calls;
+
+        @ListenTo("fail:{when}")
+        public void fail(CallbackQuery query) {
+            calls++;
+            throw new IllegalStateException("Listener roto");
+        }
+    }
+
+    public static class WizardListener implements CallbackListener {
+
+        public int step;
+
+        @ListenTo("wizard:next")
+        public void next(Session session, CallbackQuery query) {
+            step = session.get("step", Integer.class).orElse(0) + 1;
+            session.set("step", step);
+        }
+    }
 }
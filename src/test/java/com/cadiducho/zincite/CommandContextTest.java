@@ -2,6 +2,7 @@ package com.cadiducho.zincite;
 
 import com.cadiducho.zincite.api.command.CommandContext;
 import com.cadiducho.zincite.api.command.args.Argument;
+import com.cadiducho.zincite.api.command.args.ArgumentSchema;
 import com.cadiducho.zincite.api.command.args.CommandParseException;
 import com.cadiducho.zincite.api.command.args.LocalDateArgumentType;
 import org.junit.jupiter.api.BeforeAll;
@@ -12,8 +13,7 @@ import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class CommandContextTest {
 
@@ -88,4 +88,35 @@ public class CommandContextTest {
     public void testUnknownParser() {
         assertThrows(CommandParseException.class, () -> context.get("unknown"));
     }
+
+    @Test
+    public void testArgumentsFromMessageText() throws Exception {
+        ArgumentSchema schema = ArgumentSchema.compile(Arrays.asList(
+                new TestArgument("numero", Integer.class, true),
+                new TestArgument("texto", String.class, true)
+        ));
+        CommandContext fromText = new CommandContext(schema, "/cmd 7  hola  mundo  ", 5);
+
+        assertEquals(7, (int) fromText.<Integer>get("numero").get());
+        assertEquals("", fromText.get("texto").get());
+        assertEquals(" hola  mundo", fromText.getLastArguments().get());
+        assertFalse(new CommandContext(schema, "/cmd   ", 5).getLastArguments().isPresent());
+    }
+
+    @Test
+    public void testParsedArgumentsAreMemoized() throws Exception {
+        assertSame(context.get("fecha").get(), context.get("fecha").get());
+    }
+
+    @Test
+    public void testRequiredArguments() throws Exception {
+        ArgumentSchema schema = ArgumentSchema.compile(Arrays.asList(
+                new TestArgument("numero", Integer.class, true),
+                new TestArgument("opcional", String.class, false)
+        ));
+
+        new CommandContext(schema, "/cmd 3", 5).validate();
+        assertThrows(CommandParseException.class, () -> new CommandContext(schema, "/cmd", 4).validate());
+        assertThrows(CommandParseException.class, () -> new CommandContext(schema, "/cmd tres", 5).validate());
+    }
 }
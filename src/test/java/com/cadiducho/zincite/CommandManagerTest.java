@@ -0,0 +1,376 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.*;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.zincite.api.command.BotCommand;
+import com.cadiducho.zincite.api.command.CacheScope;
+import com.cadiducho.zincite.api.command.CommandContext;
+import com.cadiducho.zincite.api.command.CommandDescriptor;
+import com.cadiducho.zincite.api.command.CommandInfo;
+import com.cadiducho.zincite.api.command.CommandManager;
+import com.cadiducho.zincite.api.command.Interceptor;
+import com.cadiducho.zincite.api.command.Invocation;
+import com.cadiducho.zincite.api.command.RateLimit;
+import com.cadiducho.zincite.api.command.RateLimiter;
+import com.cadiducho.zincite.api.command.args.Argument;
+import com.cadiducho.zincite.api.command.args.CommandParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CommandManagerTest {
+
+    private TelegramBot bot;
+    private CommandManager commandManager;
+    private TestCommand command;
+    private PhraseCommand phraseCommand;
+    private RepeatCommand repeatCommand;
+
+    @BeforeEach
+    public void setUp() throws TelegramException {
+        User me = mock(User.class);
+        when(me.getUsername()).thenReturn("ZinciteBot");
+        bot = mock(TelegramBot.class);
+        when(bot.getMe()).thenReturn(me);
+
+        command = new TestCommand();
+        phraseCommand = new PhraseCommand();
+        repeatCommand = new RepeatCommand();
+        commandManager = new CommandManager(null);
+        commandManager.register(command);
+        commandManager.register(phraseCommand);
+        commandManager.register(repeatCommand);
+    }
+
+    @Test
+    public void testCommandHit() throws TelegramException {
+        assertTrue(commandManager.onCmd(bot, textUpdate("/Echo hola mundo")));
+        assertEquals("hola mundo", command.lastArguments);
+    }
+
+    @Test
+    public void testNonCommandIsRejected() throws TelegramException {
+        assertFalse(commandManager.onCmd(bot, textUpdate("hola a todos")));
+        assertFalse(commandManager.onCmd(bot, textUpdate("/echoes")));
+        assertFalse(commandManager.onCmd(bot, textUpdate("")));
+        assertNull(command.lastArguments);
+    }
+
+    @Test
+    public void testUsernameSuffix() throws TelegramException {
+        assertTrue(commandManager.onCmd(bot, textUpdate("/echo@zincitebot uno")));
+        assertEquals("uno", command.lastArguments);
+        assertTrue(commandManager.onCmd(bot, textUpdate("/echo@ZinciteBot")));
+        assertFalse(commandManager.onCmd(bot, textUpdate("/echo@OtherBot uno")));
+
+        verify(bot, times(1)).getMe();
+    }
+
+    @Test
+    public void testWholePhraseFallback() throws TelegramException {
+        assertTrue(commandManager.onCmd(bot, textUpdate("Buenos Días bot")));
+        assertEquals(1, phraseCommand.executions);
+        assertFalse(commandManager.onCmd(bot, textUpdate("buenos días")));
+        assertFalse(commandManager.onCmd(bot, textUpdate("buenos días bot!")));
+        assertEquals(1, phraseCommand.executions);
+    }
+
+    @Test
+    public void testDescriptorIsBuiltOnRegister() {
+        CommandDescriptor descriptor = commandManager.getDescriptor(command).orElseThrow();
+
+        assertSame(command, descriptor.getCommand());
+        assertEquals("/echo", descriptor.getName());
+        assertIterableEquals(Arrays.asList("/echo", "/eco"), descriptor.getAliases());
+        assertEquals(command.getUsage(), descriptor.getUsage());
+        assertNull(descriptor.getModule());
+        assertSame(descriptor, commandManager.getDescriptor("/eco").orElseThrow());
+        assertEquals(3, commandManager.getDescriptors().size());
+    }
+
+    @Test
+    public void testMissingRequiredArgumentRepliesUsage() throws TelegramException {
+        assertFalse(commandManager.onCmd(bot, textUpdate("/repetir")));
+        assertFalse(commandManager.onCmd(bot, textUpdate("/repetir dos veces")));
+        assertNull(repeatCommand.times);
+        verify(bot, times(2)).sendMessage(eq(1L), contains(repeatCommand.getUsage()), eq(ParseMode.HTML), isNull(), isNull(), isNull(), isNull(), isNull());
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/repetir 2 veces")));
+        assertEquals(2, repeatCommand.times);
+    }
+
+    @Test
+    public void testInterceptorRejectsBeforeParsing() throws TelegramException {
+        List<Invocation> seen = new ArrayList<>();
+        Interceptor banList = Interceptor.before(invocation -> {
+            seen.add(invocation);
+            return !invocation.getName().equals("/repetir");
+        });
+        commandManager.registerInterceptor(banList);
+
+        assertFalse(commandManager.onCmd(bot, textUpdate("/repetir")));
+        verify(bot, never()).sendMessage(any(), any(), any(), any(), any(), any(), any(), any());
+        assertTrue(commandManager.onCmd(bot, textUpdate("/eco hola")));
+        assertEquals("hola", command.lastArguments);
+
+        assertEquals(2, seen.size());
+        assertEquals(Invocation.Type.COMMAND, seen.get(1).getType());
+        assertSame(commandManager.getDescriptor(command).orElseThrow(), seen.get(1).getDescriptor());
+        assertEquals(1L, seen.get(1).getChatId());
+
+        assertTrue(commandManager.unregisterInterceptor(banList));
+        assertFalse(commandManager.onCmd(bot, textUpdate("/repetir")), "Without the interceptor the usage is replied");
+        verify(bot).sendMessage(eq(1L), contains(repeatCommand.getUsage()), eq(ParseMode.HTML), isNull(), isNull(), isNull(), isNull(), isNull());
+    }
+
+    @Test
+    public void testInterceptorOrder() throws TelegramException {
+        List<String> calls = new ArrayList<>();
+        commandManager.registerInterceptor((invocation, chain) -> {
+            calls.add("segundo");
+            return chain.proceed(invocation);
+        }, 10);
+        commandManager.registerInterceptor((invocation, chain) -> {
+            calls.add("primero");
+            boolean executed = chain.proceed(invocation);
+            calls.add("después " + executed);
+            return executed;
+        }, -10);
+        commandManager.registerInterceptor(Interceptor.after((invocation, success) -> calls.add("after " + success)), 20);
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/echo")));
+        assertEquals(List.of("primero", "segundo", "after true", "después true"), calls);
+    }
+
+    @Test
+    public void testRateLimitWarnsOnce() throws TelegramException {
+        DiceCommand dice = new DiceCommand();
+        commandManager.register(dice);
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/dado", 10L)));
+        assertFalse(commandManager.onCmd(bot, textUpdate("/dado", 10L)));
+        assertFalse(commandManager.onCmd(bot, textUpdate("/dado", 10L)));
+        verify(bot, times(1)).sendMessage(eq(1L), contains("Espera"), eq(ParseMode.HTML), isNull(), isNull(), isNull(), isNull(), isNull());
+        assertEquals(1, dice.executions);
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/dado", 11L)), "The cooldown is per user");
+        assertTrue(commandManager.onCmd(bot, textUpdate("/dado", 12L)));
+        assertFalse(commandManager.onCmd(bot, textUpdate("/dado", 13L)), "The chat allows 3 executions per minute");
+        assertTrue(commandManager.onCmd(bot, textUpdate("/echo", 10L)), "Limits of a command do not affect the others");
+    }
+
+    @Test
+    public void testBulkheadRejectsWhenFull() throws Exception {
+        commandManager.registerBulkhead("lento", 1, 0);
+        SlowCommand slow = new SlowCommand();
+        commandManager.register(slow);
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/lento")));
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS), "The command runs in its bulkhead, not in the caller thread");
+        assertFalse(commandManager.onCmd(bot, textUpdate("/lento")));
+        verify(bot).sendMessage(eq(1L), contains("ocupado"), eq(ParseMode.HTML), isNull(), isNull(), isNull(), isNull(), isNull());
+        assertTrue(commandManager.onCmd(bot, textUpdate("/echo uno")), "Commands outside the bulkhead are not affected");
+
+        slow.release.countDown();
+        assertTrue(commandManager.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(1, commandManager.getBulkhead("lento").orElseThrow().getMaxConcurrency());
+    }
+
+    @Test
+    public void testBulkheadReportsResultWhenFinished() throws Exception {
+        SlowCommand slow = new SlowCommand();
+        commandManager.register(slow);
+        List<Boolean> finished = new CopyOnWriteArrayList<>();
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/lento"), finished::add));
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        assertTrue(finished.isEmpty(), "Accepting the command is not finishing it");
+
+        slow.release.countDown();
+        assertTrue(commandManager.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(List.of(true), finished);
+
+        List<Boolean> inline = new ArrayList<>();
+        assertTrue(commandManager.onCmd(bot, textUpdate("/echo uno"), inline::add));
+        assertFalse(commandManager.onCmd(bot, textUpdate("hola a todos"), inline::add));
+        assertEquals(List.of(true, false), inline);
+    }
+
+    @Test
+    public void testTimeoutCancelsCommand() throws Exception {
+        BlockingCommand blocking = new BlockingCommand();
+        commandManager.register(blocking);
+        assertEquals(CommandManager.DEFAULT_BULKHEAD, commandManager.getDescriptor(blocking).orElseThrow().getBulkhead());
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/bloquear")));
+        assertTrue(blocking.interrupted.await(5, TimeUnit.SECONDS), "The command is interrupted after its timeout");
+        verify(bot, timeout(5000)).sendMessage(eq(1L), contains("tardado demasiado"), eq(ParseMode.HTML), isNull(), isNull(), isNull(), isNull(), isNull());
+        assertTrue(commandManager.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCachedReplies() throws TelegramException {
+        RulesCommand rules = new RulesCommand();
+        commandManager.register(rules);
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/normas", 10L)));
+        assertTrue(commandManager.onCmd(bot, textUpdate("/normas", 10L)));
+        assertEquals(1, rules.executions, "Repeated invocations are answered from the cache");
+        verify(bot, times(2)).sendMessage(eq(1L), eq("Normas del chat"), eq(ParseMode.HTML), isNull(), isNull(), isNull(), isNull(), isNull());
+
+        assertTrue(commandManager.onCmd(bot, textUpdate("/normas  spam ", 10L)));
+        assertTrue(commandManager.onCmd(bot, textUpdate("/normas spam", 10L)));
+        assertEquals(2, rules.executions, "Arguments are part of the key, with their spaces normalized");
+        assertTrue(commandManager.onCmd(bot, textUpdate("/normas", 11L)));
+        assertEquals(3, rules.executions, "Every user has their own replies");
+
+        commandManager.invalidateReplies(rules);
+        assertTrue(commandManager.onCmd(bot, textUpdate("/normas", 10L)));
+        assertEquals(4, rules.executions);
+    }
+
+    @Test
+    public void testRateLimiter() {
+        RateLimiter limiter = new RateLimiter(3, Duration.ofSeconds(1));
+        long now = 0;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire(42, now));
+        }
+        long wait = limiter.tryAcquire(42, now);
+        assertTrue(wait > 0 && wait <= Duration.ofSeconds(1).toNanos() / 3, "After a burst, one execution is recovered every period / count");
+        assertEquals(0, limiter.tryAcquire(7, now), "Every key has its own limit");
+        assertTrue(limiter.warn(42));
+        assertFalse(limiter.warn(42), "Only the first rejection is warned");
+
+        now += wait;
+        assertEquals(0, limiter.tryAcquire(42, now));
+        assertTrue(limiter.tryAcquire(42, now) > 0);
+
+        for (long key = 1000; key < 2000; key++) {
+            limiter.tryAcquire(key, now);
+        }
+        assertTrue(limiter.size() > 1000);
+        now += Duration.ofSeconds(2).toNanos();
+        for (long key = 5000; key < 5600; key++) {
+            assertEquals(0, limiter.tryAcquire(key, now));
+        }
+        assertTrue(limiter.size() <= 600, "Keys that recovered all their executions are dropped as the table grows");
+    }
+
+    private static Update textUpdate(String text, Long userId) {
+        Update update = textUpdate(text);
+        when(update.getMessage().getFrom().getId()).thenReturn(userId);
+        return update;
+    }
+
+    private static Update textUpdate(String text) {
+        User from = mock(User.class);
+        when(from.getUsername()).thenReturn("TestUser");
+        Chat chat = mock(Chat.class);
+        when(chat.getId()).thenReturn(1L);
+        Message message = mock(Message.class);
+        when(message.getText()).thenReturn(text);
+        when(message.getFrom()).thenReturn(from);
+        when(message.getChat()).thenReturn(chat);
+        Update update = mock(Update.class);
+        when(update.getMessage()).thenReturn(message);
+        return update;
+    }
+
+    @CommandInfo(aliases = {"/echo", "/eco"}, arguments = @Argument(name = "texto", type = String.class, required = false, description = "Texto a repetir"))
+    public static class TestCommand implements BotCommand {
+        String lastArguments;
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
+            lastArguments = context.getLastArguments().orElse("");
+        }
+    }
+
+    @CommandInfo(aliases = "buenos días bot")
+    public static class PhraseCommand implements BotCommand {
+        int executions;
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
+            executions++;
+        }
+    }
+
+    @CommandInfo(aliases = "/dado", limits = {@RateLimit(seconds = 60), @RateLimit(scope = RateLimit.Scope.CHAT, count = 3, seconds = 60)})
+    public static class DiceCommand implements BotCommand {
+        int executions;
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
+            executions++;
+        }
+    }
+
+    @CommandInfo(aliases = "/lento", bulkhead = "lento")
+    public static class SlowCommand implements BotCommand {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @CommandInfo(aliases = "/bloquear", timeout = 1)
+    public static class BlockingCommand implements BotCommand {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException ex) {
+                interrupted.countDown();
+            }
+        }
+    }
+
+    @CommandInfo(aliases = "/normas", cacheSeconds = 60, cacheScope = CacheScope.USER,
+            arguments = @Argument(name = "tema", type = String.class, required = false, description = "Tema de las normas"))
+    public static class RulesCommand implements BotCommand {
+        int executions;
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) throws TelegramException {
+            executions++;
+            context.reply(context.getLastArguments().map(topic -> "Normas sobre " + topic).orElse("Normas del chat"));
+        }
+    }
+
+    @CommandInfo(aliases = "/repetir", arguments = @Argument(name = "veces", type = Integer.class, description = "Número de veces"))
+    public static class RepeatCommand implements BotCommand {
+        Integer times;
+
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) {
+            try {
+                times = context.<Integer>get("veces").orElseThrow();
+            } catch (CommandParseException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
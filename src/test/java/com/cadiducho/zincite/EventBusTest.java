@@ -0,0 +1,131 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.zincite.api.event.*;
+import com.cadiducho.zincite.api.module.ModuleInfo;
+import com.cadiducho.zincite.api.module.ZinciteModule;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventBusTest {
+
+    @Test
+    public void testEventsGoOnlyToSubscribers() {
+        EventBus bus = new EventBus(new MetricsRegistry(), 1);
+        assertFalse(bus.hasSubscribers(PostCommandEvent.class));
+
+        RecordingListener listener = new RecordingListener();
+        bus.register(listener);
+        assertTrue(bus.hasSubscribers(PostCommandEvent.class));
+        assertTrue(bus.hasSubscribers(PollEvent.class), "Subscribers of a supertype receive its subtypes");
+        assertFalse(bus.hasSubscribers(CustomEvent.class));
+
+        PostCommandEvent event = new PostCommandEvent(null, true);
+        bus.post(event);
+        assertEquals(List.of(event), listener.commands);
+        assertEquals(List.of(event), listener.updates);
+
+        bus.unregister(listener);
+        assertFalse(bus.hasSubscribers(PostCommandEvent.class));
+        bus.post(new PostCommandEvent(null, false));
+        assertEquals(1, listener.commands.size());
+    }
+
+    @Test
+    public void testFunctionSubscriptions() {
+        EventBus bus = new EventBus(new MetricsRegistry(), 1);
+        List<String> received = new ArrayList<>();
+        Object owner = new Object();
+        bus.subscribe(owner, CustomEvent.class, event -> received.add(event.value));
+        bus.subscribe(owner, CustomEvent.class, event -> {
+            throw new IllegalStateException("Falla a propósito");
+        });
+        bus.subscribe(owner, CustomEvent.class, event -> received.add(event.value.toUpperCase()));
+
+        bus.post(new CustomEvent("hola"));
+        assertEquals(List.of("hola", "HOLA"), received, "A failing listener must not stop the rest");
+
+        bus.unregister(owner);
+        assertFalse(bus.hasSubscribers(CustomEvent.class));
+    }
+
+    @Test
+    public void testAsyncDelivery() throws Exception {
+        EventBus bus = new EventBus(new MetricsRegistry(), 1);
+        CompletableFuture<String> thread = new CompletableFuture<>();
+        bus.subscribe(this, CustomEvent.class, true, event -> thread.complete(Thread.currentThread().getName()));
+
+        bus.post(new CustomEvent("async"));
+        assertTrue(thread.get(5, TimeUnit.SECONDS).startsWith("ZinciteEvents"));
+        assertTrue(bus.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testModuleHooks() {
+        EventBus bus = new EventBus(new MetricsRegistry(), 1);
+        HookModule module = new HookModule();
+        bus.onModuleLoaded(module);
+
+        assertTrue(bus.hasSubscribers(PostCommandEvent.class));
+        assertFalse(bus.hasSubscribers(NewChatMembersEvent.class), "Hooks a module does not override must not be subscribed");
+        assertFalse(bus.hasSubscribers(LeftChatMemberEvent.class));
+
+        bus.post(new PostCommandEvent(null, true));
+        assertEquals(1, module.commands);
+
+        bus.onModuleUnloaded(module);
+        assertFalse(bus.hasSubscribers(PostCommandEvent.class));
+    }
+
+    @Test
+    public void testInvalidSubscriber() {
+        EventBus bus = new EventBus(new MetricsRegistry(), 1);
+        assertThrows(ZinciteException.class, () -> bus.register(new InvalidListener()));
+    }
+
+    public static class RecordingListener implements EventListener {
+        private final List<ZinciteEvent> commands = new ArrayList<>();
+        private final List<ZinciteEvent> updates = new ArrayList<>();
+
+        @Subscribe
+        public void onCommand(PostCommandEvent event) {
+            commands.add(event);
+        }
+
+        @Subscribe
+        public void onUpdate(UpdateEvent event) {
+            updates.add(event);
+        }
+    }
+
+    public static class InvalidListener implements EventListener {
+        @Subscribe
+        public void onCommand(PostCommandEvent event, String other) {
+        }
+    }
+
+    @ModuleInfo(name = "hooks", description = "Módulo con un hook")
+    public static class HookModule implements ZinciteModule {
+        private int commands;
+
+        @Override
+        public void onPostCommand(Update update, boolean success) {
+            commands++;
+        }
+    }
+
+    public static class CustomEvent implements ZinciteEvent {
+        private final String value;
+
+        CustomEvent(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.User;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.telegrambotapi.inline.InlineQuery;
+import com.cadiducho.telegrambotapi.inline.InlineQueryResult;
+import com.cadiducho.zincite.api.inline.InlineHandler;
+import com.cadiducho.zincite.api.inline.InlineInfo;
+import com.cadiducho.zincite.api.inline.InlineManager;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class InlineManagerTest {
+
+    private final TelegramBot bot = mock(TelegramBot.class);
+    private InlineManager inlineManager;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        inlineManager.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCacheAndPrefixReuse() throws TelegramException {
+        inlineManager = new InlineManager(bot, new MetricsRegistry(), 100, 200, 0);
+        WordsHandler handler = new WordsHandler("gato", "gamba", "perro", "galgo");
+        inlineManager.register(handler);
+
+        inlineManager.onInlineQuery(query("1", 7L, "g", ""));
+        verify(bot, timeout(5000)).answerInlineQuery(eq("1"), argThat(results -> handler.words(results).equals(List.of("gato", "gamba", "galgo"))),
+                eq(300), eq(false), eq(""), isNull(), isNull());
+
+        inlineManager.onInlineQuery(query("2", 8L, "ga", ""));
+        verify(bot).answerInlineQuery(eq("2"), argThat(results -> handler.words(results).equals(List.of("gato", "gamba", "galgo"))),
+                eq(300), eq(false), eq(""), isNull(), isNull());
+        inlineManager.onInlineQuery(query("3", 8L, "GAT", ""));
+        verify(bot).answerInlineQuery(eq("3"), argThat(results -> handler.words(results).equals(List.of("gato"))),
+                eq(300), eq(false), eq(""), isNull(), isNull());
+        inlineManager.onInlineQuery(query("4", 9L, "  Gat ", ""));
+        verify(bot).answerInlineQuery(eq("4"), argThat(results -> handler.words(results).equals(List.of("gato"))),
+                eq(300), eq(false), eq(""), isNull(), isNull());
+
+        assertEquals(List.of("g"), handler.searches, "Longer queries are filtered from the cached results of the shorter one");
+    }
+
+    @Test
+    public void testSupersededQueriesAreDropped() throws TelegramException {
+        inlineManager = new InlineManager(bot, new MetricsRegistry(), 100, 200, 200);
+        WordsHandler handler = new WordsHandler("perro", "pez");
+        inlineManager.register(handler);
+
+        inlineManager.onInlineQuery(query("1", 7L, "p", ""));
+        inlineManager.onInlineQuery(query("2", 7L, "pe", ""));
+        inlineManager.onInlineQuery(query("3", 7L, "per", ""));
+        verify(bot, timeout(5000)).answerInlineQuery(eq("3"), argThat(results -> handler.words(results).equals(List.of("perro"))),
+                eq(300), eq(false), eq(""), isNull(), isNull());
+
+        verify(bot, never()).answerInlineQuery(eq("1"), any(), any(), any(), any(), any(), any());
+        verify(bot, never()).answerInlineQuery(eq("2"), any(), any(), any(), any(), any(), any());
+        assertEquals(List.of("per"), handler.searches);
+    }
+
+    @Test
+    public void testPagination() throws TelegramException {
+        inlineManager = new InlineManager(bot, new MetricsRegistry(), 100, 200, 0);
+        String[] words = new String[120];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "palabra" + i;
+        }
+        WordsHandler handler = new WordsHandler(words);
+        inlineManager.register(handler);
+
+        inlineManager.onInlineQuery(query("1", 7L, "", ""));
+        verify(bot, timeout(5000)).answerInlineQuery(eq("1"), argThat(results -> results.size() == 50), eq(300), eq(false), eq("50"), isNull(), isNull());
+        inlineManager.onInlineQuery(query("2", 7L, "", "50"));
+        verify(bot).answerInlineQuery(eq("2"), argThat(results -> handler.words(results).get(0).equals("palabra50")),
+                eq(300), eq(false), eq("100"), isNull(), isNull());
+        inlineManager.onInlineQuery(query("3", 7L, "", "100"));
+        verify(bot).answerInlineQuery(eq("3"), argThat(results -> results.size() == 20), eq(300), eq(false), eq(""), isNull(), isNull());
+        assertEquals(1, handler.searches.size());
+    }
+
+    @Test
+    public void testPrefixRouting() throws TelegramException {
+        inlineManager = new InlineManager(bot, new MetricsRegistry(), 100, 200, 0);
+        WordsHandler words = new WordsHandler("gato");
+        GifHandler gifs = new GifHandler();
+        inlineManager.register(words);
+        inlineManager.register(gifs);
+
+        inlineManager.onInlineQuery(query("1", 7L, "gif gatos", ""));
+        verify(bot, timeout(5000)).answerInlineQuery(eq("1"), any(), eq(60), eq(true), eq(""), isNull(), isNull());
+        assertEquals(List.of("gatos"), gifs.searches);
+        assertTrue(words.searches.isEmpty());
+
+        inlineManager.onInlineQuery(query("2", 7L, "gifs", ""));
+        verify(bot, timeout(5000)).answerInlineQuery(eq("2"), any(), eq(300), eq(false), eq(""), isNull(), isNull());
+        assertEquals(List.of("gifs"), words.searches);
+    }
+
+    private static InlineQuery query(String id, long userId, String text, String offset) {
+        User from = mock(User.class);
+        when(from.getId()).thenReturn(userId);
+        InlineQuery query = mock(InlineQuery.class);
+        when(query.getId()).thenReturn(id);
+        when(query.getFrom()).thenReturn(from);
+        when(query.getQuery()).thenReturn(text);
+        when(query.getOffset()).thenReturn(offset);
+        return query;
+    }
+
+    public static class WordsHandler implements InlineHandler {
+        final List<String> searches = new CopyOnWriteArrayList<>();
+        private final Map<InlineQueryResult, String> results = new ConcurrentHashMap<>();
+        private final List<InlineQueryResult> ordered = new ArrayList<>();
+
+        WordsHandler(String... words) {
+            for (String word : words) {
+                InlineQueryResult result = mock(InlineQueryResult.class);
+                results.put(result, word);
+                ordered.add(result);
+            }
+        }
+
+        @Override
+        public List<InlineQueryResult> answer(InlineQuery query, String text) {
+            searches.add(text);
+            return ordered.stream().filter(refine(text)).collect(Collectors.toList());
+        }
+
+        @Override
+        public Predicate<InlineQueryResult> refine(String text) {
+            return result -> results.get(result).startsWith(text);
+        }
+
+        List<String> words(List<InlineQueryResult> list) {
+            return list.stream().map(results::get).collect(Collectors.toList());
+        }
+    }
+
+    @InlineInfo(prefix = "gif", cacheTime = 60, personal = true)
+    public static class GifHandler implements InlineHandler {
+        final List<String> searches = new CopyOnWriteArrayList<>();
+
+        @Override
+        public List<InlineQueryResult> answer(InlineQuery query, String text) {
+            searches.add(text);
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.zincite.metrics.LatencyHistogram;
+import com.cadiducho.zincite.metrics.MetricsRegistry;
+import com.cadiducho.zincite.metrics.MetricsServer;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(3, TimeUnit.MILLISECONDS);
+        }
+        histogram.record(2, TimeUnit.SECONDS);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(TimeUnit.SECONDS.toNanos(2), histogram.getMaxNanos());
+        long p50 = histogram.percentileNanos(0.5);
+        assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(3) && p50 <= TimeUnit.MILLISECONDS.toNanos(6), "p50 " + p50);
+        assertEquals(TimeUnit.SECONDS.toNanos(2), histogram.percentileNanos(1));
+        assertEquals(0, new LatencyHistogram().percentileNanos(0.99));
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("zincite_updates_total", "Updates").add(5);
+        registry.histogram("zincite_command_duration_seconds", "Commands", "command", "/echo").record(1, TimeUnit.MILLISECONDS);
+        assertSame(registry.counter("zincite_updates_total", "Updates"), registry.counter("zincite_updates_total", "Updates"));
+
+        String text = registry.toPrometheus();
+        assertTrue(text.contains("# TYPE zincite_updates_total counter\nzincite_updates_total 5\n"));
+        assertTrue(text.contains("zincite_command_duration_seconds_bucket{command=\"/echo\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("zincite_command_duration_seconds_count{command=\"/echo\"} 1\n"));
+        assertTrue(registry.summary().contains("zincite_command_duration_seconds /echo: n=1"));
+    }
+
+    @Test
+    public void testMetricsEndpoint() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("zincite_updates_total", "Updates").increment();
+        MetricsServer server = new MetricsServer(new InetSocketAddress("127.0.0.1", 0), registry);
+        server.start();
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.body().contains("zincite_updates_total 1"));
+        } finally {
+            server.stop();
+        }
+    }
+}
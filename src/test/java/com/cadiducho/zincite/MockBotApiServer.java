@@ -0,0 +1,468 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.util.MoshiProvider;
+import com.cadiducho.zincite.metrics.LatencyHistogram;
+import com.squareup.moshi.JsonAdapter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for the Telegram Bot API, listening on a local port, for end-to-end and load tests.
+ * It answers the Bot API methods used by Zincite, can inject latency and 429 errors,
+ * and generates synthetic update streams either pushed to a webhook or served through getUpdates,
+ * measuring how long the bot takes to reply to each of them
+ */
+public class MockBotApiServer implements AutoCloseable {
+
+    public static final String BOT_USERNAME = "ZinciteLoadBot";
+
+    @SuppressWarnings("rawtypes")
+    private static final JsonAdapter<Map> JSON = MoshiProvider.getMoshi().adapter(Map.class);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "MockBotApi");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final HttpClient client = HttpClient.newBuilder().executor(executor).build();
+
+    private volatile long latencyMillis;
+    private volatile double rateLimitProbability;
+    private volatile int retryAfterSeconds = 1;
+
+    private final ConcurrentHashMap<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger nextUpdateId = new AtomicInteger(1);
+
+    /**
+     * Updates waiting to be fetched with getUpdates, by update_id
+     */
+    private final ConcurrentSkipListMap<Integer, String> pendingUpdates = new ConcurrentSkipListMap<>();
+    private final Object updatesMonitor = new Object();
+
+    /**
+     * Time every update was sent at, by chat, consumed in order by the replies to that chat
+     */
+    private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<Long>> awaitingReply = new ConcurrentHashMap<>();
+    private volatile LoadRun currentRun;
+
+    public MockBotApiServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Get the base URL of the Bot API methods for a token, such as <code>http://127.0.0.1:1234/bot123:abc/</code>
+     * @param token The bot token
+     * @return The URL
+     */
+    public String getApiUrl(String token) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot" + token + "/";
+    }
+
+    /**
+     * Delay every Bot API call
+     * @param millis The delay in milliseconds
+     */
+    public void setLatency(long millis) {
+        this.latencyMillis = millis;
+    }
+
+    /**
+     * Answer some sendMessage calls with a "Too Many Requests" error
+     * @param probability Probability of failing every call, from 0 to 1
+     * @param retryAfterSeconds retry_after sent with the error
+     */
+    public void setRateLimit(double probability, int retryAfterSeconds) {
+        this.rateLimitProbability = probability;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Get how many times a Bot API method has been called
+     * @param method The method, such as sendMessage
+     * @return The number of calls
+     */
+    public int getCalls(String method) {
+        AtomicInteger count = calls.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Queue a text message update to be fetched with getUpdates
+     * @param chatId The chat, which is also the sender
+     * @param text The text
+     * @return The update_id
+     */
+    public int enqueueUpdate(long chatId, String text) {
+        int updateId = nextUpdateId.getAndIncrement();
+        String json = textUpdate(updateId, chatId, text);
+        synchronized (updatesMonitor) {
+            pendingUpdates.put(updateId, json);
+            updatesMonitor.notifyAll();
+        }
+        return updateId;
+    }
+
+    /**
+     * Push a stream of synthetic text updates to a webhook at a fixed rate and wait for the bot to reply to all of them.
+     * If the bot can't accept them as fast as they are generated, they are delayed and the delay counts as reply latency
+     * @param webhook The webhook URL of the bot
+     * @param secretToken The webhook secret token, or null
+     * @param profile The shape of the stream
+     * @return What has been measured
+     * @throws InterruptedException If interrupted while waiting for the replies
+     */
+    public LoadReport run(URI webhook, String secretToken, LoadProfile profile) throws InterruptedException {
+        // como Telegram, no se abren más de max_connections peticiones a la vez contra el webhook
+        Semaphore connections = new Semaphore(Math.max(1, profile.getMaxConnections()));
+        return run(profile, (updateId, json, run) -> {
+            connections.acquire();
+            HttpRequest.Builder request = HttpRequest.newBuilder(webhook)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(json));
+            if (secretToken != null) {
+                request.header("X-Telegram-Bot-Api-Secret-Token", secretToken);
+            }
+            client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding()).whenComplete((response, ex) -> {
+                connections.release();
+                if (ex != null || response.statusCode() != 200) {
+                    run.rejected.incrementAndGet();
+                }
+            });
+        });
+    }
+
+    /**
+     * Queue a stream of synthetic text updates at a fixed rate, to be fetched by the bot with getUpdates,
+     * and wait for the bot to reply to all of them
+     * @param profile The shape of the stream
+     * @return What has been measured
+     * @throws InterruptedException If interrupted while waiting for the replies
+     */
+    public LoadReport runPolling(LoadProfile profile) throws InterruptedException {
+        return run(profile, (updateId, json, run) -> {
+            synchronized (updatesMonitor) {
+                pendingUpdates.put(updateId, json);
+                updatesMonitor.notifyAll();
+            }
+        });
+    }
+
+    private LoadReport run(LoadProfile profile, Delivery delivery) throws InterruptedException {
+        LoadRun run = new LoadRun(profile.getUpdates());
+        currentRun = run;
+        Random random = new Random(profile.getSeed());
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, profile.getRatePerSecond());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < profile.getUpdates(); i++) {
+            long due = start + i * intervalNanos;
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+
+            long chatId = profile.getChats().nextChat(random);
+            int updateId = nextUpdateId.getAndIncrement();
+            // la latencia se mide desde el momento previsto, no desde que se pudo enviar
+            awaitingReply.computeIfAbsent(chatId, c -> new ConcurrentLinkedQueue<>()).add(due);
+            delivery.deliver(updateId, textUpdate(updateId, chatId, profile.getText()), run);
+        }
+        long sentAt = System.nanoTime();
+
+        boolean completed = run.replies.await(profile.getTimeoutSeconds(), TimeUnit.SECONDS);
+        long end = System.nanoTime();
+        currentRun = null;
+        awaitingReply.clear();
+        return new LoadReport(profile.getUpdates(), profile.getUpdates() - (int) run.replies.getCount(), run.rejected.get(),
+                run.rateLimited.get(), completed, sentAt - start, end - start, run.latency);
+    }
+
+    /**
+     * How a load run hands every update to the bot
+     */
+    @FunctionalInterface
+    private interface Delivery {
+        void deliver(int updateId, String json, LoadRun run) throws InterruptedException;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = path.substring(path.lastIndexOf('/') + 1);
+            calls.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+            Map<String, Object> params = readParams(exchange);
+
+            long latency = latencyMillis;
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            switch (method) {
+                case "getMe":
+                    respond(exchange, 200, "{\"ok\":true,\"result\":{\"id\":1,\"is_bot\":true,\"first_name\":\"Zincite\",\"username\":\"" + BOT_USERNAME + "\"}}");
+                    break;
+                case "getUpdates":
+                    respond(exchange, 200, "{\"ok\":true,\"result\":[" + String.join(",", pollUpdates(params)) + "]}");
+                    break;
+                case "sendMessage":
+                    if (rateLimitProbability > 0 && ThreadLocalRandom.current().nextDouble() < rateLimitProbability) {
+                        LoadRun run = currentRun;
+                        if (run != null) {
+                            run.rateLimited.incrementAndGet();
+                        }
+                        respond(exchange, 429, "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests: retry after " + retryAfterSeconds
+                                + "\",\"parameters\":{\"retry_after\":" + retryAfterSeconds + "}}");
+                        break;
+                    }
+                    long chatId = longParam(params, "chat_id");
+                    onReply(chatId);
+                    respond(exchange, 200, "{\"ok\":true,\"result\":{\"message_id\":" + nextUpdateId.getAndIncrement() + ",\"date\":"
+                            + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + ",\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"},"
+                            + "\"text\":" + quote(String.valueOf(params.get("text"))) + "}}");
+                    break;
+                case "getChat":
+                    respond(exchange, 200, "{\"ok\":true,\"result\":{\"id\":" + longParam(params, "chat_id") + ",\"type\":\"private\"}}");
+                    break;
+                case "getChatMember":
+                    respond(exchange, 200, "{\"ok\":true,\"result\":{\"status\":\"member\",\"user\":{\"id\":" + longParam(params, "user_id")
+                            + ",\"is_bot\":false,\"first_name\":\"User" + longParam(params, "user_id") + "\"}}}");
+                    break;
+                case "getChatAdministrators":
+                    respond(exchange, 200, "{\"ok\":true,\"result\":[]}");
+                    break;
+                default:
+                    // answerCallbackQuery, answerInlineQuery, setMyCommands...
+                    respond(exchange, 200, "{\"ok\":true,\"result\":true}");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 500, "{\"ok\":false,\"error_code\":500,\"description\":\"Interrupted\"}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void onReply(long chatId) {
+        ConcurrentLinkedQueue<Long> queue = awaitingReply.get(chatId);
+        Long sentAt = queue == null ? null : queue.poll();
+        LoadRun run = currentRun;
+        if (sentAt != null && run != null) {
+            run.latency.record(System.nanoTime() - sentAt);
+            run.replies.countDown();
+        }
+    }
+
+    private List<String> pollUpdates(Map<String, Object> params) throws InterruptedException {
+        int offset = (int) longParam(params, "offset");
+        int limit = params.containsKey("limit") ? (int) longParam(params, "limit") : 100;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(params.containsKey("timeout") ? longParam(params, "timeout") : 0);
+
+        synchronized (updatesMonitor) {
+            pendingUpdates.headMap(offset).clear(); // confirmadas por el offset
+            while (pendingUpdates.isEmpty() && System.currentTimeMillis() < deadline) {
+                updatesMonitor.wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            List<String> result = new ArrayList<>();
+            for (String json : pendingUpdates.values()) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                result.add(json);
+            }
+            return result;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readParams(HttpExchange exchange) throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (body.isEmpty()) {
+            return params;
+        }
+        if (contentType != null && contentType.startsWith("application/json")) {
+            Map<String, Object> json = JSON.fromJson(body);
+            if (json != null) {
+                params.putAll(json);
+            }
+        } else {
+            parseForm(body, params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, Object> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static long longParam(Map<String, Object> params, String name) {
+        Object value = params.get(name);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static String textUpdate(int updateId, long chatId, String text) {
+        return "{\"update_id\":" + updateId + ",\"message\":{\"message_id\":" + updateId + ",\"date\":" + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + ","
+                + "\"chat\":{\"id\":" + chatId + ",\"type\":\"private\",\"first_name\":\"User" + chatId + "\"},"
+                + "\"from\":{\"id\":" + chatId + ",\"is_bot\":false,\"first_name\":\"User" + chatId + "\"},"
+                + "\"text\":" + quote(text) + "}}";
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * How the chats of a synthetic update stream are chosen
+     */
+    @FunctionalInterface
+    public interface ChatDistribution {
+        long nextChat(Random random);
+
+        /**
+         * Every chat is equally likely
+         * @param chats Number of chats, with ids from 1 to chats
+         * @return The distribution
+         */
+        static ChatDistribution uniform(int chats) {
+            return random -> 1 + random.nextInt(chats);
+        }
+
+        /**
+         * A few chats send most of the updates, as it happens with busy groups
+         * @param chats Number of chats, with ids from 1 to chats
+         * @param exponent How skewed it is. 1 is the classic Zipf distribution
+         * @return The distribution
+         */
+        static ChatDistribution zipf(int chats, double exponent) {
+            double[] cumulative = new double[chats];
+            double total = 0;
+            for (int i = 0; i < chats; i++) {
+                total += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = total;
+            }
+            double sum = total;
+            return random -> {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                return 1 + (index >= 0 ? index : Math.min(chats - 1, -index - 1));
+            };
+        }
+    }
+
+    /**
+     * Shape of a synthetic update stream
+     */
+    @Getter
+    @Builder
+    public static class LoadProfile {
+        @Builder.Default private final int updates = 1000;
+        @Builder.Default private final int ratePerSecond = 100;
+        @Builder.Default private final ChatDistribution chats = ChatDistribution.uniform(100);
+        @Builder.Default private final String text = "/ping";
+        @Builder.Default private final int maxConnections = 40;
+        @Builder.Default private final long timeoutSeconds = 60;
+        @Builder.Default private final long seed = 42;
+    }
+
+    /**
+     * Results of a load run
+     */
+    @Getter
+    public static class LoadReport {
+        private final int updates;
+        private final int replies;
+        private final int rejected;
+        private final int rateLimited;
+        private final boolean completed;
+        private final long sendingNanos;
+        private final long elapsedNanos;
+        private final LatencyHistogram latency;
+
+        LoadReport(int updates, int replies, int rejected, int rateLimited, boolean completed, long sendingNanos, long elapsedNanos, LatencyHistogram latency) {
+            this.updates = updates;
+            this.replies = replies;
+            this.rejected = rejected;
+            this.rateLimited = rateLimited;
+            this.completed = completed;
+            this.sendingNanos = sendingNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+
+        /**
+         * Replies per second, from the first update sent to the last reply received
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return replies / (elapsedNanos / 1_000_000_000D);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d/%d replies in %.2fs (%.1f replies/s, sent in %.2fs), %d rejected, %d rate limited, "
+                            + "reply latency p50=%.2fms p99=%.2fms max=%.2fms",
+                    replies, updates, elapsedNanos / 1e9, getThroughput(), sendingNanos / 1e9, rejected, rateLimited,
+                    latency.percentileNanos(0.5) / 1e6, latency.percentileNanos(0.99) / 1e6, latency.getMaxNanos() / 1e6);
+        }
+    }
+
+    private static final class LoadRun {
+        private final CountDownLatch replies;
+        private final AtomicInteger rejected = new AtomicInteger();
+        private final AtomicInteger rateLimited = new AtomicInteger();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private LoadRun(int updates) {
+            this.replies = new CountDownLatch(updates);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.Chat;
+import com.cadiducho.telegrambotapi.Message;
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.User;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.zincite.api.command.BotCommand;
+import com.cadiducho.zincite.api.command.CommandContext;
+import com.cadiducho.zincite.api.command.CommandInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MockBotApiServerTest {
+
+    private static final Logger log = Logger.getLogger(MockBotApiServerTest.class.getName());
+    private static final String TOKEN = "123:mock";
+    private static final String SECRET = "s3cr3t";
+
+    private MockBotApiServer api;
+    private ZinciteBot zincite;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        api = new MockBotApiServer();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (zincite != null) {
+            zincite.stop();
+        }
+        api.close();
+    }
+
+    @Test
+    public void testBotApiMethods() throws Exception {
+        TelegramBot bot = MockTelegramBot.create(TOKEN, api);
+        assertEquals(MockBotApiServer.BOT_USERNAME, bot.getMe().getUsername());
+        assertEquals(5L, (long) bot.getChat(5L).getId());
+
+        api.setRateLimit(1, 2);
+        TelegramException ex = assertThrows(TelegramException.class, () -> bot.sendMessage(1L, "hola", null, null, null, null, null, null));
+        assertTrue(ex.getMessage().contains("retry after 2"));
+        assertEquals(1, api.getCalls("getMe"));
+        assertEquals(1, api.getCalls("getChat"));
+        assertEquals(1, api.getCalls("sendMessage"));
+    }
+
+    @Test
+    public void testGetUpdates() throws Exception {
+        api.enqueueUpdate(1, "/ping");
+        int last = api.enqueueUpdate(2, "/ping");
+
+        String updates = getUpdates(0);
+        assertTrue(updates.contains("\"update_id\":" + last));
+        assertEquals("{\"ok\":true,\"result\":[]}", getUpdates(last + 1));
+    }
+
+    @Test
+    public void testEndToEnd() throws Exception {
+        int port = freePort();
+        zincite = startBot(webhookConfig(port));
+        api.setRateLimit(0.05, 0);
+
+        MockBotApiServer.LoadReport report = api.run(URI.create("http://127.0.0.1:" + port + "/webhook"), SECRET,
+                MockBotApiServer.LoadProfile.builder().updates(200).ratePerSecond(400).chats(MockBotApiServer.ChatDistribution.uniform(20)).timeoutSeconds(30).build());
+
+        assertTrue(report.isCompleted(), report.toString());
+        assertEquals(200, report.getReplies());
+        assertEquals(0, report.getRejected());
+        assertEquals(200, report.getLatency().getCount());
+        assertEquals(1, api.getCalls("setMyCommands"));
+    }
+
+    @Test
+    public void testEndToEndLongPolling() throws Exception {
+        zincite = startBot(baseConfig()
+                .updatesMode(UpdatesMode.LONG_POLLING)
+                .updatesCheckpointPath(Files.createTempDirectory("zincite-updates").resolve("offset").toString())
+                .pollingTimeout(1));
+        api.setRateLimit(0.05, 0);
+
+        MockBotApiServer.LoadReport report = api.runPolling(
+                MockBotApiServer.LoadProfile.builder().updates(200).ratePerSecond(400).chats(MockBotApiServer.ChatDistribution.uniform(20)).timeoutSeconds(30).build());
+
+        assertTrue(report.isCompleted(), report.toString());
+        assertEquals(200, report.getReplies());
+        assertEquals(200, report.getLatency().getCount());
+        assertTrue(api.getCalls("getUpdates") > 0);
+    }
+
+    /**
+     * Prueba de carga, excluida de la tarea test. Se ejecuta con ./gradlew loadTest
+     */
+    @Test
+    @Tag("load")
+    public void testLoad() throws Exception {
+        int port = freePort();
+        zincite = startBot(webhookConfig(port));
+        api.setLatency(20);
+        api.setRateLimit(0.005, 1);
+
+        MockBotApiServer.LoadReport report = api.run(URI.create("http://127.0.0.1:" + port + "/webhook"), SECRET,
+                MockBotApiServer.LoadProfile.builder().updates(10000).ratePerSecond(1000)
+                        .chats(MockBotApiServer.ChatDistribution.zipf(1000, 0.8)).timeoutSeconds(180).build());
+
+        log.info("Load test: " + report);
+        log.info(zincite.getMetrics().summary());
+        assertTrue(report.isCompleted(), report.toString());
+    }
+
+    private ZinciteBot startBot(ZinciteConfig.ZinciteConfigBuilder config) {
+        ZinciteBot bot = new ZinciteBot(config.build());
+        bot.getCommandManager().register(new PingCommand());
+        bot.startServer();
+        return bot;
+    }
+
+    private ZinciteConfig.ZinciteConfigBuilder webhookConfig(int port) throws Exception {
+        return baseConfig()
+                .updatesMode(UpdatesMode.WEBHOOK)
+                .webhookHost("127.0.0.1")
+                .webhookPort(port)
+                .webhookPath("/webhook")
+                .webhookSecretToken(SECRET);
+    }
+
+    private ZinciteConfig.ZinciteConfigBuilder baseConfig() throws Exception {
+        return ZinciteConfig.builder()
+                .token(TOKEN)
+                .logsPath(Files.createTempDirectory("zincite-logs").toString())
+                .modulesPath(Files.createTempDirectory("zincite-modules").toString())
+                .enableConsoleReader(false)
+                .telegramBotFactory(token -> MockTelegramBot.create(token, api))
+                // los límites de Telegram los simula el servidor con errores 429
+                .outboundGlobalRate(100000)
+                .outboundChatRate(1000)
+                .outboundGroupRate(60000)
+                .outboundThreads(16)
+                .outboundMaxRetries(10)
+                // las updates simuladas de un mismo chat superarían el límite de comandos por usuario
+                .floodUserLimit(0);
+    }
+
+    private String getUpdates(int offset) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(api.getApiUrl(TOKEN) + "getUpdates?offset=" + offset + "&timeout=0")).build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @CommandInfo(aliases = "/ping")
+    public static class PingCommand implements BotCommand {
+        @Override
+        public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, Instant instant) throws TelegramException {
+            context.reply("pong", null);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.telegrambotapi.util.MoshiProvider;
+import com.squareup.moshi.JsonAdapter;
+import org.mockito.Answers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * TelegramBot whose Bot API calls go to a {@link MockBotApiServer} instead of api.telegram.org.
+ * Every method called on it is sent to the server, with its arguments named as the Bot API does,
+ * so a method the framework starts calling without being listed here fails instead of reaching Telegram
+ */
+public class MockTelegramBot implements Answer<Object> {
+
+    /**
+     * Bot API parameters of every method the framework calls, in the order of the TelegramBot arguments.
+     * Trailing optional arguments the framework always leaves null are not named
+     */
+    private static final Map<String, String[]> PARAMETERS = new HashMap<>();
+
+    static {
+        PARAMETERS.put("getMe", new String[0]);
+        PARAMETERS.put("getUpdates", new String[]{"offset", "limit", "timeout", "allowed_updates"});
+        PARAMETERS.put("setMyCommands", new String[]{"commands"});
+        PARAMETERS.put("sendMessage", new String[]{"chat_id", "text", "parse_mode"});
+        PARAMETERS.put("getChat", new String[]{"chat_id"});
+        PARAMETERS.put("getChatMember", new String[]{"chat_id", "user_id"});
+        PARAMETERS.put("getChatAdministrators", new String[]{"chat_id"});
+        PARAMETERS.put("answerInlineQuery", new String[]{"inline_query_id", "results", "cache_time", "is_personal", "next_offset"});
+        PARAMETERS.put("answerCallbackQuery", new String[]{"callback_query_id", "text", "show_alert"});
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final JsonAdapter<Map> JSON = MoshiProvider.getMoshi().adapter(Map.class);
+
+    private final String apiUrl;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    private MockTelegramBot(String token, MockBotApiServer server) {
+        this.apiUrl = server.getApiUrl(token);
+    }
+
+    /**
+     * Create a TelegramBot that talks to a mock server
+     * @param token The bot token
+     * @param server The server
+     * @return The bot
+     */
+    public static TelegramBot create(String token, MockBotApiServer server) {
+        return mock(TelegramBot.class, new MockTelegramBot(token, server));
+    }
+
+    @Override
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        if (method.getDeclaringClass() == Object.class) {
+            return Answers.RETURNS_DEFAULTS.answer(invocation);
+        }
+        String[] names = PARAMETERS.get(method.getName());
+        if (names == null) {
+            throw new UnsupportedOperationException("MockTelegramBot doesn't support " + method.getName());
+        }
+
+        Map<String, Object> params = new LinkedHashMap<>();
+        Object[] arguments = invocation.getArguments();
+        for (int i = 0; i < names.length && i < arguments.length; i++) {
+            if (arguments[i] != null) {
+                params.put(names[i], arguments[i]);
+            }
+        }
+        String result = result(call(method.getName(), JSON.toJson(params)));
+        if (method.getReturnType() == void.class) {
+            return null;
+        }
+        try {
+            return MoshiProvider.getMoshi().adapter(method.getGenericReturnType()).fromJson(result);
+        } catch (IOException ex) {
+            throw new TelegramException(ex);
+        }
+    }
+
+    private String call(String method, String json) throws TelegramException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(apiUrl + method))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException ex) {
+            throw new TelegramException(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TelegramException(ex);
+        }
+        if (response.statusCode() != 200) {
+            throw new TelegramException(description(response.body()));
+        }
+        return response.body();
+    }
+
+    private static String result(String body) {
+        return body.substring(body.indexOf("\"result\":") + "\"result\":".length(), body.lastIndexOf('}'));
+    }
+
+    private static String description(String body) {
+        int start = body.indexOf("\"description\":\"");
+        if (start < 0) {
+            return body;
+        }
+        start += "\"description\":\"".length();
+        return body.substring(start, body.indexOf('"', start));
+    }
+}
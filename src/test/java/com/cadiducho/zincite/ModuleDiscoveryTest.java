@@ -0,0 +1,176 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.zincite.api.module.ModuleDiscovery;
+import com.cadiducho.zincite.api.module.ModuleManager;
+import com.cadiducho.zincite.api.module.ZinciteModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModuleDiscoveryTest {
+
+    private static final AtomicBoolean INITIALIZED = new AtomicBoolean();
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void testManifestEntrypoints() throws Exception {
+        File jar = jar("manifest.jar", "a.First, b.Second", Collections.emptyMap());
+
+        ModuleDiscovery.Result result = discover(new ModuleDiscovery(null, true), jar);
+        assertEquals(ModuleDiscovery.Source.MANIFEST, result.getSource());
+        assertEquals(Arrays.asList("a.First", "b.Second"), result.getClassNames());
+    }
+
+    @Test
+    public void testServicesEntrypoints() throws Exception {
+        File jar = jar("services.jar", null, Collections.singletonMap(ModuleDiscovery.SERVICES_ENTRY,
+                "# módulos\na.First\n\nb.Second # el segundo\n".getBytes(StandardCharsets.UTF_8)));
+
+        ModuleDiscovery.Result result = discover(new ModuleDiscovery(null, true), jar);
+        assertEquals(ModuleDiscovery.Source.SERVICES, result.getSource());
+        assertEquals(Arrays.asList("a.First", "b.Second"), result.getClassNames());
+    }
+
+    @Test
+    public void testScanFallback() throws Exception {
+        File jar = jar("scan.jar", null, classes(ScannedModule.class, BaseModule.class, IndirectModule.class, NotAModule.class));
+
+        ModuleDiscovery.Result result = discover(new ModuleDiscovery(null, true), jar);
+        assertEquals(ModuleDiscovery.Source.SCAN, result.getSource());
+        assertEquals(Arrays.asList(IndirectModule.class.getName(), ScannedModule.class.getName()), result.getClassNames());
+        assertFalse(INITIALIZED.get(), "Scanning must not initialize the classes of the jar");
+
+        result = discover(new ModuleDiscovery(null, false), jar);
+        assertEquals(ModuleDiscovery.Source.NONE, result.getSource());
+        assertTrue(result.getClassNames().isEmpty());
+    }
+
+    @Test
+    public void testSupertypeOutsideTheJar() throws Exception {
+        File jar = jar("indirect.jar", null, classes(IndirectModule.class));
+
+        ModuleDiscovery.Result result = discover(new ModuleDiscovery(null, true), jar);
+        assertEquals(Collections.singletonList(IndirectModule.class.getName()), result.getClassNames());
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        File index = folder.resolve(ModuleManager.INDEX_FILE).toFile();
+        File jar = jar("indexed.jar", null, classes(ScannedModule.class));
+
+        ModuleDiscovery.Result first = discover(new ModuleDiscovery(index, true), jar);
+        assertFalse(first.isCached());
+        assertTrue(index.isFile());
+
+        ModuleDiscovery.Result second = discover(new ModuleDiscovery(index, true), jar);
+        assertTrue(second.isCached());
+        assertEquals(ModuleDiscovery.Source.SCAN, second.getSource());
+        assertEquals(first.getClassNames(), second.getClassNames());
+
+        // un jar modificado se vuelve a analizar
+        jar = jar("indexed.jar", null, classes(ScannedModule.class, BaseModule.class, IndirectModule.class));
+        assertTrue(jar.setLastModified(jar.lastModified() - 10_000));
+        ModuleDiscovery.Result third = discover(new ModuleDiscovery(index, true), jar);
+        assertFalse(third.isCached());
+        assertEquals(Arrays.asList(IndirectModule.class.getName(), ScannedModule.class.getName()), third.getClassNames());
+    }
+
+    @Test
+    public void testForgottenJarsLeaveTheIndex() throws Exception {
+        File index = folder.resolve(ModuleManager.INDEX_FILE).toFile();
+        File jar = jar("forgotten.jar", null, classes(ScannedModule.class));
+
+        ModuleDiscovery discovery = new ModuleDiscovery(index, true);
+        discover(discovery, jar);
+        assertTrue(Files.readString(index.toPath()).contains("forgotten.jar"));
+
+        discovery.forget(jar);
+        assertFalse(Files.readString(index.toPath()).contains("forgotten.jar"));
+        assertFalse(discover(new ModuleDiscovery(index, true), jar).isCached());
+    }
+
+    @Test
+    public void testLoadModules() throws Exception {
+        jar("declared.jar", ScannedModule.class.getName(), Collections.emptyMap());
+        jar("scanned.jar", null, classes(BaseModule.class, IndirectModule.class));
+
+        ModuleManager moduleManager = new ModuleManager(folder.toFile());
+        moduleManager.loadModules();
+
+        assertEquals(2, moduleManager.getModules().size());
+        assertTrue(moduleManager.getModule(ScannedModule.class).isPresent());
+        assertTrue(moduleManager.getModule(IndirectModule.class).isPresent());
+        assertTrue(folder.resolve(ModuleManager.INDEX_FILE).toFile().isFile());
+    }
+
+    private static ModuleDiscovery.Result discover(ModuleDiscovery discovery, File jar) throws IOException {
+        List<ModuleDiscovery.Result> results = discovery.discover(Collections.singletonList(jar), file -> ModuleDiscoveryTest.class.getClassLoader());
+        assertEquals(1, results.size());
+        return results.get(0);
+    }
+
+    private File jar(String name, String manifestModules, Map<String, byte[]> entries) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (manifestModules != null) {
+            manifest.getMainAttributes().put(new Attributes.Name(ModuleDiscovery.MANIFEST_ATTRIBUTE), manifestModules);
+        }
+        File file = folder.resolve(name).toFile();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static Map<String, byte[]> classes(Class<?>... classes) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (Class<?> type : classes) {
+            String path = type.getName().replace('.', '/') + ".class";
+            try (InputStream in = ModuleDiscoveryTest.class.getClassLoader().getResourceAsStream(path)) {
+                assertNotNull(in, path);
+                entries.put(path, in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    public static class ScannedModule implements ZinciteModule {
+    }
+
+    public abstract static class BaseModule implements ZinciteModule {
+    }
+
+    public static class IndirectModule extends BaseModule {
+    }
+
+    public static class NotAModule {
+        static {
+            INITIALIZED.set(true);
+        }
+    }
+}
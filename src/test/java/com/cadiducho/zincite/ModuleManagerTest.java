@@ -0,0 +1,157 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.zincite.api.command.BotCommand;
+import com.cadiducho.zincite.api.command.CommandManager;
+import com.cadiducho.zincite.api.module.ModuleListener;
+import com.cadiducho.zincite.api.module.ModuleManager;
+import com.cadiducho.zincite.api.module.ZinciteModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModuleManagerTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void testReloadAndUnload() throws Exception {
+        Path modules = Files.createDirectories(folder.resolve("modules"));
+        Path jar = modules.resolve("hot.jar");
+        moveInto(moduleJar("reload", "v1"), jar);
+
+        ModuleManager moduleManager = new ModuleManager(modules.toFile(), true, false);
+        CommandManager commandManager = new CommandManager(null);
+        List<ZinciteModule> unloaded = new ArrayList<>();
+        moduleManager.addListener(commandManager);
+        moduleManager.addListener(new ModuleListener() {
+            @Override
+            public void onModuleUnloaded(ZinciteModule module) {
+                unloaded.add(module);
+            }
+        });
+        moduleManager.loadModules();
+
+        ZinciteModule first = moduleManager.getModule("hot").orElseThrow();
+        assertEquals("v1", first.getDescription());
+        assertNotSame(getClass().getClassLoader(), first.getClass().getClassLoader());
+        BotCommand command = (BotCommand) first.getClass().getClassLoader().loadClass("hot.HotCommand").getDeclaredConstructor().newInstance();
+        commandManager.register(command);
+        assertTrue(commandManager.getCommand("/hot").isPresent());
+
+        moveInto(moduleJar("reload", "v2"), jar);
+        assertTrue(moduleManager.reload("hot"));
+
+        assertEquals("v1", System.getProperty("zincite.test.reload"), "onClose of the old module must be called");
+        assertEquals(List.of(first), unloaded);
+        assertFalse(commandManager.getCommand("/hot").isPresent(), "Commands of the old module must be unregistered");
+        ZinciteModule second = moduleManager.getModule("hot").orElseThrow();
+        assertEquals("v2", second.getDescription());
+        assertNotSame(first.getClass(), second.getClass());
+        assertEquals(1, moduleManager.getModules().size());
+
+        assertTrue(moduleManager.unload("hot"));
+        assertEquals("v2", System.getProperty("zincite.test.reload"));
+        assertTrue(moduleManager.getModules().isEmpty());
+        assertFalse(moduleManager.unload("hot"));
+        assertFalse(moduleManager.reload("hot"));
+    }
+
+    @Test
+    public void testWatcher() throws Exception {
+        Path modules = Files.createDirectories(folder.resolve("watched"));
+        ModuleManager moduleManager = new ModuleManager(modules.toFile(), true, false, true);
+        moduleManager.loadModules();
+        try {
+            Path jar = modules.resolve("hot.jar");
+            moveInto(moduleJar("watch", "v1"), jar);
+            await(() -> moduleManager.getModule("hot").isPresent());
+            assertEquals("v1", moduleManager.getModule("hot").get().getDescription());
+
+            moveInto(moduleJar("watch", "v2"), jar);
+            Files.setLastModifiedTime(jar, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+            await(() -> moduleManager.getModule("hot").map(module -> "v2".equals(module.getDescription())).orElse(false));
+            assertEquals("v1", System.getProperty("zincite.test.watch"));
+
+            Files.delete(jar);
+            await(() -> moduleManager.getModule("hot").isEmpty());
+            assertEquals("v2", System.getProperty("zincite.test.watch"));
+        } finally {
+            moduleManager.stopWatcher();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the module watcher");
+            Thread.sleep(50);
+        }
+    }
+
+    private static void moveInto(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Compilar un módulo "hot" con un comando "/hot", cuyas clases solo existen dentro del jar
+     */
+    private Path moduleJar(String property, String version) throws IOException {
+        Path work = Files.createTempDirectory(folder, "build");
+        Path sources = Files.createDirectories(work.resolve("src/hot"));
+        Files.writeString(sources.resolve("HotModule.java"), String.join("\n",
+                "package hot;",
+                "import com.cadiducho.zincite.api.module.*;",
+                "@ModuleInfo(name = \"hot\", description = \"" + version + "\")",
+                "public class HotModule implements ZinciteModule {",
+                "    @Override public void onClose() { System.setProperty(\"zincite.test." + property + "\", \"" + version + "\"); }",
+                "}"));
+        Files.writeString(sources.resolve("HotCommand.java"), String.join("\n",
+                "package hot;",
+                "import com.cadiducho.zincite.api.command.*;",
+                "import com.cadiducho.telegrambotapi.Chat;",
+                "import com.cadiducho.telegrambotapi.Message;",
+                "import com.cadiducho.telegrambotapi.User;",
+                "@CommandInfo(module = HotModule.class, aliases = \"/hot\")",
+                "public class HotCommand implements BotCommand {",
+                "    @Override public void execute(Chat chat, User from, CommandContext context, Integer messageId, Message replyingTo, java.time.Instant instant) { }",
+                "}"));
+
+        Path classes = Files.createDirectories(work.resolve("classes"));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int result = compiler.run(null, null, null, "-d", classes.toString(), "-cp", System.getProperty("java.class.path"),
+                sources.resolve("HotModule.java").toString(), sources.resolve("HotCommand.java").toString());
+        assertEquals(0, result, "The test module must compile");
+
+        Path jar = work.resolve("hot.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar));
+             Stream<Path> files = Files.walk(classes)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                out.putNextEntry(new JarEntry(classes.relativize(file).toString().replace('\\', '/')));
+                out.write(Files.readAllBytes(file));
+                out.closeEntry();
+            }
+            out.putNextEntry(new JarEntry("META-INF/services/" + ZinciteModule.class.getName()));
+            out.write("hot.HotModule\n".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,145 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.util.MoshiProvider;
+import com.cadiducho.zincite.dispatch.LongPoller;
+import com.cadiducho.zincite.dispatch.OffsetCheckpoint;
+import com.cadiducho.zincite.dispatch.OffsetTracker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffsetTrackingTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void testCommittedOffset() {
+        OffsetTracker offsets = new OffsetTracker();
+        assertNull(offsets.getCommitted());
+
+        offsets.begin(1);
+        offsets.begin(2);
+        offsets.skip(3);
+        offsets.begin(4);
+        assertEquals(0, offsets.getCommitted());
+        assertEquals(4, offsets.getHighest());
+
+        offsets.complete(2);
+        offsets.complete(4);
+        assertEquals(0, offsets.getCommitted(), "Updates finished out of order wait for the oldest one");
+        assertTrue(offsets.isDuplicate(4));
+        assertFalse(offsets.isDuplicate(5));
+
+        offsets.complete(1);
+        assertEquals(4, offsets.getCommitted());
+        assertEquals(0, offsets.getInFlight());
+        assertFalse(offsets.isDuplicate(4));
+
+        OffsetTracker resumed = new OffsetTracker();
+        resumed.restore(100);
+        assertEquals(100, resumed.getCommitted());
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        Path file = folder.resolve("updates.offset");
+        OffsetCheckpoint checkpoint = new OffsetCheckpoint(file.toFile());
+        assertNull(checkpoint.load());
+
+        checkpoint.save(1234);
+        assertEquals(1234, new OffsetCheckpoint(file.toFile()).load());
+
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofDays(7))));
+        assertNull(new OffsetCheckpoint(file.toFile()).load(), "Telegram may have restarted the update ids after a week");
+
+        Files.write(file, "no es un número".getBytes());
+        assertNull(new OffsetCheckpoint(file.toFile()).load());
+    }
+
+    @Test
+    public void testPollerOnlyConfirmsProcessedUpdates() throws Exception {
+        PollingBot bot = new PollingBot();
+        for (int i = 1; i <= 5; i++) {
+            bot.pending.add(update(i));
+        }
+        OffsetTracker offsets = new OffsetTracker();
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+        // las updates pares se quedan procesándose
+        LongPoller poller = new LongPoller(bot, update -> {
+            handled.add(update.getUpdateId());
+            offsets.begin(update.getUpdateId());
+            if (update.getUpdateId() % 2 != 0) {
+                offsets.complete(update.getUpdateId());
+            }
+        }, offsets, null, 0, null);
+        poller.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!bot.offsets.contains(6) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(poller.stop(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(1, 2, 3, 4, 5), handled, "Updates sent again while in flight are not handled twice");
+        assertEquals(2, bot.offsets.get(1), "The offset stays at the oldest update in flight");
+        assertTrue(bot.offsets.contains(6), "When only in flight updates are received, the offset moves past them");
+        assertEquals(1, offsets.getCommitted());
+
+        offsets.complete(2);
+        offsets.complete(4);
+        assertEquals(5, offsets.getCommitted());
+    }
+
+    private static Update update(int updateId) {
+        try {
+            return MoshiProvider.getMoshi().adapter(Update.class).fromJson("{\"update_id\":" + updateId + ",\"message\":{\"message_id\":" + updateId
+                    + ",\"date\":" + Instant.now().getEpochSecond() + ",\"chat\":{\"id\":1,\"type\":\"private\",\"first_name\":\"Test\"},\"text\":\"hola\"}}");
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * TelegramBot que sirve getUpdates desde una lista, confirmando las updates anteriores al offset como hace Telegram
+     */
+    private static class PollingBot extends TelegramBot {
+        private final List<Update> pending = new ArrayList<>();
+        private final List<Integer> offsets = new CopyOnWriteArrayList<>();
+
+        PollingBot() {
+            super("test");
+        }
+
+        @Override
+        public synchronized List<Update> getUpdates(Integer offset, Integer limit, Integer timeout, List<String> allowedUpdates) {
+            offsets.add(offset);
+            if (offset != null) {
+                pending.removeIf(update -> update.getUpdateId() < offset);
+            }
+            if (pending.isEmpty()) {
+                try {
+                    Thread.sleep(10); // la espera del long polling
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return pending.stream().limit(limit).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.zincite.outbound.OutboundScheduler;
+import com.cadiducho.zincite.outbound.Priority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundSchedulerTest {
+
+    private OutboundScheduler scheduler;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        scheduler.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testHigherPriorityGoesFirst() throws Exception {
+        scheduler = new OutboundScheduler(null, 1000, 1000, 60000, 2, 0);
+        List<String> sent = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = scheduler.submit(1L, Priority.NORMAL, bot -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new TelegramException(ex);
+            }
+            sent.add("first");
+            return "first";
+        });
+        CompletableFuture<?> broadcast1 = scheduler.submit(1L, Priority.LOW, bot -> sent.add("broadcast1"));
+        CompletableFuture<?> broadcast2 = scheduler.submit(1, Priority.LOW, bot -> sent.add("broadcast2"));
+        CompletableFuture<?> reply = scheduler.submit(1L, Priority.HIGH, bot -> sent.add("reply"));
+        release.countDown();
+
+        CompletableFuture.allOf(first, broadcast1, broadcast2, reply).get(5, TimeUnit.SECONDS);
+        assertEquals("first", first.get());
+        assertIterableEquals(Arrays.asList("first", "reply", "broadcast1", "broadcast2"), sent);
+    }
+
+    @Test
+    public void testChatRateLimit() throws Exception {
+        scheduler = new OutboundScheduler(null, 1000, 10, 60000, 2, 0);
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[4];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = scheduler.submit(1L, Priority.NORMAL, bot -> System.nanoTime());
+        }
+        // otro chat no espera a que el primero se libere
+        Long otherChat = scheduler.submit(2L, Priority.NORMAL, bot -> System.nanoTime()).get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+
+        assertTrue(otherChat - start < TimeUnit.MILLISECONDS.toNanos(250));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(290));
+        assertEquals(0, scheduler.getPending());
+    }
+
+    @Test
+    public void testRetryAfterIsHonored() throws Exception {
+        scheduler = new OutboundScheduler(null, 1000, 1000, 60000, 2, 1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        String result = scheduler.submit(1L, Priority.HIGH, bot -> {
+            if (attempts.getAndIncrement() == 0) {
+                throw new TelegramException("Too Many Requests: retry after 1");
+            }
+            return "ok";
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals("ok", result);
+        assertEquals(2, attempts.get());
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+
+        CompletableFuture<String> failing = scheduler.submit(1L, Priority.HIGH, bot -> {
+            throw new TelegramException("Bad Request: chat not found");
+        });
+        assertThrows(Exception.class, () -> failing.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testChatRetryAfterOnlyHoldsThatChat() throws Exception {
+        scheduler = new OutboundScheduler(null, 1000, 1000, 60000, 2, 1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        CompletableFuture<String> limited = scheduler.submit(1L, Priority.HIGH, bot -> {
+            if (attempts.getAndIncrement() == 0) {
+                throw new TelegramException("Too Many Requests: retry after 1");
+            }
+            return "ok";
+        });
+        while (attempts.get() == 0) {
+            Thread.sleep(10);
+        }
+        Long otherChat = scheduler.submit(2L, Priority.HIGH, bot -> System.nanoTime()).get(5, TimeUnit.SECONDS);
+
+        assertEquals("ok", limited.get(5, TimeUnit.SECONDS));
+        assertTrue(otherChat - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testRetryAfterWithoutChatHoldsEveryChat() throws Exception {
+        scheduler = new OutboundScheduler(null, 1000, 1000, 60000, 2, 1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        CompletableFuture<String> limited = scheduler.submit(null, Priority.HIGH, bot -> {
+            if (attempts.getAndIncrement() == 0) {
+                throw new TelegramException("Too Many Requests: retry after 1");
+            }
+            return "ok";
+        });
+        while (attempts.get() == 0) {
+            Thread.sleep(10);
+        }
+        Long otherChat = scheduler.submit(2L, Priority.HIGH, bot -> System.nanoTime()).get(5, TimeUnit.SECONDS);
+
+        assertEquals("ok", limited.get(5, TimeUnit.SECONDS));
+        assertTrue(otherChat - start >= TimeUnit.SECONDS.toNanos(1));
+    }
+}
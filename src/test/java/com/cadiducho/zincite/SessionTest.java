@@ -0,0 +1,136 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.zincite.api.session.HeapSessionStorage;
+import com.cadiducho.zincite.api.session.MappedSessionStorage;
+import com.cadiducho.zincite.api.session.Session;
+import com.cadiducho.zincite.api.session.SessionManager;
+import com.cadiducho.zincite.api.session.SessionStorage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void testSessionValues() {
+        SessionManager sessions = new SessionManager(new HeapSessionStorage(10), Duration.ofMinutes(5));
+        Session session = sessions.get(-100123L, 42L);
+        assertTrue(session.isEmpty());
+        assertFalse(session.getState().isPresent());
+
+        session.setState("pedir_fecha");
+        session.set("nombre", "Zincite ñ");
+        session.set("paso", 3);
+        session.set("id", -9_000_000_000L);
+        session.set("confirmado", true);
+        session.set("precio", 20.5);
+        assertThrows(IllegalArgumentException.class, () -> session.set("lista", Arrays.asList(1, 2)));
+        sessions.save(session);
+
+        Session loaded = sessions.get(-100123L, 42L);
+        assertEquals("pedir_fecha", loaded.getState().orElse(null));
+        assertEquals("Zincite ñ", loaded.get("nombre", String.class).orElse(null));
+        assertEquals(3, loaded.get("paso", Integer.class).orElse(null));
+        assertEquals(-9_000_000_000L, loaded.get("id", Long.class).orElse(null));
+        assertEquals(true, loaded.get("confirmado", Boolean.class).orElse(null));
+        assertEquals(20.5, loaded.get("precio", Double.class).orElse(null));
+        assertFalse(loaded.get("paso", String.class).isPresent(), "Values of another type are not returned");
+        assertTrue(sessions.get(-100123L, 43L).isEmpty(), "Every user has their own session");
+
+        loaded.clear();
+        sessions.save(loaded);
+        assertEquals(0, sessions.size(), "Empty sessions are not stored");
+    }
+
+    @Test
+    public void testHeapSessionsExpire() {
+        AtomicLong clock = new AtomicLong(1000);
+        assertExpiry(new HeapSessionStorage(2, clock::get), clock);
+    }
+
+    @Test
+    public void testMappedSessionsExpire() {
+        AtomicLong clock = new AtomicLong(1000);
+        assertExpiry(new MappedSessionStorage(null, 2, 128, clock::get), clock);
+    }
+
+    private static void assertExpiry(SessionStorage storage, AtomicLong clock) {
+        SessionManager sessions = new SessionManager(storage, Duration.ofSeconds(10));
+        for (long user = 1; user <= 3; user++) {
+            Session session = sessions.get(1, user);
+            session.setState("activo");
+            sessions.save(session);
+            clock.addAndGet(1000);
+        }
+        assertEquals(2, storage.size(), "Sessions are bounded");
+        assertTrue(sessions.get(1, 1).isEmpty(), "The least recently used session is dropped");
+        assertFalse(sessions.get(1, 3).isEmpty());
+
+        clock.addAndGet(10_000);
+        assertTrue(sessions.get(1, 3).isEmpty(), "Sessions expire after their ttl");
+    }
+
+    @Test
+    public void testMappedStorageMatchesMap() {
+        MappedSessionStorage storage = new MappedSessionStorage(5000, 64);
+        Map<String, byte[]> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            long chat = random.nextInt(100) - 50;
+            long user = random.nextInt(50);
+            String key = chat + ":" + user;
+            if (random.nextInt(3) == 0) {
+                storage.remove(chat, user);
+                expected.remove(key);
+            } else {
+                byte[] data = new byte[random.nextInt(20)];
+                random.nextBytes(data);
+                storage.put(chat, user, data, 60_000);
+                expected.put(key, data);
+            }
+        }
+        assertEquals(expected.size(), storage.size());
+        for (long chat = -50; chat < 50; chat++) {
+            for (long user = 0; user < 50; user++) {
+                assertArrayEquals(expected.get(chat + ":" + user), storage.get(chat, user));
+            }
+        }
+        assertEquals(0, storage.getEvictions());
+        assertThrows(IllegalArgumentException.class, () -> storage.put(1, 1, new byte[64], 1000));
+    }
+
+    @Test
+    public void testMappedSessionsSurviveRestart() {
+        File file = folder.resolve("sessions.dat").toFile();
+        SessionManager sessions = new SessionManager(new MappedSessionStorage(file, 1000, 256), Duration.ofHours(1));
+        Session session = sessions.get(-1001L, 7L);
+        session.setState("esperando_respuesta");
+        session.set("intentos", 2);
+        sessions.save(session);
+        sessions.close();
+
+        SessionManager reopened = new SessionManager(new MappedSessionStorage(file, 1000, 256), Duration.ofHours(1));
+        assertEquals(1, reopened.size());
+        Session loaded = reopened.get(-1001L, 7L);
+        assertEquals("esperando_respuesta", loaded.getState().orElse(null));
+        assertEquals(2, loaded.get("intentos", Integer.class).orElse(null));
+        reopened.close();
+
+        SessionManager resized = new SessionManager(new MappedSessionStorage(file, 1000, 128), Duration.ofHours(1));
+        assertEquals(0, resized.size(), "A file with another layout is discarded");
+        resized.close();
+    }
+}
@@ -0,0 +1,142 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.zincite.api.storage.KeyValueStore;
+import com.cadiducho.zincite.api.storage.LogStore;
+import com.cadiducho.zincite.api.storage.StorageManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void testPutGetDelete() {
+        LogStore store = new LogStore(folder.toFile());
+        store.putString("nombre", "Zincite");
+        store.put("datos", new byte[]{1, 2, 3});
+        store.putString("nombre", "Zincite 2");
+
+        assertEquals(Optional.of("Zincite 2"), store.getString("nombre"));
+        assertArrayEquals(new byte[]{1, 2, 3}, store.get("datos").orElseThrow());
+        assertEquals(Set.of("nombre", "datos"), store.keys());
+
+        assertTrue(store.delete("datos"));
+        assertFalse(store.delete("datos"));
+        assertFalse(store.contains("datos"));
+        assertEquals(1, store.size());
+        assertThrows(IllegalArgumentException.class, () -> store.putString("", "vacía"));
+        store.close();
+        assertThrows(IllegalStateException.class, () -> store.get("nombre"));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        LogStore store = new LogStore(folder.toFile());
+        for (int i = 0; i < 100; i++) {
+            store.putString("clave" + i, "valor" + i);
+        }
+        store.delete("clave0");
+        store.close();
+        assertTrue(Files.exists(folder.resolve("index.snapshot")));
+
+        LogStore snapshotted = new LogStore(folder.toFile());
+        assertEquals(99, snapshotted.size());
+        assertEquals(Optional.of("valor42"), snapshotted.getString("clave42"));
+        // escrituras posteriores a la instantánea, sin cerrar el almacén
+        snapshotted.putString("clave100", "valor100");
+        snapshotted.delete("clave1");
+        snapshotted.sync();
+
+        LogStore replayed = new LogStore(folder.toFile());
+        assertEquals(99, replayed.size(), "Records after the snapshot are replayed from the log");
+        assertEquals(Optional.of("valor100"), replayed.getString("clave100"));
+        assertFalse(replayed.contains("clave1"));
+        replayed.close();
+
+        Files.delete(folder.resolve("index.snapshot"));
+        LogStore rebuilt = new LogStore(folder.toFile());
+        assertEquals(99, rebuilt.size(), "Without snapshot the index is rebuilt from the whole log");
+        assertEquals(Optional.of("valor99"), rebuilt.getString("clave99"));
+        rebuilt.close();
+    }
+
+    @Test
+    public void testCompaction() {
+        LogStore store = new LogStore(folder.toFile());
+        for (int i = 0; i < 1000; i++) {
+            store.putString("contador", Integer.toString(i));
+            store.putString("temporal" + i, "x");
+            store.delete("temporal" + i);
+        }
+        int before = store.getLogSize();
+        store.compact();
+
+        assertTrue(store.getLogSize() < before / 100, "Compacting keeps only the live records");
+        assertEquals(store.getLiveBytes(), store.getLogSize());
+        assertEquals(Optional.of("999"), store.getString("contador"));
+        store.putString("otra", "clave");
+        store.close();
+
+        File[] logs = folder.toFile().listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length, "The previous log is deleted");
+        LogStore reopened = new LogStore(folder.toFile());
+        assertEquals(Set.of("contador", "otra"), reopened.keys());
+        reopened.close();
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        LogStore store = new LogStore(folder.toFile());
+        store.putString("a", "primero");
+        store.putString("b", "segundo");
+        int torn = store.getLogSize() - 1;
+        store.sync();
+
+        // el último registro quedó a medio escribir: su último byte no coincide con el CRC
+        try (RandomAccessFile file = new RandomAccessFile(folder.resolve("data-0.log").toFile(), "rw")) {
+            file.seek(torn);
+            file.write('X');
+        }
+        LogStore recovered = new LogStore(folder.toFile());
+        assertEquals(Optional.of("primero"), recovered.getString("a"));
+        assertFalse(recovered.contains("b"), "A damaged record is discarded");
+        recovered.putString("c", "tercero");
+        recovered.close();
+
+        LogStore reopened = new LogStore(folder.toFile());
+        assertEquals(Set.of("a", "c"), reopened.keys());
+        reopened.close();
+    }
+
+    @Test
+    public void testStorageManagerNamespaces() {
+        StorageManager manager = new StorageManager(folder.toFile(), 0, 0);
+        KeyValueStore first = manager.open("primer módulo");
+        KeyValueStore second = manager.open("segundo");
+        assertSame(first, manager.open("primer módulo"));
+
+        first.putString("clave", "uno");
+        second.putString("clave", "dos");
+        assertEquals(Optional.of("uno"), first.getString("clave"));
+        assertEquals(Optional.of("dos"), second.getString("clave"));
+
+        manager.close("primer módulo");
+        assertThrows(IllegalStateException.class, () -> first.getString("clave"));
+        KeyValueStore reopened = manager.open("primer módulo");
+        assertEquals(Optional.of("uno"), reopened.getString("clave"));
+
+        manager.close();
+        assertThrows(IllegalStateException.class, () -> second.getString("clave"));
+    }
+}
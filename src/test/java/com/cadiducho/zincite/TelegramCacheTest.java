@@ -0,0 +1,96 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.Chat;
+import com.cadiducho.telegrambotapi.ChatMember;
+import com.cadiducho.telegrambotapi.TelegramBot;
+import com.cadiducho.telegrambotapi.User;
+import com.cadiducho.telegrambotapi.exception.TelegramException;
+import com.cadiducho.zincite.cache.LruCache;
+import com.cadiducho.zincite.cache.TelegramCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TelegramCacheTest {
+
+    @Test
+    public void testEntriesExpire() {
+        AtomicLong now = new AtomicLong();
+        LruCache<String, String> cache = new LruCache<>(10, now::get);
+        cache.put("a", "1", 100);
+
+        now.set(99);
+        assertEquals("1", cache.get("a"));
+        now.set(100);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        LruCache<String, String> cache = new LruCache<>(2);
+        cache.put("a", "1", 1000);
+        cache.put("b", "2", 1000);
+        cache.get("a");
+        cache.put("c", "3", 1000);
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testTelegramCallsAreCached() throws TelegramException {
+        TelegramBot bot = mock(TelegramBot.class);
+        when(bot.getChat(any())).thenReturn(mock(Chat.class));
+        when(bot.getChatMember(any(), any())).thenReturn(mock(ChatMember.class));
+        TelegramCache cache = new TelegramCache(bot, 100, 60, 60);
+
+        cache.getChat(-100L);
+        cache.getChat(-100L);
+        cache.getChatMember(-100L, 5L);
+        cache.getChatMember(-100L, 5L);
+
+        verify(bot, times(1)).getChat(any());
+        verify(bot, times(1)).getChatMember(any(), any());
+    }
+
+    @Test
+    public void testMembersChangeInvalidatesEntries() throws TelegramException {
+        TelegramBot bot = mock(TelegramBot.class);
+        when(bot.getChatMember(any(), any())).thenReturn(mock(ChatMember.class));
+        TelegramCache cache = new TelegramCache(bot, 100, 60, 60);
+        User user = mock(User.class);
+        when(user.getId()).thenReturn(5L);
+
+        cache.getChatMember(-100L, 5L);
+        cache.onMembersChanged(-100L, Collections.singletonList(user));
+        cache.getChatMember(-100L, 5L);
+
+        verify(bot, times(2)).getChatMember(any(), any());
+    }
+
+    @Test
+    public void testBotMembershipChangeInvalidatesChat() throws TelegramException {
+        TelegramBot bot = mock(TelegramBot.class);
+        User me = mock(User.class);
+        when(me.getId()).thenReturn(1L);
+        when(bot.getMe()).thenReturn(me);
+        when(bot.getChat(any())).thenReturn(mock(Chat.class));
+        TelegramCache cache = new TelegramCache(bot, 100, 60, 60);
+
+        cache.getMe();
+        cache.getChat(-100L);
+        cache.onMembersChanged(-100L, Collections.singletonList(me));
+        cache.getChat(-100L);
+
+        verify(bot, times(2)).getChat(any());
+        assertTrue(cache.getStats().startsWith("me 0/1 hits"), "Recognising the bot does not go through the cache");
+    }
+}
@@ -0,0 +1,176 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.CallbackQuery;
+import com.cadiducho.telegrambotapi.Chat;
+import com.cadiducho.telegrambotapi.Message;
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.telegrambotapi.User;
+import com.cadiducho.zincite.dispatch.DispatchMode;
+import com.cadiducho.zincite.dispatch.Lane;
+import com.cadiducho.zincite.dispatch.UpdateDispatcher;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UpdateDispatcherTest {
+
+    private static final int CHATS = 8;
+    private static final int UPDATES_PER_CHAT = 50;
+
+    @Test
+    public void testStripedKeepsChatOrder() throws InterruptedException {
+        assertChatOrder(DispatchMode.STRIPED);
+    }
+
+    @Test
+    public void testVirtualThreadsKeepChatOrder() throws InterruptedException {
+        assertChatOrder(DispatchMode.VIRTUAL_THREADS);
+    }
+
+    @Test
+    public void testInlineRunsInCallerThread() throws InterruptedException {
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<>();
+        UpdateDispatcher dispatcher = new UpdateDispatcher(DispatchMode.INLINE, 4, 10, update -> threads.add(Thread.currentThread()));
+
+        dispatcher.dispatch(newUpdate(1, 1L));
+        assertTrue(dispatcher.shutdown(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(caller), threads);
+    }
+
+    @Test
+    public void testLanesAreDrainedByWeight() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        // las updates a partir de la 100 son callback queries
+        UpdateDispatcher dispatcher = new UpdateDispatcher(DispatchMode.STRIPED, 1, 16,
+                update -> update.getUpdateId() >= 100 ? Lane.INTERACTIVE : Lane.BACKGROUND, Lane.defaultWeights(), null, update -> {
+            if (update.getUpdateId() == 0) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            handled.add(update.getUpdateId());
+        });
+
+        dispatcher.dispatch(newUpdate(0, 1L));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; i++) {
+            dispatcher.dispatch(newUpdate(i, i));
+        }
+        for (int i = 100; i < 110; i++) {
+            dispatcher.dispatch(newUpdate(i, i));
+        }
+        release.countDown();
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+
+        assertEquals(21, handled.size());
+        List<Integer> firstTurns = handled.subList(1, 10);
+        assertEquals(8, firstTurns.stream().filter(id -> id >= 100).count(), "The interactive lane gets 8 turns for every background one");
+        assertTrue(firstTurns.stream().anyMatch(id -> id < 100), "The background lane is not starved");
+        List<Integer> background = new ArrayList<>(handled);
+        background.removeIf(id -> id == 0 || id >= 100);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), background, "Every lane keeps its arrival order");
+    }
+
+    @Test
+    public void testLanesDoNotReorderAChat() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        UpdateDispatcher dispatcher = new UpdateDispatcher(DispatchMode.STRIPED, 1, 16,
+                update -> update.getUpdateId() >= 100 ? Lane.INTERACTIVE : Lane.BACKGROUND, Lane.defaultWeights(), null, update -> {
+            if (update.getUpdateId() == 0) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            handled.add(update.getUpdateId());
+        });
+
+        dispatcher.dispatch(newUpdate(0, 1L));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(newUpdate(1, 5L));
+        dispatcher.dispatch(newUpdate(100, 5L));
+        dispatcher.dispatch(newUpdate(101, 6L));
+        release.countDown();
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(0, 101, 1, 100), handled, "Another chat goes first, but the callback query of a chat waits for its earlier update");
+    }
+
+    @Test
+    public void testLaneOfUpdate() {
+        assertEquals(Lane.INTERACTIVE, Lane.of(callbackUpdate(), 42L));
+        assertEquals(Lane.OWNER, Lane.of(textUpdate("/stats", 42L), 42L));
+        assertEquals(Lane.COMMAND, Lane.of(textUpdate("/stats", 7L), 42L));
+        assertEquals(Lane.COMMAND, Lane.of(textUpdate("/stats", 42L), null));
+        assertEquals(Lane.BACKGROUND, Lane.of(newUpdate(1, 1L), 42L), "Messages without text, such as member changes");
+    }
+
+    private void assertChatOrder(DispatchMode mode) throws InterruptedException {
+        Map<Long, List<Integer>> received = new ConcurrentHashMap<>();
+        UpdateDispatcher dispatcher = new UpdateDispatcher(mode, 4, 16, update -> {
+            long chatId = update.getMessage().getChat().getId();
+            received.computeIfAbsent(chatId, k -> Collections.synchronizedList(new ArrayList<>())).add(update.getUpdateId());
+        });
+
+        List<Update> updates = new ArrayList<>();
+        int updateId = 0;
+        for (int i = 0; i < UPDATES_PER_CHAT; i++) {
+            for (long chat = 0; chat < CHATS; chat++) {
+                updates.add(newUpdate(updateId++, chat));
+            }
+        }
+        updates.forEach(dispatcher::dispatch);
+        assertTrue(dispatcher.shutdown(10, TimeUnit.SECONDS));
+
+        assertEquals(CHATS, received.size());
+        for (List<Integer> chatUpdates : received.values()) {
+            assertEquals(UPDATES_PER_CHAT, chatUpdates.size());
+            List<Integer> sorted = new ArrayList<>(chatUpdates);
+            Collections.sort(sorted);
+            assertEquals(sorted, chatUpdates);
+        }
+    }
+
+    private static Update newUpdate(int updateId, long chatId) {
+        Chat chat = mock(Chat.class);
+        when(chat.getId()).thenReturn(chatId);
+        Message message = mock(Message.class);
+        when(message.getChat()).thenReturn(chat);
+        Update update = mock(Update.class);
+        when(update.getUpdateId()).thenReturn(updateId);
+        when(update.getMessage()).thenReturn(message);
+        return update;
+    }
+
+    private static Update textUpdate(String text, long userId) {
+        Update update = newUpdate(1, 1L);
+        User from = mock(User.class);
+        when(from.getId()).thenReturn(userId);
+        when(update.getMessage().getText()).thenReturn(text);
+        when(update.getMessage().getFrom()).thenReturn(from);
+        return update;
+    }
+
+    private static Update callbackUpdate() {
+        Update update = mock(Update.class);
+        when(update.getCallbackQuery()).thenReturn(mock(CallbackQuery.class));
+        return update;
+    }
+}
@@ -0,0 +1,74 @@
+package com.cadiducho.zincite;
+
+import com.cadiducho.telegrambotapi.Update;
+import com.cadiducho.zincite.webhook.WebhookServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebhookServerTest {
+
+    private static final String SECRET = "s3cr3t";
+    private static final String TEXT_UPDATE = "{\"update_id\":1000,\"message\":{\"message_id\":7,\"date\":1700000000," +
+            "\"chat\":{\"id\":42,\"type\":\"private\",\"first_name\":\"Test\"}," +
+            "\"from\":{\"id\":42,\"is_bot\":false,\"first_name\":\"Test\",\"username\":\"TestUser\"}," +
+            "\"text\":\"/start\"}}";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final BlockingQueue<Update> received = new LinkedBlockingQueue<>();
+    private WebhookServer server;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new WebhookServer(new InetSocketAddress("127.0.0.1", 0), "/webhook", SECRET, 4, received::add);
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testRecordedUpdateIsDecoded() throws Exception {
+        assertEquals(200, post(TEXT_UPDATE, SECRET));
+
+        Update update = received.poll(1, TimeUnit.SECONDS);
+        assertNotNull(update);
+        assertEquals(1000, update.getUpdateId());
+        assertEquals("/start", update.getMessage().getText());
+        assertEquals(42L, update.getMessage().getChat().getId());
+    }
+
+    @Test
+    public void testWrongSecretIsRejected() throws Exception {
+        assertEquals(403, post(TEXT_UPDATE, "other"));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void testMalformedUpdateIsRejected() throws Exception {
+        assertEquals(400, post("{not json", SECRET));
+        assertTrue(received.isEmpty());
+    }
+
+    private int post(String body, String secret) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/webhook"))
+                .header("Content-Type", "application/json")
+                .header(WebhookServer.SECRET_TOKEN_HEADER, secret)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}